@@ -18,6 +18,25 @@ public class ErrorHandler {
     private static final Map<Integer, String> STATUS_MESSAGES = new HashMap<>();
     
     static {
+        // Informational (1xx)
+        STATUS_MESSAGES.put(100, "Continue");
+        STATUS_MESSAGES.put(101, "Switching Protocols");
+        
+        // Success (2xx)
+        STATUS_MESSAGES.put(200, "OK");
+        STATUS_MESSAGES.put(201, "Created");
+        STATUS_MESSAGES.put(202, "Accepted");
+        STATUS_MESSAGES.put(204, "No Content");
+        STATUS_MESSAGES.put(206, "Partial Content");
+        
+        // Redirection (3xx)
+        STATUS_MESSAGES.put(301, "Moved Permanently");
+        STATUS_MESSAGES.put(302, "Found");
+        STATUS_MESSAGES.put(303, "See Other");
+        STATUS_MESSAGES.put(304, "Not Modified");
+        STATUS_MESSAGES.put(307, "Temporary Redirect");
+        STATUS_MESSAGES.put(308, "Permanent Redirect");
+        
         // Client errors (4xx)
         STATUS_MESSAGES.put(400, "Bad Request");
         STATUS_MESSAGES.put(401, "Unauthorized");
@@ -29,7 +48,9 @@ public class ErrorHandler {
         STATUS_MESSAGES.put(409, "Conflict");
         STATUS_MESSAGES.put(413, "Payload Too Large");
         STATUS_MESSAGES.put(415, "Unsupported Media Type");
+        STATUS_MESSAGES.put(416, "Range Not Satisfiable");
         STATUS_MESSAGES.put(429, "Too Many Requests");
+        STATUS_MESSAGES.put(431, "Request Header Fields Too Large");
         
         // Server errors (5xx)
         STATUS_MESSAGES.put(500, "Internal Server Error");
@@ -135,6 +156,19 @@ public class ErrorHandler {
         return createErrorResponse(413, message);
     }
     
+    /**
+     * Creates a 503 Service Unavailable response for work shed under overload.
+     * 
+     * @param retryAfterSeconds how long the client should wait before retrying
+     * @return HttpResponse with 503 error and a Retry-After header
+     */
+    public static HttpResponse createServiceUnavailableResponse(int retryAfterSeconds) {
+        String message = "The server is at capacity. Please retry in " + retryAfterSeconds + " second(s).";
+        HttpResponse response = createErrorResponse(503, message);
+        response.getResponseHeaders().put("Retry-After", java.util.List.of(String.valueOf(retryAfterSeconds)));
+        return response;
+    }
+    
     /**
      * Creates an HTML error page.
      * 
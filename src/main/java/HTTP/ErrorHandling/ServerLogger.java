@@ -25,6 +25,7 @@ public class ServerLogger {
     private final AtomicLong successfulRequests = new AtomicLong(0);
     private final AtomicLong failedRequests = new AtomicLong(0);
     private final AtomicLong totalResponseTime = new AtomicLong(0);
+    private final AtomicLong shedCount = new AtomicLong(0);
     private final ConcurrentHashMap<String, AtomicLong> endpointRequests = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Integer, AtomicLong> statusCodeCounts = new ConcurrentHashMap<>();
     
@@ -67,6 +68,21 @@ public class ServerLogger {
         }
     }
     
+    /**
+     * Logs the outcome of a graceful shutdown.
+     * 
+     * @param drained the requests that finished while the server was draining
+     * @param cutOff the requests still in flight when the shutdown deadline passed
+     */
+    public void logShutdown(long drained, int cutOff) {
+        if (enableLogging) {
+            String message = String.format("🛑 Drained %d request(s), cut off %d at %s",
+                drained, cutOff, getCurrentTimestamp());
+            System.out.println(message);
+            logger.info(message);
+        }
+    }
+    
     /**
      * Logs a new connection.
      * 
@@ -118,6 +134,15 @@ public class ServerLogger {
         }
     }
     
+    /**
+     * Records a connection or request turned away with 503 because the server
+     * is at capacity. Only counted, since logging every shed would add load
+     * exactly when the server is overloaded.
+     */
+    public void logShed() {
+        shedCount.incrementAndGet();
+    }
+    
     /**
      * Logs a warning.
      * 
@@ -193,6 +218,7 @@ public class ServerLogger {
         metrics.append(String.format("Failed: %d\n", failed));
         metrics.append(String.format("Success Rate: %.2f%%\n", total > 0 ? (successful * 100.0 / total) : 0));
         metrics.append(String.format("Average Response Time: %dms\n", avgResponseTime));
+        metrics.append(String.format("Shed (503): %d\n", shedCount.get()));
         metrics.append(String.format("Timestamp: %s\n", getCurrentTimestamp()));
         
         return metrics.toString();
@@ -215,6 +241,7 @@ public class ServerLogger {
         successfulRequests.set(0);
         failedRequests.set(0);
         totalResponseTime.set(0);
+        shedCount.set(0);
         endpointRequests.clear();
         statusCodeCounts.clear();
         logInfo("Metrics reset");
@@ -1,14 +1,13 @@
 package HTTP.Handler;
 
 import HTTP.Request.RequestRunner;
-
-import java.util.Map;
+import HTTP.Request.Router;
 
 public class HttpHandler {
 
-        private final Map<String, RequestRunner> routes;
+        private final Router<RequestRunner> routes;
 
-        public HttpHandler(final Map<String, RequestRunner> routes) {
+        public HttpHandler(final Router<RequestRunner> routes) {
             this.routes = routes;
         }
 
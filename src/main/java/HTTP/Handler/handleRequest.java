@@ -2,27 +2,33 @@ package HTTP.Handler;
 
 import HTTP.Protocol.HttpRequest;
 import HTTP.Request.RequestRunner;
+import HTTP.Request.Router;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.Map;
 
 public class handleRequest {
-    private final Map<String, RequestRunner> routes;
+    private final Router<RequestRunner> routes;
     
-    public handleRequest(Map<String, RequestRunner> routes) {
+    public handleRequest(Router<RequestRunner> routes) {
         this.routes = routes;
     }
     
     public void handleRequest(final HttpRequest request, final BufferedWriter bufferedWriter) throws IOException {
-        final String routeKey = request.getHttpMethod().name().concat(request.getUri().getRawPath());
+        final String path = request.getUri().getRawPath();
+        final Router.Match match = new Router.Match();
+        final RequestRunner runner = routes.lookup(request.getHttpMethod(), path, match);
 
-        if (routes.containsKey(routeKey)) {
+        if (runner != null) {
             // We'll implement this in the next step
-            System.out.println("Handling request for route: " + routeKey);
+            System.out.println("Handling request for route: " + request.getHttpMethod() + " " + path);
+        } else if (match.isMethodNotAllowed()) {
+            // 405 with an Allow header - we'll implement proper response in the next step
+            System.out.println("Method not allowed for route: " + path + ", allowed: "
+                    + String.join(", ", match.getAllowedMethods()));
         } else {
             // Not found - we'll implement proper response in the next step
-            System.out.println("Route not found: " + routeKey);
+            System.out.println("Route not found: " + request.getHttpMethod() + " " + path);
         }
     }
 }
@@ -1,19 +1,35 @@
 package HTTP;
 
 import HTTP.Server.Server;
+import HTTP.Server.ServerConfig;
 
 import java.io.IOException;
 
 public class Main {
     public static void main(String[] args) throws IOException {
         System.out.println("Starting HTTP Server...");
-        
-        // Default port 8080 if no port specified
-        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
-        
-        Server server = new Server(port);
+
+        // Default port 8080 if no port specified, optional --config=<file>
+        int port = 8080;
+        String configFile = null;
+        for (String arg : args) {
+            if (arg.startsWith("--config=")) {
+                configFile = arg.substring("--config=".length());
+            } else {
+                port = Integer.parseInt(arg);
+            }
+        }
+
+        ServerConfig config = new ServerConfig(port);
+        if (configFile != null) {
+            config.loadFromFile(configFile);
+        }
+
+        Server server = new Server(config);
+        // Drain in-flight requests on SIGTERM or Ctrl+C
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "http-shutdown"));
         server.start();
-        
+
         System.out.println("HTTP Server started on port " + port);
         System.out.println("Server is running on http://localhost:8080");
         System.out.println("Press Ctrl+C to stop the server");
@@ -0,0 +1,120 @@
+package HTTP.Protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Response entity held in a {@link ByteBuffer}, typically a read-only slice
+ * of memory outside the Java heap that is shared by every response sending
+ * the same bytes. Each use works on its own view of the buffer, so one body
+ * can be sent on many connections at once.
+ *
+ * <p>The body may carry the HTTP/1.1 head of its response already encoded:
+ * the status line and the response's headers, {@code Content-Length}
+ * included, but not the {@code Date} and {@code Connection} headers or the
+ * blank line, which the transport adds. A transport that uses the head
+ * ignores the response's header map, so the two must describe the same
+ * headers. HTTP/2 always encodes the header map.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+public final class BufferBody {
+
+    private final ByteBuffer content;
+    private final ByteBuffer head;
+
+    /**
+     * Creates a body without an encoded head.
+     *
+     * @param content the bytes from its position to its limit, which must not change afterwards
+     */
+    public BufferBody(ByteBuffer content) {
+        this(content, null);
+    }
+
+    /**
+     * Creates a body with the encoded head of its response.
+     *
+     * @param content the bytes from its position to its limit, which must not change afterwards
+     * @param head the encoded status line and headers, ending with the {@code Content-Length} line, or null
+     */
+    public BufferBody(ByteBuffer content, ByteBuffer head) {
+        this.content = content.slice();
+        this.head = head != null ? head.slice() : null;
+    }
+
+    /**
+     * Gets a view of the body, positioned at its first byte.
+     *
+     * @return a buffer the caller may consume
+     */
+    public ByteBuffer getContent() {
+        return content.duplicate();
+    }
+
+    /**
+     * Gets a view of the encoded head of the response.
+     *
+     * @return a buffer the caller may consume, or null if the head is encoded from the headers
+     */
+    public ByteBuffer getHead() {
+        return head != null ? head.duplicate() : null;
+    }
+
+    /**
+     * Gets the length of the body.
+     *
+     * @return the length in bytes
+     */
+    public int getLength() {
+        return content.remaining();
+    }
+
+    /**
+     * Gets a part of the body, without the encoded head, sharing its memory.
+     *
+     * @param position the offset of the first byte of the part
+     * @param length the number of bytes in the part
+     * @return the part
+     */
+    public BufferBody slice(int position, int length) {
+        return new BufferBody(content.slice(position, length));
+    }
+
+    /**
+     * Writes the body to a stream, copying memory outside the heap through a pooled buffer.
+     *
+     * @param output the stream to write to
+     * @throws IOException if writing fails
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        ByteBuffer data = getContent();
+        if (data.hasArray()) {
+            output.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            return;
+        }
+        byte[] buffer = FileRegion.takeCopyBuffer();
+        try {
+            while (data.hasRemaining()) {
+                int length = Math.min(buffer.length, data.remaining());
+                data.get(buffer, 0, length);
+                output.write(buffer, 0, length);
+            }
+        } finally {
+            FileRegion.releaseCopyBuffer(buffer);
+        }
+    }
+
+    /**
+     * Copies the body onto the heap, for the rare paths that need it as an array.
+     *
+     * @return the bytes of the body
+     */
+    public byte[] readAllBytes() {
+        byte[] bytes = new byte[content.remaining()];
+        getContent().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,92 @@
+package HTTP.Protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Response entity made of byte arrays and {@link FileRegion}s sent one after
+ * another, such as the parts of a {@code multipart/byteranges} response. Its
+ * length is known up front, so it is sent with a {@code Content-Length}, and
+ * each region is sent the way a {@code FileRegion} entity would be, straight
+ * from the file where the transport allows it.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+public final class CompositeBody {
+
+    private final List<Object> parts;
+    private final long length;
+
+    /**
+     * Creates a body from its parts.
+     *
+     * @param parts the parts in order, each a {@code byte[]} or a {@link FileRegion}
+     * @throws IllegalArgumentException if a part is of another type
+     */
+    public CompositeBody(List<Object> parts) {
+        long total = 0;
+        for (Object part : parts) {
+            if (part instanceof byte[] bytes) {
+                total += bytes.length;
+            } else if (part instanceof FileRegion region) {
+                total += region.getLength();
+            } else {
+                throw new IllegalArgumentException("Unsupported body part: " + part);
+            }
+        }
+        this.parts = List.copyOf(parts);
+        this.length = total;
+    }
+
+    /**
+     * Gets the parts of the body.
+     *
+     * @return the parts in order, each a {@code byte[]} or a {@link FileRegion}
+     */
+    public List<Object> getParts() {
+        return parts;
+    }
+
+    /**
+     * Gets the total length of the body.
+     *
+     * @return the length in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Writes the body to a stream, copying file regions through a pooled buffer.
+     *
+     * @param output the stream to write to
+     * @throws IOException if reading a file or writing fails
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        for (Object part : parts) {
+            if (part instanceof byte[] bytes) {
+                output.write(bytes);
+            } else {
+                ((FileRegion) part).writeTo(output);
+            }
+        }
+    }
+
+    /**
+     * Reads the whole body into memory, for the rare paths that need it as bytes.
+     *
+     * @return the bytes of the body
+     * @throws IOException if a file cannot be read or the body is too large to buffer
+     */
+    public byte[] readAllBytes() throws IOException {
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Body too large to buffer: " + length + " bytes");
+        }
+        ByteArrayOutputStream collected = new ByteArrayOutputStream((int) length);
+        writeTo(collected);
+        return collected.toByteArray();
+    }
+}
@@ -0,0 +1,229 @@
+package HTTP.Protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Response entity that is a range of bytes of a file. The file is not read
+ * when the response is built; the transport opens it when the body is sent.
+ * On a plain NIO connection the bytes go from the file to the socket with
+ * {@link FileChannel#transferTo}, which lets the kernel copy them
+ * ({@code sendfile} on Linux) without passing them through the Java heap.
+ * Where that is not possible, as with TLS, HTTP/2 framing or a blocking
+ * socket stream, {@link #writeTo(OutputStream)} copies them through a
+ * pooled buffer instead.
+ *
+ * <p>The response is sent with a {@code Content-Length} equal to the region's
+ * length. If the file shrinks before the region has been sent, sending fails
+ * and the connection is closed, since the response can no longer be completed.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+public final class FileRegion {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final ArrayBlockingQueue<byte[]> COPY_BUFFERS = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    private final Path path;
+    private final long position;
+    private final long length;
+
+    /**
+     * Creates a region of a file.
+     *
+     * @param path the file
+     * @param position the offset of the first byte to send
+     * @param length the number of bytes to send
+     */
+    public FileRegion(Path path, long position, long length) {
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid file region " + position + "+" + length);
+        }
+        this.path = path;
+        this.position = position;
+        this.length = length;
+    }
+
+    /**
+     * Gets the file the region belongs to.
+     *
+     * @return the file path
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the offset of the region in the file.
+     *
+     * @return the offset of the first byte
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Gets the length of the region.
+     *
+     * @return the number of bytes to send
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Opens the file for a transfer of the region.
+     *
+     * @return a transfer positioned at the start of the region, which the caller must close
+     * @throws IOException if the file cannot be opened
+     */
+    public Transfer open() throws IOException {
+        return new Transfer(FileChannel.open(path, StandardOpenOption.READ), position, length);
+    }
+
+    /**
+     * Copies the region to a stream through a pooled buffer.
+     *
+     * @param output the stream to write to
+     * @throws IOException if reading the file or writing fails, or the file is shorter than the region
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        try (Transfer transfer = open()) {
+            transfer.writeTo(output);
+        }
+    }
+
+    /**
+     * Reads the whole region into memory, for the rare paths that need the body as bytes.
+     *
+     * @return the bytes of the region
+     * @throws IOException if the file cannot be read or is shorter than the region
+     */
+    public byte[] readAllBytes() throws IOException {
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("File region too large to buffer: " + length + " bytes");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) length);
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (bytes.hasRemaining()) {
+                if (file.read(bytes, position + bytes.position()) < 0) {
+                    throw new EOFException("File " + path + " shrank while it was being sent");
+                }
+            }
+        }
+        return bytes.array();
+    }
+
+    /**
+     * Takes a buffer from the pool shared by every body that is copied to a
+     * stream, or a new one if the pool is empty.
+     *
+     * @return a buffer to copy through
+     */
+    static byte[] takeCopyBuffer() {
+        byte[] buffer = COPY_BUFFERS.poll();
+        return buffer != null ? buffer : new byte[COPY_BUFFER_SIZE];
+    }
+
+    /**
+     * Returns a buffer to the pool, dropping it if the pool is full.
+     *
+     * @param buffer a buffer from {@link #takeCopyBuffer()}
+     */
+    static void releaseCopyBuffer(byte[] buffer) {
+        COPY_BUFFERS.offer(buffer);
+    }
+
+    /**
+     * An open file and the part of the region still to be sent. A transfer
+     * is used by one thread at a time.
+     */
+    public static final class Transfer implements AutoCloseable {
+
+        private final FileChannel file;
+        private long position;
+        private long remaining;
+
+        private Transfer(FileChannel file, long position, long remaining) {
+            this.file = file;
+            this.position = position;
+            this.remaining = remaining;
+        }
+
+        /**
+         * Transfers as much of the rest of the region as the target accepts.
+         * A non-blocking target may accept nothing when its buffer is full.
+         *
+         * @param target the channel to write to
+         * @return the number of bytes transferred
+         * @throws IOException if the transfer fails or the file is shorter than the region
+         */
+        public long transferTo(WritableByteChannel target) throws IOException {
+            if (remaining == 0) {
+                return 0;
+            }
+            long written = file.transferTo(position, remaining, target);
+            if (written == 0 && position >= file.size()) {
+                throw new EOFException("File shrank while it was being sent");
+            }
+            position += written;
+            remaining -= written;
+            return written;
+        }
+
+        /**
+         * Copies the rest of the region to a stream through a pooled buffer.
+         *
+         * @param output the stream to write to
+         * @throws IOException if reading the file or writing fails, or the file is shorter than the region
+         */
+        public void writeTo(OutputStream output) throws IOException {
+            byte[] buffer = takeCopyBuffer();
+            try {
+                ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                while (remaining > 0) {
+                    wrapped.clear().limit((int) Math.min(buffer.length, remaining));
+                    int read = file.read(wrapped, position);
+                    if (read < 0) {
+                        throw new EOFException("File shrank while it was being sent");
+                    }
+                    output.write(buffer, 0, read);
+                    position += read;
+                    remaining -= read;
+                }
+            } finally {
+                releaseCopyBuffer(buffer);
+            }
+        }
+
+        /**
+         * Tells whether the whole region has been transferred.
+         *
+         * @return true once nothing remains
+         */
+        public boolean isDone() {
+            return remaining == 0;
+        }
+
+        /**
+         * Closes the file.
+         */
+        @Override
+        public void close() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Nothing was written through it
+            }
+        }
+    }
+}
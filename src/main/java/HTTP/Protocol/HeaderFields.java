@@ -0,0 +1,119 @@
+package HTTP.Protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The header fields of a request as they arrived on the connection: a copy
+ * of the request head and the offsets of each field's name and value in it.
+ * Decoding a request therefore builds no String per field. A name or value
+ * is only decoded when it is looked up, and lookups compare the raw bytes.
+ *
+ * <p>Instances are immutable.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+public final class HeaderFields {
+
+    private final byte[] head;
+    // nameStart, nameEnd, valueStart, valueEnd for each field
+    private final int[] offsets;
+    private final int count;
+
+    /**
+     * Creates the fields of a request head.
+     *
+     * @param head the bytes of the head, which must not be modified afterwards
+     * @param offsets the start and end of the name and of the value of each field, four per field
+     * @param count the number of fields
+     */
+    public HeaderFields(byte[] head, int[] offsets, int count) {
+        this.head = head;
+        this.offsets = offsets;
+        this.count = count;
+    }
+
+    /**
+     * Gets the number of fields, counting repeated names once per field.
+     *
+     * @return the field count
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Gets the value of the first field with a name, matching it case-insensitively.
+     *
+     * @param name the field name
+     * @return the value without surrounding whitespace, or null if there is no such field
+     */
+    public String get(String name) {
+        for (int i = 0; i < count; i++) {
+            if (nameEquals(i, name)) {
+                return value(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the values of every field with a name, matching it case-insensitively.
+     *
+     * @param name the field name
+     * @return the values in the order received, empty if there is no such field
+     */
+    public List<String> getAll(String name) {
+        List<String> values = new ArrayList<>(1);
+        for (int i = 0; i < count; i++) {
+            if (nameEquals(i, name)) {
+                values.add(value(i));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Builds a map of the fields, keyed by the names as received.
+     *
+     * @return header names mapped to their values, in the order received
+     */
+    public Map<String, List<String>> toMap() {
+        Map<String, List<String>> headers = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            headers.computeIfAbsent(string(offsets[i * 4], offsets[i * 4 + 1]), k -> new ArrayList<>(1))
+                    .add(value(i));
+        }
+        return headers;
+    }
+
+    private String value(int index) {
+        return string(offsets[index * 4 + 2], offsets[index * 4 + 3]);
+    }
+
+    /**
+     * Compares the name of a field with an ASCII name, ignoring case.
+     */
+    private boolean nameEquals(int index, String name) {
+        int from = offsets[index * 4];
+        if (offsets[index * 4 + 1] - from != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            int b = head[from + i] & 0xff;
+            int c = name.charAt(i);
+            if (b != c && !((c | 0x20) >= 'a' && (c | 0x20) <= 'z' && (b | 0x20) == (c | 0x20))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String string(int from, int to) {
+        return new String(head, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,131 @@
+package HTTP.Protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Decodes HPACK header blocks (RFC 7541) received from a client.
+ * Every block on a connection must be decoded in the order it arrived, even
+ * for streams that are refused, because each one may change the dynamic
+ * table the following blocks refer to. Strings are decoded as ISO-8859-1,
+ * as {@code HttpRequestParser} does for HTTP/1.1 heads.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+final class HpackDecoder {
+
+    private final HpackTable table;
+    private final int maxTableSize;
+    private int position;
+    private int limit;
+
+    /**
+     * Creates a decoder.
+     *
+     * @param maxTableSize the dynamic table size announced to the client in
+     *        {@code SETTINGS_HEADER_TABLE_SIZE}
+     */
+    HpackDecoder(int maxTableSize) {
+        this.table = new HpackTable(maxTableSize);
+        this.maxTableSize = maxTableSize;
+    }
+
+    /**
+     * Decodes a complete header block.
+     *
+     * @param block the buffer holding the block
+     * @param offset where the block starts
+     * @param length the block length
+     * @param fields receives each decoded field as a name followed by its value
+     * @throws Http2Exception if the block is malformed, which is a compression error
+     */
+    void decode(byte[] block, int offset, int length, List<String> fields) throws Http2Exception {
+        position = offset;
+        limit = offset + length;
+        boolean sizeUpdateAllowed = true;
+        while (position < limit) {
+            int first = block[position] & 0xff;
+            if ((first & 0x80) != 0) {
+                // Indexed field
+                int index = readInteger(block, 7);
+                if (index == 0) {
+                    throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Header table index 0");
+                }
+                fields.add(table.getName(index));
+                fields.add(table.getValue(index));
+            } else if ((first & 0x40) != 0) {
+                // Literal with incremental indexing
+                String name = readName(block, 6);
+                String value = readString(block);
+                table.add(name, value);
+                fields.add(name);
+                fields.add(value);
+            } else if ((first & 0x20) != 0) {
+                // Dynamic table size update, only allowed before the first field
+                int size = readInteger(block, 5);
+                if (!sizeUpdateAllowed || size > maxTableSize) {
+                    throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Invalid dynamic table size update");
+                }
+                table.setMaxSize(size);
+                continue;
+            } else {
+                // Literal without indexing or never indexed
+                String name = readName(block, 4);
+                fields.add(name);
+                fields.add(readString(block));
+            }
+            sizeUpdateAllowed = false;
+        }
+    }
+
+    private String readName(byte[] block, int prefixBits) throws Http2Exception {
+        int index = readInteger(block, prefixBits);
+        return index == 0 ? readString(block) : table.getName(index);
+    }
+
+    private String readString(byte[] block) throws Http2Exception {
+        if (position >= limit) {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Truncated header block");
+        }
+        boolean huffman = (block[position] & 0x80) != 0;
+        int length = readInteger(block, 7);
+        if (length > limit - position) {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Truncated header block");
+        }
+        String value;
+        if (huffman) {
+            value = new String(Huffman.decode(block, position, length), StandardCharsets.ISO_8859_1);
+        } else {
+            value = new String(block, position, length, StandardCharsets.ISO_8859_1);
+        }
+        position += length;
+        return value;
+    }
+
+    /**
+     * Reads an integer with an N-bit prefix (RFC 7541, section 5.1), starting
+     * at the byte holding the prefix.
+     */
+    private int readInteger(byte[] block, int prefixBits) throws Http2Exception {
+        int mask = (1 << prefixBits) - 1;
+        int value = block[position++] & mask;
+        if (value < mask) {
+            return value;
+        }
+        long total = value;
+        for (int shift = 0; ; shift += 7) {
+            if (position >= limit) {
+                throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Truncated header block");
+            }
+            int b = block[position++] & 0xff;
+            total += (long) (b & 0x7f) << shift;
+            if (total > Integer.MAX_VALUE || shift > 28) {
+                throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Integer overflow in header block");
+            }
+            if ((b & 0x80) == 0) {
+                return (int) total;
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package HTTP.Protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes response header blocks with HPACK (RFC 7541).
+ * Fields found in the header table are sent as a single index; others are
+ * sent literally and added to the dynamic table, so a header repeated on
+ * later responses of the connection, such as {@code content-type} or
+ * {@code server}, shrinks to one or two bytes. Strings are Huffman-coded
+ * whenever that makes them shorter.
+ *
+ * <p>Values that are large or sensitive are not indexed: a large value would
+ * evict many useful entries, and {@code set-cookie} and the authentication
+ * headers are sent as never-indexed literals so intermediaries do not
+ * compress them either. The encoder is not thread-safe; blocks must be
+ * encoded in the order they are sent.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+final class HpackEncoder {
+
+    private static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private final HpackTable table;
+    private byte[] buffer;
+    private int count;
+    private int pendingTableSize;
+
+    /**
+     * Creates an encoder using the default dynamic table size of 4096 octets.
+     */
+    HpackEncoder() {
+        this.table = new HpackTable(DEFAULT_TABLE_SIZE);
+        this.buffer = new byte[256];
+        this.pendingTableSize = -1;
+    }
+
+    /**
+     * Applies the client's {@code SETTINGS_HEADER_TABLE_SIZE}. The encoder
+     * never uses more than the default size, and announces any change at the
+     * start of the next block.
+     *
+     * @param size the largest dynamic table the client's decoder accepts
+     */
+    void setMaxTableSize(int size) {
+        int newSize = Math.min(size, DEFAULT_TABLE_SIZE);
+        if (newSize != table.getMaxSize()) {
+            // A reduction must be announced even if the size is raised again before the next block
+            pendingTableSize = pendingTableSize == -1 ? newSize : Math.min(pendingTableSize, newSize);
+            table.setMaxSize(newSize);
+        }
+    }
+
+    /**
+     * Starts a header block, discarding the previous one.
+     */
+    void begin() {
+        count = 0;
+        if (pendingTableSize != -1) {
+            if (pendingTableSize != table.getMaxSize()) {
+                writeInteger(0x20, 5, pendingTableSize);
+            }
+            writeInteger(0x20, 5, table.getMaxSize());
+            pendingTableSize = -1;
+        }
+    }
+
+    /**
+     * Appends a field to the current block.
+     *
+     * @param name the lowercase field name
+     * @param value the field value, encoded as ISO-8859-1 text
+     */
+    void addField(String name, String value) {
+        int index = table.indexOf(name, value);
+        if (index != 0) {
+            writeInteger(0x80, 7, index);
+            return;
+        }
+        int nameIndex = table.indexOfName(name);
+        if (isSensitive(name)) {
+            writeInteger(0x10, 4, nameIndex);
+        } else if (name.length() + value.length() + HpackTable.ENTRY_OVERHEAD > table.getMaxSize() / 2) {
+            writeInteger(0x00, 4, nameIndex);
+        } else {
+            writeInteger(0x40, 6, nameIndex);
+            table.add(name, value);
+        }
+        if (nameIndex == 0) {
+            writeString(name);
+        }
+        writeString(value);
+    }
+
+    /**
+     * Gets the buffer holding the current block, valid until the next call to {@link #begin()}.
+     *
+     * @return the encoder's buffer
+     */
+    byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * Gets the length of the current block.
+     *
+     * @return the number of bytes at the start of {@link #buffer()}
+     */
+    int length() {
+        return count;
+    }
+
+    private static boolean isSensitive(String name) {
+        return name.equals("set-cookie") || name.equals("authorization") || name.equals("proxy-authorization")
+                || name.equals("www-authenticate") || name.equals("proxy-authenticate");
+    }
+
+    private void writeString(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        int huffmanLength = Huffman.encodedLength(bytes);
+        if (huffmanLength < bytes.length) {
+            writeInteger(0x80, 7, huffmanLength);
+            ensureCapacity(huffmanLength);
+            count = Huffman.encode(bytes, buffer, count);
+        } else {
+            writeInteger(0x00, 7, bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, count, bytes.length);
+            count += bytes.length;
+        }
+    }
+
+    /**
+     * Writes an integer with an N-bit prefix (RFC 7541, section 5.1).
+     */
+    private void writeInteger(int pattern, int prefixBits, int value) {
+        ensureCapacity(6);
+        int mask = (1 << prefixBits) - 1;
+        if (value < mask) {
+            buffer[count++] = (byte) (pattern | value);
+            return;
+        }
+        buffer[count++] = (byte) (pattern | mask);
+        value -= mask;
+        while (value >= 0x80) {
+            buffer[count++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[count++] = (byte) value;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + extra));
+        }
+    }
+}
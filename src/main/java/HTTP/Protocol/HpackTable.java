@@ -0,0 +1,259 @@
+package HTTP.Protocol;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Header table of HPACK (RFC 7541, section 2.3): the static table followed
+ * by a dynamic table of recently sent fields. Index 1 is the first static
+ * entry and index 62 the newest dynamic entry. The dynamic table is a ring
+ * buffer evicting its oldest entries once their total size, counted as
+ * name and value octets plus 32 per entry, would exceed the maximum.
+ *
+ * <p>Names and values are kept as ISO-8859-1 strings, so a string's length
+ * is its length in octets. Each side of a connection has its own table; a
+ * table is not thread-safe.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+final class HpackTable {
+
+    static final int STATIC_LENGTH = 61;
+    static final int ENTRY_OVERHEAD = 32;
+
+    private static final String[][] STATIC = {
+        {":authority", ""},
+        {":method", "GET"},
+        {":method", "POST"},
+        {":path", "/"},
+        {":path", "/index.html"},
+        {":scheme", "http"},
+        {":scheme", "https"},
+        {":status", "200"},
+        {":status", "204"},
+        {":status", "206"},
+        {":status", "304"},
+        {":status", "400"},
+        {":status", "404"},
+        {":status", "500"},
+        {"accept-charset", ""},
+        {"accept-encoding", "gzip, deflate"},
+        {"accept-language", ""},
+        {"accept-ranges", ""},
+        {"accept", ""},
+        {"access-control-allow-origin", ""},
+        {"age", ""},
+        {"allow", ""},
+        {"authorization", ""},
+        {"cache-control", ""},
+        {"content-disposition", ""},
+        {"content-encoding", ""},
+        {"content-language", ""},
+        {"content-length", ""},
+        {"content-location", ""},
+        {"content-range", ""},
+        {"content-type", ""},
+        {"cookie", ""},
+        {"date", ""},
+        {"etag", ""},
+        {"expect", ""},
+        {"expires", ""},
+        {"from", ""},
+        {"host", ""},
+        {"if-match", ""},
+        {"if-modified-since", ""},
+        {"if-none-match", ""},
+        {"if-range", ""},
+        {"if-unmodified-since", ""},
+        {"last-modified", ""},
+        {"link", ""},
+        {"location", ""},
+        {"max-forwards", ""},
+        {"proxy-authenticate", ""},
+        {"proxy-authorization", ""},
+        {"range", ""},
+        {"referer", ""},
+        {"refresh", ""},
+        {"retry-after", ""},
+        {"server", ""},
+        {"set-cookie", ""},
+        {"strict-transport-security", ""},
+        {"transfer-encoding", ""},
+        {"user-agent", ""},
+        {"via", ""},
+        {"www-authenticate", ""},
+    };
+
+    // Lowest static index of each name, and of each name and value pair with a value
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+
+    static {
+        for (int i = STATIC.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC[i][0], i + 1);
+            if (!STATIC[i][1].isEmpty()) {
+                STATIC_FIELDS.put(STATIC[i][0] + '\n' + STATIC[i][1], i + 1);
+            }
+        }
+    }
+
+    private String[] names;
+    private String[] values;
+    // Position of the newest entry; older entries follow it
+    private int head;
+    private int length;
+    private int size;
+    private int maxSize;
+
+    /**
+     * Creates a table with an empty dynamic part.
+     *
+     * @param maxSize the maximum size of the dynamic part in octets
+     */
+    HpackTable(int maxSize) {
+        this.maxSize = maxSize;
+        this.names = new String[16];
+        this.values = new String[16];
+    }
+
+    /**
+     * Gets the name of an entry.
+     *
+     * @param index the index, starting at 1
+     * @return the name
+     * @throws Http2Exception if no entry has that index, which is a compression error
+     */
+    String getName(int index) throws Http2Exception {
+        if (index >= 1 && index <= STATIC_LENGTH) {
+            return STATIC[index - 1][0];
+        }
+        return names[dynamicSlot(index)];
+    }
+
+    /**
+     * Gets the value of an entry.
+     *
+     * @param index the index, starting at 1
+     * @return the value
+     * @throws Http2Exception if no entry has that index, which is a compression error
+     */
+    String getValue(int index) throws Http2Exception {
+        if (index >= 1 && index <= STATIC_LENGTH) {
+            return STATIC[index - 1][1];
+        }
+        return values[dynamicSlot(index)];
+    }
+
+    /**
+     * Finds an entry matching both name and value.
+     *
+     * @param name the name
+     * @param value the value
+     * @return the index, or 0 if there is none
+     */
+    int indexOf(String name, String value) {
+        Integer index = STATIC_FIELDS.get(name + '\n' + value);
+        if (index != null) {
+            return index;
+        }
+        for (int i = 0; i < length; i++) {
+            int slot = (head + i) & (names.length - 1);
+            if (names[slot].equals(name) && values[slot].equals(value)) {
+                return STATIC_LENGTH + 1 + i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Finds an entry with a name.
+     *
+     * @param name the name
+     * @return the index, or 0 if there is none
+     */
+    int indexOfName(String name) {
+        Integer index = STATIC_NAMES.get(name);
+        if (index != null) {
+            return index;
+        }
+        for (int i = 0; i < length; i++) {
+            if (names[(head + i) & (names.length - 1)].equals(name)) {
+                return STATIC_LENGTH + 1 + i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds an entry to the dynamic table, evicting the oldest entries to make
+     * room. An entry larger than the whole table just empties it.
+     *
+     * @param name the name
+     * @param value the value
+     */
+    void add(String name, String value) {
+        int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+        evict(maxSize - entrySize);
+        if (entrySize > maxSize) {
+            return;
+        }
+        if (length == names.length) {
+            grow();
+        }
+        head = (head - 1) & (names.length - 1);
+        names[head] = name;
+        values[head] = value;
+        length++;
+        size += entrySize;
+    }
+
+    /**
+     * Changes the maximum size of the dynamic table, evicting entries that no longer fit.
+     *
+     * @param maxSize the new maximum size in octets
+     */
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict(maxSize);
+    }
+
+    /**
+     * Gets the maximum size of the dynamic table.
+     *
+     * @return the maximum size in octets
+     */
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    private int dynamicSlot(int index) throws Http2Exception {
+        int position = index - STATIC_LENGTH - 1;
+        if (position < 0 || position >= length) {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Invalid header table index " + index);
+        }
+        return (head + position) & (names.length - 1);
+    }
+
+    private void evict(int targetSize) {
+        while (length > 0 && size > targetSize) {
+            int oldest = (head + length - 1) & (names.length - 1);
+            size -= names[oldest].length() + values[oldest].length() + ENTRY_OVERHEAD;
+            names[oldest] = null;
+            values[oldest] = null;
+            length--;
+        }
+    }
+
+    private void grow() {
+        String[] newNames = new String[names.length * 2];
+        String[] newValues = new String[values.length * 2];
+        for (int i = 0; i < length; i++) {
+            newNames[i] = names[(head + i) & (names.length - 1)];
+            newValues[i] = values[(head + i) & (values.length - 1)];
+        }
+        names = newNames;
+        values = newValues;
+        head = 0;
+    }
+}
@@ -0,0 +1,1409 @@
+package HTTP.Protocol;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import HTTP.ErrorHandling.ErrorHandler;
+import HTTP.Request.HttpRequestHandler;
+
+/**
+ * Server side of an HTTP/2 connection over cleartext TCP (h2c, RFC 9113).
+ * A client gets here either with prior knowledge, by opening the connection
+ * with the HTTP/2 preface, or by sending an HTTP/1.1 request with
+ * {@code Upgrade: h2c}, which is answered with {@code 101 Switching Protocols}
+ * and then served as stream 1.
+ *
+ * <p>One thread reads frames and decodes header blocks with HPACK, in the
+ * order they arrive. Each request stream is handed to the executor as soon
+ * as its headers are complete, so many requests of a page load proceed at
+ * once over the one connection; its handler's response is written by the
+ * worker as frames, interleaved with those of other streams under a write
+ * lock. Response data respects both the connection and the stream send
+ * windows, and a writer waits while either is exhausted. Request bodies
+ * stream to their handlers, and the receive window of a stream is reopened
+ * only as its handler reads, so a slow handler holds back its own client
+ * without stalling the other streams.
+ *
+ * <p>Streams beyond the concurrency limit, or that the executor rejects, are
+ * refused with {@code REFUSED_STREAM}, which tells the client it may safely
+ * retry them. A connection that has no streams when the socket read times
+ * out is closed with {@code GOAWAY}. Server push is not used.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+public class Http2Connection {
+
+    /**
+     * Length of the client connection preface.
+     */
+    public static final int PREFACE_LENGTH = 24;
+
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SWITCHING_PROTOCOLS =
+            "HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII);
+
+    // Frame types
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    // Frame flags
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+    private static final int PADDED = 0x8;
+    private static final int PRIORITY_FLAG = 0x20;
+
+    // Settings
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    private static final int FRAME_HEADER_LENGTH = 9;
+    private static final int DEFAULT_FRAME_SIZE = 16384;
+    private static final int MAX_FRAME_SIZE = (1 << 24) - 1;
+    private static final int DEFAULT_WINDOW = 65535;
+    private static final int HEADER_TABLE_SIZE = 4096;
+    // Receive windows; a stream may buffer this much body before its handler reads it
+    private static final int STREAM_WINDOW = 256 * 1024;
+    private static final int CONNECTION_WINDOW = 1024 * 1024;
+    private static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private final Socket socket;
+    private final InputStream input;
+    private final OutputStream output;
+    private final HttpRequestHandler handler;
+    private final Executor executor;
+    private final ConcurrentHashMap<Integer, Http2Stream> streams;
+    private final HpackDecoder hpackDecoder;
+    private final HpackEncoder hpackEncoder;
+    private final ReentrantLock writeLock;
+    private final ReentrantLock flowLock;
+    private final Condition windowOpened;
+    private final byte[] frameHeader;
+
+    private int maxConcurrentStreams;
+    private int maxHeaderListSize;
+    private long bodyReadTimeout;
+    private long windowTimeout;
+
+    // Reader thread state
+    private final byte[] readBuffer;
+    private int readPosition;
+    private int readLimit;
+    private volatile int lastStreamId;
+    private int receiveWindow;
+    private byte[] headerBlock;
+    private int headerBlockLength;
+    private int headerStreamId;
+    private boolean headerEndStream;
+
+    // Guarded by flowLock
+    private int sendWindow;
+    private int initialSendWindow;
+
+    // Guarded by writeLock
+    private int peerMaxFrameSize;
+    private long dateSecond;
+    private String date;
+
+    private volatile boolean goingAway;
+    private volatile boolean closed;
+
+    /**
+     * Creates a connection over a socket whose HTTP/1.1 handling has stopped.
+     *
+     * @param socket the connection's socket, closed when the connection ends
+     * @param input the socket's input, starting right after the bytes consumed so far
+     * @param output the socket's output
+     * @param handler the handler every request is passed to
+     * @param executor the executor running handlers
+     */
+    public Http2Connection(Socket socket, InputStream input, OutputStream output,
+                           HttpRequestHandler handler, Executor executor) {
+        this.socket = socket;
+        this.input = input;
+        this.output = new BufferedOutputStream(output, OUTPUT_BUFFER_SIZE);
+        this.handler = handler;
+        this.executor = executor;
+        this.streams = new ConcurrentHashMap<>();
+        this.hpackDecoder = new HpackDecoder(HEADER_TABLE_SIZE);
+        this.hpackEncoder = new HpackEncoder();
+        this.writeLock = new ReentrantLock();
+        this.flowLock = new ReentrantLock();
+        this.windowOpened = flowLock.newCondition();
+        this.frameHeader = new byte[FRAME_HEADER_LENGTH];
+        this.maxConcurrentStreams = 100;
+        this.maxHeaderListSize = 8192;
+        this.readBuffer = new byte[FRAME_HEADER_LENGTH + DEFAULT_FRAME_SIZE];
+        this.receiveWindow = CONNECTION_WINDOW;
+        this.headerBlock = EMPTY;
+        this.sendWindow = DEFAULT_WINDOW;
+        this.initialSendWindow = DEFAULT_WINDOW;
+        this.peerMaxFrameSize = DEFAULT_FRAME_SIZE;
+    }
+
+    /**
+     * Sets how many streams may be open at once, announced in
+     * {@code SETTINGS_MAX_CONCURRENT_STREAMS}.
+     *
+     * @param maxConcurrentStreams the stream limit
+     */
+    public void setMaxConcurrentStreams(int maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+    /**
+     * Sets the largest header list accepted, counted as in
+     * {@code SETTINGS_MAX_HEADER_LIST_SIZE}. Larger requests are answered with 431.
+     *
+     * @param maxHeaderListSize the limit in octets
+     */
+    public void setMaxHeaderListSize(int maxHeaderListSize) {
+        this.maxHeaderListSize = maxHeaderListSize;
+    }
+
+    /**
+     * Sets how long a handler reading a request body waits for the next bytes.
+     *
+     * @param timeout the timeout in milliseconds, or 0 to wait indefinitely
+     */
+    public void setBodyReadTimeout(long timeout) {
+        this.bodyReadTimeout = timeout;
+    }
+
+    /**
+     * Sets how long a response waits for the client to open its flow control
+     * window before the stream is reset.
+     *
+     * @param timeout the timeout in milliseconds, or 0 to wait indefinitely
+     */
+    public void setWindowTimeout(long timeout) {
+        this.windowTimeout = timeout;
+    }
+
+    /**
+     * Matches bytes received at the start of a connection against the HTTP/2
+     * preface, so a transport can tell prior-knowledge HTTP/2 from HTTP/1.1
+     * after reading only as much as it needs to.
+     *
+     * @param bytes the buffer holding the received bytes
+     * @param offset where the bytes start
+     * @param length the number of bytes
+     * @param matched how many preface bytes earlier calls matched
+     * @return the number of preface bytes matched so far, up to
+     *         {@link #PREFACE_LENGTH}, or -1 if the bytes are not the preface
+     */
+    public static int matchPreface(byte[] bytes, int offset, int length, int matched) {
+        int count = Math.min(length, PREFACE_LENGTH - matched);
+        for (int i = 0; i < count; i++) {
+            if (bytes[offset + i] != PREFACE[matched + i]) {
+                return -1;
+            }
+        }
+        return matched + count;
+    }
+
+    /**
+     * Gets the first bytes of the preface, for a transport that matched them
+     * and must hand them on as HTTP/1.1 after all.
+     *
+     * @param length the number of bytes
+     * @return a copy of the preface's first bytes
+     */
+    public static byte[] prefacePrefix(int length) {
+        return Arrays.copyOf(PREFACE, length);
+    }
+
+    /**
+     * Checks whether an HTTP/1.1 request asks to upgrade to h2c in a way this
+     * server can honour: with a single {@code HTTP2-Settings} header that the
+     * {@code Connection} header lists, and no body still to be read.
+     *
+     * @param request the first request of a connection
+     * @return true if the connection may switch to HTTP/2
+     */
+    public static boolean isUpgradeRequest(HttpRequest request) {
+        if (!"HTTP/1.1".equals(request.getHttpVersion())) {
+            return false;
+        }
+        String upgrade = request.getHeader("Upgrade");
+        String connection = request.getHeader("Connection");
+        if (upgrade == null || connection == null || !hasToken(upgrade, "h2c")
+                || !hasToken(connection, "upgrade") || !hasToken(connection, "http2-settings")) {
+            return false;
+        }
+        RequestBody body = request.getRequestBody();
+        return request.getHeaders("HTTP2-Settings").size() == 1 && (body == null || body.isBuffered());
+    }
+
+    private static boolean hasToken(String list, String token) {
+        for (String element : list.split(",")) {
+            if (element.trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Serves a connection whose client has sent the preface, until either
+     * side closes it. The preface must already have been consumed.
+     *
+     * @throws IOException if the connection fails
+     */
+    public void serve() throws IOException {
+        try {
+            writeSettings();
+            readFrames();
+        } finally {
+            shutdownStreams();
+        }
+    }
+
+    /**
+     * Switches a connection to HTTP/2 after an upgrade request, answers the
+     * request on stream 1 and then serves the connection until either side
+     * closes it.
+     *
+     * @param request the HTTP/1.1 request carrying {@code Upgrade: h2c}
+     * @throws IOException if the connection fails
+     */
+    public void serveUpgrade(HttpRequest request) throws IOException {
+        try {
+            byte[] settings;
+            try {
+                settings = Base64.getUrlDecoder().decode(request.getHeader("HTTP2-Settings").trim());
+            } catch (IllegalArgumentException e) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid HTTP2-Settings header");
+            }
+            writeLock.lock();
+            try {
+                output.write(SWITCHING_PROTOCOLS);
+            } finally {
+                writeLock.unlock();
+            }
+            applySettings(settings, 0, settings.length);
+            writeSettings();
+
+            // The upgrade request is stream 1, half closed by the client
+            lastStreamId = 1;
+            Http2Stream stream = new Http2Stream(1, initialSendWindow, STREAM_WINDOW, null);
+            stream.setRequest(request);
+            streams.put(1, stream);
+            start(stream);
+
+            fill(PREFACE_LENGTH);
+            if (matchPreface(readBuffer, readPosition, PREFACE_LENGTH, 0) != PREFACE_LENGTH) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid connection preface");
+            }
+            readPosition += PREFACE_LENGTH;
+            readFrames();
+        } catch (Http2Exception e) {
+            goAway(e.getErrorCode());
+        } finally {
+            shutdownStreams();
+        }
+    }
+
+    /**
+     * Starts a graceful shutdown: a {@code GOAWAY} frame tells the client that
+     * no further streams will be processed, while those already started run
+     * to completion. May be called from any thread.
+     */
+    public void shutdown() {
+        if (!goingAway) {
+            try {
+                goAway(Http2Exception.NO_ERROR);
+            } catch (IOException e) {
+                close();
+            }
+        }
+        if (streams.isEmpty()) {
+            close();
+        }
+    }
+
+    /**
+     * Closes the connection at once, cutting off streams still in progress.
+     */
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Reads and processes frames until the connection ends.
+     */
+    private void readFrames() throws IOException {
+        try {
+            readFrameLoop();
+        } catch (IOException e) {
+            // Closing the socket is how shutdown and handlers end the connection
+            if (!closed) {
+                throw e;
+            }
+        }
+    }
+
+    private void readFrameLoop() throws IOException {
+        while (!closed) {
+            try {
+                fill(FRAME_HEADER_LENGTH);
+            } catch (SocketTimeoutException e) {
+                // Idle timeout; a connection with streams in progress is kept
+                if (streams.isEmpty()) {
+                    goAway(Http2Exception.NO_ERROR);
+                    return;
+                }
+                continue;
+            } catch (EOFException e) {
+                return;
+            }
+            int length = ((readBuffer[readPosition] & 0xff) << 16) | ((readBuffer[readPosition + 1] & 0xff) << 8)
+                    | (readBuffer[readPosition + 2] & 0xff);
+            int type = readBuffer[readPosition + 3] & 0xff;
+            int flags = readBuffer[readPosition + 4] & 0xff;
+            int streamId = readInt(readBuffer, readPosition + 5) & 0x7fffffff;
+            try {
+                if (length > DEFAULT_FRAME_SIZE) {
+                    throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Frame of " + length + " bytes");
+                }
+                fillFrame(FRAME_HEADER_LENGTH + length);
+                int payload = readPosition + FRAME_HEADER_LENGTH;
+                readPosition = payload + length;
+                processFrame(type, flags, streamId, payload, length);
+            } catch (Http2Exception e) {
+                if (e.getStreamId() == 0) {
+                    goAway(e.getErrorCode());
+                    return;
+                }
+                resetStream(e.getStreamId(), e.getErrorCode());
+            }
+        }
+    }
+
+    /**
+     * Fills the read buffer with a whole frame, waiting out read timeouts,
+     * which must not abandon a frame half read.
+     */
+    private void fillFrame(int length) throws IOException {
+        while (true) {
+            try {
+                fill(length);
+                return;
+            } catch (SocketTimeoutException e) {
+                if (closed) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void processFrame(int type, int flags, int streamId, int payload, int length) throws IOException {
+        if (headerStreamId != 0 && (type != CONTINUATION || streamId != headerStreamId)) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Header block interrupted");
+        }
+        switch (type) {
+            case DATA -> onData(flags, streamId, payload, length);
+            case HEADERS -> onHeaders(flags, streamId, payload, length);
+            case PRIORITY -> {
+                if (length != 5) {
+                    throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, streamId, "PRIORITY frame size");
+                }
+            }
+            case RST_STREAM -> onResetStream(streamId, length);
+            case SETTINGS -> onSettings(flags, streamId, payload, length);
+            case PUSH_PROMISE -> throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PUSH_PROMISE from client");
+            case PING -> onPing(flags, streamId, payload, length);
+            case GOAWAY -> onGoAway(streamId);
+            case WINDOW_UPDATE -> onWindowUpdate(streamId, payload, length);
+            case CONTINUATION -> onContinuation(flags, streamId, payload, length);
+            default -> {
+                // Unknown frame types are ignored
+            }
+        }
+    }
+
+    private void onData(int flags, int streamId, int payload, int length) throws IOException {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        // The whole frame counts against the windows, padding included
+        if (length > receiveWindow) {
+            throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Connection window exceeded");
+        }
+        receiveWindow -= length;
+        if (receiveWindow <= CONNECTION_WINDOW / 2) {
+            // Buffering is bounded per stream, so the connection window is reopened at once
+            writeWindowUpdate(0, CONNECTION_WINDOW - receiveWindow);
+            receiveWindow = CONNECTION_WINDOW;
+        }
+
+        Http2Stream stream = streams.get(streamId);
+        if (stream == null) {
+            if (streamId > lastStreamId) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+            }
+            // Frames already in flight when the stream was reset or completed are ignored
+            return;
+        }
+        if (stream.isRemoteClosed()) {
+            throw new Http2Exception(Http2Exception.STREAM_CLOSED, streamId, "DATA after end of stream");
+        }
+        if (!stream.consumeReceiveWindow(length)) {
+            throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, streamId, "Stream window exceeded");
+        }
+        int padding = padLength(flags, payload, length);
+        int offset = (flags & PADDED) != 0 ? 1 : 0;
+        Http2Stream.Body body = stream.getBody();
+        if (!body.offer(readBuffer, payload + offset, length - offset - padding)) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Body exceeds content-length");
+        }
+        if (offset + padding > 0) {
+            bodyConsumed(stream, offset + padding);
+        }
+        if ((flags & END_STREAM) != 0) {
+            stream.setRemoteClosed();
+            if (!body.finish(Map.of())) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Body shorter than content-length");
+            }
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, int payload, int length) throws IOException {
+        if (streamId == 0 || (streamId & 1) == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "HEADERS on stream " + streamId);
+        }
+        int padding = padLength(flags, payload, length);
+        int offset = (flags & PADDED) != 0 ? 1 : 0;
+        if ((flags & PRIORITY_FLAG) != 0) {
+            offset += 5;
+        }
+        if (offset + padding > length) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "HEADERS frame too short");
+        }
+        headerBlockLength = 0;
+        appendHeaderBlock(payload + offset, length - offset - padding);
+        headerEndStream = (flags & END_STREAM) != 0;
+        if ((flags & END_HEADERS) != 0) {
+            onHeaderBlock(streamId);
+        } else {
+            headerStreamId = streamId;
+        }
+    }
+
+    private void onContinuation(int flags, int streamId, int payload, int length) throws IOException {
+        if (headerStreamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Unexpected CONTINUATION");
+        }
+        appendHeaderBlock(payload, length);
+        if ((flags & END_HEADERS) != 0) {
+            headerStreamId = 0;
+            onHeaderBlock(streamId);
+        }
+    }
+
+    private void appendHeaderBlock(int offset, int length) throws Http2Exception {
+        // Bounds the memory a header block can take before it is decoded
+        if (headerBlockLength + length > Math.max(maxHeaderListSize, DEFAULT_FRAME_SIZE) * 2) {
+            throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, "Header block too large");
+        }
+        if (headerBlockLength + length > headerBlock.length) {
+            headerBlock = Arrays.copyOf(headerBlock, Math.max(headerBlock.length * 2, headerBlockLength + length));
+        }
+        System.arraycopy(readBuffer, offset, headerBlock, headerBlockLength, length);
+        headerBlockLength += length;
+    }
+
+    /**
+     * Decodes a complete header block and starts a stream for it, or ends the
+     * body of a stream it carries the trailers of.
+     */
+    private void onHeaderBlock(int streamId) throws IOException {
+        List<String> fields = new ArrayList<>();
+        hpackDecoder.decode(headerBlock, 0, headerBlockLength, fields);
+        if (headerBlock.length > DEFAULT_FRAME_SIZE) {
+            headerBlock = EMPTY;
+        }
+
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            if (stream.isRemoteClosed() || !headerEndStream) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Unexpected HEADERS");
+            }
+            stream.setRemoteClosed();
+            if (!stream.getBody().finish(toTrailers(fields))) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Body shorter than content-length");
+            }
+            return;
+        }
+        if (streamId <= lastStreamId) {
+            throw new Http2Exception(Http2Exception.STREAM_CLOSED, "HEADERS on closed stream " + streamId);
+        }
+        lastStreamId = streamId;
+        if (goingAway) {
+            // Streams opened after GOAWAY are ignored; the client retries them elsewhere
+            return;
+        }
+        if (streams.size() >= maxConcurrentStreams) {
+            throw new Http2Exception(Http2Exception.REFUSED_STREAM, streamId, "Too many concurrent streams");
+        }
+
+        stream = createStream(streamId, fields);
+        streams.put(streamId, stream);
+        start(stream);
+    }
+
+    /**
+     * Builds the stream and request for a decoded header block.
+     */
+    private Http2Stream createStream(int streamId, List<String> fields) throws Http2Exception {
+        String method = null;
+        String scheme = null;
+        String path = null;
+        String authority = null;
+        Map<String, List<String>> headers = new HashMap<>();
+        boolean regularSeen = false;
+        long listSize = 0;
+        for (int i = 0; i < fields.size(); i += 2) {
+            String name = fields.get(i);
+            String value = fields.get(i + 1);
+            listSize += name.length() + value.length() + HpackTable.ENTRY_OVERHEAD;
+            if (name.startsWith(":")) {
+                if (regularSeen) {
+                    throw malformed(streamId, "Pseudo-header after regular header");
+                }
+                switch (name) {
+                    case ":method" -> method = pseudoHeader(streamId, method, value);
+                    case ":scheme" -> scheme = pseudoHeader(streamId, scheme, value);
+                    case ":path" -> path = pseudoHeader(streamId, path, value);
+                    case ":authority" -> authority = pseudoHeader(streamId, authority, value);
+                    default -> throw malformed(streamId, "Unknown pseudo-header " + name);
+                }
+                continue;
+            }
+            regularSeen = true;
+            if (!name.equals(name.toLowerCase(Locale.ROOT)) || isConnectionSpecific(name)
+                    || (name.equals("te") && !value.equals("trailers"))) {
+                throw malformed(streamId, "Invalid header " + name);
+            }
+            headers.computeIfAbsent(name, k -> new ArrayList<>(1)).add(value);
+        }
+        if (method == null || scheme == null || path == null || path.isEmpty()) {
+            throw malformed(streamId, "Missing pseudo-header");
+        }
+        // Cookie crumbs are sent as separate fields and joined again for HTTP/1.1 handlers
+        List<String> cookies = headers.get("cookie");
+        if (cookies != null && cookies.size() > 1) {
+            headers.put("cookie", new ArrayList<>(List.of(String.join("; ", cookies))));
+        }
+        if (authority != null && !headers.containsKey("host")) {
+            headers.put("host", new ArrayList<>(List.of(authority)));
+        }
+
+        Http2Stream.Body body = null;
+        if (!headerEndStream) {
+            long contentLength = -1;
+            List<String> lengths = headers.get("content-length");
+            if (lengths != null) {
+                try {
+                    contentLength = Long.parseLong(lengths.get(0));
+                } catch (NumberFormatException e) {
+                    throw malformed(streamId, "Invalid content-length");
+                }
+            }
+            body = new Http2Stream.Body(contentLength, bodyReadTimeout, this);
+        }
+        Http2Stream stream = new Http2Stream(streamId, initialSendWindow(), STREAM_WINDOW, body);
+
+        if (listSize > maxHeaderListSize) {
+            stream.setPresetResponse(ErrorHandler.createErrorResponse(431,
+                    "Request headers exceed " + maxHeaderListSize + " bytes."));
+            return stream;
+        }
+        HttpMethod httpMethod;
+        try {
+            httpMethod = HttpMethod.valueOf(method);
+        } catch (IllegalArgumentException e) {
+            stream.setPresetResponse(ErrorHandler.createErrorResponse(501,
+                    "HTTP method '" + method + "' is not implemented."));
+            return stream;
+        }
+        URI uri;
+        try {
+            uri = new URI(path);
+        } catch (URISyntaxException e) {
+            stream.setPresetResponse(ErrorHandler.createBadRequestResponse("Invalid request target"));
+            return stream;
+        }
+        stream.setRequest(new HttpRequest.Builder()
+                .setHttpMethod(httpMethod)
+                .setUri(uri)
+                .setHttpVersion("HTTP/2.0")
+                .setRequestHeaders(headers)
+                .setBody(body != null ? RequestBody.of(body, body.expectedLength(), body::getTrailers) : null)
+                .build());
+        return stream;
+    }
+
+    private static String pseudoHeader(int streamId, String current, String value) throws Http2Exception {
+        if (current != null) {
+            throw malformed(streamId, "Duplicate pseudo-header");
+        }
+        return value;
+    }
+
+    private static Http2Exception malformed(int streamId, String message) {
+        return new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, message);
+    }
+
+    private static boolean isConnectionSpecific(String name) {
+        return name.equals("connection") || name.equals("keep-alive") || name.equals("proxy-connection")
+                || name.equals("transfer-encoding") || name.equals("upgrade");
+    }
+
+    private static Map<String, List<String>> toTrailers(List<String> fields) {
+        Map<String, List<String>> trailers = new HashMap<>();
+        for (int i = 0; i < fields.size(); i += 2) {
+            trailers.computeIfAbsent(fields.get(i), k -> new ArrayList<>(1)).add(fields.get(i + 1));
+        }
+        return trailers;
+    }
+
+    /**
+     * Hands a stream to the executor, refusing it if the executor is full.
+     */
+    private void start(Http2Stream stream) throws IOException {
+        try {
+            executor.execute(() -> respond(stream));
+        } catch (RejectedExecutionException e) {
+            streams.remove(stream.getId());
+            if (stream.getBody() != null) {
+                stream.getBody().close();
+            }
+            writeResetStream(stream.getId(), Http2Exception.REFUSED_STREAM);
+        }
+    }
+
+    /**
+     * Runs the handler of a stream and writes its response. Runs on a worker thread.
+     */
+    private void respond(Http2Stream stream) {
+        try {
+            HttpResponse response = stream.getPresetResponse();
+            if (response == null) {
+                try {
+                    response = handler.handle(stream.getRequest());
+                    if (response == null) {
+                        throw new NullPointerException("Handler returned no response");
+                    }
+                } catch (RuntimeException e) {
+                    response = ErrorHandler.createInternalServerErrorResponse(e);
+                }
+            }
+            writeResponse(stream, response);
+        } catch (IOException e) {
+            // The stream was reset or the connection failed; the response is cut off
+            if (!closed && !stream.isReset()) {
+                try {
+                    writeResetStream(stream.getId(), Http2Exception.INTERNAL_ERROR);
+                } catch (IOException ignored) {
+                    close();
+                }
+            }
+        } finally {
+            endStream(stream);
+        }
+    }
+
+    /**
+     * Forgets a stream whose response is complete. A client still sending the
+     * request body is told to stop.
+     */
+    private void endStream(Http2Stream stream) {
+        streams.remove(stream.getId());
+        if (stream.getBody() != null) {
+            stream.getBody().close();
+            if (!stream.isRemoteClosed() && !stream.isReset() && !closed) {
+                try {
+                    writeResetStream(stream.getId(), Http2Exception.NO_ERROR);
+                } catch (IOException e) {
+                    close();
+                }
+            }
+        }
+        if (goingAway && streams.isEmpty()) {
+            close();
+        }
+    }
+
+    private void writeResponse(Http2Stream stream, HttpResponse response) throws IOException {
+        byte[] body = EMPTY;
+        StreamingBody streamingBody = null;
+        FileRegion region = null;
+        CompositeBody composite = null;
+        Object entity = response.getEntity().orElse(null);
+        if (entity instanceof String) {
+            body = ((String) entity).getBytes(StandardCharsets.UTF_8);
+        } else if (entity instanceof byte[]) {
+            body = (byte[]) entity;
+        } else if (entity instanceof StreamingBody) {
+            streamingBody = (StreamingBody) entity;
+        } else if (entity instanceof FileRegion) {
+            region = (FileRegion) entity;
+        } else if (entity instanceof CompositeBody) {
+            composite = (CompositeBody) entity;
+        }
+        int status = response.getStatusCode();
+        boolean bodyAllowed = status >= 200 && status != 204 && status != 304;
+        if (!bodyAllowed) {
+            writeHeaders(stream, response, -1, true);
+            return;
+        }
+        if (region != null) {
+            // DATA frames need the bytes in user space, so the file is copied rather than transferred
+            try (FileRegion.Transfer transfer = region.open()) {
+                writeHeaders(stream, response, region.getLength(), region.getLength() == 0);
+                if (region.getLength() > 0) {
+                    DataOutputStream data = new DataOutputStream(stream);
+                    transfer.writeTo(data);
+                    data.close();
+                }
+            }
+            return;
+        }
+        if (entity instanceof BufferBody buffered) {
+            writeHeaders(stream, response, buffered.getLength(), buffered.getLength() == 0);
+            if (buffered.getLength() > 0) {
+                DataOutputStream data = new DataOutputStream(stream);
+                buffered.writeTo(data);
+                data.close();
+            }
+            return;
+        }
+        if (composite != null) {
+            writeHeaders(stream, response, composite.getLength(), composite.getLength() == 0);
+            if (composite.getLength() > 0) {
+                DataOutputStream data = new DataOutputStream(stream);
+                composite.writeTo(data);
+                data.close();
+            }
+            return;
+        }
+        if (streamingBody == null) {
+            writeHeaders(stream, response, body.length, body.length == 0);
+            if (body.length > 0) {
+                writeData(stream, body, 0, body.length, true);
+            }
+            return;
+        }
+        writeHeaders(stream, response, -1, false);
+        DataOutputStream data = new DataOutputStream(stream);
+        try {
+            streamingBody.writeTo(data);
+        } catch (RuntimeException e) {
+            throw new IOException("Streaming response body failed", e);
+        }
+        data.close();
+    }
+
+    /**
+     * Encodes and writes the response head. Encoding happens under the write
+     * lock, since the client decodes header blocks in the order they are sent.
+     */
+    private void writeHeaders(Http2Stream stream, HttpResponse response, long contentLength, boolean endStream)
+            throws IOException {
+        writeLock.lock();
+        try {
+            checkWritable(stream);
+            hpackEncoder.begin();
+            hpackEncoder.addField(":status", String.valueOf(response.getStatusCode()));
+            boolean hasDate = false;
+            for (Map.Entry<String, List<String>> header : response.getResponseHeaders().entrySet()) {
+                String name = header.getKey().toLowerCase(Locale.ROOT);
+                if (isConnectionSpecific(name) || name.equals("content-length")) {
+                    continue;
+                }
+                hasDate |= name.equals("date");
+                for (String value : header.getValue()) {
+                    hpackEncoder.addField(name, toOctets(value));
+                }
+            }
+            if (!hasDate) {
+                hpackEncoder.addField("date", currentDate());
+            }
+            if (contentLength >= 0) {
+                hpackEncoder.addField("content-length", Long.toString(contentLength));
+            }
+
+            byte[] block = hpackEncoder.buffer();
+            int length = hpackEncoder.length();
+            int first = Math.min(length, peerMaxFrameSize);
+            int flags = (endStream ? END_STREAM : 0) | (first == length ? END_HEADERS : 0);
+            writeFrameHeader(first, HEADERS, flags, stream.getId());
+            output.write(block, 0, first);
+            for (int offset = first; offset < length; ) {
+                int size = Math.min(length - offset, peerMaxFrameSize);
+                writeFrameHeader(size, CONTINUATION, offset + size == length ? END_HEADERS : 0, stream.getId());
+                output.write(block, offset, size);
+                offset += size;
+            }
+            if (endStream) {
+                output.flush();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes response data as DATA frames, waiting for flow control credit as needed.
+     */
+    private void writeData(Http2Stream stream, byte[] data, int offset, int length, boolean endStream)
+            throws IOException {
+        if (length == 0) {
+            if (endStream) {
+                writeDataFrame(stream, data, offset, 0, true);
+            }
+            return;
+        }
+        while (length > 0) {
+            int size = acquireWindow(stream, length);
+            writeDataFrame(stream, data, offset, size, endStream && size == length);
+            offset += size;
+            length -= size;
+        }
+    }
+
+    private void writeDataFrame(Http2Stream stream, byte[] data, int offset, int length, boolean endStream)
+            throws IOException {
+        writeLock.lock();
+        try {
+            checkWritable(stream);
+            writeFrameHeader(length, DATA, endStream ? END_STREAM : 0, stream.getId());
+            output.write(data, offset, length);
+            output.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Takes send window for up to {@code wanted} bytes, waiting while the
+     * connection or stream window is exhausted.
+     */
+    private int acquireWindow(Http2Stream stream, int wanted) throws IOException {
+        flowLock.lock();
+        try {
+            long waitNanos = TimeUnit.MILLISECONDS.toNanos(windowTimeout);
+            while (sendWindow <= 0 || stream.getSendWindow() <= 0) {
+                checkWritable(stream);
+                if (windowTimeout <= 0) {
+                    windowOpened.await();
+                } else if (waitNanos <= 0) {
+                    throw new SocketTimeoutException("Flow control window stayed closed");
+                } else {
+                    waitNanos = windowOpened.awaitNanos(waitNanos);
+                }
+            }
+            checkWritable(stream);
+            int size = Math.min(wanted, Math.min(sendWindow, stream.getSendWindow()));
+            size = Math.min(size, peerMaxFrameSize);
+            sendWindow -= size;
+            stream.setSendWindow(stream.getSendWindow() - size);
+            return size;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for flow control window", e);
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void checkWritable(Http2Stream stream) throws IOException {
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+        if (stream.isReset()) {
+            throw new IOException("Stream " + stream.getId() + " reset by client");
+        }
+    }
+
+    /**
+     * Records request body bytes a handler has read, or padding the reader
+     * skipped, and reopens the stream's receive window when enough has been read.
+     *
+     * @param stream the stream the bytes belong to
+     * @param length the number of bytes
+     */
+    void bodyConsumed(Http2Stream stream, int length) {
+        int increment = stream.acknowledge(length, STREAM_WINDOW);
+        if (increment > 0 && !closed && !stream.isReset()) {
+            try {
+                writeWindowUpdate(stream.getId(), increment);
+            } catch (IOException e) {
+                close();
+            }
+        }
+    }
+
+    private void onResetStream(int streamId, int length) throws Http2Exception {
+        if (length != 4) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "RST_STREAM frame size");
+        }
+        if (streamId == 0 || streamId > lastStreamId) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "RST_STREAM on idle stream " + streamId);
+        }
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            stream.setReset();
+            if (stream.getBody() != null) {
+                stream.getBody().fail(new IOException("Stream reset by client"));
+            }
+            signalWindow();
+        }
+    }
+
+    private void onSettings(int flags, int streamId, int payload, int length) throws IOException {
+        if (streamId != 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "SETTINGS on stream " + streamId);
+        }
+        if ((flags & ACK) != 0) {
+            if (length != 0) {
+                throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS acknowledgement with payload");
+            }
+            return;
+        }
+        applySettings(readBuffer, payload, length);
+        writeLock.lock();
+        try {
+            writeFrameHeader(0, SETTINGS, ACK, 0);
+            output.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void applySettings(byte[] settings, int offset, int length) throws IOException {
+        if (length % 6 != 0) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS frame size");
+        }
+        for (int i = offset; i < offset + length; i += 6) {
+            int id = ((settings[i] & 0xff) << 8) | (settings[i + 1] & 0xff);
+            int value = readInt(settings, i + 2);
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE -> {
+                    writeLock.lock();
+                    try {
+                        hpackEncoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+                    } finally {
+                        writeLock.unlock();
+                    }
+                }
+                case SETTINGS_ENABLE_PUSH -> {
+                    if (value != 0 && value != 1) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH");
+                    }
+                }
+                case SETTINGS_INITIAL_WINDOW_SIZE -> {
+                    if (value < 0) {
+                        throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Invalid initial window size");
+                    }
+                    changeInitialWindow(value);
+                }
+                case SETTINGS_MAX_FRAME_SIZE -> {
+                    if (value < DEFAULT_FRAME_SIZE || value > MAX_FRAME_SIZE) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE");
+                    }
+                    writeLock.lock();
+                    try {
+                        peerMaxFrameSize = value;
+                    } finally {
+                        writeLock.unlock();
+                    }
+                }
+                default -> {
+                    // SETTINGS_MAX_CONCURRENT_STREAMS and SETTINGS_MAX_HEADER_LIST_SIZE limit
+                    // pushed streams and requests, which the server does not send
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a new initial send window to every open stream, which may leave
+     * a window negative until the client grants more.
+     */
+    private void changeInitialWindow(int value) throws Http2Exception {
+        flowLock.lock();
+        try {
+            int delta = value - initialSendWindow;
+            initialSendWindow = value;
+            for (Http2Stream stream : streams.values()) {
+                long window = (long) stream.getSendWindow() + delta;
+                if (window > Integer.MAX_VALUE) {
+                    throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Stream window overflow");
+                }
+                stream.setSendWindow((int) window);
+            }
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private int initialSendWindow() {
+        flowLock.lock();
+        try {
+            return initialSendWindow;
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void onPing(int flags, int streamId, int payload, int length) throws IOException {
+        if (streamId != 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PING on stream " + streamId);
+        }
+        if (length != 8) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "PING frame size");
+        }
+        if ((flags & ACK) != 0) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            writeFrameHeader(8, PING, ACK, 0);
+            output.write(readBuffer, payload, 8);
+            output.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void onGoAway(int streamId) throws Http2Exception {
+        if (streamId != 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "GOAWAY on stream " + streamId);
+        }
+        // The client opens no more streams; those in progress still complete
+        goingAway = true;
+        if (streams.isEmpty()) {
+            close();
+        }
+    }
+
+    private void onWindowUpdate(int streamId, int payload, int length) throws Http2Exception {
+        if (length != 4) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "WINDOW_UPDATE frame size");
+        }
+        int increment = readInt(readBuffer, payload) & 0x7fffffff;
+        if (increment == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Zero window increment");
+        }
+        flowLock.lock();
+        try {
+            if (streamId == 0) {
+                if ((long) sendWindow + increment > Integer.MAX_VALUE) {
+                    throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+                sendWindow += increment;
+            } else {
+                Http2Stream stream = streams.get(streamId);
+                if (stream == null) {
+                    if (streamId > lastStreamId) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "WINDOW_UPDATE on idle stream");
+                    }
+                    return;
+                }
+                if ((long) stream.getSendWindow() + increment > Integer.MAX_VALUE) {
+                    throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, streamId, "Stream window overflow");
+                }
+                stream.setSendWindow(stream.getSendWindow() + increment);
+            }
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private int padLength(int flags, int payload, int length) throws Http2Exception {
+        if ((flags & PADDED) == 0) {
+            return 0;
+        }
+        if (length < 1) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Padded frame too short");
+        }
+        int padding = readBuffer[payload] & 0xff;
+        if (padding >= length) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Padding exceeds frame");
+        }
+        return padding;
+    }
+
+    /**
+     * Ends every stream still open once the connection is over, waking
+     * handlers that wait for body data or window credit.
+     */
+    private void shutdownStreams() {
+        close();
+        for (Http2Stream stream : streams.values()) {
+            stream.setReset();
+            if (stream.getBody() != null) {
+                stream.getBody().fail(new EOFException("Connection closed"));
+            }
+        }
+        signalWindow();
+    }
+
+    private void signalWindow() {
+        flowLock.lock();
+        try {
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void writeSettings() throws IOException {
+        writeLock.lock();
+        try {
+            writeFrameHeader(3 * 6, SETTINGS, 0, 0);
+            writeSetting(SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams);
+            writeSetting(SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW);
+            writeSetting(SETTINGS_MAX_HEADER_LIST_SIZE, maxHeaderListSize);
+            writeFrameHeader(4, WINDOW_UPDATE, 0, 0);
+            writeInt(CONNECTION_WINDOW - DEFAULT_WINDOW);
+            output.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void writeSetting(int id, int value) throws IOException {
+        output.write(id >> 8);
+        output.write(id);
+        writeInt(value);
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        writeLock.lock();
+        try {
+            writeFrameHeader(4, WINDOW_UPDATE, 0, streamId);
+            writeInt(increment);
+            output.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void resetStream(int streamId, int errorCode) throws IOException {
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            stream.setReset();
+            if (stream.getBody() != null) {
+                stream.getBody().fail(new IOException("Stream reset"));
+            }
+            signalWindow();
+        }
+        writeResetStream(streamId, errorCode);
+    }
+
+    private void writeResetStream(int streamId, int errorCode) throws IOException {
+        writeLock.lock();
+        try {
+            writeFrameHeader(4, RST_STREAM, 0, streamId);
+            writeInt(errorCode);
+            output.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void goAway(int errorCode) throws IOException {
+        goingAway = true;
+        writeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            writeFrameHeader(8, GOAWAY, 0, 0);
+            writeInt(lastStreamId);
+            writeInt(errorCode);
+            output.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void writeFrameHeader(int length, int type, int flags, int streamId) throws IOException {
+        frameHeader[0] = (byte) (length >> 16);
+        frameHeader[1] = (byte) (length >> 8);
+        frameHeader[2] = (byte) length;
+        frameHeader[3] = (byte) type;
+        frameHeader[4] = (byte) flags;
+        frameHeader[5] = (byte) (streamId >> 24);
+        frameHeader[6] = (byte) (streamId >> 16);
+        frameHeader[7] = (byte) (streamId >> 8);
+        frameHeader[8] = (byte) streamId;
+        output.write(frameHeader);
+    }
+
+    private void writeInt(int value) throws IOException {
+        output.write(value >> 24);
+        output.write(value >> 16);
+        output.write(value >> 8);
+        output.write(value);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+                | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+
+    /**
+     * Reads until at least {@code length} bytes are buffered from the read
+     * position. A read timeout leaves what has arrived in the buffer, so the
+     * caller can simply try again.
+     */
+    private void fill(int length) throws IOException {
+        if (readLimit - readPosition >= length) {
+            return;
+        }
+        if (readPosition > 0) {
+            System.arraycopy(readBuffer, readPosition, readBuffer, 0, readLimit - readPosition);
+            readLimit -= readPosition;
+            readPosition = 0;
+        }
+        while (readLimit < length) {
+            int read = input.read(readBuffer, readLimit, readBuffer.length - readLimit);
+            if (read == -1) {
+                throw new EOFException("Connection closed");
+            }
+            readLimit += read;
+        }
+    }
+
+    /**
+     * Gets the value of the {@code date} header for the current second.
+     * Called under the write lock.
+     */
+    private String currentDate() {
+        long second = System.currentTimeMillis() / 1000;
+        if (second != dateSecond || date == null) {
+            date = DATE_FORMAT.format(Instant.ofEpochSecond(second));
+            dateSecond = second;
+        }
+        return date;
+    }
+
+    /**
+     * Converts a header value to the octet string HPACK sends: ASCII text as
+     * is, anything else as UTF-8, as HTTP/1.1 responses are encoded.
+     */
+    private static String toOctets(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return new String(value.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Output stream for a {@link StreamingBody} response, which sends what is
+     * written as DATA frames of up to the peer's frame size. Writes block
+     * while the client's flow control window is exhausted.
+     */
+    private final class DataOutputStream extends OutputStream {
+
+        private final Http2Stream stream;
+        private final byte[] buffer;
+        private int count;
+
+        private DataOutputStream(Http2Stream stream) {
+            this.stream = stream;
+            this.buffer = new byte[DEFAULT_FRAME_SIZE];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flush();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length >= buffer.length) {
+                flush();
+                writeData(stream, bytes, offset, length, false);
+                return;
+            }
+            if (count + length > buffer.length) {
+                flush();
+            }
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                writeData(stream, buffer, 0, count, false);
+                count = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            writeData(stream, buffer, 0, count, true);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package HTTP.Protocol;
+
+import java.io.IOException;
+
+/**
+ * Signals a violation of the HTTP/2 protocol by the peer. Carries the error
+ * code to report and the stream it concerns: a connection error (stream 0)
+ * is answered with {@code GOAWAY} and ends the connection, a stream error
+ * with {@code RST_STREAM} for that stream only.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+class Http2Exception extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+    static final int ENHANCE_YOUR_CALM = 0xb;
+
+    private final int errorCode;
+    private final int streamId;
+
+    /**
+     * Creates a connection error.
+     *
+     * @param errorCode the HTTP/2 error code
+     * @param message the reason
+     */
+    Http2Exception(int errorCode, String message) {
+        this(errorCode, 0, message);
+    }
+
+    /**
+     * Creates an error for a single stream, or a connection error if the stream is 0.
+     *
+     * @param errorCode the HTTP/2 error code
+     * @param streamId the stream in error
+     * @param message the reason
+     */
+    Http2Exception(int errorCode, int streamId, String message) {
+        super(message);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    /**
+     * Gets the HTTP/2 error code to report.
+     *
+     * @return the error code
+     */
+    int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Gets the stream the error concerns.
+     *
+     * @return the stream identifier, or 0 for a connection error
+     */
+    int getStreamId() {
+        return streamId;
+    }
+}
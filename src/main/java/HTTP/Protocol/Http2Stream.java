@@ -0,0 +1,329 @@
+package HTTP.Protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * State of one HTTP/2 stream: a request and its response.
+ * The connection's reader thread creates the stream and feeds its request
+ * body; a worker thread runs the handler and writes the response. The send
+ * window is guarded by the connection's flow control lock.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+final class Http2Stream {
+
+    private final int id;
+    private final Body body;
+    private HttpRequest request;
+    private HttpResponse presetResponse;
+    private int sendWindow;
+    private int receiveWindow;
+    private int unacknowledged;
+    private volatile boolean remoteClosed;
+    private volatile boolean reset;
+
+    /**
+     * Creates a stream.
+     *
+     * @param id the stream identifier
+     * @param sendWindow the initial window for response data
+     * @param receiveWindow the initial window for request data
+     * @param body the request body still to arrive, or null if the request has none
+     */
+    Http2Stream(int id, int sendWindow, int receiveWindow, Body body) {
+        this.id = id;
+        this.sendWindow = sendWindow;
+        this.receiveWindow = receiveWindow;
+        this.body = body;
+        this.remoteClosed = body == null;
+        if (body != null) {
+            body.stream = this;
+        }
+    }
+
+    int getId() {
+        return id;
+    }
+
+    Body getBody() {
+        return body;
+    }
+
+    HttpRequest getRequest() {
+        return request;
+    }
+
+    void setRequest(HttpRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * Gets the response sent without running a handler, for a request that
+     * was rejected once its headers had been decoded.
+     *
+     * @return the response, or null if the handler produces it
+     */
+    HttpResponse getPresetResponse() {
+        return presetResponse;
+    }
+
+    void setPresetResponse(HttpResponse presetResponse) {
+        this.presetResponse = presetResponse;
+    }
+
+    int getSendWindow() {
+        return sendWindow;
+    }
+
+    void setSendWindow(int sendWindow) {
+        this.sendWindow = sendWindow;
+    }
+
+    /**
+     * Takes request data out of the receive window. Called on the reader thread.
+     *
+     * @param length the frame length, padding included
+     * @return false if the client sent more than the window allowed
+     */
+    synchronized boolean consumeReceiveWindow(int length) {
+        if (length > receiveWindow) {
+            return false;
+        }
+        receiveWindow -= length;
+        return true;
+    }
+
+    /**
+     * Records request data the handler has read and decides whether to
+     * reopen the receive window. Updates are batched until half the initial
+     * window has been read, so a stream sends few {@code WINDOW_UPDATE} frames.
+     *
+     * @param length the number of bytes read
+     * @param initialWindow the initial receive window
+     * @return the increment to send, or 0 if no update is due yet
+     */
+    synchronized int acknowledge(int length, int initialWindow) {
+        unacknowledged += length;
+        if (unacknowledged < initialWindow / 2 || remoteClosed) {
+            return 0;
+        }
+        int increment = unacknowledged;
+        receiveWindow += increment;
+        unacknowledged = 0;
+        return increment;
+    }
+
+    boolean isRemoteClosed() {
+        return remoteClosed;
+    }
+
+    void setRemoteClosed() {
+        remoteClosed = true;
+    }
+
+    boolean isReset() {
+        return reset;
+    }
+
+    void setReset() {
+        reset = true;
+    }
+
+    /**
+     * Request body of a stream, handed from the reader thread to the handler.
+     * DATA frames are copied in as they arrive and read as a blocking stream.
+     * The amount buffered is bounded by the stream's receive window, which is
+     * only reopened as the handler reads. A {@link ReentrantLock} is used so
+     * that virtual threads waiting for data do not pin their carrier.
+     */
+    static final class Body extends InputStream {
+
+        private final ReentrantLock lock;
+        private final Condition readable;
+        private final ArrayDeque<byte[]> chunks;
+        private final long expectedLength;
+        private final long readTimeout;
+        private final Http2Connection connection;
+        private Http2Stream stream;
+        private int chunkOffset;
+        private long received;
+        private boolean finished;
+        private boolean closed;
+        private IOException failure;
+        private volatile Map<String, List<String>> trailers;
+
+        /**
+         * Creates an empty body.
+         *
+         * @param expectedLength the declared {@code content-length}, or -1 if none was sent
+         * @param readTimeout how long a read waits for data, in milliseconds
+         * @param connection the connection to report consumed bytes to
+         */
+        Body(long expectedLength, long readTimeout, Http2Connection connection) {
+            this.lock = new ReentrantLock();
+            this.readable = lock.newCondition();
+            this.chunks = new ArrayDeque<>();
+            this.expectedLength = expectedLength;
+            this.readTimeout = readTimeout;
+            this.connection = connection;
+            this.trailers = Map.of();
+        }
+
+        /**
+         * Copies received data into the body. Data arriving after the handler
+         * closed the body is dropped.
+         *
+         * @param data the frame payload
+         * @param offset where the data starts
+         * @param length the data length
+         * @return false if the data exceeds the declared content length
+         */
+        boolean offer(byte[] data, int offset, int length) {
+            lock.lock();
+            try {
+                received += length;
+                if (expectedLength >= 0 && received > expectedLength) {
+                    return false;
+                }
+                if (closed || failure != null || length == 0) {
+                    return true;
+                }
+                byte[] chunk = new byte[length];
+                System.arraycopy(data, offset, chunk, 0, length);
+                chunks.add(chunk);
+                readable.signalAll();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Marks the end of the body.
+         *
+         * @param trailers the trailer fields sent after the body, or an empty map
+         * @return false if fewer bytes arrived than the declared content length
+         */
+        boolean finish(Map<String, List<String>> trailers) {
+            lock.lock();
+            try {
+                this.trailers = trailers;
+                finished = true;
+                readable.signalAll();
+                return expectedLength < 0 || received == expectedLength;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Ends a body that can no longer complete. The handler's next read throws {@code cause}.
+         *
+         * @param cause the error reported to the handler
+         */
+        void fail(IOException cause) {
+            lock.lock();
+            try {
+                if (!finished) {
+                    failure = cause;
+                    readable.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Gets the declared length of the body.
+         *
+         * @return the {@code content-length}, or -1 if none was sent
+         */
+        long expectedLength() {
+            return expectedLength;
+        }
+
+        /**
+         * Gets the trailer fields, which are known once the body has been read to the end.
+         *
+         * @return the trailers, empty if none were sent
+         */
+        Map<String, List<String>> getTrailers() {
+            return trailers;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] destination, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            int copied;
+            lock.lock();
+            try {
+                long waitNanos = TimeUnit.MILLISECONDS.toNanos(readTimeout);
+                while (chunks.isEmpty()) {
+                    if (closed) {
+                        throw new IOException("Request body stream closed");
+                    }
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    if (finished) {
+                        return -1;
+                    }
+                    if (readTimeout <= 0) {
+                        readable.await();
+                    } else if (waitNanos <= 0) {
+                        throw new SocketTimeoutException("Timed out reading request body");
+                    } else {
+                        waitNanos = readable.awaitNanos(waitNanos);
+                    }
+                }
+                byte[] chunk = chunks.peek();
+                copied = Math.min(length, chunk.length - chunkOffset);
+                System.arraycopy(chunk, chunkOffset, destination, offset, copied);
+                chunkOffset += copied;
+                if (chunkOffset == chunk.length) {
+                    chunks.poll();
+                    chunkOffset = 0;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading request body", e);
+            } finally {
+                lock.unlock();
+            }
+            connection.bodyConsumed(stream, copied);
+            return copied;
+        }
+
+        /**
+         * Discards the rest of the body. The connection resets the stream if
+         * the client is still sending it once the response is complete.
+         */
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                closed = true;
+                chunks.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
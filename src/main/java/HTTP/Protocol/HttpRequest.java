@@ -1,12 +1,21 @@
 package HTTP.Protocol;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Represents an HTTP request with method, URI, and headers.
- * This class is immutable and provides access to HTTP request components.
+ * This class provides access to HTTP request components and is immutable,
+ * except that the router attaches the values of path parameters once it
+ * has matched the request to a route.
  * 
  * @author HTTP Server Team
  * @version 1.0
@@ -14,23 +23,34 @@ import java.util.Map;
 public class HttpRequest {
     private final HttpMethod httpMethod;
     private final URI uri;
-    private final Map<String, List<String>> requestHeaders;
-    private final String body;
+    private final String httpVersion;
+    private final HeaderFields headerFields;
+    // Built from the header fields when first asked for
+    private volatile Map<String, List<String>> requestHeaders;
+    private final RequestBody body;
+    private String[] pathParameterNames;
+    private String[] pathParameterValues;
 
     /**
      * Private constructor for HttpRequest. Use the Builder pattern to create instances.
      * 
      * @param opCode the HTTP method (GET, POST, etc.)
      * @param uri the request URI
-     * @param requestHeaders the HTTP headers as a map of header names to lists of values
+     * @param httpVersion the protocol version from the request line
+     * @param headerFields the header fields as received, or null if the headers are given as a map
+     * @param requestHeaders the HTTP headers as a map of header names to lists of values, or null
      * @param body the request body
      */
     private HttpRequest(HttpMethod opCode,
                         URI uri,
+                        String httpVersion,
+                        HeaderFields headerFields,
                         Map<String, List<String>> requestHeaders,
-                        String body) {
+                        RequestBody body) {
         this.httpMethod = opCode;
         this.uri = uri;
+        this.httpVersion = httpVersion;
+        this.headerFields = headerFields;
         this.requestHeaders = requestHeaders;
         this.body = body;
     }
@@ -54,23 +74,203 @@ public class HttpRequest {
     }
 
     /**
-     * Gets the HTTP headers of the request.
+     * Gets the protocol version of the request.
+     * 
+     * @return the version from the request line, e.g. {@code HTTP/1.1}
+     */
+    public String getHttpVersion() {
+        return httpVersion;
+    }
+
+    /**
+     * Gets the value of a path parameter of the route the request matched,
+     * such as {@code id} in {@code /users/{id}}.
+     * 
+     * @param name the parameter name
+     * @return the part of the path the parameter matched, or null if the route has no such parameter
+     */
+    public String getPathParameter(String name) {
+        if (pathParameterNames == null) {
+            return null;
+        }
+        for (int i = 0; i < pathParameterNames.length; i++) {
+            if (pathParameterNames[i].equals(name)) {
+                return pathParameterValues[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Attaches the path parameters of the matched route. Called by the
+     * server before the request is handed to the route's handler.
+     * 
+     * @param names the parameter names, in pattern order
+     * @param values the parameter values, in the same order
+     */
+    public void setPathParameters(String[] names, String[] values) {
+        this.pathParameterNames = names;
+        this.pathParameterValues = values;
+    }
+
+    /**
+     * Gets the HTTP headers of the request. For a request decoded from the
+     * connection the map is built on the first call; handlers that only need
+     * a few headers should use {@link #getHeader(String)} instead.
      * 
      * @return a map where keys are header names and values are lists of header values
      */
     public Map<String, List<String>> getRequestHeaders() {
-        return requestHeaders;
+        Map<String, List<String>> headers = requestHeaders;
+        if (headers == null) {
+            headers = headerFields.toMap();
+            requestHeaders = headers;
+        }
+        return headers;
+    }
+
+    /**
+     * Gets the first value of a header, matching the name case-insensitively.
+     * 
+     * @param name the header name
+     * @return the header value, or null if the header is absent
+     */
+    public String getHeader(String name) {
+        if (headerFields != null) {
+            return headerFields.get(name);
+        }
+        for (Map.Entry<String, List<String>> header : requestHeaders.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets every value of a header, matching the name case-insensitively.
+     * 
+     * @param name the header name
+     * @return the values, empty if the header is absent
+     */
+    public List<String> getHeaders(String name) {
+        if (headerFields != null) {
+            return headerFields.getAll(name);
+        }
+        List<String> values = new ArrayList<>(1);
+        for (Map.Entry<String, List<String>> header : requestHeaders.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                values.addAll(header.getValue());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Gets the quality the {@code Accept-Encoding} header gives a content
+     * coding, from its own entry or else from {@code *}. {@code x-gzip} is
+     * taken as {@code gzip}.
+     *
+     * @param coding the content coding, such as {@code gzip}
+     * @return the quality from 0 to 1, where 0 means the coding is not acceptable or the header is absent
+     */
+    public double getEncodingQuality(String coding) {
+        String acceptEncoding = getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return 0;
+        }
+        double named = -1;
+        double any = -1;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parameters = element.split(";");
+            String name = parameters[0].trim();
+            double quality = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.length() > 2 && (parameter.charAt(0) == 'q' || parameter.charAt(0) == 'Q')
+                        && parameter.charAt(1) == '=') {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equalsIgnoreCase(coding) || (coding.equalsIgnoreCase("gzip") && name.equalsIgnoreCase("x-gzip"))) {
+                named = Math.max(named, quality);
+            } else if (name.equals("*")) {
+                any = quality;
+            }
+        }
+        return Math.max(0, named >= 0 ? named : any);
     }
 
     /**
-     * Gets the request body.
+     * Determines whether the client wants the connection kept open after this request.
+     * HTTP/1.1 connections are persistent unless the client sends {@code Connection: close};
+     * HTTP/1.0 connections close unless the client sends {@code Connection: keep-alive}.
+     * 
+     * @return true if the connection should persist
+     */
+    public boolean isKeepAlive() {
+        String connection = getHeader("Connection");
+        if ("HTTP/1.0".equals(httpVersion)) {
+            return connection != null && connection.equalsIgnoreCase("keep-alive");
+        }
+        return connection == null || !connection.equalsIgnoreCase("close");
+    }
+
+    /**
+     * Gets the request body as text, decoded with the charset named in
+     * {@code Content-Type} or UTF-8. A streamed body is read to the end;
+     * handlers expecting large or binary uploads should use
+     * {@link #getRequestBody()} instead.
      * 
      * @return the request body as a string, or null if no body
+     * @throws UncheckedIOException if reading a streamed body fails
      */
     public String getBody() {
+        if (body == null) {
+            return null;
+        }
+        try {
+            return body.getText(getCharset());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Gets the raw request body.
+     * 
+     * @return the body, or null if the request has none
+     */
+    public RequestBody getRequestBody() {
         return body;
     }
 
+    /**
+     * Determines the charset of a text body from the {@code Content-Type} header.
+     * 
+     * @return the declared charset, or UTF-8 if none or an unknown one is declared
+     */
+    private Charset getCharset() {
+        String contentType = getHeader("Content-Type");
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                String[] pair = parameter.trim().split("=", 2);
+                if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+                    try {
+                        return Charset.forName(pair[1].trim().replace("\"", ""));
+                    } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
     /**
      * Builder class for creating HttpRequest instances.
      * Implements the Builder pattern to provide a fluent API for constructing requests.
@@ -81,8 +281,10 @@ public class HttpRequest {
     public static class Builder {
         private HttpMethod httpMethod;
         private URI uri;
+        private String httpVersion;
+        private HeaderFields headerFields;
         private Map<String, List<String>> requestHeaders;
-        private String body;
+        private RequestBody body;
 
         /**
          * Default constructor for Builder.
@@ -112,6 +314,17 @@ public class HttpRequest {
             return this;
         }
 
+        /**
+         * Sets the protocol version for the request.
+         * 
+         * @param httpVersion the version, e.g. {@code HTTP/1.1}
+         * @return this Builder instance for method chaining
+         */
+        public Builder setHttpVersion(String httpVersion) {
+            this.httpVersion = httpVersion;
+            return this;
+        }
+
         /**
          * Sets the HTTP headers for the request.
          * 
@@ -120,16 +333,41 @@ public class HttpRequest {
          */
         public Builder setRequestHeaders(Map<String, List<String>> requestHeaders) {
             this.requestHeaders = requestHeaders;
+            this.headerFields = null;
             return this;
         }
 
         /**
-         * Sets the request body.
+         * Sets the HTTP headers for the request as they were received,
+         * so that header Strings are only built when they are looked up.
+         * 
+         * @param headerFields the header fields to set
+         * @return this Builder instance for method chaining
+         */
+        public Builder setHeaderFields(HeaderFields headerFields) {
+            this.headerFields = headerFields;
+            this.requestHeaders = null;
+            return this;
+        }
+
+        /**
+         * Sets the request body from text, encoded as UTF-8.
          * 
          * @param body the request body to set
          * @return this Builder instance for method chaining
          */
         public Builder setBody(String body) {
+            this.body = body != null ? RequestBody.of(body.getBytes(StandardCharsets.UTF_8)) : null;
+            return this;
+        }
+
+        /**
+         * Sets the raw request body.
+         * 
+         * @param body the request body to set
+         * @return this Builder instance for method chaining
+         */
+        public Builder setBody(RequestBody body) {
             this.body = body;
             return this;
         }
@@ -148,11 +386,14 @@ public class HttpRequest {
             if (uri == null) {
                 throw new IllegalStateException("URI must be set");
             }
-            if (requestHeaders == null) {
+            if (requestHeaders == null && headerFields == null) {
                 requestHeaders = Map.of(); // Use empty map as default
             }
+            if (httpVersion == null) {
+                httpVersion = "HTTP/1.1";
+            }
             
-            return new HttpRequest(httpMethod, uri, requestHeaders, body);
+            return new HttpRequest(httpMethod, uri, httpVersion, headerFields, requestHeaders, body);
         }
     }
 }
\ No newline at end of file
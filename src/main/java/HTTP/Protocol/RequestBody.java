@@ -0,0 +1,174 @@
+package HTTP.Protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The body of an HTTP request, kept as raw bytes.
+ * A small body that arrives together with its head is held in a byte array.
+ * A larger one is exposed as a bounded stream that reads from the connection
+ * while the handler consumes it, so it never has to sit on the heap as a
+ * whole. Text is only decoded when a handler asks for it.
+ *
+ * <p>A streamed body can be consumed once, either through
+ * {@link #getInputStream()} or through {@link #getBytes()}. Trailer fields of
+ * a chunked body are available once the body has been read to the end.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+public class RequestBody implements Closeable {
+
+    private final long length;
+    private final Supplier<Map<String, List<String>>> trailers;
+    private byte[] bytes;
+    private InputStream stream;
+    private boolean consumed;
+
+    private RequestBody(byte[] bytes, InputStream stream, long length,
+                        Supplier<Map<String, List<String>>> trailers) {
+        this.bytes = bytes;
+        this.stream = stream;
+        this.length = length;
+        this.trailers = trailers;
+    }
+
+    /**
+     * Creates a body held in memory.
+     *
+     * @param bytes the body bytes
+     * @return the body
+     */
+    public static RequestBody of(byte[] bytes) {
+        return new RequestBody(bytes, null, bytes.length, null);
+    }
+
+    /**
+     * Creates a body held in memory that was followed by trailer fields.
+     *
+     * @param bytes the body bytes
+     * @param trailers the trailer fields
+     * @return the body
+     */
+    public static RequestBody of(byte[] bytes, Map<String, List<String>> trailers) {
+        return new RequestBody(bytes, null, bytes.length, () -> trailers);
+    }
+
+    /**
+     * Creates a body read from a stream while the handler consumes it.
+     *
+     * @param stream the stream delivering exactly the body bytes
+     * @param length the body length in bytes, or -1 if not known in advance
+     * @return the body
+     */
+    public static RequestBody of(InputStream stream, long length) {
+        return new RequestBody(null, stream, length, null);
+    }
+
+    /**
+     * Creates a body read from a stream whose trailer fields are known once the stream has ended.
+     *
+     * @param stream the stream delivering exactly the body bytes
+     * @param length the body length in bytes, or -1 if not known in advance
+     * @param trailers supplies the trailer fields received so far
+     * @return the body
+     */
+    public static RequestBody of(InputStream stream, long length, Supplier<Map<String, List<String>>> trailers) {
+        return new RequestBody(null, stream, length, trailers);
+    }
+
+    /**
+     * Gets the body length.
+     *
+     * @return the length in bytes, or -1 if it is not known in advance
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the trailer fields sent after a chunked body.
+     *
+     * @return the trailers; empty if none were sent or a streamed body has not been read to the end
+     */
+    public Map<String, List<String>> getTrailers() {
+        return trailers != null ? trailers.get() : Map.of();
+    }
+
+    /**
+     * Checks whether the whole body is already in memory.
+     *
+     * @return true if the body is held in a byte array
+     */
+    public boolean isBuffered() {
+        return bytes != null;
+    }
+
+    /**
+     * Gets a stream over the body bytes.
+     *
+     * @return the body stream
+     * @throws IllegalStateException if a streamed body has already been consumed
+     */
+    public InputStream getInputStream() {
+        if (bytes != null) {
+            return new ByteArrayInputStream(bytes);
+        }
+        checkNotConsumed();
+        consumed = true;
+        return stream;
+    }
+
+    /**
+     * Gets the body as a byte array, reading a streamed body to the end.
+     *
+     * @return the body bytes
+     * @throws IOException if reading a streamed body fails
+     * @throws IllegalStateException if a streamed body has already been consumed through its stream
+     */
+    public byte[] getBytes() throws IOException {
+        if (bytes == null) {
+            checkNotConsumed();
+            consumed = true;
+            bytes = stream.readAllBytes();
+            stream = null;
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes the body as text.
+     *
+     * @param charset the charset to decode with
+     * @return the body text
+     * @throws IOException if reading a streamed body fails
+     */
+    public String getText(Charset charset) throws IOException {
+        return new String(getBytes(), charset);
+    }
+
+    /**
+     * Releases a streamed body. Bytes the handler did not read are discarded
+     * as they arrive, so the connection can move on to the next request.
+     *
+     * @throws IOException if closing the stream fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private void checkNotConsumed() {
+        if (consumed) {
+            throw new IllegalStateException("Request body has already been consumed");
+        }
+    }
+}
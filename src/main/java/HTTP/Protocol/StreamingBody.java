@@ -0,0 +1,40 @@
+package HTTP.Protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Response entity that is generated while it is being sent.
+ * Instead of building the whole body in memory, a handler returns a
+ * {@code StreamingBody} as the entity of its {@link HttpResponse}; the server
+ * sends the head, then calls {@link #writeTo(OutputStream)} and transmits the
+ * output with {@code Transfer-Encoding: chunked} as it is produced.
+ *
+ * <p>Writes block while the client is slower than the handler, so a large
+ * payload never accumulates on the server. Calling {@code flush()} on the
+ * stream sends what has been written so far.
+ *
+ * <pre>{@code
+ * return new HttpResponse(200, headers, (StreamingBody) output -> {
+ *     for (Row row : rows) {
+ *         output.write(row.toCsv().getBytes(StandardCharsets.UTF_8));
+ *     }
+ * });
+ * }</pre>
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface StreamingBody {
+
+    /**
+     * Writes the response body.
+     * The stream must not be used after this method returns.
+     *
+     * @param output the sink for the body bytes
+     * @throws IOException if the client goes away or writing fails; the
+     *         response is then cut off and the connection closed
+     */
+    void writeTo(OutputStream output) throws IOException;
+}
@@ -0,0 +1,36 @@
+package HTTP.Request;
+
+import java.util.concurrent.CompletableFuture;
+
+import HTTP.Protocol.HttpRequest;
+import HTTP.Protocol.HttpResponse;
+
+/**
+ * Interface for handlers that produce their response asynchronously.
+ * Where an {@link HttpRequestHandler} holds a worker thread until it returns,
+ * an asynchronous handler starts its work, returns a future at once and
+ * completes it later, for example from the callback of a non-blocking client.
+ * With the NIO transport no thread is held while the future is pending.
+ *
+ * <p>A future that is not complete within the configured handler timeout is
+ * completed with a {@link java.util.concurrent.TimeoutException} and answered
+ * with {@code 503 Service Unavailable}. A future completed exceptionally is
+ * answered like a handler that threw. On the NIO transport the future is
+ * cancelled if the client disconnects first, so handlers can stop work nobody
+ * is waiting for by reacting to cancellation; the blocking transport waits
+ * for the future on the connection's thread.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface AsyncHttpRequestHandler {
+
+    /**
+     * Starts handling an HTTP request. Must not block.
+     *
+     * @param request the HTTP request to handle
+     * @return a future completed with the HTTP response to send back
+     */
+    CompletableFuture<HttpResponse> handleAsync(HttpRequest request);
+}
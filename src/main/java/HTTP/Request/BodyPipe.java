@@ -0,0 +1,223 @@
+package HTTP.Request;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands a request body from the thread that receives it to the handler
+ * thread that reads it. The receiving side pushes chunks with
+ * {@link #offer(ByteBuffer, int)}; the handler reads them as a normal
+ * blocking {@link InputStream}.
+ *
+ * <p>Buffered bytes are bounded: once {@link #HIGH_WATER} bytes are waiting,
+ * {@link #isBacklogged()} tells the receiver to stop reading from the socket,
+ * and the drain listener is called when the handler has brought the backlog
+ * down to {@link #LOW_WATER}. A {@link ReentrantLock} is used rather than a
+ * monitor so that virtual threads waiting for data do not pin their carrier.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+class BodyPipe extends InputStream {
+
+    static final int HIGH_WATER = 256 * 1024;
+    static final int LOW_WATER = 64 * 1024;
+
+    private final ReentrantLock lock;
+    private final Condition readable;
+    private final ArrayDeque<byte[]> chunks;
+    private final long readTimeout;
+    private final Runnable drainListener;
+    private int chunkOffset;
+    private long buffered;
+    private boolean backlogged;
+    private boolean finished;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * Creates an empty pipe.
+     *
+     * @param readTimeout how long a read waits for data, in milliseconds
+     * @param drainListener called on the reading thread when a backlog has drained; may be null
+     */
+    BodyPipe(long readTimeout, Runnable drainListener) {
+        this.lock = new ReentrantLock();
+        this.readable = lock.newCondition();
+        this.chunks = new ArrayDeque<>();
+        this.readTimeout = readTimeout;
+        this.drainListener = drainListener;
+    }
+
+    /**
+     * Copies received body bytes into the pipe. Bytes offered after the
+     * reader closed the pipe are discarded.
+     *
+     * @param source the received bytes; its position is advanced by {@code length}
+     * @param length the number of bytes to take
+     */
+    void offer(ByteBuffer source, int length) {
+        lock.lock();
+        try {
+            if (closed || failure != null) {
+                source.position(source.position() + length);
+                return;
+            }
+            byte[] chunk = new byte[length];
+            source.get(chunk);
+            chunks.add(chunk);
+            buffered += length;
+            if (buffered >= HIGH_WATER) {
+                backlogged = true;
+            }
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the end of the body.
+     */
+    void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends the body abnormally, for example when the connection closes mid-body.
+     *
+     * @param cause the error subsequent reads will throw
+     */
+    void fail(IOException cause) {
+        lock.lock();
+        try {
+            if (!finished && failure == null) {
+                failure = cause;
+                readable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks whether the receiver should stop reading until the handler catches up.
+     *
+     * @return true while more than the high-water mark is buffered
+     */
+    boolean isBacklogged() {
+        lock.lock();
+        try {
+            return backlogged;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        boolean drained = false;
+        int read = 0;
+        lock.lock();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readTimeout);
+            while (chunks.isEmpty()) {
+                if (closed) {
+                    throw new IOException("Request body stream closed");
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                if (finished) {
+                    return -1;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Timed out waiting for request body");
+                }
+                readable.awaitNanos(remaining);
+            }
+
+            while (read < length && !chunks.isEmpty()) {
+                byte[] chunk = chunks.peek();
+                int count = Math.min(length - read, chunk.length - chunkOffset);
+                System.arraycopy(chunk, chunkOffset, target, offset + read, count);
+                read += count;
+                chunkOffset += count;
+                if (chunkOffset == chunk.length) {
+                    chunks.poll();
+                    chunkOffset = 0;
+                }
+            }
+            buffered -= read;
+            if (backlogged && buffered <= LOW_WATER) {
+                backlogged = false;
+                drained = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for request body", e);
+        } finally {
+            lock.unlock();
+        }
+        if (drained && drainListener != null) {
+            drainListener.run();
+        }
+        return read;
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return (int) Math.min(buffered, Integer.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops reading the body. Buffered bytes are dropped and later ones
+     * discarded, releasing any backpressure on the connection.
+     */
+    @Override
+    public void close() {
+        boolean drained;
+        lock.lock();
+        try {
+            closed = true;
+            chunks.clear();
+            buffered = 0;
+            drained = backlogged;
+            backlogged = false;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (drained && drainListener != null) {
+            drainListener.run();
+        }
+    }
+}
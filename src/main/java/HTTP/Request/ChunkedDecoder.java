@@ -0,0 +1,249 @@
+package HTTP.Request;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental decoder for a request body sent with {@code Transfer-Encoding: chunked}.
+ *
+ * <p>The decoder walks the chunk framing byte by byte and hands payload bytes
+ * back to the caller in place, without copying them: {@link #next(ByteBuffer, int)}
+ * skips framing and returns how many payload bytes start at the buffer's
+ * position. Like {@link HttpRequestParser} it keeps its state between calls,
+ * so framing split across reads is handled transparently. Trailer fields
+ * after the last chunk are collected and available once the body has ended.
+ *
+ * <p>Chunk sizes, the total body size and the trailer section are bounded
+ * so that a client cannot make the server buffer or accept unlimited data.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+public class ChunkedDecoder {
+
+    /** Returned by {@link #next(ByteBuffer, int)} once the last chunk and trailers have been read. */
+    public static final int END = -1;
+
+    private static final int MAX_SIZE_DIGITS = 15;
+    private static final int MAX_EXTENSION_LENGTH = 1024;
+
+    // Decoder states
+    private static final int SIZE = 0;
+    private static final int EXTENSION = 1;
+    private static final int SIZE_LF = 2;
+    private static final int DATA = 3;
+    private static final int DATA_CR = 4;
+    private static final int DATA_LF = 5;
+    private static final int TRAILER = 6;
+    private static final int DONE = 7;
+
+    private final long maxChunkSize;
+    private final long maxBodySize;
+    private final int maxTrailerSize;
+
+    private int state;
+    private int digits;
+    private int extensionLength;
+    private long chunkRemaining;
+    private long total;
+    private byte[] line;
+    private int lineLength;
+    private int trailerSize;
+    private Map<String, List<String>> trailers;
+
+    /**
+     * Creates a decoder for one chunked body.
+     *
+     * @param maxChunkSize the largest chunk accepted, in bytes
+     * @param maxBodySize the largest total payload accepted, in bytes
+     * @param maxTrailerSize the largest trailer section accepted, in bytes
+     */
+    public ChunkedDecoder(long maxChunkSize, long maxBodySize, int maxTrailerSize) {
+        this.maxChunkSize = maxChunkSize;
+        this.maxBodySize = maxBodySize;
+        this.maxTrailerSize = maxTrailerSize;
+        this.state = SIZE;
+    }
+
+    /**
+     * Consumes framing bytes and returns how many payload bytes follow at the
+     * source position. The caller must consume exactly that many bytes, by
+     * advancing the position, before calling again.
+     *
+     * @param source the received bytes
+     * @param max the most payload bytes the caller can take, greater than zero
+     * @return the number of payload bytes at the position, 0 if more input is
+     *         needed, or {@link #END} once the body is complete
+     * @throws DecodingException if the framing is invalid or a limit is exceeded
+     */
+    public int next(ByteBuffer source, int max) throws DecodingException {
+        while (state != DONE && source.hasRemaining()) {
+            if (state == DATA) {
+                int length = (int) Math.min(Math.min(chunkRemaining, source.remaining()), max);
+                chunkRemaining -= length;
+                if (chunkRemaining == 0) {
+                    state = DATA_CR;
+                }
+                return length;
+            }
+            accept(source.get());
+        }
+        return state == DONE ? END : 0;
+    }
+
+    /**
+     * Checks whether the last chunk and the trailers have been read.
+     *
+     * @return true once the body is complete
+     */
+    public boolean isFinished() {
+        return state == DONE;
+    }
+
+    /**
+     * Gets the number of payload bytes decoded so far, including those just returned.
+     *
+     * @return the payload size in bytes
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Gets the trailer fields sent after the last chunk.
+     *
+     * @return the trailers; empty if none were sent or the body has not ended yet
+     */
+    public Map<String, List<String>> getTrailers() {
+        return trailers != null && state == DONE ? trailers : Collections.emptyMap();
+    }
+
+    private void accept(byte b) throws DecodingException {
+        switch (state) {
+            case SIZE:
+                int digit = Character.digit(b, 16);
+                if (digit >= 0) {
+                    if (++digits > MAX_SIZE_DIGITS) {
+                        throw new DecodingException(400, "Invalid chunk size");
+                    }
+                    chunkRemaining = chunkRemaining * 16 + digit;
+                    if (chunkRemaining > maxChunkSize) {
+                        throw new DecodingException(413, "Chunk exceeds " + maxChunkSize + " bytes");
+                    }
+                } else if (digits == 0) {
+                    throw new DecodingException(400, "Invalid chunk size");
+                } else if (b == ';' || b == ' ' || b == '\t') {
+                    state = EXTENSION;
+                } else if (b == '\r') {
+                    state = SIZE_LF;
+                } else if (b == '\n') {
+                    endSizeLine();
+                } else {
+                    throw new DecodingException(400, "Invalid chunk size");
+                }
+                break;
+            case EXTENSION:
+                // Chunk extensions carry nothing this server uses
+                if (b == '\r') {
+                    state = SIZE_LF;
+                } else if (b == '\n') {
+                    endSizeLine();
+                } else if (++extensionLength > MAX_EXTENSION_LENGTH) {
+                    throw new DecodingException(400, "Chunk extension too long");
+                }
+                break;
+            case SIZE_LF:
+                expectLineFeed(b);
+                endSizeLine();
+                break;
+            case DATA_CR:
+                if (b == '\r') {
+                    state = DATA_LF;
+                } else if (b == '\n') {
+                    startSizeLine();
+                } else {
+                    throw new DecodingException(400, "Missing CRLF after chunk data");
+                }
+                break;
+            case DATA_LF:
+                expectLineFeed(b);
+                startSizeLine();
+                break;
+            case TRAILER:
+                if (b == '\n') {
+                    endTrailerLine();
+                } else if (b != '\r') {
+                    appendTrailerByte(b);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown decoder state " + state);
+        }
+    }
+
+    private static void expectLineFeed(byte b) throws DecodingException {
+        if (b != '\n') {
+            throw new DecodingException(400, "Expected line feed");
+        }
+    }
+
+    private void startSizeLine() {
+        state = SIZE;
+        digits = 0;
+        extensionLength = 0;
+        chunkRemaining = 0;
+    }
+
+    private void endSizeLine() throws DecodingException {
+        if (chunkRemaining == 0) {
+            state = TRAILER;
+            return;
+        }
+        total += chunkRemaining;
+        if (total > maxBodySize) {
+            throw new DecodingException(413, "Request body exceeds " + maxBodySize + " bytes");
+        }
+        state = DATA;
+    }
+
+    private void appendTrailerByte(byte b) throws DecodingException {
+        if (++trailerSize > maxTrailerSize) {
+            throw new DecodingException(431, "Trailer section exceeds " + maxTrailerSize + " bytes");
+        }
+        if (line == null) {
+            line = new byte[128];
+        } else if (lineLength == line.length) {
+            byte[] grown = new byte[line.length * 2];
+            System.arraycopy(line, 0, grown, 0, lineLength);
+            line = grown;
+        }
+        line[lineLength++] = b;
+    }
+
+    /**
+     * Records a trailer field, or ends the body on the blank line after the trailers.
+     */
+    private void endTrailerLine() throws DecodingException {
+        if (lineLength == 0) {
+            state = DONE;
+            line = null;
+            return;
+        }
+        String field = new String(line, 0, lineLength, StandardCharsets.ISO_8859_1);
+        lineLength = 0;
+        int colon = field.indexOf(':');
+        if (colon <= 0 || field.charAt(0) == ' ' || field.charAt(0) == '\t') {
+            throw new DecodingException(400, "Invalid trailer field");
+        }
+        if (trailers == null) {
+            trailers = new HashMap<>();
+        }
+        trailers.computeIfAbsent(field.substring(0, colon).trim(), k -> new ArrayList<>(1))
+                .add(field.substring(colon + 1).trim());
+    }
+}
@@ -0,0 +1,38 @@
+package HTTP.Request;
+
+import java.io.IOException;
+
+/**
+ * Signals that the bytes received on a connection do not form an acceptable
+ * HTTP request. Carries the status code the server should answer with
+ * before closing the connection.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+public class DecodingException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    /**
+     * Creates a new DecodingException.
+     *
+     * @param statusCode the HTTP status code to respond with, e.g. 400 or 413
+     * @param message the reason the request was rejected
+     */
+    public DecodingException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Gets the HTTP status code to respond with.
+     *
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
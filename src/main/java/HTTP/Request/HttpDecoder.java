@@ -66,7 +66,7 @@ public class HttpDecoder {
             
             String method = parts[0];
             String uri = parts[1];
-            // String version = parts[2]; // HTTP version not used in current implementation
+            String version = parts[2];
             
             // Parse HTTP method
             HttpMethod httpMethod = parseHttpMethod(method);
@@ -90,6 +90,7 @@ public class HttpDecoder {
             HttpRequest request = new HttpRequest.Builder()
                     .setHttpMethod(httpMethod)
                     .setUri(requestUri)
+                    .setHttpVersion(version)
                     .setRequestHeaders(headers)
                     .setBody(body)
                     .build();
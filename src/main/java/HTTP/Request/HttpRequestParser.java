@@ -0,0 +1,507 @@
+package HTTP.Request;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+import HTTP.Protocol.HeaderFields;
+import HTTP.Protocol.HttpMethod;
+
+/**
+ * Incremental HTTP/1.x request head parser working directly on bytes.
+ *
+ * <p>The parser is a state machine that walks the request line and headers
+ * byte by byte. Instead of building Strings it records the offsets of the
+ * method, target, and every header name and value, relative to the first
+ * byte of the request. It is resumable: when a head arrives split across
+ * several reads, {@link #parse(ByteBuffer)} is simply called again with the
+ * longer buffer and continues where it stopped. Because offsets are relative,
+ * the caller may move the unparsed bytes (for example when compacting its
+ * buffer) between calls.
+ *
+ * <p>{@code Content-Length} and {@code Transfer-Encoding} are recognised
+ * while parsing so the framing of the body is known without materialising
+ * any header. The headers are handed on as a copy of the head with their
+ * offsets in it, so their Strings are only created when a handler looks them up.
+ *
+ * <p>Instances are not thread-safe and are reused through {@link #reset()}.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+public class HttpRequestParser {
+
+    private static final int MAX_HEADERS = 100;
+
+    private static final HttpMethod[] METHODS = HttpMethod.values();
+    private static final byte[][] METHOD_NAMES = new byte[METHODS.length][];
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CHUNKED = "chunked".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_SLASH = "http/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_1 = "http/1.".getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        for (int i = 0; i < METHODS.length; i++) {
+            METHOD_NAMES[i] = METHODS[i].name().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    // Parser states
+    private static final int METHOD = 0;
+    private static final int TARGET = 1;
+    private static final int VERSION = 2;
+    private static final int REQUEST_LINE_LF = 3;
+    private static final int HEADER_LINE_START = 4;
+    private static final int HEADER_NAME = 5;
+    private static final int HEADER_VALUE_START = 6;
+    private static final int HEADER_VALUE = 7;
+    private static final int HEADER_LINE_LF = 8;
+    private static final int HEAD_END_LF = 9;
+    private static final int DONE = 10;
+
+    private final int maxHeadSize;
+    // nameStart, nameEnd, valueStart, valueEnd for each header
+    private final int[] headerOffsets;
+
+    private ByteBuffer buffer;
+    private int base;
+    private byte[] array;
+    private int arrayBase;
+    private int state;
+    private int pos;
+    private int tokenStart;
+    private int nameEnd;
+    private int valueStart;
+    private int valueEnd;
+    private int headerCount;
+
+    private HttpMethod method;
+    private int targetStart;
+    private int targetEnd;
+    private int versionMinor;
+    private long contentLength;
+    private int transferEncodingIndex;
+    private int transferCodings;
+    private boolean unsupportedTransferCoding;
+
+    /**
+     * Creates a parser.
+     *
+     * @param maxHeadSize the maximum size in bytes of the request line plus headers
+     */
+    public HttpRequestParser(int maxHeadSize) {
+        this.maxHeadSize = maxHeadSize;
+        this.headerOffsets = new int[MAX_HEADERS * 4];
+        reset();
+    }
+
+    /**
+     * Prepares the parser for the next request.
+     */
+    public final void reset() {
+        buffer = null;
+        array = null;
+        state = METHOD;
+        pos = 0;
+        tokenStart = 0;
+        headerCount = 0;
+        method = null;
+        contentLength = -1;
+        transferEncodingIndex = -1;
+        transferCodings = 0;
+        unsupportedTransferCoding = false;
+    }
+
+    /**
+     * Parses as much of the request head as the buffer holds.
+     * The request must start at the buffer's position; the buffer's position
+     * and limit are not modified. The buffer must stay unchanged until the
+     * accessors have been used, and on the next call must contain the same
+     * bytes (possibly at a different position) followed by newly received ones.
+     *
+     * @param source the received bytes, from the start of the request to the limit
+     * @return true once the head is complete
+     * @throws DecodingException if the bytes are not a valid HTTP/1.x request head
+     */
+    public boolean parse(ByteBuffer source) throws DecodingException {
+        buffer = source;
+        base = source.position();
+        // Heap buffers are read through their array, which avoids a bounds-checked call per byte
+        array = source.hasArray() ? source.array() : null;
+        arrayBase = source.hasArray() ? source.arrayOffset() + base : 0;
+        if (state == DONE) {
+            return true;
+        }
+
+        int available = source.limit() - base;
+        while (pos < available) {
+            byte b = byteAt(pos);
+            switch (state) {
+                case METHOD:
+                    if (b == ' ') {
+                        method = matchMethod(tokenStart, pos);
+                        targetStart = pos + 1;
+                        state = TARGET;
+                    } else if ((b == '\r' || b == '\n') && pos == tokenStart) {
+                        // Tolerate empty lines before the request line
+                        tokenStart = pos + 1;
+                    } else if (!isTokenChar(b)) {
+                        throw new DecodingException(400, "Invalid request method");
+                    }
+                    break;
+                case TARGET:
+                    if (b == ' ') {
+                        if (pos == targetStart) {
+                            throw new DecodingException(400, "Empty request target");
+                        }
+                        targetEnd = pos;
+                        tokenStart = pos + 1;
+                        state = VERSION;
+                    } else if (b <= ' ' || b == 0x7f) {
+                        throw new DecodingException(400, "Invalid request target");
+                    }
+                    break;
+                case VERSION:
+                    if (b == '\r') {
+                        parseVersion(pos);
+                        state = REQUEST_LINE_LF;
+                    } else if (b == '\n') {
+                        parseVersion(pos);
+                        state = HEADER_LINE_START;
+                    }
+                    break;
+                case REQUEST_LINE_LF:
+                    expectLineFeed(b);
+                    state = HEADER_LINE_START;
+                    break;
+                case HEADER_LINE_START:
+                    if (b == '\r') {
+                        state = HEAD_END_LF;
+                    } else if (b == '\n') {
+                        return complete();
+                    } else if (isTokenChar(b)) {
+                        tokenStart = pos;
+                        state = HEADER_NAME;
+                    } else {
+                        // Includes obsolete line folding, which RFC 9112 lets servers reject
+                        throw new DecodingException(400, "Invalid header line");
+                    }
+                    break;
+                case HEADER_NAME:
+                    if (b == ':') {
+                        nameEnd = pos;
+                        state = HEADER_VALUE_START;
+                    } else if (!isTokenChar(b)) {
+                        throw new DecodingException(400, "Invalid header name");
+                    }
+                    break;
+                case HEADER_VALUE_START:
+                    if (b == ' ' || b == '\t') {
+                        break;
+                    }
+                    valueStart = pos;
+                    valueEnd = pos;
+                    if (b == '\r') {
+                        state = HEADER_LINE_LF;
+                    } else if (b == '\n') {
+                        addHeader();
+                        state = HEADER_LINE_START;
+                    } else {
+                        checkValueChar(b);
+                        valueEnd = pos + 1;
+                        state = HEADER_VALUE;
+                    }
+                    break;
+                case HEADER_VALUE:
+                    if (b == '\r') {
+                        state = HEADER_LINE_LF;
+                    } else if (b == '\n') {
+                        addHeader();
+                        state = HEADER_LINE_START;
+                    } else if (b != ' ' && b != '\t') {
+                        checkValueChar(b);
+                        valueEnd = pos + 1;
+                    }
+                    break;
+                case HEADER_LINE_LF:
+                    expectLineFeed(b);
+                    addHeader();
+                    state = HEADER_LINE_START;
+                    break;
+                case HEAD_END_LF:
+                    expectLineFeed(b);
+                    return complete();
+                default:
+                    throw new IllegalStateException("Unknown parser state " + state);
+            }
+            pos++;
+            if (pos > maxHeadSize) {
+                throw new DecodingException(431, "Request head exceeds " + maxHeadSize + " bytes");
+            }
+        }
+        return false;
+    }
+
+    private boolean complete() {
+        pos++;
+        state = DONE;
+        return true;
+    }
+
+    private static void expectLineFeed(byte b) throws DecodingException {
+        if (b != '\n') {
+            throw new DecodingException(400, "Expected line feed");
+        }
+    }
+
+    private static void checkValueChar(byte b) throws DecodingException {
+        // Bytes of 0x80 and above are negative here; they are obs-text and allowed
+        if ((b >= 0 && b < ' ' && b != '\t') || b == 0x7f) {
+            throw new DecodingException(400, "Invalid header value");
+        }
+    }
+
+    /**
+     * Checks whether a byte may appear in a method or header name (RFC 9110 tchar).
+     */
+    private static boolean isTokenChar(byte b) {
+        if (b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9') {
+            return true;
+        }
+        switch (b) {
+            case '!': case '#': case '$': case '%': case '&': case '\'': case '*':
+            case '+': case '-': case '.': case '^': case '_': case '`': case '|': case '~':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private HttpMethod matchMethod(int from, int to) throws DecodingException {
+        if (from == to) {
+            throw new DecodingException(400, "Empty request method");
+        }
+        for (int i = 0; i < METHODS.length; i++) {
+            if (equalsIgnoreCase(from, to, METHOD_NAMES[i])) {
+                return METHODS[i];
+            }
+        }
+        throw new DecodingException(501, "Unsupported request method");
+    }
+
+    private void parseVersion(int end) throws DecodingException {
+        if (end - tokenStart < HTTP_SLASH.length
+                || !equalsIgnoreCase(tokenStart, tokenStart + HTTP_SLASH.length, HTTP_SLASH)) {
+            throw new DecodingException(400, "Invalid HTTP version");
+        }
+        byte minor = byteAt(end - 1);
+        if (end - tokenStart != HTTP_1.length + 1 || !equalsIgnoreCase(tokenStart, end - 1, HTTP_1)
+                || (minor != '0' && minor != '1')) {
+            throw new DecodingException(505, "Unsupported HTTP version");
+        }
+        versionMinor = minor - '0';
+    }
+
+    /**
+     * Records the header that just ended and recognises the ones that affect framing.
+     */
+    private void addHeader() throws DecodingException {
+        if (headerCount == MAX_HEADERS) {
+            throw new DecodingException(431, "Too many request headers");
+        }
+        int slot = headerCount * 4;
+        headerOffsets[slot] = tokenStart;
+        headerOffsets[slot + 1] = nameEnd;
+        headerOffsets[slot + 2] = valueStart;
+        headerOffsets[slot + 3] = valueEnd;
+
+        if (equalsIgnoreCase(tokenStart, nameEnd, CONTENT_LENGTH)) {
+            long length = parseLength(valueStart, valueEnd);
+            if (contentLength != -1 && contentLength != length) {
+                throw new DecodingException(400, "Conflicting Content-Length headers");
+            }
+            contentLength = length;
+        } else if (equalsIgnoreCase(tokenStart, nameEnd, TRANSFER_ENCODING)) {
+            transferEncodingIndex = headerCount;
+            addTransferCodings(valueStart, valueEnd);
+        }
+        headerCount++;
+    }
+
+    /**
+     * Adds the codings listed in a {@code Transfer-Encoding} value to those of
+     * the fields before it, which together form one list (RFC 9110, section 5.3).
+     */
+    private void addTransferCodings(int from, int to) {
+        int elementStart = from;
+        while (elementStart <= to) {
+            int elementEnd = elementStart;
+            while (elementEnd < to && byteAt(elementEnd) != ',') {
+                elementEnd++;
+            }
+            int next = elementEnd + 1;
+            while (elementStart < elementEnd && isWhitespace(byteAt(elementStart))) {
+                elementStart++;
+            }
+            while (elementEnd > elementStart && isWhitespace(byteAt(elementEnd - 1))) {
+                elementEnd--;
+            }
+            // Empty list elements are allowed and do not count
+            if (elementStart < elementEnd) {
+                transferCodings++;
+                if (!equalsIgnoreCase(elementStart, elementEnd, CHUNKED)) {
+                    unsupportedTransferCoding = true;
+                }
+            }
+            elementStart = next;
+        }
+    }
+
+    /**
+     * Checks whether a byte is optional whitespace around a list element.
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private long parseLength(int from, int to) throws DecodingException {
+        if (from == to || to - from > 18) {
+            throw new DecodingException(400, "Invalid Content-Length");
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            byte b = byteAt(i);
+            if (b < '0' || b > '9') {
+                throw new DecodingException(400, "Invalid Content-Length");
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private byte byteAt(int offset) {
+        return array != null ? array[arrayBase + offset] : buffer.get(base + offset);
+    }
+
+    /**
+     * Compares a region of the request with an ASCII name, ignoring case.
+     *
+     * @param from the start offset of the region
+     * @param to the end offset of the region
+     * @param lowerCase the name to compare with, in lower case
+     * @return true if the region matches
+     */
+    private boolean equalsIgnoreCase(int from, int to, byte[] lowerCase) {
+        if (to - from != lowerCase.length) {
+            return false;
+        }
+        for (int i = 0; i < lowerCase.length; i++) {
+            byte b = byteAt(from + i);
+            byte c = lowerCase[i];
+            if (b != c && !(c >= 'a' && c <= 'z' && (b | 0x20) == c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String string(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(base + from, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Gets the length of the parsed head, including the blank line that ends it.
+     *
+     * @return the offset of the first body byte
+     */
+    public int getHeadLength() {
+        return pos;
+    }
+
+    /**
+     * Gets the request method.
+     *
+     * @return the method
+     */
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    /**
+     * Gets the request target from the request line.
+     *
+     * @return the target, e.g. {@code /files?sort=name}
+     */
+    public String getTarget() {
+        return string(targetStart, targetEnd);
+    }
+
+    /**
+     * Gets the protocol version of the request.
+     *
+     * @return {@code HTTP/1.0} or {@code HTTP/1.1}
+     */
+    public String getVersion() {
+        return versionMinor == 0 ? "HTTP/1.0" : "HTTP/1.1";
+    }
+
+    /**
+     * Gets the number of headers.
+     *
+     * @return the header count
+     */
+    public int getHeaderCount() {
+        return headerCount;
+    }
+
+    /**
+     * Gets the declared body length.
+     *
+     * @return the {@code Content-Length} value, or -1 if absent
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Gets the index of the {@code Transfer-Encoding} header.
+     *
+     * @return the header index, or -1 if absent
+     */
+    public int getTransferEncodingIndex() {
+        return transferEncodingIndex;
+    }
+
+    /**
+     * Checks that the transfer codings of every {@code Transfer-Encoding}
+     * header, taken together, are exactly {@code chunked}, the only coding
+     * the server decodes.
+     *
+     * @throws DecodingException with status 501 if another coding is used, or
+     *         400 if no coding is listed or {@code chunked} is listed more than once
+     */
+    public void checkTransferCodings() throws DecodingException {
+        if (unsupportedTransferCoding) {
+            throw new DecodingException(501, "Unsupported transfer coding");
+        }
+        if (transferCodings != 1) {
+            throw new DecodingException(400, "Invalid Transfer-Encoding");
+        }
+    }
+
+    /**
+     * Copies the head and the offsets of its headers into the fields handed
+     * to request handlers, which outlive the buffer that was parsed.
+     *
+     * @return the header fields
+     */
+    public HeaderFields getHeaderFields() {
+        byte[] head = new byte[pos];
+        buffer.get(base, head);
+        return new HeaderFields(head, Arrays.copyOf(headerOffsets, headerCount * 4), headerCount);
+    }
+}
@@ -0,0 +1,601 @@
+package HTTP.Request;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Optional;
+
+import HTTP.Protocol.HttpRequest;
+import HTTP.Protocol.RequestBody;
+
+/**
+ * Per-connection HTTP request decoder.
+ * Unlike {@link HttpDecoder#decode(InputStream)}, which wraps the stream in a
+ * fresh reader on every call, this decoder owns the connection's receive
+ * buffer: bytes that arrive past the end of one request are kept and parsed
+ * as the next one, so pipelined requests are decoded back to back. Heads are
+ * parsed in place by an {@link HttpRequestParser}; Strings are only built for
+ * the finished request.
+ *
+ * <p>Bodies up to the stream threshold are collected before the request is
+ * returned and handed over as a byte array. Larger bodies are streamed: the
+ * request is returned as soon as its head is complete, and its body reads
+ * from the connection while the handler consumes it. Bytes a handler leaves
+ * unread are discarded before the next request is decoded. Bodies sent with
+ * {@code Transfer-Encoding: chunked} are unframed by a {@link ChunkedDecoder};
+ * they are buffered if they have already fully arrived and fit under the
+ * threshold, and streamed otherwise.
+ *
+ * <p>The decoder can be fed from a blocking stream with {@link #read(InputStream)}
+ * or from non-blocking reads with {@link #feed(ByteBuffer)} and {@link #poll()}.
+ * It is not thread-safe; each connection uses its own instance.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+public class RequestDecoder {
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    private static final int MIN_READ_SIZE = 4096;
+
+    private final int maxHeadSize;
+    private final int maxRequestSize;
+    private final int streamThreshold;
+    private final int maxChunkSize;
+    private final HttpRequestParser parser;
+    private byte[] buffer;
+    private ByteBuffer view;
+    private int start;
+    private int end;
+
+    private long headTimeout;
+    private long bodyReadTimeout;
+    private Runnable drainListener;
+    private BodyPipe pipe;
+    private long pipeRemaining;
+    private ChunkedDecoder pipeChunks;
+    private StreamedBody streamedBody;
+
+    /**
+     * Creates a new decoder.
+     *
+     * @param maxHeadSize the maximum size in bytes of the request line plus headers
+     * @param maxRequestSize the maximum size in bytes of a single request
+     * @param streamThreshold the body size above which bodies are streamed instead of buffered
+     * @param maxChunkSize the largest chunk accepted in a chunked body
+     */
+    public RequestDecoder(int maxHeadSize, int maxRequestSize, int streamThreshold, int maxChunkSize) {
+        this.maxHeadSize = maxHeadSize;
+        this.maxRequestSize = maxRequestSize;
+        this.streamThreshold = streamThreshold;
+        this.maxChunkSize = maxChunkSize;
+        this.parser = new HttpRequestParser(maxHeadSize);
+    }
+
+    /**
+     * Sets how long {@link #read(InputStream)} allows for a request to arrive
+     * once its first bytes have been received. The deadline is not extended
+     * by further bytes, so a client trickling its head is rejected with 408.
+     *
+     * @param timeout the request read timeout in milliseconds, or 0 for none
+     */
+    public void setHeadTimeout(long timeout) {
+        this.headTimeout = timeout;
+    }
+
+    /**
+     * Sets how long a handler reading a streamed body waits for the next bytes
+     * when the decoder is fed with {@link #feed(ByteBuffer)}.
+     *
+     * @param timeout the read timeout in milliseconds
+     */
+    public void setBodyReadTimeout(long timeout) {
+        this.bodyReadTimeout = timeout;
+    }
+
+    /**
+     * Sets the callback run, on the handler's thread, when a backlogged
+     * streamed body has been read down far enough to accept more input.
+     *
+     * @param listener the callback
+     */
+    public void setDrainListener(Runnable listener) {
+        this.drainListener = listener;
+    }
+
+    /**
+     * Appends bytes received from the connection. While a streamed body is
+     * in progress its bytes go straight to the handler's stream.
+     *
+     * @param source the received bytes; its position is advanced past them
+     * @throws DecodingException if the framing of a streamed chunked body is invalid;
+     *         the handler reading the body sees the same error
+     */
+    public void feed(ByteBuffer source) throws DecodingException {
+        if (pipe != null) {
+            feedPipe(source);
+        }
+        int length = source.remaining();
+        if (length > 0) {
+            ensureCapacity(length);
+            source.get(buffer, end, length);
+            end += length;
+        }
+    }
+
+    /**
+     * Decodes the next buffered request if it has fully arrived, or if its
+     * head has arrived and its body will be streamed.
+     *
+     * @return the next request, or null if more bytes are needed
+     * @throws DecodingException if the buffered bytes are not a valid request
+     */
+    public HttpRequest poll() throws DecodingException {
+        return decode(null);
+    }
+
+    /**
+     * Reads from a blocking stream until the next request has arrived.
+     * Any part of the previous request's body that its handler did not read
+     * is skipped first.
+     *
+     * @param input the connection input stream
+     * @return the next request, or empty if the stream ended cleanly between requests
+     * @throws DecodingException if the bytes are not a valid request, the stream
+     *         ends mid-request, or the request does not arrive in time (408)
+     * @throws IOException if reading from the stream fails, including a read
+     *         timeout while waiting for a request to start
+     */
+    public Optional<HttpRequest> read(InputStream input) throws IOException {
+        if (streamedBody != null) {
+            try {
+                streamedBody.discard();
+            } catch (DecodingException e) {
+                // The handler has already answered; the connection cannot be reused
+                throw new IOException("Invalid request body", e);
+            }
+            streamedBody = null;
+        }
+
+        HttpRequest request;
+        long requestStart = end > start ? System.currentTimeMillis() : 0;
+        while ((request = decode(input)) == null) {
+            ensureCapacity(MIN_READ_SIZE);
+            int read;
+            try {
+                read = input.read(buffer, end, buffer.length - end);
+            } catch (SocketTimeoutException e) {
+                if (end == start) {
+                    throw e;
+                }
+                throw new DecodingException(408, "Timed out reading request");
+            }
+            if (read == -1) {
+                if (end == start) {
+                    return Optional.empty();
+                }
+                throw new DecodingException(400, "Connection closed mid-request");
+            }
+            end += read;
+            long now = System.currentTimeMillis();
+            if (requestStart == 0) {
+                requestStart = now;
+            } else if (headTimeout > 0 && now - requestStart > headTimeout) {
+                throw new DecodingException(408, "Request not received within " + headTimeout + " ms");
+            }
+        }
+        return Optional.of(request);
+    }
+
+    /**
+     * Checks whether another request is already buffered, so that output can
+     * stay corked until it has been answered too.
+     *
+     * @return true if the next request can be decoded without further input
+     */
+    public boolean hasCompleteRequest() {
+        if (isBodyInProgress() || end == start) {
+            return false;
+        }
+        try {
+            view.limit(end).position(start);
+            if (!parser.parse(view)) {
+                return false;
+            }
+        } catch (DecodingException e) {
+            return false;
+        }
+        long contentLength = Math.max(0, parser.getContentLength());
+        return parser.getTransferEncodingIndex() != -1 || contentLength > streamThreshold
+                || parser.getHeadLength() + contentLength <= end - start;
+    }
+
+    /**
+     * Checks whether any unconsumed bytes are buffered.
+     *
+     * @return true if part of a request has been received
+     */
+    public boolean hasBufferedBytes() {
+        return end > start;
+    }
+
+    /**
+     * Removes the bytes received past the last decoded request, for a
+     * connection that switches to another protocol after it.
+     *
+     * @return the unconsumed bytes, possibly none
+     */
+    public byte[] takeBuffered() {
+        byte[] remaining = end > start ? Arrays.copyOfRange(buffer, start, end) : new byte[0];
+        dropBuffered(end - start);
+        return remaining;
+    }
+
+    /**
+     * Checks whether the body of the last request is still arriving through {@link #feed(ByteBuffer)}.
+     *
+     * @return true while a streamed body is incomplete
+     */
+    public boolean isReadingBody() {
+        return pipe != null;
+    }
+
+    /**
+     * Checks whether the handler has fallen behind a streamed body, in which
+     * case the connection should stop reading until the drain listener runs.
+     *
+     * @return true if the body backlog is above its high-water mark
+     */
+    public boolean isBodyBacklogged() {
+        return pipe != null && pipe.isBacklogged();
+    }
+
+    /**
+     * Ends a streamed body that can no longer complete, for example because
+     * the connection closed. The handler's next read throws {@code cause}.
+     *
+     * @param cause the error reported to the handler
+     */
+    public void abortBody(IOException cause) {
+        if (pipe != null) {
+            pipe.fail(cause);
+            pipe = null;
+            pipeChunks = null;
+        }
+    }
+
+    private boolean isBodyInProgress() {
+        return pipe != null || (streamedBody != null && !streamedBody.isFinished());
+    }
+
+    /**
+     * Decodes the request at the start of the buffer. The parser resumes
+     * where the previous call stopped, so a head that arrives in many small
+     * reads is scanned once.
+     *
+     * @param input the stream a streamed body reads from, or null to stream bodies fed through {@link #feed(ByteBuffer)}
+     * @return the request, or null if more bytes are needed
+     * @throws DecodingException if the head is invalid or the request exceeds the maximum request size
+     */
+    private HttpRequest decode(InputStream input) throws DecodingException {
+        if (isBodyInProgress() || end == start) {
+            return null;
+        }
+        view.limit(end).position(start);
+        if (!parser.parse(view)) {
+            return null;
+        }
+
+        int headLength = parser.getHeadLength();
+        int transferEncoding = parser.getTransferEncodingIndex();
+        if (transferEncoding != -1) {
+            if (parser.getContentLength() != -1) {
+                // A message with both is a request smuggling vector (RFC 9112, section 6.3)
+                throw new DecodingException(400, "Both Content-Length and Transfer-Encoding present");
+            }
+            parser.checkTransferCodings();
+            HttpRequest.Builder request = toRequest();
+            RequestBody body = bufferChunked(headLength);
+            if (body == null) {
+                consume(headLength);
+                body = streamBody(input, new ChunkedDecoder(maxChunkSize, maxRequestSize, maxHeadSize), -1);
+            }
+            return request.setBody(body).build();
+        }
+
+        long contentLength = Math.max(0, parser.getContentLength());
+        if (headLength + contentLength > maxRequestSize) {
+            throw new DecodingException(413, "Request exceeds " + maxRequestSize + " bytes");
+        }
+
+        if (contentLength > streamThreshold) {
+            HttpRequest.Builder request = toRequest();
+            consume(headLength);
+            return request.setBody(streamBody(input, null, contentLength)).build();
+        }
+
+        int length = headLength + (int) contentLength;
+        if (length > end - start) {
+            return null;
+        }
+        HttpRequest.Builder request = toRequest();
+        if (contentLength > 0) {
+            request.setBody(RequestBody.of(Arrays.copyOfRange(buffer, start + headLength, start + length)));
+        }
+        consume(length);
+        return request.build();
+    }
+
+    /**
+     * Decodes a chunked body that has already fully arrived into memory.
+     *
+     * @param headLength the length of the request head
+     * @return the body, or null if it is incomplete or too large to buffer and must be streamed
+     * @throws DecodingException if the buffered framing is invalid
+     */
+    private RequestBody bufferChunked(int headLength) throws DecodingException {
+        ChunkedDecoder chunks = new ChunkedDecoder(maxChunkSize, maxRequestSize, maxHeadSize);
+        byte[] payload = new byte[Math.min(end - start - headLength, streamThreshold)];
+        int size = 0;
+        view.limit(end).position(start + headLength);
+        int length;
+        while ((length = chunks.next(view, Integer.MAX_VALUE)) != ChunkedDecoder.END) {
+            if (length == 0 || size + length > payload.length) {
+                return null;
+            }
+            view.get(payload, size, length);
+            size += length;
+        }
+        consume(view.position() - start);
+        return RequestBody.of(Arrays.copyOf(payload, size), chunks.getTrailers());
+    }
+
+    /**
+     * Starts streaming the body of the request whose head was just consumed.
+     *
+     * @param input the stream to pull the body from, or null if it will be fed
+     * @param chunks the decoder for a chunked body, or null for a body of known length
+     * @param length the body length, or -1 for a chunked body
+     * @return the body handed to the handler
+     * @throws DecodingException if the framing of already buffered chunks is invalid
+     */
+    private RequestBody streamBody(InputStream input, ChunkedDecoder chunks, long length) throws DecodingException {
+        InputStream stream;
+        if (input != null) {
+            streamedBody = new StreamedBody(input, chunks, length);
+            stream = streamedBody;
+        } else {
+            BodyPipe body = new BodyPipe(bodyReadTimeout, drainListener);
+            pipe = body;
+            pipeChunks = chunks;
+            pipeRemaining = length;
+            if (end > start) {
+                view.limit(end).position(start);
+                feedPipe(view);
+                dropBuffered(view.position() - start);
+            }
+            stream = body;
+        }
+        return chunks != null ? RequestBody.of(stream, -1, chunks::getTrailers) : RequestBody.of(stream, length);
+    }
+
+    /**
+     * Passes received bytes of a streamed body to the handler's pipe, stopping
+     * at the end of the body.
+     *
+     * @param source the received bytes; its position is advanced past the body bytes taken
+     * @throws DecodingException if the chunk framing is invalid
+     */
+    private void feedPipe(ByteBuffer source) throws DecodingException {
+        if (pipeChunks == null) {
+            int length = (int) Math.min(source.remaining(), pipeRemaining);
+            pipe.offer(source, length);
+            pipeRemaining -= length;
+            if (pipeRemaining == 0) {
+                finishPipe();
+            }
+            return;
+        }
+
+        try {
+            int length;
+            while ((length = pipeChunks.next(source, Integer.MAX_VALUE)) > 0) {
+                pipe.offer(source, length);
+            }
+            if (length == ChunkedDecoder.END) {
+                finishPipe();
+            }
+        } catch (DecodingException e) {
+            abortBody(e);
+            throw e;
+        }
+    }
+
+    private void finishPipe() {
+        pipe.finish();
+        pipe = null;
+        pipeChunks = null;
+    }
+
+    /**
+     * Builds the request handed to handlers from the parsed head.
+     *
+     * @return a builder holding everything but the body
+     * @throws DecodingException if the request target is not a valid URI
+     */
+    private HttpRequest.Builder toRequest() throws DecodingException {
+        URI uri;
+        try {
+            uri = new URI(parser.getTarget());
+        } catch (URISyntaxException e) {
+            throw new DecodingException(400, "Invalid request target");
+        }
+
+        return new HttpRequest.Builder()
+                .setHttpMethod(parser.getMethod())
+                .setUri(uri)
+                .setHttpVersion(parser.getVersion())
+                .setHeaderFields(parser.getHeaderFields());
+    }
+
+    /**
+     * Discards a decoded request or head and resets the parser for the next one.
+     *
+     * @param length the number of bytes to discard
+     */
+    private void consume(int length) {
+        parser.reset();
+        dropBuffered(length);
+    }
+
+    /**
+     * Discards buffered bytes.
+     *
+     * @param length the number of bytes to discard
+     */
+    private void dropBuffered(int length) {
+        start += length;
+        if (start == end) {
+            // Drop the buffer between requests so idle connections hold no memory
+            buffer = null;
+            view = null;
+            start = 0;
+            end = 0;
+        }
+    }
+
+    /**
+     * Makes room for at least {@code additional} more bytes, compacting or growing the buffer.
+     *
+     * @param additional the number of bytes about to be appended
+     */
+    private void ensureCapacity(int additional) {
+        if (buffer == null) {
+            buffer = new byte[Math.max(INITIAL_BUFFER_SIZE, additional)];
+            view = ByteBuffer.wrap(buffer);
+            return;
+        }
+        if (buffer.length - end >= additional) {
+            return;
+        }
+        int used = end - start;
+        byte[] target = buffer;
+        if (used + additional > buffer.length) {
+            target = new byte[Math.max(buffer.length * 2, used + additional)];
+        }
+        // Parser offsets are relative to the request start, so moving the bytes is safe
+        System.arraycopy(buffer, start, target, 0, used);
+        if (target != buffer) {
+            buffer = target;
+            view = ByteBuffer.wrap(buffer);
+        }
+        start = 0;
+        end = used;
+    }
+
+    /**
+     * A body read from a blocking connection stream, bounded by its length or
+     * by its chunk framing. Bytes already in the decoder's buffer are used first.
+     */
+    private final class StreamedBody extends InputStream {
+
+        private final InputStream input;
+        private final ChunkedDecoder chunks;
+        private long remaining;
+
+        private StreamedBody(InputStream input, ChunkedDecoder chunks, long length) {
+            this.input = input;
+            this.chunks = chunks;
+            this.remaining = length;
+        }
+
+        private boolean isFinished() {
+            return chunks != null ? chunks.isFinished() : remaining == 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (isFinished()) {
+                return -1;
+            }
+            if (length == 0) {
+                return 0;
+            }
+            if (chunks != null) {
+                return readChunked(target, offset, length);
+            }
+
+            int count = (int) Math.min(length, remaining);
+            if (end > start) {
+                count = Math.min(count, end - start);
+                System.arraycopy(buffer, start, target, offset, count);
+                dropBuffered(count);
+            } else {
+                count = input.read(target, offset, count);
+                if (count == -1) {
+                    throw new EOFException("Connection closed mid-body");
+                }
+            }
+            remaining -= count;
+            return count;
+        }
+
+        /**
+         * Reads chunk payload, pulling more bytes into the decoder's buffer when the framing needs them.
+         */
+        private int readChunked(byte[] target, int offset, int length) throws IOException {
+            while (true) {
+                if (end > start) {
+                    view.limit(end).position(start);
+                    int count = chunks.next(view, length);
+                    int framing = view.position() - start;
+                    if (count > 0) {
+                        System.arraycopy(buffer, view.position(), target, offset, count);
+                    }
+                    dropBuffered(framing + Math.max(count, 0));
+                    if (count != 0) {
+                        return count;
+                    }
+                }
+                ensureCapacity(MIN_READ_SIZE);
+                int read = input.read(buffer, end, buffer.length - end);
+                if (read == -1) {
+                    throw new EOFException("Connection closed mid-body");
+                }
+                end += read;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (chunks != null) {
+                return 0;
+            }
+            return (int) Math.min(remaining, (end - start) + input.available());
+        }
+
+        /**
+         * Skips whatever the handler did not read.
+         *
+         * @throws IOException if the connection fails before the body ends
+         */
+        private void discard() throws IOException {
+            byte[] scratch = new byte[MIN_READ_SIZE];
+            while (read(scratch, 0, scratch.length) != -1) {
+                // Drop the unread bytes
+            }
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package HTTP.Request;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import HTTP.Protocol.HttpMethod;
+
+/**
+ * Maps a method and a request path to a handler through a radix tree
+ * compiled from route patterns. Static text is stored in compressed
+ * prefix nodes, so a lookup compares each path character at most once per
+ * branch it tries, and every node that ends a route keeps its handlers in
+ * a table indexed by {@link HttpMethod#ordinal()}.
+ *
+ * <p>A pattern is a path that may contain whole-segment placeholders:
+ * {@code {name}} matches one non-empty segment, and a final
+ * {@code {name...}} matches the rest of the path, which may be empty.
+ * When several routes match, static text wins over a parameter and a
+ * parameter over a wildcard:
+ *
+ * <pre>{@code
+ * router.add(HttpMethod.GET, "/users/{id}", showUser);
+ * router.add(HttpMethod.GET, "/users/me", showCurrentUser);
+ * router.add(HttpMethod.GET, "/assets/{path...}", serveAsset);
+ * }</pre>
+ *
+ * <p>{@link #lookup(HttpMethod, String, Match)} records where each parameter
+ * starts and ends in the path in a caller-owned {@link Match} and allocates
+ * nothing; values are cut from the path only when asked for. When the path
+ * matches a route but not for the request's method, the match reports the
+ * methods that are allowed so the caller can answer 405.
+ *
+ * <p>Routes are added while the server is being set up. Lookups may then run
+ * concurrently, each with its own {@code Match}.
+ *
+ * @param <H> the handler type
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+public class Router<H> {
+
+    private static final HttpMethod[] METHODS = HttpMethod.values();
+    private static final String WILDCARD_SUFFIX = "...";
+
+    private final Node root;
+    private int maxParameters;
+
+    /**
+     * Creates a router without routes.
+     */
+    public Router() {
+        this.root = new Node("");
+    }
+
+    /**
+     * Registers a handler for a method and path pattern, replacing any
+     * handler registered for the same method and pattern before.
+     *
+     * @param method the HTTP method
+     * @param pattern the path pattern, e.g. {@code /users/{id}}
+     * @param handler the handler for matching requests
+     * @throws IllegalArgumentException if the pattern is malformed, or names a
+     *         parameter differently from a route registered before at the same position
+     */
+    public void add(HttpMethod method, String pattern, H handler) {
+        if (!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Route pattern must start with '/': " + pattern);
+        }
+        List<String> names = new ArrayList<>();
+        Node node = root;
+        int position = 0;
+        while (position < pattern.length()) {
+            if (pattern.charAt(position) != '{') {
+                int end = pattern.indexOf('{', position);
+                if (end < 0) {
+                    end = pattern.length();
+                }
+                node = node.insertStatic(pattern.substring(position, end));
+                position = end;
+                continue;
+            }
+
+            int close = pattern.indexOf('}', position);
+            if (pattern.charAt(position - 1) != '/' || close < 0
+                    || (close + 1 < pattern.length() && pattern.charAt(close + 1) != '/')) {
+                throw new IllegalArgumentException("Parameter must be a whole path segment: " + pattern);
+            }
+            String name = pattern.substring(position + 1, close);
+            boolean wildcard = name.endsWith(WILDCARD_SUFFIX);
+            if (wildcard) {
+                name = name.substring(0, name.length() - WILDCARD_SUFFIX.length());
+                if (close + 1 != pattern.length()) {
+                    throw new IllegalArgumentException("Wildcard must be the last segment: " + pattern);
+                }
+            }
+            if (name.isEmpty() || names.contains(name)) {
+                throw new IllegalArgumentException("Parameter names must be non-empty and unique: " + pattern);
+            }
+            node = wildcard ? node.wildcardChild(name, pattern) : node.parameterChild(name, pattern);
+            names.add(name);
+            position = close + 1;
+        }
+
+        node.setHandler(method, handler, names.toArray(new String[0]));
+        maxParameters = Math.max(maxParameters, names.size());
+    }
+
+    /**
+     * Finds the handler for a request. Parameters of the matched route are
+     * recorded in {@code match}; if no route matches for this method, the
+     * match tells whether the path matched for another one.
+     *
+     * @param method the request method
+     * @param path the decoded request path
+     * @param match receives the parameters of the matched route
+     * @return the handler, or null if no route matches the method and path
+     */
+    @SuppressWarnings("unchecked")
+    public H lookup(HttpMethod method, String path, Match match) {
+        match.reset(path, maxParameters);
+        Node node = find(root, path, 0, method.ordinal(), match, 0);
+        if (node == null) {
+            return null;
+        }
+        match.found(node.parameterNames);
+        return (H) node.handlers[method.ordinal()];
+    }
+
+    /**
+     * Matches the rest of a path below a node whose own text has been
+     * matched, trying static children, then the parameter child, then the
+     * wildcard child, and backtracking when a branch fails.
+     *
+     * @param node the node matched so far
+     * @param path the request path
+     * @param position the index in the path just past the node's text
+     * @param method the ordinal of the request method
+     * @param match receives parameter bounds and allowed methods
+     * @param count the number of parameters matched on the way to this node
+     * @return the node ending the matched route, or null if there is none for this method
+     */
+    private Node find(Node node, String path, int position, int method, Match match, int count) {
+        if (position == path.length()) {
+            if (node.accepts(method, match)) {
+                return node;
+            }
+        } else {
+            Node child = node.staticChild(path.charAt(position));
+            if (child != null && path.startsWith(child.text, position)) {
+                Node found = find(child, path, position + child.text.length(), method, match, count);
+                if (found != null) {
+                    return found;
+                }
+            }
+            if (node.parameter != null) {
+                int end = path.indexOf('/', position);
+                if (end < 0) {
+                    end = path.length();
+                }
+                if (end > position) {
+                    match.bound(count, position, end);
+                    Node found = find(node.parameter, path, end, method, match, count + 1);
+                    if (found != null) {
+                        return found;
+                    }
+                }
+            }
+        }
+        if (node.wildcard != null) {
+            match.bound(count, position, path.length());
+            if (node.wildcard.accepts(method, match)) {
+                return node.wildcard;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A node of the tree. Static nodes match their text; parameter and
+     * wildcard nodes have empty text and match by their parent's rules.
+     */
+    private static final class Node {
+
+        private static final char[] NO_INDICES = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private String text;
+        // First character of each static child, searched before the children themselves
+        private char[] indices;
+        private Node[] children;
+        private Node parameter;
+        private Node wildcard;
+        private String name;
+        private Object[] handlers;
+        private String[] allowedMethods;
+        private String[] parameterNames;
+
+        Node(String text) {
+            this.text = text;
+            this.indices = NO_INDICES;
+            this.children = NO_CHILDREN;
+        }
+
+        Node staticChild(char first) {
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] == first) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Descends through static text, splitting nodes where it diverges from existing text.
+         *
+         * @param remaining the static text to insert
+         * @return the node ending the text
+         */
+        Node insertStatic(String remaining) {
+            Node node = this;
+            while (!remaining.isEmpty()) {
+                Node child = node.staticChild(remaining.charAt(0));
+                if (child == null) {
+                    child = new Node(remaining);
+                    node.indices = Arrays.copyOf(node.indices, node.indices.length + 1);
+                    node.indices[node.indices.length - 1] = remaining.charAt(0);
+                    node.children = Arrays.copyOf(node.children, node.children.length + 1);
+                    node.children[node.children.length - 1] = child;
+                    return child;
+                }
+                int common = 0;
+                int limit = Math.min(child.text.length(), remaining.length());
+                while (common < limit && child.text.charAt(common) == remaining.charAt(common)) {
+                    common++;
+                }
+                if (common < child.text.length()) {
+                    child.split(common);
+                }
+                remaining = remaining.substring(common);
+                node = child;
+            }
+            return node;
+        }
+
+        /**
+         * Keeps the first {@code length} characters of this node's text and
+         * moves the rest, with everything below it, into a new child.
+         */
+        private void split(int length) {
+            Node tail = new Node(text.substring(length));
+            tail.indices = indices;
+            tail.children = children;
+            tail.parameter = parameter;
+            tail.wildcard = wildcard;
+            tail.handlers = handlers;
+            tail.allowedMethods = allowedMethods;
+            tail.parameterNames = parameterNames;
+
+            text = text.substring(0, length);
+            indices = new char[] {tail.text.charAt(0)};
+            children = new Node[] {tail};
+            parameter = null;
+            wildcard = null;
+            handlers = null;
+            allowedMethods = null;
+            parameterNames = null;
+        }
+
+        Node parameterChild(String parameterName, String pattern) {
+            if (parameter == null) {
+                parameter = new Node("");
+                parameter.name = parameterName;
+            } else if (!parameter.name.equals(parameterName)) {
+                throw new IllegalArgumentException("Parameter {" + parameterName + "} conflicts with {"
+                        + parameter.name + "} of an existing route: " + pattern);
+            }
+            return parameter;
+        }
+
+        Node wildcardChild(String parameterName, String pattern) {
+            if (wildcard == null) {
+                wildcard = new Node("");
+                wildcard.name = parameterName;
+            } else if (!wildcard.name.equals(parameterName)) {
+                throw new IllegalArgumentException("Wildcard {" + parameterName + "...} conflicts with {"
+                        + wildcard.name + "...} of an existing route: " + pattern);
+            }
+            return wildcard;
+        }
+
+        void setHandler(HttpMethod method, Object handler, String[] names) {
+            if (handlers == null) {
+                handlers = new Object[METHODS.length];
+            }
+            handlers[method.ordinal()] = handler;
+            parameterNames = names;
+
+            List<String> allowed = new ArrayList<>();
+            for (HttpMethod candidate : METHODS) {
+                if (handlers[candidate.ordinal()] != null) {
+                    allowed.add(candidate.name());
+                }
+            }
+            allowedMethods = allowed.toArray(new String[0]);
+        }
+
+        /**
+         * Checks whether a route ends at this node for a method, noting the
+         * node's methods in the match when a route ends here for others only.
+         */
+        boolean accepts(int method, Match match) {
+            if (handlers == null) {
+                return false;
+            }
+            if (handlers[method] != null) {
+                return true;
+            }
+            match.methodNotAllowed(allowedMethods);
+            return false;
+        }
+    }
+
+    /**
+     * The outcome of a lookup: the bounds of the matched route's parameters
+     * in the path, or the methods the path would have matched for. A match
+     * may be reused for any number of lookups on one thread.
+     */
+    public static final class Match {
+
+        private static final String[] NO_NAMES = new String[0];
+
+        private String path;
+        private int[] bounds;
+        private String[] names;
+        private String[] allowedMethods;
+
+        /**
+         * Creates an empty match.
+         */
+        public Match() {
+            this.bounds = new int[0];
+            this.names = NO_NAMES;
+        }
+
+        void reset(String path, int maxParameters) {
+            this.path = path;
+            this.names = NO_NAMES;
+            this.allowedMethods = null;
+            if (bounds.length < 2 * maxParameters) {
+                bounds = new int[2 * maxParameters];
+            }
+        }
+
+        void bound(int index, int start, int end) {
+            bounds[2 * index] = start;
+            bounds[2 * index + 1] = end;
+        }
+
+        void methodNotAllowed(String[] methods) {
+            // The first route reached is the most specific one
+            if (allowedMethods == null) {
+                allowedMethods = methods;
+            }
+        }
+
+        void found(String[] parameterNames) {
+            this.names = parameterNames;
+            this.allowedMethods = null;
+        }
+
+        /**
+         * Tells whether the last lookup matched the path of a route registered
+         * for other methods only.
+         *
+         * @return true if the request should be answered with 405
+         */
+        public boolean isMethodNotAllowed() {
+            return allowedMethods != null;
+        }
+
+        /**
+         * Gets the methods the path of the last lookup is registered for.
+         *
+         * @return the method names for an {@code Allow} header, empty unless {@link #isMethodNotAllowed()}
+         */
+        public String[] getAllowedMethods() {
+            return allowedMethods != null ? allowedMethods.clone() : NO_NAMES;
+        }
+
+        /**
+         * Gets the number of parameters of the matched route.
+         *
+         * @return the parameter count, 0 for a static route or no match
+         */
+        public int getParameterCount() {
+            return names.length;
+        }
+
+        /**
+         * Gets the name of a parameter of the matched route.
+         *
+         * @param index the parameter's position in the pattern
+         * @return the name
+         */
+        public String getParameterName(int index) {
+            return names[index];
+        }
+
+        /**
+         * Gets the value of a parameter of the matched route.
+         *
+         * @param index the parameter's position in the pattern
+         * @return the part of the path the parameter matched
+         */
+        public String getParameterValue(int index) {
+            if (index < 0 || index >= names.length) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return path.substring(bounds[2 * index], bounds[2 * index + 1]);
+        }
+
+        /**
+         * Gets the value of a named parameter of the matched route.
+         *
+         * @param name the parameter name
+         * @return the part of the path the parameter matched, or null if the route has no such parameter
+         */
+        public String getParameter(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return getParameterValue(i);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -2,21 +2,18 @@ package HTTP.Request;
 
 import HTTP.Protocol.HttpMethod;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class Routes {
-    private final Map<String, RequestRunner> routes;
+    private final Router<RequestRunner> routes;
     
     public Routes() {
-        this.routes = new HashMap<>();
+        this.routes = new Router<>();
     }
     
     public void addRoute(HttpMethod opCode, String route, RequestRunner runner) {
-        routes.put(opCode.name().concat(route), runner);
+        routes.add(opCode, route, runner);
     }
     
-    public Map<String, RequestRunner> getRoutes() {
+    public Router<RequestRunner> getRoutes() {
         return routes;
     }
 }
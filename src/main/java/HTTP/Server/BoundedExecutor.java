@@ -0,0 +1,88 @@
+package HTTP.Server;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor that admits a bounded number of tasks at a time.
+ * A task counts as in flight from submission until it finishes, whether it
+ * is still queued or already running. A submission beyond the limit, or one
+ * the underlying executor rejects because its queue is full, fails at once
+ * with {@link RejectedExecutionException}, so the caller can shed the work
+ * instead of letting it wait without bound.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+class BoundedExecutor implements Executor {
+
+    private final ExecutorService delegate;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight;
+
+    /**
+     * Creates a bounded view of an executor.
+     *
+     * @param delegate the executor that runs admitted tasks
+     * @param maxInFlight the most tasks queued or running at once
+     */
+    BoundedExecutor(ExecutorService delegate, int maxInFlight) {
+        this.delegate = delegate;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new AtomicInteger();
+    }
+
+    /**
+     * Submits a task if the in-flight limit allows it.
+     *
+     * @param task the task to run
+     * @throws RejectedExecutionException if the limit is reached or the underlying executor is full
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            throw new RejectedExecutionException("More than " + maxInFlight + " tasks in flight");
+        }
+        try {
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops accepting tasks; tasks already admitted still run.
+     */
+    void shutdown() {
+        delegate.shutdown();
+    }
+
+    /**
+     * Waits for admitted tasks to finish after {@link #shutdown()}.
+     *
+     * @param timeoutMillis the longest time to wait
+     * @return true if every task finished in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        return delegate.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Interrupts running tasks and drops the ones still queued.
+     */
+    void shutdownNow() {
+        delegate.shutdownNow();
+    }
+}
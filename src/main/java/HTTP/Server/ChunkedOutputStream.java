@@ -0,0 +1,114 @@
+package HTTP.Server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes a response body with chunked transfer coding.
+ * Writes are collected into chunks of up to {@link #CHUNK_SIZE} bytes; each
+ * chunk is passed to the underlying stream with a single write, framing
+ * included. {@link #flush()} sends the current partial chunk, and
+ * {@link #close()} sends the last chunk without closing the underlying stream.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+class ChunkedOutputStream extends OutputStream {
+
+    static final int CHUNK_SIZE = 8192;
+
+    // Room for the size line of a full chunk ("2000\r\n") and the trailing CRLF
+    private static final int HEADER_SPACE = 6;
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream output;
+    private final byte[] chunk;
+    private int count;
+    private boolean closed;
+
+    /**
+     * Creates a chunked stream over the connection output.
+     *
+     * @param output the stream receiving the encoded chunks
+     */
+    ChunkedOutputStream(OutputStream output) {
+        this.output = output;
+        this.chunk = new byte[HEADER_SPACE + CHUNK_SIZE + 2];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == CHUNK_SIZE) {
+            writeChunk();
+        }
+        chunk[HEADER_SPACE + count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            if (count == CHUNK_SIZE) {
+                writeChunk();
+            }
+            int copied = Math.min(length, CHUNK_SIZE - count);
+            System.arraycopy(bytes, offset, chunk, HEADER_SPACE + count, copied);
+            count += copied;
+            offset += copied;
+            length -= copied;
+        }
+    }
+
+    /**
+     * Sends the buffered bytes as a chunk and flushes the underlying stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        writeChunk();
+        output.flush();
+    }
+
+    /**
+     * Sends the buffered bytes and the terminating zero-length chunk.
+     * The underlying stream stays open for the next response.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        writeChunk();
+        output.write(LAST_CHUNK);
+        closed = true;
+    }
+
+    /**
+     * Frames the buffered bytes in place and writes them as one chunk.
+     */
+    private void writeChunk() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        int start = HEADER_SPACE;
+        chunk[--start] = '\n';
+        chunk[--start] = '\r';
+        for (int size = count; size > 0; size >>>= 4) {
+            chunk[--start] = HEX_DIGITS[size & 0xf];
+        }
+        int end = HEADER_SPACE + count;
+        chunk[end++] = '\r';
+        chunk[end++] = '\n';
+        output.write(chunk, start, end - start);
+        count = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Response body already complete");
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package HTTP.Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import HTTP.ErrorHandling.ServerLogger;
+
+/**
+ * Selector thread of the NIO transport.
+ * Each event loop owns a set of non-blocking connections and performs every
+ * read, write and state change for them on its own thread, so connection
+ * state needs no locking. Other threads hand work to the loop through
+ * {@link #execute(Runnable)}. Connection timeouts are kept on a
+ * {@link HashedTimerWheel} that the loop advances between selects.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+class EventLoop implements Runnable {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long TIMER_TICK_MS = 100;
+    private static final int TIMER_WHEEL_SIZE = 512;
+
+    private final Selector selector;
+    private final ByteBuffer readBuffer;
+    private final ResponseEncoder responseEncoder;
+    private final Queue<Runnable> tasks;
+    private final Thread thread;
+    private final ServerLogger logger;
+    private final HashedTimerWheel timers;
+    private volatile boolean running;
+    private boolean draining;
+
+    /**
+     * Creates a new event loop with its own selector.
+     *
+     * @param name the name of the loop thread
+     * @param logger the server logger
+     * @throws IOException if the selector cannot be opened
+     */
+    EventLoop(String name, ServerLogger logger) throws IOException {
+        this.selector = Selector.open();
+        this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        this.responseEncoder = new ResponseEncoder();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.thread = new Thread(this, name);
+        this.logger = logger;
+        this.timers = new HashedTimerWheel(TIMER_TICK_MS, TIMER_WHEEL_SIZE);
+        this.running = true;
+    }
+
+    /**
+     * Starts the loop thread.
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Schedules a task to run on the loop thread.
+     *
+     * @param task the task to run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Gets the receive buffer shared by all connections of this loop.
+     * Connections copy what they need out of it before returning to the loop,
+     * so idle connections hold no receive buffer of their own.
+     *
+     * @return the shared read buffer
+     */
+    ByteBuffer readBuffer() {
+        return readBuffer;
+    }
+
+    /**
+     * Gets the response encoder shared by all connections of this loop.
+     * Must only be used on the loop thread.
+     *
+     * @return the shared response encoder
+     */
+    ResponseEncoder responseEncoder() {
+        return responseEncoder;
+    }
+
+    /**
+     * Gets the timer wheel holding the timeouts of this loop's connections.
+     * Timeouts run on the loop thread.
+     *
+     * @return the loop's timer wheel
+     */
+    HashedTimerWheel timers() {
+        return timers;
+    }
+
+    /**
+     * Registers a channel with this loop's selector. Must be called on the loop thread.
+     *
+     * @param channel the non-blocking channel
+     * @param ops the initial interest set
+     * @param connection the connection to attach to the key
+     * @return the selection key
+     * @throws ClosedChannelException if the channel is already closed
+     */
+    SelectionKey register(SocketChannel channel, int ops, NioConnection connection) throws ClosedChannelException {
+        return channel.register(selector, ops, connection);
+    }
+
+    /**
+     * Removes a channel from the selector and runs a task once the selector
+     * has let go of it, after which the channel may be switched to blocking
+     * mode. Must be called on the loop thread.
+     *
+     * @param key the channel's selection key
+     * @param task the task to run on the loop thread once the channel is deregistered
+     */
+    void deregister(SelectionKey key, Runnable task) {
+        key.cancel();
+        // The key is only dropped by the next select, which the wakeup makes return at once
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs the select loop until {@link #shutdown()} is called.
+     */
+    @Override
+    public void run() {
+        while (running && !(draining && selector.keys().isEmpty())) {
+            try {
+                long wait = timers.millisUntilNextTick(System.currentTimeMillis());
+                // While draining, keys of closed connections must be flushed out even with no timers left
+                selector.select(draining && wait == 0 ? TIMER_TICK_MS : wait);
+                runTasks();
+                processSelectedKeys();
+                runTimers();
+            } catch (IOException e) {
+                logger.logError("Error in event loop " + thread.getName(), e);
+            }
+        }
+        closeAll();
+    }
+
+    /**
+     * Runs all tasks queued by other threads.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.logError("Error running event loop task", e);
+            }
+        }
+    }
+
+    /**
+     * Dispatches ready keys to their connections. A connection that fails
+     * with an unchecked exception is closed, so that neither the loop nor the
+     * other connections on it go down with it.
+     */
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            NioConnection connection = (NioConnection) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+            } catch (RuntimeException e) {
+                logger.logError("Error handling connection", e);
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the timeouts that have expired since the last pass.
+     */
+    private void runTimers() {
+        try {
+            timers.advance(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            logger.logError("Error running connection timeout", e);
+        }
+    }
+
+    /**
+     * Closes every connection still registered and the selector itself.
+     */
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioConnection) {
+                ((NioConnection) key.attachment()).close();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.logError("Error closing selector", e);
+        }
+    }
+
+    /**
+     * Starts draining the loop: every connection finishes the requests it has
+     * already received and then closes, and the loop stops once it has no
+     * connections left.
+     */
+    void drain() {
+        execute(() -> {
+            draining = true;
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid() && key.attachment() instanceof NioConnection) {
+                    ((NioConnection) key.attachment()).drain();
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks whether the loop is draining, in which case new connections are
+     * closed as soon as they are handed over. Must be called on the loop thread.
+     *
+     * @return true once {@link #drain()} has taken effect
+     */
+    boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Waits for the loop thread to stop.
+     *
+     * @param timeoutMillis the longest time to wait
+     * @return true if the loop has stopped
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        if (timeoutMillis > 0) {
+            thread.join(timeoutMillis);
+        }
+        return !thread.isAlive();
+    }
+
+    /**
+     * Stops the loop and closes its connections.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,175 @@
+package HTTP.Server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel for connection timeouts.
+ * Deadlines are rounded up to a tick and hashed into a fixed ring of slots,
+ * so scheduling and cancelling a timeout cost O(1) however many are pending,
+ * and each tick visits a single slot. A deadline more than one revolution
+ * away simply stays in its slot until the tick it belongs to comes round.
+ *
+ * <p>The wheel has no thread of its own: its owner calls
+ * {@link #advance(long)} regularly, either an event loop on each pass of its
+ * select loop or a dedicated timer thread. Methods are synchronized so that
+ * other threads can schedule on a wheel driven by a timer thread; on an event
+ * loop the lock is never contended. Expired tasks run on the advancing thread
+ * after the lock has been released.
+ *
+ * <p>A {@link Timeout} can be rescheduled any number of times, so a
+ * connection keeps one for its whole life instead of allocating one per deadline.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+class HashedTimerWheel {
+
+    private final long tickMillis;
+    private final Timeout[] slots;
+    private final int mask;
+    private long currentTick;
+    private int size;
+
+    /**
+     * A task that runs when its deadline passes. Scheduled on at most one wheel at a time.
+     */
+    static final class Timeout {
+        private final Runnable task;
+        private long deadlineTick;
+        private boolean scheduled;
+        private Timeout previous;
+        private Timeout next;
+
+        /**
+         * Creates an unscheduled timeout.
+         *
+         * @param task the task to run on expiry
+         */
+        Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * Checks whether the timeout is waiting on a wheel.
+         *
+         * @return true between scheduling and expiry or cancellation
+         */
+        boolean isScheduled() {
+            return scheduled;
+        }
+    }
+
+    /**
+     * Creates an empty wheel.
+     *
+     * @param tickMillis the tick length; deadlines are rounded up to whole ticks
+     * @param wheelSize the number of slots, rounded up to a power of two
+     */
+    HashedTimerWheel(long tickMillis, int wheelSize) {
+        int slotCount = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickMillis = tickMillis;
+        this.slots = new Timeout[slotCount];
+        this.mask = slotCount - 1;
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+    }
+
+    /**
+     * Schedules a timeout, moving it if it is already scheduled.
+     *
+     * @param timeout the timeout to schedule
+     * @param delayMillis how long from now the task should run
+     */
+    synchronized void schedule(Timeout timeout, long delayMillis) {
+        if (timeout.scheduled) {
+            unlink(timeout);
+        }
+        long now = System.currentTimeMillis();
+        long deadlineTick = Math.ceilDiv(now + Math.max(0, delayMillis), tickMillis);
+        timeout.deadlineTick = Math.max(deadlineTick, currentTick + 1);
+        int slot = (int) (timeout.deadlineTick & mask);
+        timeout.next = slots[slot];
+        if (slots[slot] != null) {
+            slots[slot].previous = timeout;
+        }
+        slots[slot] = timeout;
+        timeout.scheduled = true;
+        size++;
+    }
+
+    /**
+     * Cancels a timeout. Does nothing if it is not scheduled.
+     *
+     * @param timeout the timeout to cancel
+     */
+    synchronized void cancel(Timeout timeout) {
+        if (timeout.scheduled) {
+            unlink(timeout);
+        }
+    }
+
+    /**
+     * Runs every timeout whose deadline has passed.
+     *
+     * @param nowMillis the current time in milliseconds
+     */
+    void advance(long nowMillis) {
+        List<Timeout> expired = null;
+        synchronized (this) {
+            long targetTick = nowMillis / tickMillis;
+            if (targetTick <= currentTick) {
+                return;
+            }
+            // After a long pause every slot is visited once rather than once per missed tick
+            long firstTick = Math.max(currentTick + 1, targetTick - mask);
+            for (long tick = firstTick; tick <= targetTick; tick++) {
+                Timeout timeout = slots[(int) (tick & mask)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.deadlineTick <= targetTick) {
+                        unlink(timeout);
+                        if (expired == null) {
+                            expired = new ArrayList<>();
+                        }
+                        expired.add(timeout);
+                    }
+                    timeout = next;
+                }
+            }
+            currentTick = targetTick;
+        }
+        if (expired != null) {
+            for (Timeout timeout : expired) {
+                timeout.task.run();
+            }
+        }
+    }
+
+    /**
+     * Gets how long the owner may wait before the next call to {@link #advance(long)} is due.
+     *
+     * @param nowMillis the current time in milliseconds
+     * @return the time to the next tick, or 0 if no timeout is scheduled
+     */
+    synchronized long millisUntilNextTick(long nowMillis) {
+        if (size == 0) {
+            return 0;
+        }
+        return tickMillis - nowMillis % tickMillis;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            slots[(int) (timeout.deadlineTick & mask)] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.scheduled = false;
+        size--;
+    }
+}
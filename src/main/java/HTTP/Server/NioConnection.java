@@ -0,0 +1,1242 @@
+package HTTP.Server;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import HTTP.ErrorHandling.ErrorHandler;
+import HTTP.ErrorHandling.ServerLogger;
+import HTTP.Protocol.BufferBody;
+import HTTP.Protocol.CompositeBody;
+import HTTP.Protocol.FileRegion;
+import HTTP.Protocol.Http2Connection;
+import HTTP.Protocol.HttpRequest;
+import HTTP.Protocol.HttpResponse;
+import HTTP.Protocol.RequestBody;
+import HTTP.Protocol.StreamingBody;
+import HTTP.Request.AsyncHttpRequestHandler;
+import HTTP.Request.DecodingException;
+import HTTP.Request.RequestDecoder;
+
+/**
+ * State of a single non-blocking client connection.
+ * All methods except the constructor must be called on the owning
+ * {@link EventLoop} thread. Received bytes go through a per-connection
+ * {@link RequestDecoder}; every complete request is handed to the worker
+ * executor, and the encoded response is written back without ever blocking
+ * the loop.
+ *
+ * <p>Pipelined requests are dispatched as soon as they are decoded, up to
+ * {@link #MAX_PIPELINED} at a time, so they may complete out of order. Each
+ * one takes a slot in an ordered queue and responses are released strictly in
+ * request order; all responses that are ready are written together with a
+ * single gathering write.
+ *
+ * <p>A large request body is streamed to its handler while it arrives; reads
+ * pause when the handler falls behind and resume from its drain callback.
+ * Likewise a {@link StreamingBody} response is passed to the loop piece by
+ * piece as the handler writes it, and the handler blocks while more than
+ * {@link #OUTPUT_HIGH_WATER} bytes of its output are waiting to be sent.
+ * A {@link FileRegion} response, and each region of a {@link CompositeBody},
+ * is queued as an open file and sent with {@link FileRegion.Transfer#transferTo},
+ * so its bytes never enter the heap. A {@link BufferBody} is queued as the
+ * buffer it is held in.
+ *
+ * <p>An {@link AsyncHttpRequestHandler} is started on a worker, which is
+ * released as soon as the handler returns its future. The response is sent
+ * when the future completes; a timer on the loop's wheel bounds the wait, and
+ * closing the connection cancels the future.
+ *
+ * <p>A connection that opens with the HTTP/2 preface, or whose first request
+ * asks to upgrade to h2c, leaves the loop: its channel is deregistered,
+ * switched to blocking mode and served by {@link Server#serveHttp2}.
+ *
+ * <p>With TLS enabled, every read and write goes through the connection's
+ * {@link TlsSession}. The handshake runs on the loop like any other input,
+ * except for the engine's delegated tasks, which run on a worker while reads
+ * are paused.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+class NioConnection {
+
+    private static final int MAX_PIPELINED = 16;
+    private static final int OUTPUT_HIGH_WATER = 256 * 1024;
+    private static final int OUTPUT_LOW_WATER = 64 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024;
+
+    // Which timeout currently applies to the connection
+    private static final int NO_TIMEOUT = 0;
+    private static final int IDLE_TIMEOUT = 1;
+    private static final int HEADER_TIMEOUT = 2;
+    private static final int BODY_TIMEOUT = 3;
+    private static final int WRITE_TIMEOUT = 4;
+
+    private final SocketChannel channel;
+    private final EventLoop loop;
+    private final Server server;
+    private final Executor workers;
+    private final ServerLogger logger;
+    private final RequestDecoder decoder;
+    private final boolean http2;
+    private final TlsSession tls;
+    private final ArrayDeque<Exchange> pending;
+    // ByteBuffers, and file transfers sent straight from the file
+    private final ArrayDeque<Object> writeQueue;
+    private final AtomicLong queuedBytes;
+    private final ReentrantLock flowLock;
+    private final Condition outputDrained;
+    private volatile int flowWaiters;
+    private final HashedTimerWheel.Timeout timeout;
+    private final long idleTimeout;
+    private final long headerTimeout;
+    private final long bodyTimeout;
+    private final long writeTimeout;
+    private final long handlerTimeout;
+    private SelectionKey key;
+    private int requestCount;
+    private boolean closeAfterWrite;
+    private boolean inputShutdown;
+    private long lastActivity;
+    private long headStart;
+    private long writeProgress;
+    private int deadlineKind;
+    private long deadline;
+    private long scheduledAt;
+    private int unwrittenResponses;
+    // How many bytes of the HTTP/2 preface the connection opened with, or -1 once it is HTTP/1.1
+    private int prefaceMatched;
+    private boolean handshakeTasks;
+
+    /**
+     * A request in flight and the encoded response produced for it so far.
+     * Output is only touched on the loop thread; {@code heldBytes} counts
+     * streamed output the handler has produced that is not yet in the write queue.
+     * {@code keepAlive} is cleared when the server starts draining, before the
+     * response head has been encoded. {@code future} is set while an
+     * asynchronous handler is producing the response, and {@code abandoned}
+     * once nobody is waiting for it any more.
+     */
+    private static final class Exchange {
+        private final HttpRequest request;
+        private volatile boolean keepAlive;
+        private final long startTime;
+        private final ArrayDeque<Object> output;
+        private final AtomicLong heldBytes;
+        private volatile CompletableFuture<HttpResponse> future;
+        private volatile boolean abandoned;
+        private boolean finished;
+        private boolean failed;
+        private int status;
+
+        private Exchange(HttpRequest request, boolean keepAlive) {
+            this.request = request;
+            this.keepAlive = keepAlive;
+            this.startTime = System.currentTimeMillis();
+            this.output = new ArrayDeque<>(2);
+            this.heldBytes = new AtomicLong();
+        }
+    }
+
+    /**
+     * Creates a connection for an accepted channel.
+     *
+     * @param channel the accepted, non-blocking channel
+     * @param loop the event loop that owns the connection
+     * @param server the server whose routes handle requests
+     * @param workers the executor running request handlers
+     * @param logger the server logger
+     */
+    NioConnection(SocketChannel channel, EventLoop loop, Server server, Executor workers, ServerLogger logger) {
+        this.channel = channel;
+        this.loop = loop;
+        this.server = server;
+        this.workers = workers;
+        this.logger = logger;
+        ServerConfig config = server.getConfig();
+        this.decoder = new RequestDecoder(config.getMaxHeaderSize(), config.getMaxRequestSize(),
+                config.getBodyStreamThreshold(), config.getMaxChunkSize());
+        this.decoder.setBodyReadTimeout(config.getBodyTimeout());
+        this.decoder.setDrainListener(() -> loop.execute(this::updateInterest));
+        this.pending = new ArrayDeque<>();
+        this.writeQueue = new ArrayDeque<>();
+        this.queuedBytes = new AtomicLong();
+        this.flowLock = new ReentrantLock();
+        this.outputDrained = flowLock.newCondition();
+        this.timeout = new HashedTimerWheel.Timeout(this::onTimeout);
+        this.idleTimeout = config.getKeepAliveTimeout();
+        this.headerTimeout = config.getHeaderTimeout();
+        this.bodyTimeout = config.getBodyTimeout();
+        this.writeTimeout = config.getWriteTimeout();
+        this.handlerTimeout = config.getHandlerTimeout();
+        this.lastActivity = System.currentTimeMillis();
+        this.http2 = config.isHttp2Enabled();
+        this.prefaceMatched = http2 ? 0 : -1;
+        TlsContext tlsContext = server.getTlsContext();
+        this.tls = tlsContext == null ? null : tlsContext.newSession();
+    }
+
+    /**
+     * Registers the channel for reads with the owning loop.
+     */
+    void register() {
+        if (loop.isDraining()) {
+            close();
+            return;
+        }
+        try {
+            key = loop.register(channel, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        updateDeadline();
+    }
+
+    /**
+     * Reads available bytes and dispatches every request that is now complete.
+     */
+    void onReadable() {
+        ByteBuffer readBuffer = loop.readBuffer();
+        readBuffer.clear();
+        int read;
+        try {
+            read = tls == null ? channel.read(readBuffer) : tls.read(channel, readBuffer);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (read < 0) {
+            onEndOfInput();
+            return;
+        }
+
+        lastActivity = System.currentTimeMillis();
+        received(readBuffer);
+    }
+
+    /**
+     * Continues writing queued response bytes once the socket is writable again.
+     */
+    void onWritable() {
+        flush();
+        // Records that arrived while the handshake was stalled on output are decrypted now
+        if (tls != null && !handshakeTasks && tls.hasBufferedInput() && key.isValid()
+                && (key.interestOps() & SelectionKey.OP_READ) != 0) {
+            resumeTls();
+        }
+    }
+
+    /**
+     * Handles the end of the client's input. The client may half-close after
+     * pipelining, so what it sent is answered first. An asynchronous handler
+     * may wait on something indefinitely, so then the client is taken to be gone.
+     */
+    private void onEndOfInput() {
+        inputShutdown = true;
+        decoder.abortBody(new EOFException("Connection closed mid-body"));
+        if ((pending.isEmpty() && writeQueue.isEmpty()) || awaitingAsyncHandler()) {
+            close();
+        } else {
+            updateInterest();
+        }
+    }
+
+    /**
+     * Decodes bytes just received and dispatches every request that is now complete.
+     *
+     * @param readBuffer the loop's read buffer holding the bytes, in write mode
+     */
+    private void received(ByteBuffer readBuffer) {
+        if (tls != null && tls.needsTasks()) {
+            runHandshakeTasks();
+            if (!channel.isOpen()) {
+                return;
+            }
+        }
+        readBuffer.flip();
+        try {
+            if (prefaceMatched >= 0 && !matchPreface(readBuffer)) {
+                return;
+            }
+            decoder.feed(readBuffer);
+        } catch (DecodingException e) {
+            // A body already handed to its handler is malformed; answer it, then close
+            closeAfterWrite = true;
+            if (pending.isEmpty() && writeQueue.isEmpty()) {
+                close();
+            } else {
+                updateInterest();
+            }
+            return;
+        }
+        decodeAvailable();
+        // A close_notify may arrive together with the last request
+        if (tls != null && tls.isInboundDone() && key.isValid()) {
+            onEndOfInput();
+        }
+    }
+
+    /**
+     * Runs the TLS handshake's delegated tasks, which include the key
+     * exchange and signature computations, on a worker so the loop's other
+     * connections are not held up. Reads pause until the tasks are done.
+     */
+    private void runHandshakeTasks() {
+        handshakeTasks = true;
+        try {
+            workers.execute(() -> {
+                tls.runTasks();
+                loop.execute(this::resumeTls);
+            });
+        } catch (RejectedExecutionException e) {
+            logger.logShed();
+            close();
+        }
+    }
+
+    /**
+     * Continues the TLS handshake once its tasks have run or its output has
+     * been sent, decoding any requests that were received meanwhile.
+     */
+    private void resumeTls() {
+        handshakeTasks = false;
+        if (!channel.isOpen()) {
+            return;
+        }
+        ByteBuffer readBuffer = loop.readBuffer();
+        readBuffer.clear();
+        int produced;
+        try {
+            produced = tls.resume(channel, readBuffer);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (produced < 0) {
+            onEndOfInput();
+            return;
+        }
+        received(readBuffer);
+    }
+
+    /**
+     * Dispatches buffered requests until the decoder needs more bytes or the
+     * pipelining limit is reached.
+     */
+    private void decodeAvailable() {
+        while (!closeAfterWrite && pending.size() < MAX_PIPELINED) {
+            HttpRequest request;
+            try {
+                request = decoder.poll();
+            } catch (DecodingException e) {
+                Exchange exchange = new Exchange(null, false);
+                pending.add(exchange);
+                closeAfterWrite = true;
+                complete(exchange, Server.createDecodingErrorResponse(e));
+                return;
+            }
+            if (request == null) {
+                break;
+            }
+            // h2c is cleartext only; over TLS, HTTP/2 is chosen through ALPN
+            if (requestCount == 0 && http2 && tls == null && Http2Connection.isUpgradeRequest(request)) {
+                handOff(decoder.takeBuffered(), request);
+                return;
+            }
+            headStart = 0;
+            dispatch(request);
+        }
+        // The header timeout runs from the first byte of a request head
+        if (!decoder.hasBufferedBytes() || decoder.isReadingBody()) {
+            headStart = 0;
+        } else if (headStart == 0) {
+            headStart = System.currentTimeMillis();
+        }
+        updateInterest();
+    }
+
+    /**
+     * Matches the first bytes of the connection against the HTTP/2 preface.
+     * Matching bytes are held back until the preface is complete, and the
+     * connection is then handed over; on a mismatch they are passed to the
+     * decoder ahead of the rest.
+     *
+     * @param received the bytes just read; matching bytes are consumed
+     * @return true if the bytes are HTTP/1.1 and should be decoded
+     * @throws DecodingException if the decoder rejects the bytes held back
+     */
+    private boolean matchPreface(ByteBuffer received) throws DecodingException {
+        byte[] head = new byte[Math.min(received.remaining(), Http2Connection.PREFACE_LENGTH - prefaceMatched)];
+        received.get(received.position(), head);
+        int matched = Http2Connection.matchPreface(head, 0, head.length, prefaceMatched);
+        if (matched < 0) {
+            decoder.feed(ByteBuffer.wrap(Http2Connection.prefacePrefix(prefaceMatched)));
+            prefaceMatched = -1;
+            return true;
+        }
+        received.position(received.position() + head.length);
+        prefaceMatched = matched;
+        if (matched == Http2Connection.PREFACE_LENGTH) {
+            byte[] rest = new byte[received.remaining()];
+            received.get(rest);
+            handOff(rest, null);
+        }
+        return false;
+    }
+
+    /**
+     * Hands the connection over to HTTP/2. Once the selector has let go of
+     * the channel, it is switched to blocking mode and served on a thread of
+     * its own; the loop forgets it.
+     *
+     * @param received bytes already read past the preface or upgrade request
+     * @param upgradeRequest the request asking for {@code Upgrade: h2c}, or null for prior knowledge
+     */
+    private void handOff(byte[] received, HttpRequest upgradeRequest) {
+        loop.timers().cancel(timeout);
+        loop.deregister(key, () -> {
+            try {
+                channel.configureBlocking(true);
+                Socket socket = channel.socket();
+                InputStream input = socket.getInputStream();
+                if (tls != null) {
+                    input = tls.inputStream(input);
+                }
+                if (received.length > 0) {
+                    input = new SequenceInputStream(new ByteArrayInputStream(received), input);
+                }
+                server.serveHttp2(socket, input, tls, upgradeRequest);
+            } catch (IOException e) {
+                close();
+            }
+        });
+    }
+
+    /**
+     * Hands a decoded request to the worker executor.
+     *
+     * @param request the decoded request
+     */
+    private void dispatch(HttpRequest request) {
+        Exchange exchange = new Exchange(request, server.isKeepAlive(request, ++requestCount));
+        pending.add(exchange);
+        server.requestStarted();
+        if (!exchange.keepAlive) {
+            // Requests pipelined after this one are never answered
+            closeAfterWrite = true;
+        }
+
+        try {
+            workers.execute(() -> process(exchange));
+        } catch (RejectedExecutionException e) {
+            logger.logShed();
+            if (decoder.isReadingBody()) {
+                // Not worth draining an upload while overloaded
+                closeAfterWrite = true;
+            }
+            discardBody(exchange.request);
+            complete(exchange, server.getOverloadResponse());
+        }
+    }
+
+    /**
+     * Runs the handler for a request on a worker thread, then passes the
+     * encoded response back to the event loop.
+     *
+     * @param exchange the exchange to process
+     */
+    private void process(Exchange exchange) {
+        AsyncHttpRequestHandler asyncHandler = server.getAsyncHandler(exchange.request);
+        if (asyncHandler != null) {
+            processAsync(exchange, asyncHandler);
+            return;
+        }
+
+        HttpResponse response;
+        try {
+            response = server.dispatch(exchange.request);
+        } catch (Exception e) {
+            logger.logError("Error handling connection", e);
+            response = Server.createHandlerErrorResponse(e);
+        }
+        send(exchange, response);
+    }
+
+    /**
+     * Starts an asynchronous handler on a worker thread and arranges for its
+     * response to be sent when the future completes, or for a 503 if it does
+     * not complete within the handler timeout.
+     *
+     * @param exchange the exchange to process
+     * @param handler the asynchronous handler
+     */
+    private void processAsync(Exchange exchange, AsyncHttpRequestHandler handler) {
+        CompletableFuture<HttpResponse> future = Server.startAsync(handler, exchange.request);
+        exchange.future = future;
+        HashedTimerWheel.Timeout deadline = new HashedTimerWheel.Timeout(() -> future.completeExceptionally(
+                new TimeoutException("Asynchronous handler did not complete within " + handlerTimeout + " ms")));
+        if (!future.isDone()) {
+            // Scheduled from the loop, whose select would not otherwise wake for a timer added elsewhere
+            loop.execute(() -> {
+                if (!future.isDone()) {
+                    loop.timers().schedule(deadline, handlerTimeout);
+                }
+            });
+        }
+        future.whenComplete((response, failure) -> {
+            loop.timers().cancel(deadline);
+            onAsyncComplete(exchange, response, failure);
+        });
+        if (!channel.isOpen()) {
+            // Closed before the future was published, so close() could not cancel it
+            exchange.abandoned = true;
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Sends the outcome of an asynchronous handler. Runs on whichever thread
+     * completed the future, so a streamed entity or a file is written from a
+     * worker rather than holding up that thread.
+     *
+     * @param exchange the exchange being answered
+     * @param response the handler's response, if it succeeded
+     * @param failure the failure, if it did not
+     */
+    private void onAsyncComplete(Exchange exchange, HttpResponse response, Throwable failure) {
+        exchange.future = null;
+        if (failure instanceof CancellationException && exchange.abandoned) {
+            // The client went away or an earlier response broke the connection
+            return;
+        }
+        if (failure == null && response == null) {
+            failure = new NullPointerException("Asynchronous handler completed without a response");
+        }
+        if (failure != null) {
+            logger.logError("Error handling connection", failure);
+            response = Server.createHandlerErrorResponse(failure);
+        }
+
+        HttpResponse result = response;
+        Object entity = result.getEntity().orElse(null);
+        if (entity instanceof StreamingBody || entity instanceof FileRegion || entity instanceof CompositeBody) {
+            try {
+                workers.execute(() -> send(exchange, result));
+            } catch (RejectedExecutionException e) {
+                logger.logShed();
+                discardBody(exchange.request);
+                loop.execute(() -> complete(exchange, server.getOverloadResponse()));
+            }
+            return;
+        }
+        send(exchange, result);
+    }
+
+    /**
+     * Releases the request body and sends a handler's response, compressed
+     * if the client accepts it, streaming it from the calling thread or
+     * passing the encoded bytes to the loop.
+     *
+     * @param exchange the exchange being answered
+     * @param response the response to send
+     */
+    private void send(Exchange exchange, HttpResponse response) {
+        discardBody(exchange.request);
+        response = server.compress(exchange.request, response);
+
+        if (Server.acceptsChunked(exchange.request)
+                && response.getEntity().orElse(null) instanceof StreamingBody body) {
+            stream(exchange, response, body);
+            return;
+        }
+        if (response.getEntity().orElse(null) instanceof FileRegion region) {
+            sendFile(exchange, response, List.of(region), region.getLength());
+            return;
+        }
+        if (response.getEntity().orElse(null) instanceof CompositeBody body) {
+            sendFile(exchange, response, body.getParts(), body.getLength());
+            return;
+        }
+        if (response.getEntity().orElse(null) instanceof BufferBody body) {
+            HttpResponse result = response;
+            loop.execute(() -> respond(exchange, result, body));
+            return;
+        }
+
+        byte[] body;
+        try {
+            body = ResponseEncoder.encodeEntity(response);
+        } catch (RuntimeException e) {
+            // A streamed entity collected for an HTTP/1.0 client failed before anything was sent
+            logger.logError("Error handling connection", e);
+            response = ErrorHandler.createInternalServerErrorResponse(e);
+            body = ResponseEncoder.encodeEntity(response);
+        }
+        HttpResponse result = response;
+        byte[] encodedBody = body;
+        loop.execute(() -> respond(exchange, result, encodedBody));
+    }
+
+    /**
+     * Sends a streamed response with chunked transfer coding, running the
+     * entity's writer on the worker thread.
+     *
+     * @param exchange the exchange being answered
+     * @param response the response whose entity is streamed
+     * @param body the streamed entity
+     */
+    private void stream(Exchange exchange, HttpResponse response, StreamingBody body) {
+        ResponseStream output = new ResponseStream(exchange, response.getStatusCode());
+        try {
+            // The loop's encoder is confined to the loop thread, so the head gets an encoder of its own
+            ResponseEncoder encoder = new ResponseEncoder();
+            output.write(encoder.buffer(), 0, encoder.encode(response, exchange.keepAlive, -1));
+            ChunkedOutputStream chunks = new ChunkedOutputStream(output);
+            body.writeTo(chunks);
+            chunks.close();
+            output.finish();
+        } catch (IOException | RuntimeException e) {
+            if (channel.isOpen()) {
+                logger.logError("Error streaming response", e);
+            }
+            output.abort();
+        }
+    }
+
+    /**
+     * Sends a body made of file regions and byte arrays. The files are
+     * opened on the worker thread. Without TLS the loop then transfers each
+     * region from its file to the socket, between gathering writes of the
+     * byte arrays; with TLS the bytes have to be encrypted, so the worker
+     * copies them through the engine like a streamed body with a known length.
+     *
+     * @param exchange the exchange being answered
+     * @param response the response whose entity is the body
+     * @param parts the parts of the body, each a {@link FileRegion} or a {@code byte[]}
+     * @param length the total length of the body
+     */
+    private void sendFile(Exchange exchange, HttpResponse response, List<Object> parts, long length) {
+        List<Object> opened = new ArrayList<>(parts.size());
+        try {
+            for (Object part : parts) {
+                opened.add(part instanceof FileRegion region ? region.open() : ByteBuffer.wrap((byte[]) part));
+            }
+        } catch (IOException e) {
+            releaseFiles(opened);
+            logger.logError("Error opening file", e);
+            HttpResponse error = ErrorHandler.createInternalServerErrorResponse(e);
+            byte[] body = ResponseEncoder.encodeEntity(error);
+            loop.execute(() -> respond(exchange, error, body));
+            return;
+        }
+
+        if (tls != null) {
+            ResponseStream output = new ResponseStream(exchange, response.getStatusCode());
+            try {
+                ResponseEncoder encoder = new ResponseEncoder();
+                output.write(encoder.buffer(), 0, encoder.encode(response, exchange.keepAlive, length));
+                for (Object part : opened) {
+                    if (part instanceof FileRegion.Transfer transfer) {
+                        transfer.writeTo(output);
+                    } else {
+                        ByteBuffer data = (ByteBuffer) part;
+                        output.write(data.array(), data.position(), data.remaining());
+                    }
+                }
+                output.finish();
+            } catch (IOException | RuntimeException e) {
+                if (channel.isOpen()) {
+                    logger.logError("Error streaming response", e);
+                }
+                output.abort();
+            } finally {
+                releaseFiles(opened);
+            }
+            return;
+        }
+
+        loop.execute(() -> {
+            if (!channel.isOpen()) {
+                releaseFiles(opened);
+                return;
+            }
+            exchange.output.add(loop.responseEncoder().encodeHead(response, exchange.keepAlive, length));
+            for (Object part : opened) {
+                if (part instanceof FileRegion.Transfer transfer && transfer.isDone()) {
+                    transfer.close();
+                } else {
+                    exchange.output.add(part);
+                }
+            }
+            exchange.status = response.getStatusCode();
+            exchange.finished = true;
+            drainCompleted();
+        });
+    }
+
+    /**
+     * Releases a streamed body the handler may not have read to the end, so
+     * that the rest of it is dropped as it arrives instead of stalling the connection.
+     *
+     * @param request the handled request
+     */
+    private void discardBody(HttpRequest request) {
+        RequestBody body = request.getRequestBody();
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                logger.logError("Error releasing request body", e);
+            }
+        }
+    }
+
+    /**
+     * Completes an exchange on the loop thread with a response produced without a worker.
+     *
+     * @param exchange the exchange to complete
+     * @param response the response to send
+     */
+    private void complete(Exchange exchange, HttpResponse response) {
+        respond(exchange, response, ResponseEncoder.encodeEntity(response));
+    }
+
+    /**
+     * Encodes the head of a response with the loop's encoder and queues it
+     * together with the body, which goes out in the same gathering write.
+     * Runs on the loop thread.
+     *
+     * @param exchange the exchange to complete
+     * @param response the response to send
+     * @param body the encoded response body
+     */
+    private void respond(Exchange exchange, HttpResponse response, byte[] body) {
+        exchange.output.add(loop.responseEncoder().encodeHead(response, exchange.keepAlive, body.length));
+        if (body.length > 0) {
+            exchange.output.add(ByteBuffer.wrap(body));
+        }
+        exchange.status = response.getStatusCode();
+        exchange.finished = true;
+        drainCompleted();
+    }
+
+    /**
+     * Queues a response whose body is held in a buffer, which is written from
+     * where it lies, off the heap included, without being copied. A head the
+     * body brought already encoded is queued as it is, followed by the
+     * {@code Date} and {@code Connection} lines. Runs on the loop thread.
+     *
+     * @param exchange the exchange to complete
+     * @param response the response to send
+     * @param body the response body
+     */
+    private void respond(Exchange exchange, HttpResponse response, BufferBody body) {
+        ByteBuffer head = body.getHead();
+        if (head != null) {
+            exchange.output.add(head);
+            exchange.output.add(ByteBuffer.wrap(ResponseEncoder.dateLine()));
+            exchange.output.add(ResponseEncoder.headEnd(exchange.keepAlive));
+        } else {
+            exchange.output.add(loop.responseEncoder().encodeHead(response, exchange.keepAlive, body.getLength()));
+        }
+        if (body.getLength() > 0) {
+            exchange.output.add(body.getContent());
+        }
+        exchange.status = response.getStatusCode();
+        exchange.finished = true;
+        drainCompleted();
+    }
+
+    /**
+     * Moves response output, in request order, to the write queue and writes it.
+     * Output of a streamed response is moved as it arrives while its exchange
+     * is first in line; later exchanges wait until it has finished.
+     */
+    private void drainCompleted() {
+        if (!channel.isOpen()) {
+            return;
+        }
+        while (!pending.isEmpty()) {
+            Exchange exchange = pending.peek();
+            Object item;
+            if (writeQueue.isEmpty() && !exchange.output.isEmpty()) {
+                writeProgress = System.currentTimeMillis();
+            }
+            while ((item = exchange.output.poll()) != null) {
+                // Only buffered bytes count against the output limits; a file transfer holds none
+                if (item instanceof ByteBuffer data) {
+                    exchange.heldBytes.addAndGet(-data.remaining());
+                    queuedBytes.addAndGet(data.remaining());
+                }
+                writeQueue.add(item);
+            }
+            if (!exchange.finished) {
+                break;
+            }
+            pending.poll();
+            if (exchange.request != null) {
+                unwrittenResponses++;
+                long responseTime = System.currentTimeMillis() - exchange.startTime;
+                logger.logRequest(exchange.request.getHttpMethod().name(), exchange.request.getUri().getPath(),
+                        exchange.status, responseTime);
+            }
+            if (exchange.failed) {
+                // The response was cut off; nothing after it can be framed correctly
+                server.requestsFinished(countRequests());
+                cancelHandlers();
+                for (Exchange dropped : pending) {
+                    releaseFiles(dropped.output);
+                }
+                pending.clear();
+                closeAfterWrite = true;
+                break;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Writes queued buffers with gathering writes, and queued files with
+     * {@code transferTo}, until the queue is empty or the socket is full.
+     */
+    private void flush() {
+        try {
+            if (tls != null && !tls.flush(channel)) {
+                updateInterest();
+                return;
+            }
+            while (!writeQueue.isEmpty()) {
+                if (writeQueue.peek() instanceof FileRegion.Transfer transfer) {
+                    if (transfer.transferTo(channel) > 0) {
+                        writeProgress = System.currentTimeMillis();
+                    }
+                    if (!transfer.isDone()) {
+                        updateInterest();
+                        return;
+                    }
+                    transfer.close();
+                    writeQueue.poll();
+                    continue;
+                }
+                ByteBuffer[] batch = leadingBuffers();
+                long written = tls == null ? channel.write(batch) : tls.write(channel, batch);
+                if (written > 0) {
+                    writeProgress = System.currentTimeMillis();
+                }
+                if (queuedBytes.addAndGet(-written) <= OUTPUT_LOW_WATER && flowWaiters > 0) {
+                    signalOutputDrained();
+                }
+                while (writeQueue.peek() instanceof ByteBuffer data && !data.hasRemaining()) {
+                    writeQueue.poll();
+                }
+                // TLS writes one record at a time, so only unsent output means the socket is full
+                if (writeQueue.peek() instanceof ByteBuffer && (tls == null || tls.hasPendingOutput())) {
+                    updateInterest();
+                    return;
+                }
+            }
+            if (tls != null && tls.hasPendingOutput()) {
+                updateInterest();
+                return;
+            }
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        onWriteQueueEmpty();
+    }
+
+    /**
+     * Collects the buffers at the head of the write queue, up to the first file transfer.
+     *
+     * @return the buffers for one gathering write
+     */
+    private ByteBuffer[] leadingBuffers() {
+        int count = 0;
+        for (Object item : writeQueue) {
+            if (!(item instanceof ByteBuffer)) {
+                break;
+            }
+            count++;
+        }
+        ByteBuffer[] batch = new ByteBuffer[count];
+        Iterator<Object> items = writeQueue.iterator();
+        for (int i = 0; i < count; i++) {
+            batch[i] = (ByteBuffer) items.next();
+        }
+        return batch;
+    }
+
+    /**
+     * Closes the files of transfers that will not be sent.
+     *
+     * @param items queued output
+     */
+    private static void releaseFiles(Iterable<Object> items) {
+        for (Object item : items) {
+            if (item instanceof FileRegion.Transfer transfer) {
+                transfer.close();
+            }
+        }
+    }
+
+    /**
+     * Closes the connection once its last response is out, or resumes reading.
+     */
+    private void onWriteQueueEmpty() {
+        if (unwrittenResponses > 0) {
+            server.requestsFinished(unwrittenResponses);
+            unwrittenResponses = 0;
+        }
+        lastActivity = System.currentTimeMillis();
+        if (pending.isEmpty() && (closeAfterWrite || inputShutdown)) {
+            close();
+            return;
+        }
+        decodeAvailable();
+    }
+
+    /**
+     * Sets the interest set from the connection state: write while output is
+     * queued, read while more requests may be accepted or a streamed body is
+     * arriving and its handler is keeping up.
+     */
+    private void updateInterest() {
+        if (!key.isValid()) {
+            return;
+        }
+        int ops = 0;
+        if (!writeQueue.isEmpty() || (tls != null && tls.hasPendingOutput())) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        boolean readable = decoder.isReadingBody()
+                ? !decoder.isBodyBacklogged()
+                : !closeAfterWrite && pending.size() < MAX_PIPELINED;
+        if (readable && !inputShutdown && !handshakeTasks) {
+            ops |= SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+        updateDeadline();
+    }
+
+    /**
+     * Works out which timeout applies in the current state and makes sure the
+     * connection's timer fires no later than its deadline. Handlers that are
+     * running, and bodies paused because their handler is behind, are not
+     * timed out.
+     */
+    private void updateDeadline() {
+        if (!writeQueue.isEmpty()) {
+            setDeadline(WRITE_TIMEOUT, writeProgress + writeTimeout);
+        } else if (decoder.isReadingBody()) {
+            setDeadline(decoder.isBodyBacklogged() ? NO_TIMEOUT : BODY_TIMEOUT, lastActivity + bodyTimeout);
+        } else if (headStart != 0 && !closeAfterWrite && pending.size() < MAX_PIPELINED) {
+            setDeadline(HEADER_TIMEOUT, headStart + headerTimeout);
+        } else if (pending.isEmpty()) {
+            setDeadline(IDLE_TIMEOUT, lastActivity + idleTimeout);
+        } else {
+            setDeadline(NO_TIMEOUT, 0);
+        }
+    }
+
+    /**
+     * Records the current deadline. The timer is only moved when the deadline
+     * gets earlier; if it fires before a later deadline it re-arms itself, so
+     * activity on a busy connection costs no timer wheel operations.
+     */
+    private void setDeadline(int kind, long at) {
+        deadlineKind = kind;
+        deadline = at;
+        if (kind != NO_TIMEOUT && (!timeout.isScheduled() || at < scheduledAt)) {
+            scheduledAt = at;
+            loop.timers().schedule(timeout, at - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Handles the connection's timer on the loop thread, closing the
+     * connection if the current deadline has passed. A client that is too slow
+     * to send its request head is answered with 408 first.
+     */
+    private void onTimeout() {
+        if (!channel.isOpen() || deadlineKind == NO_TIMEOUT) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now < deadline) {
+            scheduledAt = deadline;
+            loop.timers().schedule(timeout, deadline - now);
+            return;
+        }
+        switch (deadlineKind) {
+            case HEADER_TIMEOUT:
+                closeAfterWrite = true;
+                if (pending.isEmpty()) {
+                    Exchange exchange = new Exchange(null, false);
+                    pending.add(exchange);
+                    complete(exchange, ErrorHandler.createErrorResponse(408));
+                } else {
+                    updateInterest();
+                }
+                break;
+            case BODY_TIMEOUT:
+                // The handler sees the failure on its next read and answers the request
+                decoder.abortBody(new SocketTimeoutException("Timed out reading request body"));
+                closeAfterWrite = true;
+                if (pending.isEmpty()) {
+                    close();
+                } else {
+                    updateInterest();
+                }
+                break;
+            default:
+                close();
+                break;
+        }
+    }
+
+    /**
+     * Stops taking requests for a server shutdown. Requests already received
+     * are answered with {@code Connection: close} and the connection closes
+     * after the last of them; an idle connection closes at once.
+     */
+    void drain() {
+        closeAfterWrite = true;
+        for (Exchange exchange : pending) {
+            exchange.keepAlive = false;
+        }
+        if (pending.isEmpty() && writeQueue.isEmpty()) {
+            close();
+        } else {
+            updateInterest();
+        }
+    }
+
+    /**
+     * Closes the channel and cancels its key. Requests that have not been
+     * answered in full are given up.
+     */
+    void close() {
+        if (!channel.isOpen()) {
+            return;
+        }
+        server.requestsFinished(unwrittenResponses + countRequests());
+        unwrittenResponses = 0;
+        cancelHandlers();
+        releaseFiles(writeQueue);
+        for (Exchange exchange : pending) {
+            releaseFiles(exchange.output);
+        }
+        decoder.abortBody(new EOFException("Connection closed mid-body"));
+        signalOutputDrained();
+        loop.timers().cancel(timeout);
+        if (key != null) {
+            key.cancel();
+        }
+        if (tls != null) {
+            tls.close(channel);
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.logError("Error closing client channel", e);
+        }
+    }
+
+    /**
+     * Checks whether any request is waiting for an asynchronous handler's future.
+     */
+    private boolean awaitingAsyncHandler() {
+        for (Exchange exchange : pending) {
+            if (exchange.future != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cancels the futures of asynchronous handlers whose responses can no longer be sent.
+     */
+    private void cancelHandlers() {
+        for (Exchange exchange : pending) {
+            exchange.abandoned = true;
+            CompletableFuture<HttpResponse> future = exchange.future;
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Counts the pending exchanges that carry a request, leaving out error
+     * responses to input that could not be decoded.
+     */
+    private int countRequests() {
+        int count = 0;
+        for (Exchange exchange : pending) {
+            if (exchange.request != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Wakes streaming handlers waiting for the write queue to drain.
+     */
+    private void signalOutputDrained() {
+        flowLock.lock();
+        try {
+            outputDrained.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks a streaming handler while too much of its output is waiting to be sent.
+     * Only output that is already writable, or the exchange's own, counts, so a
+     * handler never waits on responses queued behind it.
+     *
+     * @param exchange the exchange being streamed
+     * @throws IOException if the connection closes while waiting
+     */
+    private void awaitOutputCapacity(Exchange exchange) throws IOException {
+        if (exchange.heldBytes.get() + queuedBytes.get() <= OUTPUT_HIGH_WATER) {
+            return;
+        }
+        flowLock.lock();
+        flowWaiters++;
+        try {
+            while (channel.isOpen() && exchange.heldBytes.get() + queuedBytes.get() > OUTPUT_LOW_WATER) {
+                outputDrained.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while streaming response", e);
+        } finally {
+            flowWaiters--;
+            flowLock.unlock();
+        }
+        if (!channel.isOpen()) {
+            throw new IOException("Connection closed");
+        }
+    }
+
+    /**
+     * Output stream a handler's streamed response is written to on the worker
+     * thread. Bytes are collected into buffers that are handed to the loop
+     * when full or flushed.
+     */
+    private final class ResponseStream extends OutputStream {
+
+        private final Exchange exchange;
+        private final int status;
+        private byte[] buffer;
+        private int count;
+
+        private ResponseStream(Exchange exchange, int status) {
+            this.exchange = exchange;
+            this.status = status;
+            this.buffer = new byte[STREAM_BUFFER_SIZE];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                submit();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length > buffer.length - count) {
+                submit();
+            }
+            if (length >= buffer.length) {
+                send(ByteBuffer.wrap(Arrays.copyOfRange(bytes, offset, offset + length)));
+                return;
+            }
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            submit();
+        }
+
+        /**
+         * Sends the remaining output and marks the response complete.
+         */
+        private void finish() throws IOException {
+            submit();
+            loop.execute(() -> {
+                exchange.status = status;
+                exchange.finished = true;
+                drainCompleted();
+            });
+        }
+
+        /**
+         * Ends a response that could not be completed; the connection is
+         * closed once the output sent so far has been written.
+         */
+        private void abort() {
+            loop.execute(() -> {
+                exchange.status = status;
+                exchange.failed = true;
+                exchange.finished = true;
+                drainCompleted();
+            });
+        }
+
+        private void submit() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            ByteBuffer data = ByteBuffer.wrap(buffer, 0, count);
+            // The loop owns the submitted buffer until it has been written
+            buffer = new byte[STREAM_BUFFER_SIZE];
+            count = 0;
+            send(data);
+        }
+
+        private void send(ByteBuffer data) throws IOException {
+            if (!channel.isOpen()) {
+                throw new IOException("Connection closed");
+            }
+            exchange.heldBytes.addAndGet(data.remaining());
+            loop.execute(() -> {
+                exchange.output.add(data);
+                drainCompleted();
+            });
+            awaitOutputCapacity(exchange);
+        }
+    }
+}
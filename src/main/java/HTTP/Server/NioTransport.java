@@ -0,0 +1,245 @@
+package HTTP.Server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import HTTP.ErrorHandling.ServerLogger;
+
+/**
+ * Non-blocking transport built on {@link ServerSocketChannel} and {@link java.nio.channels.Selector}.
+ * Accepted connections are spread round-robin over a small number of
+ * {@link EventLoop}s that perform all socket I/O, while request handlers
+ * run on the server's worker executor. An idle connection costs a selector
+ * registration and nothing else, so the number of open connections is no
+ * longer bounded by the worker pool size.
+ *
+ * <p>With {@code server.accept.shards} above one, the port is bound by that
+ * many listening channels with {@code SO_REUSEPORT}. The kernel spreads new
+ * connections across them, and each shard accepts on its own thread into its
+ * own subset of the event loops, so no accept thread or loop is shared
+ * between shards.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+class NioTransport {
+
+    private static final long LOOP_STOP_TIMEOUT_MS = 1000;
+
+    private final Executor workers;
+    private final ServerLogger logger;
+    private final ServerSocketChannel[] listeners;
+    private final AtomicLong[] acceptCounts;
+    private final EventLoop[] loops;
+    private volatile boolean running;
+
+    /**
+     * Creates the transport and binds its listening channels.
+     *
+     * @param config the server configuration
+     * @param workers the executor running request handlers
+     * @param logger the server logger
+     * @throws IOException if the port cannot be bound
+     */
+    NioTransport(ServerConfig config, Executor workers, ServerLogger logger) throws IOException {
+        this.workers = workers;
+        this.logger = logger;
+        this.listeners = bindListeners(config, logger);
+        this.acceptCounts = new AtomicLong[listeners.length];
+        for (int i = 0; i < acceptCounts.length; i++) {
+            acceptCounts[i] = new AtomicLong();
+        }
+        // Every shard needs at least one loop of its own
+        this.loops = new EventLoop[Math.max(config.getIoThreads(), listeners.length)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop("nio-loop-" + i, logger);
+        }
+    }
+
+    /**
+     * Binds one listening channel per accept shard. The first binds the
+     * configured port, which may be 0, and the others bind the port it got.
+     * Without {@code SO_REUSEPORT} support only one channel is bound.
+     *
+     * @param config the server configuration
+     * @param logger the server logger
+     * @return the bound channels
+     * @throws IOException if the port cannot be bound
+     */
+    private static ServerSocketChannel[] bindListeners(ServerConfig config, ServerLogger logger) throws IOException {
+        int shards = config.getAcceptShards();
+        ServerSocketChannel first = ServerSocketChannel.open();
+        if (shards > 1 && !first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            logger.logWarning("SO_REUSEPORT is not supported, accepting on a single listener");
+            shards = 1;
+        }
+        ServerSocketChannel[] listeners = new ServerSocketChannel[shards];
+        listeners[0] = first;
+        try {
+            int port = config.getPort();
+            for (int i = 0; i < shards; i++) {
+                if (listeners[i] == null) {
+                    listeners[i] = ServerSocketChannel.open();
+                }
+                listeners[i].setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                if (shards > 1) {
+                    listeners[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                listeners[i].bind(new InetSocketAddress(port), config.getAcceptBacklog());
+                port = listeners[i].socket().getLocalPort();
+            }
+        } catch (IOException e) {
+            for (ServerSocketChannel listener : listeners) {
+                if (listener != null) {
+                    listener.close();
+                }
+            }
+            throw e;
+        }
+        return listeners;
+    }
+
+    /**
+     * Gets the port the transport is listening on.
+     *
+     * @return the local port
+     */
+    int getLocalPort() {
+        return listeners[0].socket().getLocalPort();
+    }
+
+    /**
+     * Gets the number of connections each accept shard has accepted.
+     *
+     * @return the counts, indexed by shard
+     */
+    long[] getAcceptCounts() {
+        long[] counts = new long[acceptCounts.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = acceptCounts[i].get();
+        }
+        return counts;
+    }
+
+    /**
+     * Starts the event loops and the accept threads of all but the first
+     * shard, then accepts connections of the first shard on the calling
+     * thread until the transport is closed.
+     *
+     * @param server the server whose routes handle requests
+     */
+    void start(Server server) {
+        running = true;
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+        for (int i = 1; i < listeners.length; i++) {
+            int shard = i;
+            new Thread(() -> accept(shard, server), "nio-accept-" + i).start();
+        }
+        accept(0, server);
+    }
+
+    /**
+     * Accepts connections on one shard's listener and spreads them
+     * round-robin over the loops that belong to the shard: every loop whose
+     * index is congruent to the shard number modulo the shard count.
+     *
+     * @param shard the shard number
+     * @param server the server whose routes handle requests
+     */
+    private void accept(int shard, Server server) {
+        ServerSocketChannel listener = listeners[shard];
+        AtomicLong accepted = acceptCounts[shard];
+        int next = shard;
+        while (running) {
+            SocketChannel channel = null;
+            try {
+                channel = listener.accept();
+                accepted.incrementAndGet();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                logger.logConnection(channel.socket());
+
+                EventLoop loop = loops[next];
+                next += listeners.length;
+                if (next >= loops.length) {
+                    next = shard;
+                }
+                NioConnection connection = new NioConnection(channel, loop, server, workers, logger);
+                loop.execute(connection::register);
+            } catch (IOException | RuntimeException e) {
+                if (channel != null) {
+                    // Not handed to a loop yet, so nothing else will close it
+                    closeQuietly(channel);
+                }
+                if (running) {
+                    logger.logError("Error accepting connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections and lets each event loop finish the
+     * requests it has in flight, closing connections as they become idle.
+     *
+     * @param deadline the time in milliseconds by which the loops should be done
+     * @return true if every loop closed all of its connections before the deadline
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean drain(long deadline) throws InterruptedException {
+        closeListener();
+        for (EventLoop loop : loops) {
+            loop.drain();
+        }
+        boolean drained = true;
+        for (EventLoop loop : loops) {
+            drained &= loop.awaitTermination(deadline - System.currentTimeMillis());
+        }
+        return drained;
+    }
+
+    /**
+     * Closes the listening channels and stops the event loops, closing any
+     * connections they still have.
+     */
+    void close() {
+        closeListener();
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+        // Responses handed back by handlers after this point are dropped with their connections
+        try {
+            for (EventLoop loop : loops) {
+                loop.awaitTermination(LOOP_STOP_TIMEOUT_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeListener() {
+        running = false;
+        for (ServerSocketChannel listener : listeners) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                logger.logError("Error closing listener", e);
+            }
+        }
+    }
+
+    private void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing more to release
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package HTTP.Server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import HTTP.Protocol.HttpRequest;
+import HTTP.Protocol.HttpResponse;
+import HTTP.Protocol.StreamingBody;
+
+/**
+ * Compresses handler responses with gzip or deflate, whichever the client's
+ * {@code Accept-Encoding} header prefers, before they are encoded for the
+ * connection. Text bodies given as a {@code String} or {@code byte[]} are
+ * compressed at once if they reach the minimum size, and kept as they are
+ * if compression does not make them smaller. A {@link StreamingBody} is
+ * wrapped so that its output is compressed as the handler writes it, and a
+ * flush by the handler sends what has been compressed so far.
+ *
+ * <p>Responses that already have a {@code Content-Encoding}, that forbid
+ * transformation with {@code Cache-Control: no-transform}, that carry an
+ * already compressed type such as images or archives, or that are file
+ * entities are left alone. So are responses whose {@code Vary} already names
+ * {@code Accept-Encoding}, since their handler has chosen the encoding
+ * itself, as the static file handler does. Every response that
+ * could have been compressed gets {@code Vary: Accept-Encoding}, whether or
+ * not this client accepted it.
+ *
+ * <p>Deflaters hold native memory and are costly to create, so they are
+ * pooled and reused by the worker threads in turn. A compressor is thread-safe.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+class ResponseCompressor {
+
+    private static final int MAX_POOLED_DEFLATERS = 32;
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+    private static final int GZIP_TRAILER_SIZE = 8;
+    // Magic number, deflate method, no flags, no modification time, no extra flags, unknown OS
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+            "application/gzip", "application/x-gzip", "application/zip", "application/x-bzip2",
+            "application/x-xz", "application/zstd", "application/x-7z-compressed",
+            "application/x-rar-compressed", "application/pdf", "application/octet-stream",
+            "font/woff", "font/woff2");
+
+    private final int minSize;
+    private final int level;
+    private final ArrayBlockingQueue<Deflater> gzipDeflaters;
+    private final ArrayBlockingQueue<Deflater> deflateDeflaters;
+
+    /**
+     * Creates a compressor.
+     *
+     * @param minSize the size in bytes of the smallest body that is compressed
+     * @param level the deflate level, from 1 to 9
+     */
+    ResponseCompressor(int minSize, int level) {
+        this.minSize = minSize;
+        this.level = level;
+        this.gzipDeflaters = new ArrayBlockingQueue<>(MAX_POOLED_DEFLATERS);
+        this.deflateDeflaters = new ArrayBlockingQueue<>(MAX_POOLED_DEFLATERS);
+    }
+
+    /**
+     * Compresses a response for the client that sent the request, if the
+     * response is eligible and the client accepts gzip or deflate.
+     *
+     * @param request the request being answered
+     * @param response the handler's response
+     * @return the compressed response, the response with a {@code Vary} header
+     *         if the client takes it uncompressed, or the response itself if it is not eligible
+     */
+    HttpResponse compress(HttpRequest request, HttpResponse response) {
+        Object entity = response.getEntity().orElse(null);
+        if (!(entity instanceof String || entity instanceof byte[] || entity instanceof StreamingBody)) {
+            return response;
+        }
+        int status = response.getStatusCode();
+        if (status < 200 || status == 204 || status == 206 || status == 304) {
+            return response;
+        }
+        Map<String, List<String>> headers = response.getResponseHeaders();
+        String cacheControl = header(headers, "Cache-Control");
+        String vary = header(headers, "Vary");
+        if (header(headers, "Content-Encoding") != null || !isCompressible(header(headers, "Content-Type"))
+                || (cacheControl != null && cacheControl.toLowerCase(Locale.ROOT).contains("no-transform"))
+                || (vary != null && vary.toLowerCase(Locale.ROOT).contains("accept-encoding"))) {
+            return response;
+        }
+        byte[] body = null;
+        if (!(entity instanceof StreamingBody)) {
+            body = entity instanceof String text ? text.getBytes(StandardCharsets.UTF_8) : (byte[]) entity;
+            if (body.length < minSize) {
+                return response;
+            }
+        }
+
+        double gzipQuality = request.getEncodingQuality("gzip");
+        double deflateQuality = request.getEncodingQuality("deflate");
+        if (gzipQuality <= 0 && deflateQuality <= 0) {
+            return new HttpResponse(status, encodedHeaders(headers, null), entity);
+        }
+        boolean gzip = gzipQuality >= deflateQuality;
+        Object encoded;
+        if (body != null) {
+            encoded = compress(body, gzip);
+            if (encoded == null) {
+                // Incompressible after all, so the client gets the bytes as they are
+                return new HttpResponse(status, encodedHeaders(headers, null), entity);
+            }
+        } else {
+            StreamingBody streamed = (StreamingBody) entity;
+            encoded = (StreamingBody) output -> writeCompressed(streamed, output, gzip);
+        }
+        return new HttpResponse(status, encodedHeaders(headers, gzip ? "gzip" : "deflate"), encoded);
+    }
+
+    /**
+     * Compresses a whole body.
+     *
+     * @param body the body bytes
+     * @param gzip true for the gzip format, false for zlib-wrapped deflate
+     * @return the compressed body, or null if it would not be smaller
+     */
+    private byte[] compress(byte[] body, boolean gzip) {
+        int header = gzip ? GZIP_HEADER.length : 0;
+        int trailer = gzip ? GZIP_TRAILER_SIZE : 0;
+        if (body.length <= header + trailer) {
+            return null;
+        }
+        Deflater deflater = acquire(gzip);
+        try {
+            byte[] output = new byte[Math.min(body.length, body.length / 2 + 64)];
+            System.arraycopy(GZIP_HEADER, 0, output, 0, header);
+            int count = header;
+            deflater.setInput(body);
+            deflater.finish();
+            while (!deflater.finished()) {
+                // Given up as soon as the result cannot be smaller than the body
+                if (count + trailer >= body.length) {
+                    return null;
+                }
+                if (count == output.length) {
+                    output = Arrays.copyOf(output, Math.min(body.length, output.length * 2));
+                }
+                count += deflater.deflate(output, count, output.length - count);
+            }
+            if (count + trailer >= body.length) {
+                return null;
+            }
+            output = Arrays.copyOf(output, count + trailer);
+            if (gzip) {
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                writeIntLE(output, count, crc.getValue());
+                writeIntLE(output, count + 4, body.length);
+            }
+            return output;
+        } finally {
+            release(deflater, gzip);
+        }
+    }
+
+    /**
+     * Runs a streamed body's writer against a compressing stream.
+     *
+     * @param body the streamed body
+     * @param output the stream the compressed bytes go to
+     * @param gzip true for the gzip format, false for zlib-wrapped deflate
+     * @throws IOException if the writer or the stream fails
+     */
+    private void writeCompressed(StreamingBody body, OutputStream output, boolean gzip) throws IOException {
+        Deflater deflater = acquire(gzip);
+        try {
+            CompressingOutputStream compressing = new CompressingOutputStream(output, deflater, gzip);
+            body.writeTo(compressing);
+            compressing.finish();
+        } finally {
+            release(deflater, gzip);
+        }
+    }
+
+    private Deflater acquire(boolean gzip) {
+        Deflater deflater = (gzip ? gzipDeflaters : deflateDeflaters).poll();
+        // gzip frames raw deflate data itself; the deflate coding is the zlib format
+        return deflater != null ? deflater : new Deflater(level, gzip);
+    }
+
+    private void release(Deflater deflater, boolean gzip) {
+        deflater.reset();
+        if (!(gzip ? gzipDeflaters : deflateDeflaters).offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Copies response headers for the encoded response: adds
+     * {@code Accept-Encoding} to {@code Vary}, and with a coding sets
+     * {@code Content-Encoding}, drops {@code Content-Length} and gives a
+     * strong {@code ETag} a suffix, since the bytes it names have changed.
+     *
+     * @param headers the handler's headers
+     * @param coding the content coding applied, or null if the body is unchanged
+     * @return a new map of headers
+     */
+    private static Map<String, List<String>> encodedHeaders(Map<String, List<String>> headers, String coding) {
+        Map<String, List<String>> encoded = new HashMap<>();
+        boolean varied = false;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            String name = header.getKey();
+            List<String> values = header.getValue();
+            if (coding != null && name.equalsIgnoreCase("Content-Length")) {
+                continue;
+            }
+            if (name.equalsIgnoreCase("Vary")) {
+                String vary = String.join(", ", values);
+                String lower = vary.toLowerCase(Locale.ROOT);
+                if (!lower.contains("accept-encoding") && !lower.trim().equals("*")) {
+                    values = List.of(vary.isBlank() ? "Accept-Encoding" : vary + ", Accept-Encoding");
+                }
+                varied = true;
+            } else if (coding != null && name.equalsIgnoreCase("ETag") && !values.isEmpty()
+                    && values.get(0).endsWith("\"") && values.get(0).startsWith("\"")) {
+                String tag = values.get(0);
+                values = List.of(tag.substring(0, tag.length() - 1) + "-" + coding + "\"");
+            }
+            encoded.put(name, values);
+        }
+        if (!varied) {
+            encoded.put("Vary", List.of("Accept-Encoding"));
+        }
+        if (coding != null) {
+            encoded.put("Content-Encoding", List.of(coding));
+        }
+        return encoded;
+    }
+
+    /**
+     * Tells whether a content type is worth compressing. Images other than
+     * SVG, audio, video and the archive and font formats that are compressed
+     * already are not; neither is a body of unknown type.
+     *
+     * @param contentType the Content-Type header value, or null
+     * @return true if the type is compressible
+     */
+    private static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        String type = (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType)
+                .trim().toLowerCase(Locale.ROOT);
+        if (type.startsWith("image/")) {
+            return type.equals("image/svg+xml");
+        }
+        return !type.startsWith("video/") && !type.startsWith("audio/") && !COMPRESSED_TYPES.contains(type);
+    }
+
+    /**
+     * Gets the first value of a header, matching the name case-insensitively.
+     */
+    private static String header(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    private static void writeIntLE(byte[] bytes, int offset, long value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+        bytes[offset + 2] = (byte) (value >> 16);
+        bytes[offset + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     * Compresses what a streamed body writes, in the gzip format or as
+     * zlib-wrapped deflate. A flush sends everything written so far, and
+     * closing the stream finishes the compressed data without closing the
+     * stream underneath, which the transport still has to end.
+     */
+    private static final class CompressingOutputStream extends DeflaterOutputStream {
+
+        private final CRC32 crc;
+        private boolean finished;
+
+        CompressingOutputStream(OutputStream output, Deflater deflater, boolean gzip) throws IOException {
+            super(output, deflater, STREAM_BUFFER_SIZE, true);
+            this.crc = gzip ? new CRC32() : null;
+            if (gzip) {
+                output.write(GZIP_HEADER);
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (finished) {
+                throw new IOException("Stream closed");
+            }
+            super.write(bytes, offset, length);
+            if (crc != null) {
+                crc.update(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            super.finish();
+            if (crc != null) {
+                byte[] trailer = new byte[GZIP_TRAILER_SIZE];
+                writeIntLE(trailer, 0, crc.getValue());
+                writeIntLE(trailer, 4, def.getBytesRead());
+                out.write(trailer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+    }
+}
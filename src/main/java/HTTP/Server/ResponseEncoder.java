@@ -0,0 +1,379 @@
+package HTTP.Server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import HTTP.ErrorHandling.ErrorHandler;
+import HTTP.Protocol.BufferBody;
+import HTTP.Protocol.CompositeBody;
+import HTTP.Protocol.FileRegion;
+import HTTP.Protocol.HttpResponse;
+import HTTP.Protocol.StreamingBody;
+
+/**
+ * Encodes response heads into a reusable byte buffer.
+ * Status lines and the framing headers the server adds are encoded once as
+ * byte arrays and copied in, the {@code Date} header is formatted at most once
+ * per second and shared by all encoders, and handler headers are written
+ * straight into the buffer without building intermediate strings.
+ *
+ * <p>The {@code Content-Length}, {@code Transfer-Encoding} and
+ * {@code Connection} headers are always derived from the body and the
+ * keep-alive decision, since a persistent connection depends on them for
+ * message framing. Responses that never carry a body, {@code 1xx},
+ * {@code 204} and {@code 304}, get no framing header at all. A
+ * {@link BufferBody} may bring its head already encoded, in which case only
+ * the {@code Date} and {@code Connection} lines are added to it. An encoder
+ * is not thread-safe; each connection thread or event loop owns one.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+class ResponseEncoder {
+
+    // Bodies up to this size are copied behind the head so both go out in one write
+    private static final int COALESCE_LIMIT = 8 * 1024;
+    private static final int INITIAL_CAPACITY = 512;
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+
+    private static final byte[][] STATUS_LINES = new byte[MAX_STATUS + 1][];
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] CHUNKED = ascii("Transfer-Encoding: chunked\r\n");
+    private static final byte[] KEEP_ALIVE = ascii("Connection: keep-alive\r\n");
+    private static final byte[] CLOSE = ascii("Connection: close\r\n");
+    private static final byte[] KEEP_ALIVE_END = ascii("Connection: keep-alive\r\n\r\n");
+    private static final byte[] CLOSE_END = ascii("Connection: close\r\n\r\n");
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    private static volatile CachedDate cachedDate = new CachedDate(-1, EMPTY);
+
+    static {
+        for (int code = MIN_STATUS; code <= MAX_STATUS; code++) {
+            STATUS_LINES[code] = statusLine(code);
+        }
+    }
+
+    /**
+     * A formatted {@code Date} header line and the second it was formatted for.
+     */
+    private static final class CachedDate {
+        private final long second;
+        private final byte[] line;
+
+        private CachedDate(long second, byte[] line) {
+            this.second = second;
+            this.line = line;
+        }
+    }
+
+    private byte[] buffer;
+    private int count;
+
+    /**
+     * Creates an encoder with a small initial buffer that grows as needed.
+     */
+    ResponseEncoder() {
+        this.buffer = new byte[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Writes a response to an output stream, streaming a {@link StreamingBody}
+     * entity with chunked transfer coding when the client supports it. For
+     * HTTP/1.0 clients a streamed entity is collected first and sent with a
+     * {@code Content-Length}. A {@link FileRegion}, and each region of a
+     * {@link CompositeBody}, is copied from the file through a pooled buffer,
+     * and so is a {@link BufferBody} held outside the heap. The caller
+     * decides when to flush.
+     *
+     * @param output the stream to write to
+     * @param response the response to send
+     * @param keepAlive whether the connection stays open afterwards
+     * @param chunked whether the client accepts chunked transfer coding
+     * @throws IOException if writing fails; once a streamed body has started
+     *         the response is incomplete and the connection must be closed
+     */
+    void write(OutputStream output, HttpResponse response, boolean keepAlive, boolean chunked) throws IOException {
+        if (chunked && response.getEntity().orElse(null) instanceof StreamingBody body) {
+            output.write(buffer, 0, encode(response, keepAlive, -1));
+            ChunkedOutputStream chunks = new ChunkedOutputStream(output);
+            try {
+                body.writeTo(chunks);
+            } catch (RuntimeException e) {
+                throw new IOException("Streaming response body failed", e);
+            }
+            chunks.close();
+            return;
+        }
+        if (response.getEntity().orElse(null) instanceof FileRegion region) {
+            // Opened before the head is written, so a missing file fails the request rather than the response
+            try (FileRegion.Transfer transfer = region.open()) {
+                output.write(buffer, 0, encode(response, keepAlive, region.getLength()));
+                transfer.writeTo(output);
+            }
+            return;
+        }
+        if (response.getEntity().orElse(null) instanceof CompositeBody body) {
+            output.write(buffer, 0, encode(response, keepAlive, body.getLength()));
+            body.writeTo(output);
+            return;
+        }
+        if (response.getEntity().orElse(null) instanceof BufferBody body) {
+            int length = body.getHead() != null
+                    ? encode(body, keepAlive)
+                    : encode(response, keepAlive, body.getLength());
+            if (body.getLength() <= COALESCE_LIMIT) {
+                ensureCapacity(body.getLength());
+                body.getContent().get(buffer, count, body.getLength());
+                count += body.getLength();
+                output.write(buffer, 0, count);
+            } else {
+                output.write(buffer, 0, length);
+                body.writeTo(output);
+            }
+            return;
+        }
+
+        byte[] body = encodeEntity(response);
+        int length = encode(response, keepAlive, body.length);
+        if (body.length <= COALESCE_LIMIT) {
+            append(body, 0, body.length);
+            output.write(buffer, 0, count);
+        } else {
+            output.write(buffer, 0, length);
+            output.write(body);
+        }
+    }
+
+    /**
+     * Encodes the status line and headers of a response into a buffer of its own.
+     *
+     * @param response the response
+     * @param keepAlive whether the connection stays open afterwards
+     * @param contentLength the body length, or -1 to send the body with chunked transfer coding
+     * @return the encoded head, including the blank line that ends it
+     */
+    ByteBuffer encodeHead(HttpResponse response, boolean keepAlive, long contentLength) {
+        int length = encode(response, keepAlive, contentLength);
+        return ByteBuffer.wrap(Arrays.copyOf(buffer, length));
+    }
+
+    /**
+     * Encodes the status line and headers of a response into the reusable
+     * buffer, which stays valid until the next call.
+     *
+     * @param response the response
+     * @param keepAlive whether the connection stays open afterwards
+     * @param contentLength the body length, or -1 to send the body with chunked transfer coding
+     * @return the length of the encoded head at the start of {@link #buffer()}
+     */
+    int encode(HttpResponse response, boolean keepAlive, long contentLength) {
+        count = 0;
+        int status = response.getStatusCode();
+        byte[] statusLine = status >= MIN_STATUS && status <= MAX_STATUS ? STATUS_LINES[status] : statusLine(status);
+        append(statusLine, 0, statusLine.length);
+
+        boolean hasDate = false;
+        for (Map.Entry<String, List<String>> header : response.getResponseHeaders().entrySet()) {
+            String name = header.getKey();
+            if (name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding")
+                    || name.equalsIgnoreCase("Connection")) {
+                continue;
+            }
+            hasDate |= name.equalsIgnoreCase("Date");
+            for (String value : header.getValue()) {
+                appendText(name);
+                ensureCapacity(2);
+                buffer[count++] = ':';
+                buffer[count++] = ' ';
+                appendText(value);
+                append(CRLF, 0, CRLF.length);
+            }
+        }
+
+        if (!hasDate) {
+            byte[] date = dateLine();
+            append(date, 0, date.length);
+        }
+        if (status < 200 || status == 204 || status == 304) {
+            // No body follows, and a 304 must not announce a length other than the full entity's
+        } else if (contentLength < 0) {
+            append(CHUNKED, 0, CHUNKED.length);
+        } else {
+            append(CONTENT_LENGTH, 0, CONTENT_LENGTH.length);
+            appendDecimal(contentLength);
+            append(CRLF, 0, CRLF.length);
+        }
+        byte[] connection = keepAlive ? KEEP_ALIVE : CLOSE;
+        append(connection, 0, connection.length);
+        append(CRLF, 0, CRLF.length);
+        return count;
+    }
+
+    /**
+     * Completes the head a body brought already encoded into the reusable
+     * buffer, which stays valid until the next call.
+     *
+     * @param body the body, whose head is not null
+     * @param keepAlive whether the connection stays open afterwards
+     * @return the length of the head at the start of {@link #buffer()}
+     */
+    int encode(BufferBody body, boolean keepAlive) {
+        ByteBuffer head = body.getHead();
+        count = 0;
+        ensureCapacity(head.remaining());
+        count = head.remaining();
+        head.get(buffer, 0, count);
+        byte[] date = dateLine();
+        append(date, 0, date.length);
+        byte[] connection = keepAlive ? KEEP_ALIVE_END : CLOSE_END;
+        append(connection, 0, connection.length);
+        return count;
+    }
+
+    /**
+     * Gets the line that ends a head, after the encoded head of a
+     * {@link BufferBody} and the {@code Date} line.
+     *
+     * @param keepAlive whether the connection stays open afterwards
+     * @return the {@code Connection} line and the blank line, in a buffer of its own
+     */
+    static ByteBuffer headEnd(boolean keepAlive) {
+        return ByteBuffer.wrap(keepAlive ? KEEP_ALIVE_END : CLOSE_END);
+    }
+
+    /**
+     * Gets the buffer holding the head encoded by the last call to {@link #encode}.
+     *
+     * @return the encoder's buffer
+     */
+    byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * Encodes the response entity to bytes.
+     *
+     * @param response the response
+     * @return the body bytes, empty if there is no entity
+     * @throws UncheckedIOException if a streamed entity fails while it is collected, or a file cannot be read
+     */
+    static byte[] encodeEntity(HttpResponse response) {
+        if (response.getEntity().isPresent()) {
+            Object entity = response.getEntity().get();
+            if (entity instanceof String) {
+                return ((String) entity).getBytes(StandardCharsets.UTF_8);
+            } else if (entity instanceof byte[]) {
+                return (byte[]) entity;
+            } else if (entity instanceof FileRegion) {
+                try {
+                    return ((FileRegion) entity).readAllBytes();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else if (entity instanceof CompositeBody) {
+                try {
+                    return ((CompositeBody) entity).readAllBytes();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else if (entity instanceof BufferBody) {
+                return ((BufferBody) entity).readAllBytes();
+            } else if (entity instanceof StreamingBody) {
+                ByteArrayOutputStream collected = new ByteArrayOutputStream();
+                try {
+                    ((StreamingBody) entity).writeTo(collected);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return collected.toByteArray();
+            }
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Gets the {@code Date} header line for the current second, formatting it
+     * only when the second has changed.
+     *
+     * @return the encoded header line
+     */
+    static byte[] dateLine() {
+        long second = System.currentTimeMillis() / 1000;
+        CachedDate date = cachedDate;
+        if (date.second != second) {
+            // Racing threads may both format the same second; either result is correct
+            date = new CachedDate(second, ascii("Date: " + DATE_FORMAT.format(Instant.ofEpochSecond(second)) + "\r\n"));
+            cachedDate = date;
+        }
+        return date.line;
+    }
+
+    private static byte[] statusLine(int status) {
+        return ascii("HTTP/1.1 " + status + " " + ErrorHandler.getStatusMessage(status) + "\r\n");
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Appends header text, one byte per character for ASCII and UTF-8 otherwise.
+     */
+    private void appendText(String text) {
+        int length = text.length();
+        ensureCapacity(length);
+        int start = count;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                count = start;
+                byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+                append(encoded, 0, encoded.length);
+                return;
+            }
+            buffer[count++] = (byte) c;
+        }
+    }
+
+    private void appendDecimal(long value) {
+        ensureCapacity(20);
+        int start = count;
+        do {
+            buffer[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // Digits were produced least significant first
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + extra));
+        }
+    }
+}
@@ -1,19 +1,49 @@
 package HTTP.Server;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.Executor;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import HTTP.ErrorHandling.ErrorHandler;
 import HTTP.ErrorHandling.ServerLogger;
+import HTTP.Protocol.Http2Connection;
+import HTTP.Protocol.HttpMethod;
 import HTTP.Protocol.HttpRequest;
 import HTTP.Protocol.HttpResponse;
-import HTTP.Request.HttpDecoder;
+import HTTP.Request.AsyncHttpRequestHandler;
+import HTTP.Request.DecodingException;
 import HTTP.Request.HttpRequestHandler;
+import HTTP.Request.RequestDecoder;
+import HTTP.Request.Router;
+import HTTP.Static.StaticAssetStore;
+import HTTP.Static.StaticFileCache;
 import HTTP.Static.StaticFileHandler;
 
 /**
@@ -25,13 +55,33 @@ import HTTP.Static.StaticFileHandler;
  */
 public class Server {
 
-    private final Map<String, HttpRequestHandler> routes;
-    private final ServerSocket socket;
-    private final Executor threadPool;
+    private static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+    private static final long WRITE_TIMER_TICK_MS = 100;
+    private static final int WRITE_TIMER_WHEEL_SIZE = 512;
+
+    private final Router<Route> routes;
+    // Reused by every lookup on a thread, so matching a route allocates nothing
+    private final ThreadLocal<Router.Match> routeMatches;
+    private final ServerSocket[] listeners;
+    private final AtomicLong[] acceptCounts;
+    private final NioTransport transport;
+    private final BoundedExecutor threadPool;
     private final ServerConfig config;
     private final ServerLogger logger;
     private final StaticFileHandler staticFileHandler;
-    private boolean running;
+    private final ResponseCompressor compressor;
+    private final HttpResponse overloadResponse;
+    private final HashedTimerWheel writeTimers;
+    private final TlsContext tlsContext;
+    // Open connections of the blocking transport, mapped to whether a request is being handled
+    private final ConcurrentHashMap<Socket, Boolean> connections;
+    private final Set<Http2Connection> http2Connections;
+    private final AtomicInteger activeRequests;
+    private final AtomicLong finishedRequests;
+    private volatile Thread writeTimerThread;
+    private volatile boolean running;
+    private boolean stopped;
+    private boolean hasAsyncRoutes;
 
     /**
      * Creates a new HTTP server with the specified port.
@@ -40,12 +90,47 @@ public class Server {
      * @throws IOException if the server socket cannot be created
      */
     public Server(int port) throws IOException {
-        this.config = new ServerConfig(port);
+        this(new ServerConfig(port));
+    }
+    
+    /**
+     * Creates a new HTTP server with the specified configuration.
+     * 
+     * @param config the server configuration
+     * @throws IOException if the server socket cannot be created
+     */
+    public Server(ServerConfig config) throws IOException {
+        this.config = config;
         this.logger = new ServerLogger(config.isLoggingEnabled(), config.isMonitoringEnabled());
-        this.staticFileHandler = new StaticFileHandler(config.getStaticDirectory());
-        this.routes = new HashMap<>();
-        this.threadPool = Executors.newFixedThreadPool(config.getThreadPoolSize());
-        this.socket = new ServerSocket(port);
+        this.staticFileHandler = new StaticFileHandler(config.getStaticDirectory(), createStaticCache(config),
+                config.isStaticIndexEnabled(),
+                createAssetStore(config));
+        this.compressor = config.isCompressionEnabled()
+                ? new ResponseCompressor(config.getCompressionMinSize(), config.getCompressionLevel())
+                : null;
+        this.routes = new Router<>();
+        this.routeMatches = ThreadLocal.withInitial(Router.Match::new);
+        this.threadPool = createExecutor(config);
+        this.overloadResponse = ErrorHandler.createServiceUnavailableResponse(config.getRetryAfter());
+        this.tlsContext = config.isTlsEnabled() ? new TlsContext(config) : null;
+        if (config.getTransport() == ServerConfig.Transport.NIO) {
+            this.transport = new NioTransport(config, threadPool, logger);
+            this.listeners = null;
+            this.acceptCounts = null;
+        } else {
+            this.transport = null;
+            this.listeners = bindListeners(config, logger);
+            this.acceptCounts = new AtomicLong[listeners.length];
+            for (int i = 0; i < acceptCounts.length; i++) {
+                acceptCounts[i] = new AtomicLong();
+            }
+        }
+        // The NIO transport needs it too once a connection has switched to HTTP/2
+        this.writeTimers = new HashedTimerWheel(WRITE_TIMER_TICK_MS, WRITE_TIMER_WHEEL_SIZE);
+        this.connections = new ConcurrentHashMap<>();
+        this.http2Connections = ConcurrentHashMap.newKeySet();
+        this.activeRequests = new AtomicInteger();
+        this.finishedRequests = new AtomicLong();
         this.running = false;
         
         // Initialize default routes
@@ -61,58 +146,137 @@ public class Server {
         this(8080); // Default port
     }
     
+    /**
+     * Creates the store for preloaded static files.
+     * 
+     * @param config the server configuration
+     * @return the store, or null if preloading is disabled
+     */
+    private static StaticAssetStore createAssetStore(ServerConfig config) {
+        if (!config.isStaticPreloadEnabled()) {
+            return null;
+        }
+        return new StaticAssetStore(config.getStaticPreloadSize(), config.getStaticCacheCheckInterval());
+    }
+    
+    /**
+     * Creates the cache for static file contents.
+     * 
+     * @param config the server configuration
+     * @return the cache, or null if it is disabled
+     */
+    private static StaticFileCache createStaticCache(ServerConfig config) {
+        if (config.getStaticCacheSize() == 0) {
+            return null;
+        }
+        return new StaticFileCache(config.getStaticCacheSize(), config.getStaticCacheMaxFileSize(),
+                config.getStaticCacheCheckInterval());
+    }
+    
+    /**
+     * Creates the executor that runs connection and request handling work.
+     * Admission is bounded: a pool has a fixed-size work queue, and in either
+     * mode at most {@link ServerConfig#getMaxInFlight()} tasks are queued or
+     * running at once. Work beyond that is rejected so it can be shed with 503.
+     * 
+     * @param config the server configuration
+     * @return a bounded fixed platform thread pool, or a bounded virtual thread per task executor
+     */
+    private static BoundedExecutor createExecutor(ServerConfig config) {
+        ExecutorService executor;
+        if (config.getExecutionMode() == ServerConfig.ExecutionMode.VIRTUAL) {
+            executor = Executors.newVirtualThreadPerTaskExecutor();
+        } else {
+            int size = config.getThreadPoolSize();
+            executor = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(config.getQueueCapacity()));
+        }
+        return new BoundedExecutor(executor, config.getMaxInFlight());
+    }
+    
+    /**
+     * Registers a handler for the given method and path pattern, replacing
+     * any handler registered for it before. The pattern may contain
+     * {@code {name}} segments and a final {@code {name...}} segment, whose
+     * values the handler reads with {@link HttpRequest#getPathParameter(String)}.
+     * 
+     * @param method the HTTP method
+     * @param path the path pattern, e.g. {@code /metrics} or {@code /users/{id}}
+     * @param handler the handler for matching requests
+     * @throws IllegalArgumentException if the pattern is malformed
+     */
+    public void addRoute(HttpMethod method, String path, HttpRequestHandler handler) {
+        routes.add(method, path, new Route(handler, null));
+    }
+    
+    /**
+     * Registers an asynchronous handler for the given method and path pattern,
+     * replacing any handler registered for it before.
+     * 
+     * @param method the HTTP method
+     * @param path the path pattern, e.g. {@code /api/orders/{id}}
+     * @param handler the handler for matching requests
+     * @throws IllegalArgumentException if the pattern is malformed
+     */
+    public void addAsyncRoute(HttpMethod method, String path, AsyncHttpRequestHandler handler) {
+        routes.add(method, path, new Route(null, handler));
+        hasAsyncRoutes = true;
+    }
+    
     /**
      * Initializes default routes including static file serving.
      */
     private void initializeDefaultRoutes() {
         // Add static file serving route
-        routes.put("GET/", new HttpRequestHandler() {
+        routes.add(HttpMethod.GET, "/", new Route(new HttpRequestHandler() {
             @Override
             public HttpResponse handle(HttpRequest request) {
-                return serveStaticFile(request.getUri().getPath());
+                return serveStaticFile(request);
             }
-        });
+        }, null));
         
         // Add metrics endpoint
-        routes.put("GET/metrics", new HttpRequestHandler() {
+        routes.add(HttpMethod.GET, "/metrics", new Route(new HttpRequestHandler() {
             @Override
             public HttpResponse handle(HttpRequest request) {
                 return createMetricsResponse();
             }
-        });
+        }, null));
         
         // Add configuration endpoint
-        routes.put("GET/config", new HttpRequestHandler() {
+        routes.add(HttpMethod.GET, "/config", new Route(new HttpRequestHandler() {
             @Override
             public HttpResponse handle(HttpRequest request) {
                 return createConfigResponse();
             }
-        });
+        }, null));
         
         // Add file listing endpoint
-        routes.put("GET/files", new HttpRequestHandler() {
+        routes.add(HttpMethod.GET, "/files", new Route(new HttpRequestHandler() {
             @Override
             public HttpResponse handle(HttpRequest request) {
                 return createFileListingResponse();
             }
-        });
+        }, null));
         
         // Add calculator endpoint
-        routes.put("POST/calculate", new HttpRequestHandler() {
+        routes.add(HttpMethod.POST, "/calculate", new Route(new HttpRequestHandler() {
             @Override
             public HttpResponse handle(HttpRequest request) {
                 return handleCalculation(request);
             }
-        });
+        }, null));
     }
     
     /**
      * Serves static files from the configured directory.
      * 
-     * @param path the requested file path
+     * @param request the request naming the file, whose headers may ask for parts of it
      * @return HttpResponse with file content or error
      */
-    private HttpResponse serveStaticFile(String path) {
+    private HttpResponse serveStaticFile(HttpRequest request) {
+        String path = request.getUri().getPath();
+        
         // Handle root path
         if (path.equals("/") || path.isEmpty()) {
             path = "index.html";
@@ -125,7 +289,7 @@ public class Server {
         
         
         if (staticFileHandler.canServe(path)) {
-            return staticFileHandler.serveFile(path);
+            return staticFileHandler.serveFile(path, request);
         } else {
             return ErrorHandler.createNotFoundResponse(path);
         }
@@ -137,7 +301,28 @@ public class Server {
      * @return HttpResponse with metrics
      */
     private HttpResponse createMetricsResponse() {
-        String metrics = logger.getMetrics();
+        StringBuilder report = new StringBuilder(logger.getMetrics());
+        if (config.isMonitoringEnabled()) {
+            long[] accepted = getAcceptCounts();
+            for (int i = 0; i < accepted.length; i++) {
+                report.append(String.format("Accepted (shard %d): %d\n", i, accepted[i]));
+            }
+            StaticFileCache cache = staticFileHandler.getCache();
+            if (cache != null) {
+                report.append(String.format("Static Cache Hits: %d\n", cache.getHits()));
+                report.append(String.format("Static Cache Misses: %d\n", cache.getMisses()));
+                report.append(String.format("Static Cache Evictions: %d\n", cache.getEvictions()));
+                report.append(String.format("Static Cache Size: %d bytes in %d files\n",
+                        cache.getSize(), cache.getEntryCount()));
+            }
+            StaticAssetStore assets = staticFileHandler.getAssetStore();
+            if (assets != null) {
+                report.append(String.format("Static Preload Time: %d ms\n", assets.getPreloadTime()));
+                report.append(String.format("Static Preload Size: %d bytes off-heap in %d files\n",
+                        assets.getResidentSize(), assets.getAssetCount()));
+            }
+        }
+        String metrics = report.toString();
         Map<String, java.util.List<String>> headers = new HashMap<>();
         headers.put("Content-Type", java.util.List.of("text/plain"));
         headers.put("Content-Length", java.util.List.of(String.valueOf(metrics.length())));
@@ -157,6 +342,8 @@ public class Server {
         configInfo.append("Port: ").append(config.getPort()).append("\n");
         configInfo.append("Static Directory: ").append(config.getStaticDirectory()).append("\n");
         configInfo.append("Thread Pool Size: ").append(config.getThreadPoolSize()).append("\n");
+        configInfo.append("Execution Mode: ").append(config.getExecutionMode()).append("\n");
+        configInfo.append("Transport: ").append(config.getTransport()).append("\n");
         configInfo.append("Logging Enabled: ").append(config.isLoggingEnabled()).append("\n");
         configInfo.append("Monitoring Enabled: ").append(config.isMonitoringEnabled()).append("\n");
         
@@ -502,13 +689,48 @@ public class Server {
      */
     public void start() {
         running = true;
-        logger.logServerStart(socket.getLocalPort());
         
+        writeTimerThread = new Thread(this::runWriteTimers, "http-write-timeouts");
+        writeTimerThread.setDaemon(true);
+        writeTimerThread.start();
+        
+        if (transport != null) {
+            logger.logServerStart(transport.getLocalPort());
+            transport.start(this);
+            return;
+        }
+        
+        logger.logServerStart(listeners[0].getLocalPort());
+        
+        for (int i = 1; i < listeners.length; i++) {
+            int shard = i;
+            new Thread(() -> acceptConnections(shard), "http-accept-" + i).start();
+        }
+        acceptConnections(0);
+    }
+    
+    /**
+     * Accepts connections on one shard's listening socket of the blocking
+     * transport until the server stops. Every shard hands its connections to
+     * the same worker pool.
+     * 
+     * @param shard the shard number
+     */
+    private void acceptConnections(int shard) {
+        ServerSocket listener = listeners[shard];
+        AtomicLong accepted = acceptCounts[shard];
+        // Used only on this thread, to answer connections shed under overload
+        ResponseEncoder encoder = new ResponseEncoder();
         while (running) {
             try {
-                Socket clientSocket = socket.accept();
+                Socket clientSocket = listener.accept();
+                accepted.incrementAndGet();
                 logger.logConnection(clientSocket);
-                threadPool.execute(() -> handleConnection(clientSocket));
+                try {
+                    threadPool.execute(() -> handleConnection(clientSocket));
+                } catch (RejectedExecutionException e) {
+                    rejectConnection(clientSocket, encoder);
+                }
             } catch (IOException e) {
                 if (running) {
                     logger.logError("Error accepting connection", e);
@@ -518,116 +740,683 @@ public class Server {
     }
     
     /**
-     * Handles a client connection.
+     * Binds one listening socket per accept shard for the blocking transport.
+     * The first binds the configured port, which may be 0, and the others bind
+     * the port it got. Without {@code SO_REUSEPORT} support only one socket is bound.
+     * 
+     * @param config the server configuration
+     * @param logger the server logger
+     * @return the bound sockets
+     * @throws IOException if the port cannot be bound
+     */
+    private static ServerSocket[] bindListeners(ServerConfig config, ServerLogger logger) throws IOException {
+        int shards = config.getAcceptShards();
+        ServerSocket first = new ServerSocket();
+        if (shards > 1 && !first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            logger.logWarning("SO_REUSEPORT is not supported, accepting on a single listener");
+            shards = 1;
+        }
+        ServerSocket[] listeners = new ServerSocket[shards];
+        listeners[0] = first;
+        try {
+            int port = config.getPort();
+            for (int i = 0; i < shards; i++) {
+                if (listeners[i] == null) {
+                    listeners[i] = new ServerSocket();
+                }
+                if (shards > 1) {
+                    listeners[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                listeners[i].bind(new InetSocketAddress(port), config.getAcceptBacklog());
+                port = listeners[i].getLocalPort();
+            }
+        } catch (IOException e) {
+            for (ServerSocket listener : listeners) {
+                if (listener != null) {
+                    listener.close();
+                }
+            }
+            throw e;
+        }
+        return listeners;
+    }
+    
+    /**
+     * Advances the write timeout wheel of the blocking transport and of
+     * HTTP/2 connections until the server has stopped. It keeps running while
+     * connections drain, so their writes stay bounded.
+     */
+    private void runWriteTimers() {
+        while (true) {
+            try {
+                Thread.sleep(WRITE_TIMER_TICK_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            writeTimers.advance(System.currentTimeMillis());
+        }
+    }
+    
+    /**
+     * Answers a connection that could not be admitted with 503 and closes it
+     * without reading the request. This runs on the accept thread; the small
+     * response fits in the socket send buffer, so the write does not block.
+     * Over TLS the connection is closed without a response.
+     * 
+     * @param clientSocket the rejected client socket
+     * @param encoder the accept thread's response encoder
+     */
+    private void rejectConnection(Socket clientSocket, ResponseEncoder encoder) {
+        logger.logShed();
+        try (clientSocket) {
+            if (tlsContext != null) {
+                // A 503 could only be sent after a handshake, which is the work being shed
+                return;
+            }
+            encoder.write(clientSocket.getOutputStream(), overloadResponse, false, false);
+            clientSocket.shutdownOutput();
+        } catch (IOException e) {
+            // The client is already gone
+        }
+    }
+    
+    /**
+     * Gets the TLS settings connections are served with.
+     * 
+     * @return the TLS context, or null if TLS is not enabled
+     */
+    TlsContext getTlsContext() {
+        return tlsContext;
+    }
+    
+    /**
+     * Gets the 503 response sent for work shed under overload.
+     * 
+     * @return the shared overload response
+     */
+    HttpResponse getOverloadResponse() {
+        return overloadResponse;
+    }
+    
+    /**
+     * Handles a client connection, serving requests until the client or the
+     * keep-alive policy closes it. Pipelined requests are answered in order;
+     * responses stay buffered while another complete request is already
+     * waiting, so a burst of pipelined requests is answered with few writes.
+     * A connection that opens with the HTTP/2 preface, or whose first request
+     * asks to upgrade to h2c, is handed over to {@link #serveHttp2}.
      * 
      * @param clientSocket the client socket
      */
     private void handleConnection(Socket clientSocket) {
+        OutputStream output = null;
+        ResponseEncoder encoder = new ResponseEncoder();
+        boolean handedOff = false;
+        TlsSession tls = null;
         try {
-            long startTime = System.currentTimeMillis();
+            clientSocket.setSoTimeout(config.getKeepAliveTimeout());
+            InputStream input = clientSocket.getInputStream();
+            OutputStream socketOutput = new WriteTimeoutOutputStream(clientSocket.getOutputStream(),
+                    writeTimers, config.getWriteTimeout(), clientSocket);
+            if (tlsContext != null) {
+                // The handshake runs as the first request is read
+                tls = tlsContext.newSession();
+                input = tls.inputStream(input);
+                socketOutput = tls.outputStream(socketOutput);
+            }
+            output = new BufferedOutputStream(socketOutput, OUTPUT_BUFFER_SIZE);
+            RequestDecoder decoder = new RequestDecoder(config.getMaxHeaderSize(), config.getMaxRequestSize(),
+                    config.getBodyStreamThreshold(), config.getMaxChunkSize());
+            decoder.setHeadTimeout(config.getHeaderTimeout());
+            int requestCount = 0;
+            boolean keepAlive = true;
+            connections.put(clientSocket, Boolean.FALSE);
             
-            // Parse HTTP request
-            java.util.Optional<HttpRequest> requestOpt = HttpDecoder.decode(clientSocket.getInputStream());
+            if (config.isHttp2Enabled()) {
+                PushbackInputStream pushback = new PushbackInputStream(input, Http2Connection.PREFACE_LENGTH);
+                input = pushback;
+                try {
+                    if (readPreface(pushback)) {
+                        serveHttp2(clientSocket, pushback, tls, null);
+                        handedOff = true;
+                        return;
+                    }
+                } catch (IOException e) {
+                    // End of stream, reset or idle timeout before the first request
+                    return;
+                }
+            }
             
-            if (requestOpt.isPresent()) {
-                HttpRequest request = requestOpt.get();
+            while (keepAlive && running) {
+                // Parse HTTP request
+                java.util.Optional<HttpRequest> requestOpt;
+                try {
+                    requestOpt = decoder.read(input);
+                } catch (DecodingException e) {
+                    // Invalid request
+                    encoder.write(output, createDecodingErrorResponse(e), false, true);
+                    output.flush();
+                    logger.logError("Invalid HTTP request received", null);
+                    break;
+                } catch (IOException e) {
+                    // End of stream, reset or idle timeout
+                    break;
+                }
+                if (requestOpt.isEmpty()) {
+                    break;
+                }
+                // h2c is cleartext only; over TLS, HTTP/2 is chosen through ALPN
+                if (requestCount == 0 && config.isHttp2Enabled() && tls == null
+                        && Http2Connection.isUpgradeRequest(requestOpt.get())) {
+                    byte[] received = decoder.takeBuffered();
+                    serveHttp2(clientSocket, received.length > 0
+                            ? new SequenceInputStream(new ByteArrayInputStream(received), input) : input,
+                            null, requestOpt.get());
+                    handedOff = true;
+                    break;
+                }
+                // Shutdown closes idle connections; one that lost that race drops its request unanswered
+                if (!connections.replace(clientSocket, Boolean.FALSE, Boolean.TRUE)) {
+                    break;
+                }
+                requestStarted();
                 
-                // Find matching route
-                String routeKey = request.getHttpMethod().name() + request.getUri().getPath();
-                HttpRequestHandler handler = routes.get(routeKey);
+                long startTime = System.currentTimeMillis();
+                HttpRequest request = requestOpt.get();
+                requestCount++;
                 
-                HttpResponse response;
-                if (handler != null) {
-                    response = handler.handle(request);
-                } else {
-                    // Try static file serving as fallback
-                    response = serveStaticFile(request.getUri().getPath());
+                // A streamed body is read while the handler runs, with its own timeout
+                boolean streamedBody = request.getRequestBody() != null && !request.getRequestBody().isBuffered();
+                if (streamedBody) {
+                    clientSocket.setSoTimeout(config.getBodyTimeout());
                 }
+                HttpResponse response = compress(request, dispatch(request));
+                if (streamedBody) {
+                    clientSocket.setSoTimeout(config.getKeepAliveTimeout());
+                }
+                // Decided after the handler, so that a response finished during shutdown closes the connection
+                keepAlive = isKeepAlive(request, requestCount);
                 
-                // Send response
-                writeResponse(clientSocket, response);
+                // Send response, holding it back while pipelined requests are waiting
+                try {
+                    encoder.write(output, response, keepAlive, acceptsChunked(request));
+                } catch (IOException e) {
+                    // The client went away or a streamed body failed part way; the response is cut off
+                    logger.logError("Error writing response", e);
+                    break;
+                }
+                if (!keepAlive || !decoder.hasCompleteRequest()) {
+                    output.flush();
+                }
                 
                 // Log request with timing
                 long responseTime = System.currentTimeMillis() - startTime;
                 logger.logRequest(request.getHttpMethod().name(), request.getUri().getPath(), 
                                response.getStatusCode(), responseTime);
-                
-            } else {
-                // Invalid request
-                HttpResponse errorResponse = ErrorHandler.createBadRequestResponse("Invalid HTTP request");
-                writeResponse(clientSocket, errorResponse);
-                logger.logError("Invalid HTTP request received", null);
+                connections.put(clientSocket, Boolean.FALSE);
+                requestsFinished(1);
             }
             
         } catch (Exception e) {
             logger.logError("Error handling connection", e);
             try {
-                HttpResponse errorResponse = ErrorHandler.createInternalServerErrorResponse(e);
-                writeResponse(clientSocket, errorResponse);
+                HttpResponse errorResponse = createHandlerErrorResponse(e);
+                if (output != null) {
+                    encoder.write(output, errorResponse, false, true);
+                    output.flush();
+                }
             } catch (Exception ex) {
                 logger.logError("Error sending error response", ex);
             }
         } finally {
+            if (Boolean.TRUE.equals(connections.remove(clientSocket))) {
+                requestsFinished(1);
+            }
+            if (tls != null && output != null && !handedOff) {
+                try {
+                    // Sends close_notify
+                    output.close();
+                } catch (IOException e) {
+                    // The client is already gone
+                }
+            }
+            if (!handedOff) {
+                try {
+                    clientSocket.close();
+                } catch (IOException e) {
+                    logger.logError("Error closing client socket", e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reads the first bytes of a connection for as long as they match the
+     * HTTP/2 preface, so that prior-knowledge clients can be told apart from
+     * HTTP/1.1 ones. Bytes of an HTTP/1.1 request are pushed back to be decoded.
+     * 
+     * @param input the connection input stream
+     * @return true if the whole preface was received and consumed
+     * @throws IOException if reading fails or times out
+     */
+    private static boolean readPreface(PushbackInputStream input) throws IOException {
+        byte[] bytes = new byte[Http2Connection.PREFACE_LENGTH];
+        int count = 0;
+        int matched = 0;
+        while (matched == count && count < bytes.length) {
+            int read = input.read(bytes, count, bytes.length - count);
+            if (read == -1) {
+                break;
+            }
+            matched = Http2Connection.matchPreface(bytes, count, read, matched);
+            count += read;
+        }
+        if (matched == bytes.length) {
+            return true;
+        }
+        input.unread(bytes, 0, count);
+        return false;
+    }
+    
+    /**
+     * Switches a connection to HTTP/2 and serves it on a virtual thread of
+     * its own, which waits for frames without holding a worker. Its streams
+     * are handled on the worker executor, where an asynchronous handler is
+     * waited for as on the blocking transport.
+     * 
+     * @param clientSocket the connection's socket, in blocking mode
+     * @param input the decrypted socket input, positioned after the bytes consumed so far
+     * @param tls the connection's TLS session, or null for h2c
+     * @param upgradeRequest the request that asked for {@code Upgrade: h2c}, or
+     *        null if the client sent the preface with prior knowledge or chose h2 through ALPN
+     * @throws IOException if the socket is already closed
+     */
+    void serveHttp2(Socket clientSocket, InputStream input, TlsSession tls, HttpRequest upgradeRequest)
+            throws IOException {
+        OutputStream output = new WriteTimeoutOutputStream(clientSocket.getOutputStream(),
+                writeTimers, config.getWriteTimeout(), clientSocket);
+        if (tls != null) {
+            output = tls.outputStream(output);
+        }
+        Http2Connection connection = new Http2Connection(clientSocket, input, output,
+                this::handleHttp2Request, threadPool);
+        connection.setMaxConcurrentStreams(config.getHttp2MaxConcurrentStreams());
+        connection.setMaxHeaderListSize(config.getMaxHeaderSize());
+        connection.setBodyReadTimeout(config.getBodyTimeout());
+        connection.setWindowTimeout(config.getWriteTimeout());
+        clientSocket.setSoTimeout(config.getKeepAliveTimeout());
+        http2Connections.add(connection);
+        Thread.ofVirtual().name("h2-connection").start(() -> {
             try {
-                clientSocket.close();
+                if (upgradeRequest != null) {
+                    connection.serveUpgrade(upgradeRequest);
+                } else {
+                    connection.serve();
+                }
             } catch (IOException e) {
-                logger.logError("Error closing client socket", e);
+                // The client went away
+            } finally {
+                http2Connections.remove(connection);
+                connection.close();
             }
+        });
+        // A connection handed over while stop() was running must not be missed
+        if (!running) {
+            connection.shutdown();
         }
     }
     
     /**
-     * Writes an HTTP response to the client socket.
+     * Handles a request received on an HTTP/2 stream.
      * 
-     * @param clientSocket the client socket
-     * @param response the response to send
-     * @throws IOException if writing fails
+     * @param request the decoded request
+     * @return the response, or the error response if the handler failed
      */
-    private void writeResponse(Socket clientSocket, HttpResponse response) throws IOException {
-        java.io.OutputStream output = clientSocket.getOutputStream();
-        
-        // Write status line
-        String statusLine = "HTTP/1.1 " + response.getStatusCode() + " " + 
-                           ErrorHandler.getStatusMessage(response.getStatusCode()) + "\r\n";
-        output.write(statusLine.getBytes());
-        
-        // Write headers
-        for (Map.Entry<String, java.util.List<String>> header : response.getResponseHeaders().entrySet()) {
-            for (String value : header.getValue()) {
-                String headerLine = header.getKey() + ": " + value + "\r\n";
-                output.write(headerLine.getBytes());
+    private HttpResponse handleHttp2Request(HttpRequest request) {
+        requestStarted();
+        long startTime = System.currentTimeMillis();
+        HttpResponse response;
+        try {
+            response = dispatch(request);
+        } catch (Exception e) {
+            logger.logError("Error handling connection", e);
+            response = createHandlerErrorResponse(e);
+        }
+        response = compress(request, response);
+        logger.logRequest(request.getHttpMethod().name(), request.getUri().getPath(),
+                response.getStatusCode(), System.currentTimeMillis() - startTime);
+        requestsFinished(1);
+        return response;
+    }
+    
+    /**
+     * Creates the response for a request that could not be decoded.
+     * 
+     * @param e the decoding failure
+     * @return an error response with the failure's status code
+     */
+    static HttpResponse createDecodingErrorResponse(DecodingException e) {
+        if (e.getStatusCode() == 400) {
+            return ErrorHandler.createBadRequestResponse(e.getMessage());
+        }
+        return ErrorHandler.createErrorResponse(e.getStatusCode(), e.getMessage());
+    }
+    
+    /**
+     * Decides whether the connection stays open after responding to a request.
+     * 
+     * @param request the request being answered
+     * @param requestCount the number of requests served on the connection so far
+     * @return true if the connection should be kept alive
+     */
+    boolean isKeepAlive(HttpRequest request, int requestCount) {
+        return config.isKeepAliveEnabled()
+                && running
+                && requestCount < config.getKeepAliveMaxRequests()
+                && request.isKeepAlive();
+    }
+    
+    /**
+     * Creates the response for a request whose handling failed. A handler that
+     * gave up because the client was too slow sending the request body gets a
+     * 408, an asynchronous handler that timed out a 503, and any other
+     * failure a 500. Failures wrapped by a future are unwrapped first.
+     * 
+     * @param e the failure
+     * @return the error response
+     */
+    static HttpResponse createHandlerErrorResponse(Throwable e) {
+        Throwable failure = e;
+        while ((failure instanceof CompletionException || failure instanceof ExecutionException)
+                && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                return ErrorHandler.createErrorResponse(408, "Timed out waiting for the request body.");
             }
         }
+        if (failure instanceof TimeoutException) {
+            return ErrorHandler.createErrorResponse(503, "The request handler did not respond in time.");
+        }
+        return ErrorHandler.createInternalServerErrorResponse(
+                failure instanceof Exception ? (Exception) failure : new RuntimeException(failure));
+    }
+    
+    /**
+     * Compresses a response for the client if compression is enabled and the
+     * response is eligible. This is the stage between a handler and the
+     * response encoder of every transport.
+     * 
+     * @param request the request being answered
+     * @param response the handler's response
+     * @return the response to send
+     */
+    HttpResponse compress(HttpRequest request, HttpResponse response) {
+        return compressor != null ? compressor.compress(request, response) : response;
+    }
+    
+    /**
+     * Checks whether a response to the request may use chunked transfer coding.
+     * 
+     * @param request the request being answered
+     * @return true unless the client speaks HTTP/1.0
+     */
+    static boolean acceptsChunked(HttpRequest request) {
+        return !"HTTP/1.0".equals(request.getHttpVersion());
+    }
+    
+    /**
+     * Routes a request to its handler. A path that matches a route only for
+     * other methods is answered with 405; any other path falls back to
+     * static file serving.
+     * 
+     * @param request the decoded request
+     * @return the response produced by the handler
+     */
+    HttpResponse dispatch(HttpRequest request) {
+        Router.Match match = routeMatches.get();
+        Route route = findRoute(request, match);
         
-        // Write empty line to separate headers from body
-        output.write("\r\n".getBytes());
-        
-        // Write body
-        if (response.getEntity().isPresent()) {
-            Object entity = response.getEntity().get();
-            if (entity instanceof String) {
-                output.write(((String) entity).getBytes());
-            } else if (entity instanceof byte[]) {
-                output.write((byte[]) entity);
+        if (route == null) {
+            if (match.isMethodNotAllowed()) {
+                return ErrorHandler.createMethodNotAllowedResponse(
+                        request.getHttpMethod().name(), match.getAllowedMethods());
             }
+            // Try static file serving as fallback
+            return serveStaticFile(request);
         }
-        
-        output.flush();
+        if (route.handler != null) {
+            return route.handler.handle(request);
+        }
+        return awaitResponse(startAsync(route.asyncHandler, request));
+    }
+    
+    /**
+     * Looks up the route of a request and attaches the values of its path
+     * parameters to the request.
+     * 
+     * @param request the decoded request
+     * @param match receives the outcome of the lookup
+     * @return the route, or null if none matches the method and path
+     */
+    private Route findRoute(HttpRequest request, Router.Match match) {
+        Route route = routes.lookup(request.getHttpMethod(), request.getUri().getPath(), match);
+        int count = match.getParameterCount();
+        if (route != null && count > 0) {
+            String[] names = new String[count];
+            String[] values = new String[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = match.getParameterName(i);
+                values[i] = match.getParameterValue(i);
+            }
+            request.setPathParameters(names, values);
+        }
+        return route;
     }
     
     /**
-     * Stops the HTTP server.
+     * Records that a request has been handed to a handler.
+     */
+    void requestStarted() {
+        activeRequests.incrementAndGet();
+    }
+    
+    /**
+     * Records that requests have been answered, or abandoned because their
+     * connection closed, so shutdown knows when nothing is left in flight.
+     * 
+     * @param count the number of requests
+     */
+    void requestsFinished(int count) {
+        activeRequests.addAndGet(-count);
+        finishedRequests.addAndGet(count);
+    }
+    
+    /**
+     * Finds the asynchronous handler registered for a request.
+     * 
+     * @param request the decoded request
+     * @return the handler, or null if the request has a synchronous handler or none
+     */
+    AsyncHttpRequestHandler getAsyncHandler(HttpRequest request) {
+        if (!hasAsyncRoutes) {
+            return null;
+        }
+        Route route = findRoute(request, routeMatches.get());
+        return route != null ? route.asyncHandler : null;
+    }
+    
+    /**
+     * Starts an asynchronous handler, turning a handler that throws or returns
+     * no future into a failed future.
+     * 
+     * @param handler the handler
+     * @param request the request to handle
+     * @return the handler's future
+     */
+    static CompletableFuture<HttpResponse> startAsync(AsyncHttpRequestHandler handler, HttpRequest request) {
+        try {
+            CompletableFuture<HttpResponse> future = handler.handleAsync(request);
+            if (future == null) {
+                return CompletableFuture.failedFuture(new NullPointerException("Asynchronous handler returned no future"));
+            }
+            return future;
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+    
+    /**
+     * Waits on the connection thread for an asynchronous handler's response,
+     * as the blocking transport has no other way to send it. A handler that
+     * misses the deadline has its future completed with a timeout.
+     * 
+     * @param future the handler's future
+     * @return the response, or the error response for a failed or late handler
+     */
+    private HttpResponse awaitResponse(CompletableFuture<HttpResponse> future) {
+        Throwable failure;
+        try {
+            HttpResponse response = future.get(config.getHandlerTimeout(), TimeUnit.MILLISECONDS);
+            if (response != null) {
+                return response;
+            }
+            failure = new NullPointerException("Asynchronous handler completed without a response");
+        } catch (TimeoutException e) {
+            future.completeExceptionally(e);
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            failure = e;
+        } catch (ExecutionException | CancellationException e) {
+            failure = e;
+        }
+        logger.logError("Error handling connection", failure);
+        return createHandlerErrorResponse(failure);
+    }
+    
+    /**
+     * Stops the HTTP server gracefully. New connections are refused at once
+     * and idle keep-alive connections are closed, while requests already in
+     * flight run to completion and are answered with {@code Connection: close}.
+     * Whatever is still in flight after {@link ServerConfig#getShutdownTimeout()}
+     * is cut off by closing its connection. Returns once the server is down;
+     * later calls do nothing.
      */
     public void stop() {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+        }
         running = false;
+        long deadline = System.currentTimeMillis() + config.getShutdownTimeout();
+        long finishedBefore = finishedRequests.get();
+        
+        boolean drained;
+        try {
+            for (Http2Connection connection : http2Connections) {
+                connection.shutdown();
+            }
+            if (transport != null) {
+                drained = transport.drain(deadline);
+            } else {
+                closeListener();
+                closeIdleConnections();
+                drained = true;
+            }
+            // Connection tasks of the blocking transport and handlers of the NIO transport
+            threadPool.shutdown();
+            drained &= threadPool.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        
+        int cutOff = drained ? 0 : Math.max(0, activeRequests.get());
+        long drainedCount = finishedRequests.get() - finishedBefore;
+        for (Http2Connection connection : http2Connections) {
+            connection.close();
+        }
+        if (transport != null) {
+            transport.close();
+        } else if (!drained) {
+            for (Socket connection : connections.keySet()) {
+                closeQuietly(connection);
+            }
+        }
+        if (!drained) {
+            threadPool.shutdownNow();
+        }
+        if (writeTimerThread != null) {
+            writeTimerThread.interrupt();
+        }
+        staticFileHandler.close();
+        logger.logShutdown(drainedCount, cutOff);
         logger.logServerStop();
+    }
+    
+    /**
+     * Closes the listening sockets of the blocking transport, which ends the accept loops.
+     */
+    private void closeListener() {
+        for (ServerSocket listener : listeners) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                logger.logError("Error closing server", e);
+            }
+        }
+    }
+    
+    /**
+     * Closes every connection of the blocking transport that is waiting for
+     * its next request. Its thread sees the socket closed and exits.
+     */
+    private void closeIdleConnections() {
+        for (Socket connection : connections.keySet()) {
+            if (connections.remove(connection, Boolean.FALSE)) {
+                closeQuietly(connection);
+            }
+        }
+    }
+    
+    private void closeQuietly(Socket connection) {
         try {
-            socket.close();
+            connection.close();
         } catch (IOException e) {
-            logger.logError("Error closing server", e);
+            // Already closed by its own thread
         }
     }
     
+    /**
+     * Gets the port the server is listening on.
+     * 
+     * @return the local port, useful when the server was configured with port 0
+     */
+    public int getLocalPort() {
+        return transport != null ? transport.getLocalPort() : listeners[0].getLocalPort();
+    }
+    
+    /**
+     * Gets the number of connections each accept shard has accepted.
+     * 
+     * @return the counts, indexed by shard; a single entry unless accept sharding is enabled
+     */
+    public long[] getAcceptCounts() {
+        if (transport != null) {
+            return transport.getAcceptCounts();
+        }
+        long[] counts = new long[acceptCounts.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = acceptCounts[i].get();
+        }
+        return counts;
+    }
+    
     /**
      * Gets the server configuration.
      * 
@@ -645,4 +1434,19 @@ public class Server {
     public ServerLogger getLogger() {
         return logger;
     }
-}
\ No newline at end of file
+    
+    /**
+     * The handler registered for a method and path pattern: exactly one of
+     * the two fields is set.
+     */
+    private static final class Route {
+        
+        final HttpRequestHandler handler;
+        final AsyncHttpRequestHandler asyncHandler;
+        
+        Route(HttpRequestHandler handler, AsyncHttpRequestHandler asyncHandler) {
+            this.handler = handler;
+            this.asyncHandler = asyncHandler;
+        }
+    }
+}
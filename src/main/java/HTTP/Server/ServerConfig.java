@@ -22,6 +22,41 @@ public class ServerConfig {
     private static final String DEFAULT_LOG_LEVEL = "INFO";
     private static final boolean DEFAULT_ENABLE_LOGGING = true;
     private static final boolean DEFAULT_ENABLE_MONITORING = true;
+    private static final String DEFAULT_TRANSPORT = "blocking";
+    private static final String DEFAULT_EXECUTION_MODE = "pool";
+    private static final int DEFAULT_IO_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_ACCEPT_BACKLOG = 1024;
+    private static final int DEFAULT_ACCEPT_SHARDS = 1;
+    private static final int DEFAULT_MAX_REQUEST_SIZE = 10 * 1024 * 1024;
+    private static final int DEFAULT_MAX_HEADER_SIZE = 16 * 1024;
+    private static final int DEFAULT_BODY_STREAM_THRESHOLD = 64 * 1024;
+    private static final int DEFAULT_MAX_CHUNK_SIZE = 1024 * 1024;
+    private static final boolean DEFAULT_KEEP_ALIVE = true;
+    private static final int DEFAULT_KEEP_ALIVE_MAX_REQUESTS = 100;
+    private static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 5000;
+    private static final int DEFAULT_HEADER_TIMEOUT = 10000;
+    private static final int DEFAULT_BODY_TIMEOUT = 30000;
+    private static final int DEFAULT_WRITE_TIMEOUT = 30000;
+    private static final int DEFAULT_HANDLER_TIMEOUT = 30000;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 10000;
+    private static final int DEFAULT_RETRY_AFTER = 1;
+    private static final int DEFAULT_SHUTDOWN_TIMEOUT = 30000;
+    private static final boolean DEFAULT_HTTP2 = true;
+    private static final int DEFAULT_HTTP2_MAX_STREAMS = 100;
+    private static final boolean DEFAULT_TLS = false;
+    private static final String DEFAULT_TLS_KEYSTORE_TYPE = "PKCS12";
+    private static final int DEFAULT_TLS_SESSION_CACHE_SIZE = 20480;
+    private static final int DEFAULT_TLS_SESSION_TIMEOUT = 3600;
+    private static final int DEFAULT_STATIC_CACHE_SIZE = 64 * 1024 * 1024;
+    private static final int DEFAULT_STATIC_CACHE_MAX_FILE_SIZE = 1024 * 1024;
+    private static final int DEFAULT_STATIC_CACHE_CHECK_INTERVAL = 2000;
+    private static final boolean DEFAULT_STATIC_INDEX = true;
+    private static final boolean DEFAULT_STATIC_PRELOAD = false;
+    private static final int DEFAULT_STATIC_PRELOAD_SIZE = 256 * 1024 * 1024;
+    private static final boolean DEFAULT_COMPRESSION = true;
+    private static final int DEFAULT_COMPRESSION_MIN_SIZE = 1024;
+    private static final int DEFAULT_COMPRESSION_LEVEL = 6;
     
     private final Properties properties;
     private final int port;
@@ -100,10 +135,375 @@ public class ServerConfig {
     // Getters
     public int getPort() { return port; }
     public String getStaticDirectory() { return staticDirectory; }
-    public int getThreadPoolSize() { return threadPoolSize; }
+    public int getThreadPoolSize() { return getIntProperty("server.thread.pool.size", threadPoolSize); }
     public Level getLogLevel() { return logLevel; }
-    public boolean isLoggingEnabled() { return enableLogging; }
-    public boolean isMonitoringEnabled() { return enableMonitoring; }
+    public boolean isLoggingEnabled() { return getBooleanProperty("server.logging.enabled", enableLogging); }
+    public boolean isMonitoringEnabled() { return getBooleanProperty("server.monitoring.enabled", enableMonitoring); }
+    
+    /**
+     * Gets the connection transport selected by {@code server.transport}.
+     * 
+     * @return the transport, {@link Transport#BLOCKING} unless configured otherwise
+     */
+    public Transport getTransport() {
+        return Transport.parse(getProperty("server.transport", DEFAULT_TRANSPORT));
+    }
+    
+    /**
+     * Gets how connections and request handlers are executed, selected by {@code server.execution.mode}.
+     * 
+     * @return the execution mode, {@link ExecutionMode#POOL} unless configured otherwise
+     */
+    public ExecutionMode getExecutionMode() {
+        return ExecutionMode.parse(getProperty("server.execution.mode", DEFAULT_EXECUTION_MODE));
+    }
+    
+    /**
+     * Gets the number of selector threads used by the NIO transport.
+     * 
+     * @return the number of I/O threads
+     */
+    public int getIoThreads() {
+        return Math.max(1, getIntProperty("server.io.threads", DEFAULT_IO_THREADS));
+    }
+    
+    /**
+     * Gets the length of the queue of pending connections on the listening socket.
+     * 
+     * @return the accept backlog
+     */
+    public int getAcceptBacklog() {
+        return getIntProperty("server.accept.backlog", DEFAULT_ACCEPT_BACKLOG);
+    }
+    
+    /**
+     * Gets the number of listening sockets bound to the port. With more than
+     * one, each is bound with {@code SO_REUSEPORT} and has its own accept
+     * thread, and the kernel spreads incoming connections across them.
+     * 
+     * @return the number of accept shards
+     */
+    public int getAcceptShards() {
+        return Math.max(1, getIntProperty("server.accept.shards", DEFAULT_ACCEPT_SHARDS));
+    }
+    
+    /**
+     * Gets the maximum size in bytes of a request (head and body) the server will accept.
+     * 
+     * @return the maximum request size
+     */
+    public int getMaxRequestSize() {
+        return getIntProperty("server.security.max.request.size", DEFAULT_MAX_REQUEST_SIZE);
+    }
+    
+    /**
+     * Gets the maximum size in bytes of a request line plus headers.
+     * 
+     * @return the maximum request head size
+     */
+    public int getMaxHeaderSize() {
+        return getIntProperty("server.security.max.header.size", DEFAULT_MAX_HEADER_SIZE);
+    }
+    
+    /**
+     * Gets the request body size above which bodies are streamed to handlers
+     * instead of being collected in memory first.
+     * 
+     * @return the body stream threshold in bytes
+     */
+    public int getBodyStreamThreshold() {
+        return getIntProperty("server.request.body.stream.threshold", DEFAULT_BODY_STREAM_THRESHOLD);
+    }
+    
+    /**
+     * Gets the largest chunk accepted in a request body sent with chunked transfer coding.
+     * The total size of a chunked body is bounded by the maximum request size.
+     * 
+     * @return the maximum chunk size in bytes
+     */
+    public int getMaxChunkSize() {
+        return getIntProperty("server.security.max.chunk.size", DEFAULT_MAX_CHUNK_SIZE);
+    }
+    
+    /**
+     * Checks whether connections may persist across requests.
+     * 
+     * @return true if HTTP keep-alive is enabled
+     */
+    public boolean isKeepAliveEnabled() {
+        return getBooleanProperty("server.keepalive.enabled", DEFAULT_KEEP_ALIVE);
+    }
+    
+    /**
+     * Gets the maximum number of requests served on one persistent connection.
+     * 
+     * @return the per-connection request cap
+     */
+    public int getKeepAliveMaxRequests() {
+        return getIntProperty("server.keepalive.max.requests", DEFAULT_KEEP_ALIVE_MAX_REQUESTS);
+    }
+    
+    /**
+     * Gets how long an idle persistent connection is kept open waiting for the next request.
+     * 
+     * @return the idle timeout in milliseconds
+     */
+    public int getKeepAliveTimeout() {
+        return getIntProperty("server.keepalive.timeout", DEFAULT_KEEP_ALIVE_TIMEOUT);
+    }
+    
+    /**
+     * Gets how long a client may take to send a complete request head once it
+     * has started sending it. Trickling bytes does not extend the deadline, so
+     * slow clients cannot hold a connection open indefinitely.
+     * 
+     * @return the header read timeout in milliseconds
+     */
+    public int getHeaderTimeout() {
+        return getIntProperty("server.timeout.header", DEFAULT_HEADER_TIMEOUT);
+    }
+    
+    /**
+     * Gets how long reading a request body may go without receiving any bytes.
+     * 
+     * @return the body read timeout in milliseconds
+     */
+    public int getBodyTimeout() {
+        return getIntProperty("server.timeout.body", DEFAULT_BODY_TIMEOUT);
+    }
+    
+    /**
+     * Gets how long sending a response may go without the client accepting any bytes.
+     * 
+     * @return the write timeout in milliseconds
+     */
+    public int getWriteTimeout() {
+        return getIntProperty("server.timeout.write", DEFAULT_WRITE_TIMEOUT);
+    }
+    
+    /**
+     * Gets how long an asynchronous handler may take to complete its response
+     * before the request is answered with {@code 503 Service Unavailable}.
+     * 
+     * @return the asynchronous handler timeout in milliseconds
+     */
+    public int getHandlerTimeout() {
+        return getIntProperty("server.timeout.handler", DEFAULT_HANDLER_TIMEOUT);
+    }
+    
+    /**
+     * Gets how many connections or requests may wait for a free thread when
+     * the execution mode is {@code pool}. Work beyond that is answered with
+     * {@code 503 Service Unavailable}.
+     * 
+     * @return the work queue capacity
+     */
+    public int getQueueCapacity() {
+        return Math.max(1, getIntProperty("server.performance.queue.capacity", DEFAULT_QUEUE_CAPACITY));
+    }
+    
+    /**
+     * Gets the most connections (blocking transport) or requests (NIO
+     * transport) that may be queued or handled at once, in either execution mode.
+     * 
+     * @return the in-flight limit
+     */
+    public int getMaxInFlight() {
+        return Math.max(1, getIntProperty("server.performance.max.in.flight", DEFAULT_MAX_IN_FLIGHT));
+    }
+    
+    /**
+     * Gets the delay suggested to clients in the {@code Retry-After} header of a 503 response sent under overload.
+     * 
+     * @return the retry delay in seconds
+     */
+    public int getRetryAfter() {
+        return getIntProperty("server.performance.retry.after", DEFAULT_RETRY_AFTER);
+    }
+    
+    /**
+     * Gets how long {@link Server#stop()} waits for in-flight requests to
+     * finish before closing the connections that are still busy.
+     * 
+     * @return the shutdown grace period in milliseconds
+     */
+    public int getShutdownTimeout() {
+        return Math.max(0, getIntProperty("server.shutdown.timeout", DEFAULT_SHUTDOWN_TIMEOUT));
+    }
+    
+    /**
+     * Checks whether clients may speak HTTP/2 over cleartext, either with
+     * prior knowledge or by upgrading an HTTP/1.1 connection with {@code Upgrade: h2c}.
+     * 
+     * @return true if h2c is enabled
+     */
+    public boolean isHttp2Enabled() {
+        return getBooleanProperty("server.http2.enabled", DEFAULT_HTTP2);
+    }
+    
+    /**
+     * Gets how many streams an HTTP/2 client may have open on one connection at once.
+     * 
+     * @return the concurrent stream limit
+     */
+    public int getHttp2MaxConcurrentStreams() {
+        return Math.max(1, getIntProperty("server.http2.max.concurrent.streams", DEFAULT_HTTP2_MAX_STREAMS));
+    }
+    
+    /**
+     * Checks whether connections are served over TLS, set by {@code server.tls.enabled}.
+     * The key store must then be configured with {@code server.tls.keystore.path}.
+     * 
+     * @return true if TLS is enabled
+     */
+    public boolean isTlsEnabled() {
+        return getBooleanProperty("server.tls.enabled", DEFAULT_TLS);
+    }
+    
+    /**
+     * Gets the path of the key store holding the server's private key and certificate chain.
+     * 
+     * @return the key store path, or null if none is configured
+     */
+    public String getTlsKeyStorePath() {
+        return getProperty("server.tls.keystore.path");
+    }
+    
+    /**
+     * Gets the password of the key store, which also protects the private key.
+     * 
+     * @return the password, empty if none is configured
+     */
+    public String getTlsKeyStorePassword() {
+        return getProperty("server.tls.keystore.password", "");
+    }
+    
+    /**
+     * Gets the format of the key store, such as {@code PKCS12} or {@code JKS}.
+     * 
+     * @return the key store type
+     */
+    public String getTlsKeyStoreType() {
+        return getProperty("server.tls.keystore.type", DEFAULT_TLS_KEYSTORE_TYPE).trim();
+    }
+    
+    /**
+     * Gets how many TLS sessions are cached so that returning clients can resume them.
+     * 
+     * @return the session cache size, where 0 means no limit
+     */
+    public int getTlsSessionCacheSize() {
+        return Math.max(0, getIntProperty("server.tls.session.cache.size", DEFAULT_TLS_SESSION_CACHE_SIZE));
+    }
+    
+    /**
+     * Gets how long a TLS session or session ticket may be resumed.
+     * 
+     * @return the session lifetime in seconds
+     */
+    public int getTlsSessionTimeout() {
+        return Math.max(0, getIntProperty("server.tls.session.timeout", DEFAULT_TLS_SESSION_TIMEOUT));
+    }
+    
+    /**
+     * Gets the total size of the static file contents kept in memory.
+     * 
+     * @return the cache size in bytes, where 0 disables the cache
+     */
+    public int getStaticCacheSize() {
+        return Math.max(0, getIntProperty("server.static.cache.size", DEFAULT_STATIC_CACHE_SIZE));
+    }
+    
+    /**
+     * Gets the size of the largest static file that is cached. Larger files are read on every request.
+     * 
+     * @return the maximum cached file size in bytes
+     */
+    public int getStaticCacheMaxFileSize() {
+        return Math.max(0, getIntProperty("server.static.cache.max.file.size", DEFAULT_STATIC_CACHE_MAX_FILE_SIZE));
+    }
+    
+    /**
+     * Gets how long a cached static file is served before its modification
+     * time and size are compared with the file on disk again.
+     * 
+     * @return the check interval in milliseconds, where 0 checks on every request
+     */
+    public int getStaticCacheCheckInterval() {
+        return Math.max(0, getIntProperty("server.static.cache.check.interval", DEFAULT_STATIC_CACHE_CHECK_INTERVAL));
+    }
+    
+    /**
+     * Checks whether the static directory is indexed in memory at startup and
+     * watched for changes, so that serving a file reads no file attributes and
+     * cached files are dropped as soon as they change.
+     * 
+     * @return true if the static directory is indexed
+     */
+    public boolean isStaticIndexEnabled() {
+        return getBooleanProperty("server.static.index.enabled", DEFAULT_STATIC_INDEX);
+    }
+    
+    /**
+     * Checks whether the static directory is loaded into memory outside the
+     * heap when the server starts, with response heads encoded in advance.
+     * 
+     * @return true if static files are preloaded
+     */
+    public boolean isStaticPreloadEnabled() {
+        return getBooleanProperty("server.static.preload.enabled", DEFAULT_STATIC_PRELOAD);
+    }
+    
+    /**
+     * Gets the total size of the preloaded static files, their heads and
+     * compressed forms included. Files beyond it are served from disk or the cache.
+     * 
+     * @return the preload size in bytes
+     */
+    public int getStaticPreloadSize() {
+        return Math.max(0, getIntProperty("server.static.preload.size", DEFAULT_STATIC_PRELOAD_SIZE));
+    }
+    
+    /**
+     * Checks whether dynamic responses are compressed with gzip or deflate
+     * for clients that accept it.
+     * 
+     * @return true if response compression is enabled
+     */
+    public boolean isCompressionEnabled() {
+        return getBooleanProperty("server.compression.enabled", DEFAULT_COMPRESSION);
+    }
+    
+    /**
+     * Gets the size of the smallest response body that is compressed. Streamed
+     * bodies, whose size is not known in advance, are always compressed.
+     * 
+     * @return the minimum body size in bytes
+     */
+    public int getCompressionMinSize() {
+        return Math.max(0, getIntProperty("server.compression.min.size", DEFAULT_COMPRESSION_MIN_SIZE));
+    }
+    
+    /**
+     * Gets the deflate level used to compress dynamic responses.
+     * 
+     * @return the level, from 1 (fastest) to 9 (smallest)
+     */
+    public int getCompressionLevel() {
+        return Math.min(9, Math.max(1, getIntProperty("server.compression.level", DEFAULT_COMPRESSION_LEVEL)));
+    }
+    
+    /**
+     * Sets a configuration property value.
+     * 
+     * @param key the property key
+     * @param value the property value
+     * @return this ServerConfig instance for chaining
+     */
+    public ServerConfig setProperty(String key, String value) {
+        properties.setProperty(key, value);
+        return this;
+    }
     
     /**
      * Gets a configuration property value.
@@ -125,4 +525,85 @@ public class ServerConfig {
     public String getProperty(String key) {
         return properties.getProperty(key);
     }
+    
+    /**
+     * Gets a configuration property value as an integer.
+     * 
+     * @param key the property key
+     * @param defaultValue the default value if key not found or not a number
+     * @return the property value or default value
+     */
+    private int getIntProperty(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * Gets a configuration property value as a boolean.
+     * 
+     * @param key the property key
+     * @param defaultValue the default value if key not found
+     * @return the property value or default value
+     */
+    private boolean getBooleanProperty(String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+    
+    /**
+     * Connection transports the server can run on.
+     */
+    public enum Transport {
+        /** One blocking socket per connection, served by the worker thread pool. */
+        BLOCKING,
+        /** Non-blocking channels multiplexed over a small set of selector threads. */
+        NIO;
+        
+        /**
+         * Parses a transport name, falling back to {@link #BLOCKING} for unknown values.
+         * 
+         * @param name the transport name
+         * @return the matching transport
+         */
+        static Transport parse(String name) {
+            for (Transport transport : values()) {
+                if (transport.name().equalsIgnoreCase(name.trim())) {
+                    return transport;
+                }
+            }
+            return BLOCKING;
+        }
+    }
+    
+    /**
+     * Ways of executing connection and request handling work.
+     */
+    public enum ExecutionMode {
+        /** A fixed pool of {@code server.thread.pool.size} platform threads. */
+        POOL,
+        /** A new virtual thread per task, so blocking handlers do not cap concurrency. */
+        VIRTUAL;
+        
+        /**
+         * Parses an execution mode name, falling back to {@link #POOL} for unknown values.
+         * 
+         * @param name the execution mode name
+         * @return the matching execution mode
+         */
+        static ExecutionMode parse(String name) {
+            for (ExecutionMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(name.trim())) {
+                    return mode;
+                }
+            }
+            return POOL;
+        }
+    }
 }
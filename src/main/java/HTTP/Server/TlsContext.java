@@ -0,0 +1,132 @@
+package HTTP.Server;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * Server-side TLS settings shared by every connection: the certificate from
+ * the configured key store, the session cache used to resume sessions, and
+ * the protocols offered through ALPN. {@code h2} is offered ahead of
+ * {@code http/1.1} when HTTP/2 is enabled.
+ *
+ * <p>Resumed sessions skip the certificate exchange. The JDK keeps sessions
+ * of TLS 1.2 clients in the server session cache, bounded by
+ * {@code server.tls.session.cache.size} and {@code server.tls.session.timeout},
+ * and issues stateless session tickets to TLS 1.3 clients.
+ *
+ * <p>The context also pools the direct buffers that hold encrypted data on
+ * the NIO transport. A connection only takes a buffer while it holds a
+ * partial record or unsent output, so idle connections hold none.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+final class TlsContext {
+
+    private static final int MAX_POOLED_BUFFERS = 256;
+
+    private final SSLContext sslContext;
+    private final String[] applicationProtocols;
+    private final int packetBufferSize;
+    private final int applicationBufferSize;
+    private final ArrayBlockingQueue<ByteBuffer> buffers;
+
+    /**
+     * Loads the key store and creates the context.
+     *
+     * @param config the server configuration
+     * @throws IOException if the key store is not configured or cannot be loaded
+     */
+    TlsContext(ServerConfig config) throws IOException {
+        String path = config.getTlsKeyStorePath();
+        if (path == null) {
+            throw new IOException("server.tls.keystore.path must be set when TLS is enabled");
+        }
+        char[] password = config.getTlsKeyStorePassword().toCharArray();
+        try (InputStream input = new FileInputStream(path)) {
+            KeyStore keyStore = KeyStore.getInstance(config.getTlsKeyStoreType());
+            keyStore.load(input, password);
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, password);
+            this.sslContext = SSLContext.getInstance("TLS");
+            this.sslContext.init(keyManagers.getKeyManagers(), null, null);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot load TLS key store " + path, e);
+        }
+
+        SSLSessionContext sessions = sslContext.getServerSessionContext();
+        sessions.setSessionCacheSize(config.getTlsSessionCacheSize());
+        sessions.setSessionTimeout(config.getTlsSessionTimeout());
+        this.applicationProtocols = config.isHttp2Enabled()
+                ? new String[] {"h2", "http/1.1"}
+                : new String[] {"http/1.1"};
+        SSLSession session = sslContext.createSSLEngine().getSession();
+        this.packetBufferSize = session.getPacketBufferSize();
+        this.applicationBufferSize = session.getApplicationBufferSize();
+        this.buffers = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+    }
+
+    /**
+     * Creates the TLS session of a newly accepted connection.
+     *
+     * @return a session in server mode, waiting for the client hello
+     */
+    TlsSession newSession() {
+        SSLEngine engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setApplicationProtocols(applicationProtocols);
+        parameters.setUseCipherSuitesOrder(true);
+        engine.setSSLParameters(parameters);
+        return new TlsSession(engine, this);
+    }
+
+    /**
+     * Takes a buffer for encrypted data from the pool, allocating one if the pool is empty.
+     *
+     * @return a cleared direct buffer large enough for one TLS record
+     */
+    ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = buffers.poll();
+        return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(packetBufferSize);
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers beyond the pool's capacity are left to the garbage collector.
+     *
+     * @param buffer a buffer obtained from {@link #acquireBuffer()}
+     */
+    void releaseBuffer(ByteBuffer buffer) {
+        buffers.offer(buffer);
+    }
+
+    /**
+     * Gets the size of the largest TLS record.
+     *
+     * @return the record size in bytes, including the record overhead
+     */
+    int getPacketBufferSize() {
+        return packetBufferSize;
+    }
+
+    /**
+     * Gets the size of the largest plaintext a record can carry.
+     *
+     * @return the plaintext size in bytes
+     */
+    int getApplicationBufferSize() {
+        return applicationBufferSize;
+    }
+}
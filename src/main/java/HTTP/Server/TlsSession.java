@@ -0,0 +1,516 @@
+package HTTP.Server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+/**
+ * TLS state of one connection, driving an {@link SSLEngine}.
+ * On the NIO transport the session is used from the event loop: received
+ * records are decrypted into the loop's read buffer, response bytes are
+ * encrypted one record at a time as the socket accepts them, and the
+ * handshake proceeds as records arrive, with the engine's delegated tasks run
+ * off the loop. Encrypted data is held in buffers from the
+ * {@link TlsContext} pool only while a partial record or unsent output remains.
+ *
+ * <p>A connection served on a thread of its own, on the blocking transport
+ * or after switching to HTTP/2, uses {@link #inputStream(InputStream)} and
+ * {@link #outputStream(OutputStream)} instead. Once they are created the
+ * session keeps heap buffers of its own, and reads and writes may run on
+ * different threads.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+final class TlsSession {
+
+    private final SSLEngine engine;
+    private final TlsContext context;
+    // Guards the engine's output side and netOut once the session is used through streams
+    private final ReentrantLock writeLock;
+    // Received records not yet decrypted, in write mode
+    private ByteBuffer netIn;
+    // Encrypted output not yet sent, in write mode
+    private ByteBuffer netOut;
+    private boolean blocking;
+    private boolean inboundDone;
+    // Answers handshake messages received by the input stream
+    private TlsOutputStream output;
+
+    /**
+     * Creates a session. Use {@link TlsContext#newSession()}.
+     *
+     * @param engine the engine in server mode
+     * @param context the context the session belongs to
+     */
+    TlsSession(SSLEngine engine, TlsContext context) {
+        this.engine = engine;
+        this.context = context;
+        this.writeLock = new ReentrantLock();
+    }
+
+    /**
+     * Gets the protocol the client chose through ALPN.
+     *
+     * @return {@code h2}, {@code http/1.1}, or an empty string if the client did not use ALPN
+     */
+    String getApplicationProtocol() {
+        String protocol = engine.getApplicationProtocol();
+        return protocol == null ? "" : protocol;
+    }
+
+    /**
+     * Reads records from a non-blocking channel and decrypts what it can.
+     *
+     * @param channel the connection's channel
+     * @param destination receives the decrypted bytes
+     * @return the number of decrypted bytes, or -1 once the client has closed
+     *         the connection and every byte before that has been returned
+     * @throws IOException if reading fails or the client breaks the TLS protocol
+     */
+    int read(SocketChannel channel, ByteBuffer destination) throws IOException {
+        if (netIn == null) {
+            netIn = context.acquireBuffer();
+        }
+        int read = channel.read(netIn);
+        if (read < 0) {
+            inboundDone = true;
+            releaseInput();
+            return -1;
+        }
+        return resume(channel, destination);
+    }
+
+    /**
+     * Continues the handshake and decrypts records that have already been
+     * received. Called after a read, and again once delegated tasks have run
+     * or stalled handshake output has been sent.
+     *
+     * @param channel the connection's channel
+     * @param destination receives the decrypted bytes
+     * @return the number of decrypted bytes, or -1 if the client has closed the session
+     * @throws IOException if writing fails or the client breaks the TLS protocol
+     */
+    int resume(SocketChannel channel, ByteBuffer destination) throws IOException {
+        int produced = 0;
+        try {
+            while (!inboundDone) {
+                HandshakeStatus status = engine.getHandshakeStatus();
+                if (status == HandshakeStatus.NEED_TASK) {
+                    break;
+                }
+                if (status == HandshakeStatus.NEED_WRAP) {
+                    if (!flush(channel)) {
+                        break;
+                    }
+                    continue;
+                }
+                if (netIn == null || netIn.position() == 0) {
+                    break;
+                }
+                SSLEngineResult result = unwrap(destination);
+                produced += result.bytesProduced();
+                if (result.getStatus() != SSLEngineResult.Status.OK) {
+                    break;
+                }
+                if (result.bytesConsumed() == 0 && result.getHandshakeStatus() != HandshakeStatus.NEED_WRAP
+                        && result.getHandshakeStatus() != HandshakeStatus.NEED_TASK) {
+                    break;
+                }
+            }
+        } finally {
+            if (netIn != null && netIn.position() == 0) {
+                releaseInput();
+            }
+        }
+        return produced == 0 && inboundDone ? -1 : produced;
+    }
+
+    /**
+     * Checks whether the handshake is waiting for delegated tasks, which must
+     * be run with {@link #runTasks()} before it can continue.
+     *
+     * @return true if tasks are pending
+     */
+    boolean needsTasks() {
+        return engine.getHandshakeStatus() == HandshakeStatus.NEED_TASK;
+    }
+
+    /**
+     * Runs the engine's delegated tasks, such as key exchange and signature
+     * computations. May be called on any thread.
+     */
+    void runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Checks whether received records are waiting to be decrypted.
+     *
+     * @return true if {@link #resume} may produce more bytes
+     */
+    boolean hasBufferedInput() {
+        return netIn != null && netIn.position() > 0;
+    }
+
+    /**
+     * Checks whether the client has closed its side of the session.
+     *
+     * @return true once a {@code close_notify} or the end of the stream has been received
+     */
+    boolean isInboundDone() {
+        return inboundDone;
+    }
+
+    /**
+     * Checks whether encrypted output is waiting for the channel to become writable.
+     *
+     * @return true if {@link #flush} has more to send
+     */
+    boolean hasPendingOutput() {
+        return netOut != null && netOut.position() > 0;
+    }
+
+    /**
+     * Encrypts one record of plaintext and writes it to a non-blocking
+     * channel. Output still pending from an earlier call is sent first.
+     *
+     * @param channel the connection's channel
+     * @param sources the plaintext to send
+     * @return the number of plaintext bytes consumed, 0 if the channel is full
+     * @throws IOException if writing fails or the session is closed
+     */
+    long write(SocketChannel channel, ByteBuffer[] sources) throws IOException {
+        if (!flush(channel)) {
+            return 0;
+        }
+        SSLEngineResult result = wrap(sources);
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            throw new SSLException("TLS session closed");
+        }
+        writePending(channel);
+        return result.bytesConsumed();
+    }
+
+    /**
+     * Sends pending encrypted output, including any the handshake still has to produce.
+     *
+     * @param channel the connection's channel
+     * @return true if everything was sent
+     * @throws IOException if writing fails
+     */
+    boolean flush(SocketChannel channel) throws IOException {
+        while (writePending(channel)) {
+            if (engine.getHandshakeStatus() != HandshakeStatus.NEED_WRAP) {
+                return true;
+            }
+            if (wrap(new ByteBuffer[0]).bytesProduced() == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ends the session on a non-blocking channel: sends {@code close_notify}
+     * if the channel takes it at once and returns the buffers to the pool.
+     *
+     * @param channel the connection's channel, about to be closed
+     */
+    void close(SocketChannel channel) {
+        engine.closeOutbound();
+        try {
+            flush(channel);
+        } catch (IOException e) {
+            // The client is already gone
+        }
+        releaseInput();
+        if (netOut != null) {
+            context.releaseBuffer(netOut);
+            netOut = null;
+        }
+    }
+
+    /**
+     * Creates the stream of decrypted input for a connection served on a
+     * thread of its own. Must be called on the thread that used the session
+     * so far, before {@link #outputStream}.
+     *
+     * @param input the socket's input stream
+     * @return a stream that decrypts the input, continuing the handshake as needed
+     */
+    InputStream inputStream(InputStream input) {
+        switchToBlocking();
+        return new TlsInputStream(input);
+    }
+
+    /**
+     * Creates a stream that encrypts output for a connection served on a
+     * thread of its own. Output left over from the non-blocking transport is
+     * sent ahead of the first write.
+     *
+     * @param output the socket's output stream
+     * @return a stream that encrypts each write into records
+     */
+    OutputStream outputStream(OutputStream output) {
+        switchToBlocking();
+        this.output = new TlsOutputStream(output);
+        return this.output;
+    }
+
+    /**
+     * Replaces pooled buffers with heap buffers owned by the session, copying their contents.
+     */
+    private void switchToBlocking() {
+        if (blocking) {
+            return;
+        }
+        blocking = true;
+        netIn = copyToHeap(netIn);
+        netOut = copyToHeap(netOut);
+    }
+
+    private ByteBuffer copyToHeap(ByteBuffer pooled) {
+        ByteBuffer buffer = ByteBuffer.allocate(context.getPacketBufferSize());
+        if (pooled != null) {
+            buffer.put(pooled.flip());
+            context.releaseBuffer(pooled);
+        }
+        return buffer;
+    }
+
+    private SSLEngineResult unwrap(ByteBuffer destination) throws SSLException {
+        netIn.flip();
+        SSLEngineResult result;
+        try {
+            result = engine.unwrap(netIn, destination);
+        } finally {
+            netIn.compact();
+        }
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            inboundDone = true;
+        } else if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW && !netIn.hasRemaining()) {
+            throw new SSLException("TLS record larger than " + netIn.capacity() + " bytes");
+        }
+        return result;
+    }
+
+    private SSLEngineResult wrap(ByteBuffer[] sources) throws SSLException {
+        if (netOut == null) {
+            netOut = context.acquireBuffer();
+        }
+        return engine.wrap(sources, netOut);
+    }
+
+    /**
+     * Writes pending output to a non-blocking channel, keeping the buffer
+     * only while something is left.
+     *
+     * @return true if nothing is left
+     */
+    private boolean writePending(SocketChannel channel) throws IOException {
+        if (netOut == null) {
+            return true;
+        }
+        netOut.flip();
+        try {
+            while (netOut.hasRemaining() && channel.write(netOut) > 0) {
+                // Keep writing until the socket buffer is full
+            }
+        } finally {
+            netOut.compact();
+        }
+        if (netOut.position() > 0) {
+            return false;
+        }
+        context.releaseBuffer(netOut);
+        netOut = null;
+        return true;
+    }
+
+    private void releaseInput() {
+        if (netIn != null && !blocking) {
+            context.releaseBuffer(netIn);
+            netIn = null;
+        }
+    }
+
+    /**
+     * Decrypted input of a connection served on a thread of its own.
+     * Handshake messages that need an answer, such as a key update, are
+     * answered through the output side under its lock.
+     */
+    private final class TlsInputStream extends InputStream {
+
+        private final InputStream input;
+        private final ByteBuffer plaintext;
+
+        private TlsInputStream(InputStream input) {
+            this.input = input;
+            this.plaintext = ByteBuffer.allocate(context.getApplicationBufferSize()).flip();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] destination, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (!plaintext.hasRemaining()) {
+                if (inboundDone) {
+                    return -1;
+                }
+                fill();
+            }
+            int count = Math.min(length, plaintext.remaining());
+            plaintext.get(destination, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return plaintext.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+
+        /**
+         * Decrypts the next record, reading from the socket as needed.
+         */
+        private void fill() throws IOException {
+            plaintext.clear();
+            try {
+                while (plaintext.position() == 0 && !inboundDone) {
+                    HandshakeStatus status = engine.getHandshakeStatus();
+                    if (status == HandshakeStatus.NEED_TASK) {
+                        runTasks();
+                    } else if (status == HandshakeStatus.NEED_WRAP) {
+                        if (output == null) {
+                            throw new SSLException("TLS handshake output requested before the output stream exists");
+                        }
+                        output.flushHandshake();
+                    } else if (netIn.position() == 0 || unwrap(plaintext).getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        int read = input.read(netIn.array(), netIn.arrayOffset() + netIn.position(), netIn.remaining());
+                        if (read < 0) {
+                            inboundDone = true;
+                        } else {
+                            netIn.position(netIn.position() + read);
+                        }
+                    }
+                }
+            } finally {
+                plaintext.flip();
+            }
+        }
+    }
+
+    /**
+     * Encrypting output of a connection served on a thread of its own.
+     * Writes from different threads are serialized by the session's lock.
+     */
+    private final class TlsOutputStream extends OutputStream {
+
+        private final OutputStream output;
+
+        private TlsOutputStream(OutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            ByteBuffer[] source = {ByteBuffer.wrap(bytes, offset, length)};
+            writeLock.lock();
+            try {
+                sendPending();
+                while (source[0].hasRemaining()) {
+                    SSLEngineResult result = engine.wrap(source, netOut);
+                    if (result.getStatus() != SSLEngineResult.Status.OK
+                            || result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                        throw new SSLException("Cannot encrypt response: " + result.getStatus());
+                    }
+                    sendPending();
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeLock.lock();
+            try {
+                sendPending();
+                output.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Sends {@code close_notify} and closes the socket's output.
+         */
+        @Override
+        public void close() throws IOException {
+            writeLock.lock();
+            try {
+                engine.closeOutbound();
+                flushHandshake();
+            } finally {
+                writeLock.unlock();
+                output.close();
+            }
+        }
+
+        /**
+         * Sends the handshake messages the engine has to produce.
+         */
+        private void flushHandshake() throws IOException {
+            writeLock.lock();
+            try {
+                sendPending();
+                while (engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+                    SSLEngineResult result = engine.wrap(new ByteBuffer[0], netOut);
+                    if (result.getStatus() != SSLEngineResult.Status.OK || result.bytesProduced() == 0) {
+                        sendPending();
+                        break;
+                    }
+                    sendPending();
+                }
+                output.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void sendPending() throws IOException {
+            if (netOut.position() > 0) {
+                output.write(netOut.array(), netOut.arrayOffset(), netOut.position());
+                netOut.clear();
+            }
+        }
+    }
+}
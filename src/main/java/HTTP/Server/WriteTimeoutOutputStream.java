@@ -0,0 +1,66 @@
+package HTTP.Server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Socket output stream of the blocking transport that closes the connection
+ * when a write blocks for too long. Blocking socket writes have no timeout of
+ * their own, so a client that stops reading would hold its thread forever;
+ * instead each write arms a timeout on a shared {@link HashedTimerWheel} and
+ * disarms it when the write returns. On expiry the socket is closed and the
+ * blocked write fails.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+class WriteTimeoutOutputStream extends FilterOutputStream {
+
+    private final HashedTimerWheel timers;
+    private final long timeout;
+    private final HashedTimerWheel.Timeout expiry;
+
+    /**
+     * Wraps a socket's output stream.
+     *
+     * @param output the socket output stream
+     * @param timers the wheel driving write timeouts
+     * @param timeout how long a single write may block, in milliseconds
+     * @param socket the socket to close when a write times out
+     */
+    WriteTimeoutOutputStream(OutputStream output, HashedTimerWheel timers, long timeout, Socket socket) {
+        super(output);
+        this.timers = timers;
+        this.timeout = timeout;
+        this.expiry = new HashedTimerWheel.Timeout(() -> {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closing is all that can be done
+            }
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        timers.schedule(expiry, timeout);
+        try {
+            out.write(b);
+        } finally {
+            timers.cancel(expiry);
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        timers.schedule(expiry, timeout);
+        try {
+            out.write(bytes, offset, length);
+        } finally {
+            timers.cancel(expiry);
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+package HTTP.Static;
+
+import java.util.Arrays;
+
+/**
+ * The byte ranges of a {@code Range} request header, resolved against the
+ * length of a file. Ranges are sorted and ranges that overlap or touch are
+ * merged, so a client cannot make the server send the same bytes twice or
+ * split a file into more parts than it asked for distinct bytes.
+ *
+ * <p>A header in another unit, with a malformed range, or with more than
+ * {@link #MAX_RANGES} ranges is ignored, and the whole file is sent. A header
+ * whose ranges all fall beyond the end of the file parses to an empty set,
+ * which is answered with {@code 416 Range Not Satisfiable}.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+final class ByteRanges {
+
+    /**
+     * The largest number of ranges accepted in one header.
+     */
+    static final int MAX_RANGES = 16;
+
+    private static final String UNIT = "bytes=";
+
+    private final long[] starts;
+    private final long[] ends;
+    private final int count;
+
+    private ByteRanges(long[] starts, long[] ends, int count) {
+        this.starts = starts;
+        this.ends = ends;
+        this.count = count;
+    }
+
+    /**
+     * Parses a {@code Range} header.
+     *
+     * @param header the header value
+     * @param length the length of the file the ranges select from
+     * @return the satisfiable ranges, possibly none, or null if the header is to be ignored
+     */
+    static ByteRanges parse(String header, long length) {
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, UNIT, 0, UNIT.length())) {
+            return null;
+        }
+        String[] specs = value.substring(UNIT.length()).split(",", -1);
+        long[] starts = new long[Math.min(specs.length, MAX_RANGES)];
+        long[] ends = new long[starts.length];
+        int specCount = 0;
+        int count = 0;
+
+        for (String raw : specs) {
+            String spec = raw.trim();
+            if (spec.isEmpty()) {
+                // Empty list elements are allowed and carry no range
+                continue;
+            }
+            if (++specCount > MAX_RANGES) {
+                return null;
+            }
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            long start;
+            long end;
+            if (dash == 0) {
+                // Suffix range: the last N bytes
+                long suffix = parseNumber(spec, 1, spec.length());
+                if (suffix < 0) {
+                    return null;
+                }
+                if (suffix == 0 || length == 0) {
+                    continue;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = parseNumber(spec, 0, dash);
+                if (start < 0) {
+                    return null;
+                }
+                if (dash == spec.length() - 1) {
+                    end = Long.MAX_VALUE;
+                } else {
+                    end = parseNumber(spec, dash + 1, spec.length());
+                    if (end < start) {
+                        return null;
+                    }
+                }
+                if (start >= length) {
+                    continue;
+                }
+                end = Math.min(end, length - 1);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+        if (specCount == 0) {
+            return null;
+        }
+        return merge(starts, ends, count);
+    }
+
+    /**
+     * Sorts ranges by their first byte and merges those that overlap or touch.
+     */
+    private static ByteRanges merge(long[] starts, long[] ends, int count) {
+        if (count > 1) {
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(starts[a], starts[b]));
+            long[] sortedStarts = new long[count];
+            long[] sortedEnds = new long[count];
+            int merged = 0;
+            for (int index : order) {
+                if (merged > 0 && starts[index] <= sortedEnds[merged - 1] + 1) {
+                    sortedEnds[merged - 1] = Math.max(sortedEnds[merged - 1], ends[index]);
+                } else {
+                    sortedStarts[merged] = starts[index];
+                    sortedEnds[merged] = ends[index];
+                    merged++;
+                }
+            }
+            return new ByteRanges(sortedStarts, sortedEnds, merged);
+        }
+        return new ByteRanges(starts, ends, count);
+    }
+
+    /**
+     * Parses a run of decimal digits, saturating instead of overflowing.
+     *
+     * @return the number, or -1 if the text is empty or not all digits
+     */
+    private static long parseNumber(String text, int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value > (Long.MAX_VALUE - 9) / 10 ? Long.MAX_VALUE : value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Gets the number of ranges.
+     *
+     * @return the range count, zero if no range could be satisfied
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Gets the offset of the first byte of a range.
+     *
+     * @param index the range index
+     * @return the first byte offset
+     */
+    long start(int index) {
+        return starts[index];
+    }
+
+    /**
+     * Gets the offset of the last byte of a range.
+     *
+     * @param index the range index
+     * @return the last byte offset, inclusive
+     */
+    long end(int index) {
+        return ends[index];
+    }
+
+    /**
+     * Gets the number of bytes in a range.
+     *
+     * @param index the range index
+     * @return the range length
+     */
+    long length(int index) {
+        return ends[index] - starts[index] + 1;
+    }
+}
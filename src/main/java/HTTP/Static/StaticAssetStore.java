@@ -0,0 +1,278 @@
+package HTTP.Static;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import HTTP.Protocol.BufferBody;
+
+/**
+ * Holds the files of the static directory in memory outside the Java heap,
+ * loaded once when the server starts. Each file is kept in one direct
+ * buffer together with the encoded HTTP/1.1 head of its response and, for
+ * compressible files, its gzip-encoded form and head, so that serving it
+ * means handing out views of that buffer: the body is never copied onto
+ * the heap and large files put no pressure on the garbage collector.
+ *
+ * <p>The store is filled by {@link StaticFileHandler} and bounded by the
+ * total size of its buffers; files that do not fit are served like any
+ * other. It is never refilled. A file that changes on disk leaves the store
+ * and is served from disk or the {@link StaticFileCache} from then on. With
+ * the handler's index, the change is noticed as soon as the index sees it.
+ * Without it, a preloaded file is trusted for the check interval after it
+ * was last validated, and the next hit after that compares its modification
+ * time and size with the file on disk, as the cache does.
+ *
+ * <p>All methods are thread-safe.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+public class StaticAssetStore {
+
+    private final long capacity;
+    private final long checkInterval;
+    private final ConcurrentHashMap<String, Asset> assets;
+    private final AtomicLong residentSize;
+    private volatile long preloadTime;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param capacity the total size in bytes of the buffers the store may hold
+     * @param checkInterval how long in milliseconds a preloaded file is served before it is checked
+     *        against the disk, when the static directory is not indexed
+     */
+    public StaticAssetStore(long capacity, long checkInterval) {
+        this.capacity = capacity;
+        this.checkInterval = checkInterval;
+        this.assets = new ConcurrentHashMap<>();
+        this.residentSize = new AtomicLong();
+    }
+
+    /**
+     * A preloaded file: the headers of its full response and its body with
+     * the encoded head, the same for its gzip-encoded form if it has one,
+     * and the attributes the file had when it was read.
+     */
+    static final class Asset {
+
+        final Map<String, List<String>> headers;
+        final BufferBody body;
+        final Map<String, List<String>> encodedHeaders;
+        final BufferBody encodedBody;
+        final long lastModified;
+        final long fileSize;
+        final long size;
+        private volatile long checkedAt;
+
+        /**
+         * Creates an asset.
+         *
+         * @param headers the headers of a full response, which must not be modified afterwards
+         * @param body the file contents and the encoded head of a full response
+         * @param encodedHeaders the headers of a full response with the encoded contents, or null
+         * @param encodedBody the gzip-encoded contents and their encoded head, or null
+         * @param lastModified the modification time of the file before it was read, in milliseconds
+         * @param fileSize the size of the file before it was read
+         * @param size the capacity of the buffer holding the asset
+         */
+        Asset(Map<String, List<String>> headers, BufferBody body, Map<String, List<String>> encodedHeaders,
+              BufferBody encodedBody, long lastModified, long fileSize, long size) {
+            this.headers = headers;
+            this.body = body;
+            this.encodedHeaders = encodedHeaders;
+            this.encodedBody = encodedBody;
+            this.lastModified = lastModified;
+            this.fileSize = fileSize;
+            this.size = size;
+            this.checkedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Tells whether an asset of the given size would fit in the space left.
+     *
+     * @param size the size of its buffer in bytes
+     * @return true if the store has room for it now
+     */
+    boolean accepts(long size) {
+        return residentSize.get() + size <= capacity;
+    }
+
+    /**
+     * Allocates the buffer for an asset outside the heap, if it fits within
+     * the capacity. The space counts as used from then on.
+     *
+     * @param size the size of the buffer in bytes
+     * @return the buffer, or null if the store is full or direct memory is exhausted
+     */
+    ByteBuffer allocate(long size) {
+        if (size > Integer.MAX_VALUE) {
+            return null;
+        }
+        long used;
+        do {
+            used = residentSize.get();
+            if (used + size > capacity) {
+                return null;
+            }
+        } while (!residentSize.compareAndSet(used, used + size));
+        try {
+            return ByteBuffer.allocateDirect((int) size);
+        } catch (OutOfMemoryError e) {
+            // Beyond -XX:MaxDirectMemorySize; the heap itself is unaffected
+            residentSize.addAndGet(-size);
+            return null;
+        }
+    }
+
+    /**
+     * Gives back space allocated for an asset that could not be loaded.
+     *
+     * @param size the size passed to {@link #allocate(long)}
+     */
+    void release(long size) {
+        residentSize.addAndGet(-size);
+    }
+
+    /**
+     * Adds an asset whose buffer was allocated from this store.
+     *
+     * @param key the normalized path of the file relative to the static directory
+     * @param asset the asset
+     */
+    void put(String key, Asset asset) {
+        Asset previous = assets.put(key, asset);
+        if (previous != null) {
+            residentSize.addAndGet(-previous.size);
+        }
+    }
+
+    /**
+     * Looks up a file, checking its asset against the disk if its check interval has passed.
+     *
+     * @param key the normalized path of the file relative to the static directory
+     * @param file the file on disk
+     * @return the asset, or null if the file is not held or has changed
+     */
+    Asset get(String key, Path file) {
+        Asset asset = assets.get(key);
+        if (asset != null && !isCurrent(asset, file)) {
+            remove(key, asset);
+            return null;
+        }
+        return asset;
+    }
+
+    /**
+     * Looks up a file whose current attributes are already known, as they are
+     * from a {@link StaticFileIndex}. An asset loaded with other attributes is
+     * dropped, so the disk is never consulted.
+     *
+     * @param key the normalized path of the file relative to the static directory
+     * @param lastModified the current modification time of the file in milliseconds
+     * @param fileSize the current size of the file
+     * @return the asset, or null if the file is not held or has changed
+     */
+    Asset get(String key, long lastModified, long fileSize) {
+        Asset asset = assets.get(key);
+        if (asset != null && (asset.lastModified != lastModified || asset.fileSize != fileSize)) {
+            remove(key, asset);
+            return null;
+        }
+        return asset;
+    }
+
+    /**
+     * Tells whether a file is held, without checking it against the disk.
+     *
+     * @param key the normalized path of the file relative to the static directory
+     * @return true if an asset for the file is held
+     */
+    boolean contains(String key) {
+        return assets.containsKey(key);
+    }
+
+    /**
+     * Drops the asset of a file that is known to have changed. Its memory
+     * is freed once the last response sending it has been written.
+     *
+     * @param key the normalized path of the file relative to the static directory
+     */
+    void invalidate(String key) {
+        Asset asset = assets.remove(key);
+        if (asset != null) {
+            residentSize.addAndGet(-asset.size);
+        }
+    }
+
+    /**
+     * Drops an asset if it is still the one held for the key.
+     */
+    private void remove(String key, Asset asset) {
+        if (assets.remove(key, asset)) {
+            residentSize.addAndGet(-asset.size);
+        }
+    }
+
+    private boolean isCurrent(Asset asset, Path file) {
+        long now = System.currentTimeMillis();
+        if (now - asset.checkedAt < checkInterval) {
+            return true;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.lastModifiedTime().toMillis() != asset.lastModified || attributes.size() != asset.fileSize) {
+                return false;
+            }
+        } catch (IOException e) {
+            // Deleted or no longer readable
+            return false;
+        }
+        asset.checkedAt = now;
+        return true;
+    }
+
+    /**
+     * Records how long loading the store took.
+     *
+     * @param millis the preload time in milliseconds
+     */
+    void setPreloadTime(long millis) {
+        this.preloadTime = millis;
+    }
+
+    /**
+     * Gets how long loading the store took when the server started.
+     *
+     * @return the preload time in milliseconds
+     */
+    public long getPreloadTime() {
+        return preloadTime;
+    }
+
+    /**
+     * Gets the total size of the buffers held, heads and encoded forms included.
+     *
+     * @return the resident size in bytes
+     */
+    public long getResidentSize() {
+        return residentSize.get();
+    }
+
+    /**
+     * Gets the number of files held.
+     *
+     * @return the asset count
+     */
+    public int getAssetCount() {
+        return assets.size();
+    }
+}
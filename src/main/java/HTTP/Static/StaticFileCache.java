@@ -0,0 +1,275 @@
+package HTTP.Static;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps recently served static files in memory, together with the response
+ * headers computed when they were loaded and, for compressible files, their
+ * gzip-encoded form, so a hit builds its response without touching the
+ * disk, formatting headers or compressing anything again.
+ *
+ * <p>The cache is bounded by the total size of the cached contents and
+ * evicts the least recently used files first. Files larger than the
+ * per-file limit are never cached. A cached file is trusted for the check
+ * interval after it was last validated; after that, the next hit compares
+ * the file's modification time and size with those recorded when it was
+ * loaded and drops the entry if either changed. When the static directory
+ * is indexed, the attributes come from the index instead, which also drops
+ * entries as soon as their files change.
+ *
+ * <p>All methods are thread-safe. Lookups and insertions hold a single lock
+ * only while they update the recency order, never while reading files.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+public class StaticFileCache {
+
+    private final long capacity;
+    private final long maxFileSize;
+    private final long checkInterval;
+    private final LinkedHashMap<String, Entry> entries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    private long size;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param capacity the total size in bytes of the contents the cache may hold
+     * @param maxFileSize the size in bytes of the largest file that is cached
+     * @param checkInterval how long in milliseconds a cached file is served before it is checked against the disk
+     */
+    public StaticFileCache(long capacity, long maxFileSize, long checkInterval) {
+        this.capacity = capacity;
+        this.maxFileSize = Math.min(maxFileSize, capacity);
+        this.checkInterval = checkInterval;
+        // Access order, so iteration starts at the least recently used entry
+        this.entries = new LinkedHashMap<>(64, 0.75f, true);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * A cached file: its contents, the headers of a full response, the
+     * gzip-encoded form of both if the file is compressible, and the
+     * attributes it had when it was read.
+     */
+    static final class Entry {
+
+        final byte[] content;
+        final Map<String, List<String>> headers;
+        final byte[] encodedContent;
+        final Map<String, List<String>> encodedHeaders;
+        final long lastModified;
+        final long fileSize;
+        final long size;
+        private volatile long checkedAt;
+
+        /**
+         * Creates an entry for a file that has just been read.
+         *
+         * @param content the file contents
+         * @param headers the headers of a full response, which must not be modified afterwards
+         * @param encodedContent the gzip-encoded contents, or null if the file is not served compressed
+         * @param encodedHeaders the headers of a full response with the encoded contents, or null
+         * @param lastModified the modification time of the file before its contents were read, in milliseconds
+         * @param fileSize the size of the file before its contents were read
+         */
+        Entry(byte[] content, Map<String, List<String>> headers, byte[] encodedContent,
+              Map<String, List<String>> encodedHeaders, long lastModified, long fileSize) {
+            this.content = content;
+            this.headers = headers;
+            this.encodedContent = encodedContent;
+            this.encodedHeaders = encodedHeaders;
+            this.lastModified = lastModified;
+            this.fileSize = fileSize;
+            this.size = content.length + (encodedContent != null ? encodedContent.length : 0);
+            this.checkedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Looks up a file, checking a cached entry against the disk if its
+     * check interval has passed.
+     *
+     * @param key the normalized path of the file relative to the static directory
+     * @param file the file on disk
+     * @return the entry, or null if the file is not cached or has changed
+     */
+    Entry get(String key, Path file) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry != null && !isCurrent(entry, file)) {
+            remove(key, entry);
+            entry = null;
+        }
+        (entry != null ? hits : misses).incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Looks up a file whose current attributes are already known, as they are
+     * from a {@link StaticFileIndex}. An entry recorded with other attributes
+     * is dropped, so the disk is never consulted.
+     *
+     * @param key the normalized path of the file relative to the static directory
+     * @param lastModified the current modification time of the file in milliseconds
+     * @param fileSize the current size of the file
+     * @return the entry, or null if the file is not cached or has changed
+     */
+    Entry get(String key, long lastModified, long fileSize) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry != null && (entry.lastModified != lastModified || entry.fileSize != fileSize)) {
+            remove(key, entry);
+            entry = null;
+        }
+        (entry != null ? hits : misses).incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Drops the entry of a file that is known to have changed.
+     *
+     * @param key the normalized path of the file relative to the static directory
+     */
+    synchronized void invalidate(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.size;
+        }
+    }
+
+    /**
+     * Tells whether a file is cached, without checking it against the disk.
+     *
+     * @param key the normalized path of the file relative to the static directory
+     * @return true if an entry for the file is held
+     */
+    synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Tells whether a file of the given size may be cached.
+     *
+     * @param length the file size in bytes
+     * @return true if the file is within the per-file limit
+     */
+    boolean accepts(long length) {
+        return length <= maxFileSize;
+    }
+
+    /**
+     * Adds or replaces an entry, evicting the least recently used entries
+     * until the cache is within its capacity again.
+     *
+     * @param key the normalized path of the file relative to the static directory
+     * @param entry the entry to cache
+     */
+    synchronized void put(String key, Entry entry) {
+        if (!accepts(entry.content.length)) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            size -= previous.size;
+        }
+        size += entry.size;
+
+        Iterator<Entry> oldest = entries.values().iterator();
+        while (size > capacity && oldest.hasNext()) {
+            Entry evicted = oldest.next();
+            oldest.remove();
+            size -= evicted.size;
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops an entry if it is still the one cached for the key.
+     */
+    private synchronized void remove(String key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            size -= entry.size;
+        }
+    }
+
+    private boolean isCurrent(Entry entry, Path file) {
+        long now = System.currentTimeMillis();
+        if (now - entry.checkedAt < checkInterval) {
+            return true;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.lastModifiedTime().toMillis() != entry.lastModified || attributes.size() != entry.fileSize) {
+                return false;
+            }
+        } catch (IOException e) {
+            // Deleted or no longer readable
+            return false;
+        }
+        entry.checkedAt = now;
+        return true;
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that had to read the file.
+     *
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of entries evicted to stay within the capacity.
+     *
+     * @return the eviction count
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Gets the number of cached files.
+     *
+     * @return the entry count
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the total size of the cached contents, compressed forms included.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+}
@@ -1,24 +1,68 @@
 package HTTP.Static;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
+import HTTP.Protocol.BufferBody;
+import HTTP.Protocol.CompositeBody;
+import HTTP.Protocol.FileRegion;
+import HTTP.Protocol.HttpMethod;
+import HTTP.Protocol.HttpRequest;
 import HTTP.Protocol.HttpResponse;
 
 /**
  * Handles serving static files from a configured directory.
  * Supports common file types with proper MIME type detection.
+ * Files can be kept in memory by a {@link StaticFileCache}; files that are
+ * not cached are returned as a {@link FileRegion} for the transport to send
+ * straight from disk. {@code Range} requests are answered with the selected
+ * parts of the file, cut from the cached contents or sent as regions of it.
+ * Files carry an {@code ETag} and {@code Last-Modified} header, and a
+ * conditional request whose copy is current gets {@code 304 Not Modified}
+ * without the file being read. The files of the directory can be kept in
+ * a {@link StaticFileIndex}, so that finding a file costs no filesystem
+ * call and cached files are dropped as soon as they change on disk. For
+ * read-mostly sites the whole directory can be preloaded into a
+ * {@link StaticAssetStore} outside the heap, with response heads encoded in
+ * advance.
  * 
  * @author HTTP Server Team
  * @version 1.0
  */
 public class StaticFileHandler {
     
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    
     private final String staticDirectory;
     private final Map<String, String> mimeTypes;
+    private final StaticFileCache cache;
+    private final StaticFileIndex index;
+    private final StaticAssetStore assets;
     
     /**
      * Creates a new StaticFileHandler with the specified static directory.
@@ -26,8 +70,243 @@ public class StaticFileHandler {
      * @param staticDirectory the directory containing static files
      */
     public StaticFileHandler(String staticDirectory) {
+        this(staticDirectory, null);
+    }
+    
+    /**
+     * Creates a new StaticFileHandler that keeps served files in a cache.
+     * 
+     * @param staticDirectory the directory containing static files
+     * @param cache the cache for file contents, or null to read every file from disk
+     */
+    public StaticFileHandler(String staticDirectory, StaticFileCache cache) {
+        this(staticDirectory, cache, false);
+    }
+    
+    /**
+     * Creates a new StaticFileHandler that can index the static directory.
+     * The index is built before the constructor returns. If the directory
+     * does not exist or cannot be watched, files are looked up on disk as
+     * if no index had been asked for.
+     * 
+     * @param staticDirectory the directory containing static files
+     * @param cache the cache for file contents, or null to read every file from disk
+     * @param indexed whether to index the directory and watch it for changes
+     */
+    public StaticFileHandler(String staticDirectory, StaticFileCache cache, boolean indexed) {
+        this(staticDirectory, cache, indexed, null);
+    }
+    
+    /**
+     * Creates a new StaticFileHandler that can index the static directory and
+     * preload it outside the heap. Both are done before the constructor returns.
+     * 
+     * @param staticDirectory the directory containing static files
+     * @param cache the cache for file contents, or null to read every file from disk
+     * @param indexed whether to index the directory and watch it for changes
+     * @param assets an empty store to preload the directory into, or null
+     */
+    public StaticFileHandler(String staticDirectory, StaticFileCache cache, boolean indexed,
+                             StaticAssetStore assets) {
         this.staticDirectory = staticDirectory;
         this.mimeTypes = initializeMimeTypes();
+        this.cache = cache;
+        this.assets = assets;
+        this.index = indexed ? openIndex(staticDirectory) : null;
+        if (assets != null) {
+            preload();
+        }
+    }
+    
+    /**
+     * Indexes the static directory, dropping cached files as the index sees them change.
+     * 
+     * @param staticDirectory the directory containing static files
+     * @return the index, or null if the directory cannot be indexed
+     */
+    private StaticFileIndex openIndex(String staticDirectory) {
+        try {
+            Path root = Path.of(staticDirectory);
+            if (!Files.isDirectory(root)) {
+                return null;
+            }
+            return new StaticFileIndex(root, this::fileChanged);
+        } catch (IOException | InvalidPathException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Drops the cached contents of a file that changed, and of the file a
+     * changed {@code .gz} sidecar belongs to, whose encoded form came from it.
+     * 
+     * @param key the normalized path of the file relative to the static directory
+     */
+    private void fileChanged(String key) {
+        if (cache != null) {
+            cache.invalidate(key);
+            if (key.endsWith(".gz")) {
+                cache.invalidate(key.substring(0, key.length() - 3));
+            }
+        }
+        if (assets != null) {
+            assets.invalidate(key);
+            if (key.endsWith(".gz")) {
+                assets.invalidate(key.substring(0, key.length() - 3));
+            }
+        }
+    }
+    
+    /**
+     * Loads every readable file of the static directory into the asset
+     * store, until the store is full, and records how long it took. Sidecars
+     * are only loaded as the encoded form of the file they belong to.
+     */
+    private void preload() {
+        long start = System.nanoTime();
+        Path root = Path.of(staticDirectory).toAbsolutePath().normalize();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    String key = root.relativize(file).toString();
+                    if (attributes.isRegularFile() && Files.isReadable(file) && !isSidecar(file)) {
+                        try {
+                            loadAsset(key, file, attributes);
+                        } catch (IOException e) {
+                            // Changed while it was read; it is served from disk instead
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+                
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException | InvalidPathException e) {
+            // No static directory; nothing to preload
+        }
+        assets.setPreloadTime((System.nanoTime() - start) / 1_000_000);
+    }
+    
+    /**
+     * Tells whether a file is the precompressed copy of a compressible file next to it.
+     */
+    private boolean isSidecar(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(".gz")) {
+            return false;
+        }
+        String original = name.substring(0, name.length() - 3);
+        return isCompressible(getMimeType(original)) && Files.isRegularFile(file.resolveSibling(original));
+    }
+    
+    /**
+     * Loads one file into a buffer of the asset store: the head of its full
+     * response, its contents and, if it is compressible, the head and
+     * contents of its gzip-encoded form. Compressible files pass through the
+     * heap to be compressed; others are read straight into the buffer.
+     * 
+     * @param key the normalized path of the file relative to the static directory
+     * @param file the file
+     * @param attributes the attributes of the file, read before its contents
+     * @throws IOException if the file cannot be read or changed size
+     */
+    private void loadAsset(String key, Path file, BasicFileAttributes attributes) throws IOException {
+        String mimeType = getMimeType(key);
+        boolean compressible = isCompressible(mimeType);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        long fileSize = attributes.size();
+        Map<String, java.util.List<String>> headers = fileHeaders(mimeType, compressible, lastModified, fileSize);
+        byte[] head = encodeHead(headers);
+        if (!assets.accepts(head.length + fileSize)) {
+            return;
+        }
+        
+        byte[] content = null;
+        byte[] encodedContent = null;
+        Map<String, java.util.List<String>> encodedHeaders = null;
+        byte[] encodedHead = null;
+        if (compressible) {
+            content = Files.readAllBytes(file);
+            if (content.length != fileSize) {
+                throw new IOException("File changed while it was read: " + file);
+            }
+            FileRegion sidecar = findSidecar(key, file, lastModified);
+            encodedContent = sidecar != null ? sidecar.readAllBytes() : gzip(content);
+            if (sidecar == null && encodedContent.length >= content.length) {
+                encodedContent = null;
+            } else {
+                encodedHeaders = encodedHeaders(headers, encodedContent.length);
+                encodedHead = encodeHead(encodedHeaders);
+            }
+        }
+        
+        long size = head.length + fileSize
+                + (encodedContent != null ? encodedHead.length + encodedContent.length : 0);
+        ByteBuffer buffer = assets.allocate(size);
+        if (buffer == null) {
+            return;
+        }
+        try {
+            buffer.put(head);
+            if (content != null) {
+                buffer.put(content);
+            } else {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    ByteBuffer target = buffer.slice(buffer.position(), (int) fileSize);
+                    while (target.hasRemaining()) {
+                        if (channel.read(target) < 0) {
+                            throw new IOException("File changed while it was read: " + file);
+                        }
+                    }
+                }
+                buffer.position(buffer.position() + (int) fileSize);
+            }
+            if (encodedContent != null) {
+                buffer.put(encodedHead);
+                buffer.put(encodedContent);
+            }
+        } catch (IOException | RuntimeException e) {
+            assets.release(size);
+            throw e;
+        }
+        
+        // Read-only views, so no response can alter what the next one sends
+        ByteBuffer memory = buffer.flip().asReadOnlyBuffer();
+        BufferBody body = new BufferBody(memory.slice(head.length, (int) fileSize), memory.slice(0, head.length));
+        BufferBody encodedBody = null;
+        if (encodedContent != null) {
+            int offset = head.length + (int) fileSize;
+            encodedBody = new BufferBody(memory.slice(offset + encodedHead.length, encodedContent.length),
+                    memory.slice(offset, encodedHead.length));
+        }
+        assets.put(key, new StaticAssetStore.Asset(Map.copyOf(headers), body,
+                encodedHeaders != null ? Map.copyOf(encodedHeaders) : null, encodedBody,
+                lastModified, fileSize, size));
+    }
+    
+    /**
+     * Encodes the head of a full file response for HTTP/1.1, up to and
+     * including its {@code Content-Length} line, as a {@link BufferBody} carries it.
+     * 
+     * @param headers the headers of the response
+     * @return the encoded status line and headers
+     */
+    private static byte[] encodeHead(Map<String, java.util.List<String>> headers) {
+        StringBuilder head = new StringBuilder("HTTP/1.1 200 OK\r\n");
+        for (Map.Entry<String, java.util.List<String>> header : headers.entrySet()) {
+            if (header.getKey().equals("Content-Length")) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                head.append(header.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+        head.append("Content-Length: ").append(headers.get("Content-Length").get(0)).append("\r\n");
+        return head.toString().getBytes(StandardCharsets.US_ASCII);
     }
     
     /**
@@ -46,6 +325,22 @@ public class StaticFileHandler {
             return false;
         }
         
+        try {
+            if (index != null) {
+                StaticFileIndex.FileInfo info = index.get(cacheKey(uri));
+                return info != null && info.readable;
+            }
+            // A preloaded or cached file is checked against the disk when it is served
+            if (assets != null && assets.contains(cacheKey(uri))) {
+                return true;
+            }
+            if (cache != null && cache.contains(cacheKey(uri))) {
+                return true;
+            }
+        } catch (InvalidPathException e) {
+            return false;
+        }
+        
         File file = new File(staticDirectory, uri);
         return file.exists() && file.isFile() && file.canRead();
     }
@@ -57,40 +352,535 @@ public class StaticFileHandler {
      * @return HttpResponse with file content or error
      */
     public HttpResponse serveFile(String uri) {
+        return serveFile(uri, null);
+    }
+    
+    /**
+     * Serves a static file, or the parts of it selected by the request's
+     * {@code Range} header. A {@code GET} whose {@code If-None-Match} or
+     * {@code If-Modified-Since} header shows that the client's copy is
+     * current gets {@code 304 Not Modified}. Otherwise a {@code GET} with
+     * satisfiable ranges gets a {@code 206 Partial Content} response, as
+     * {@code multipart/byteranges} when there is more than one range, and one
+     * whose ranges all lie beyond the end of the file gets
+     * {@code 416 Range Not Satisfiable}. An {@code If-Range} validator that
+     * no longer matches the file turns the request back into one for the
+     * whole file.
+     * 
+     * @param uri the request URI
+     * @param request the request, or null to always serve the whole file
+     * @return HttpResponse with file content or error
+     */
+    public HttpResponse serveFile(String uri, HttpRequest request) {
         try {
             File file = new File(staticDirectory, uri);
+            String mimeType = getMimeType(uri);
+            boolean compressible = isCompressible(mimeType);
+            boolean gzip = compressible && request != null && request.getEncodingQuality("gzip") > 0;
+            String key = cacheKey(uri);
+            StaticFileIndex.FileInfo info = null;
+            if (index != null) {
+                info = index.get(key);
+                if (info == null) {
+                    return index.isDirectory(key)
+                            ? createErrorResponse(400, "Not a file: " + uri)
+                            : createErrorResponse(404, "File not found: " + uri);
+                }
+                if (!info.readable) {
+                    return createErrorResponse(403, "Cannot read file: " + uri);
+                }
+            }
+            if (assets != null) {
+                StaticAssetStore.Asset asset = info != null
+                        ? assets.get(key, info.lastModified, info.size)
+                        : assets.get(key, file.toPath());
+                if (asset != null) {
+                    boolean encoded = gzip && asset.encodedBody != null;
+                    Map<String, java.util.List<String>> headers = encoded ? asset.encodedHeaders : asset.headers;
+                    BufferBody body = encoded ? asset.encodedBody : asset.body;
+                    String entityTag = headers.get("ETag").get(0);
+                    if (isNotModified(request, entityTag, asset.lastModified)) {
+                        return createNotModifiedResponse(headers, entityTag);
+                    }
+                    return createResponse(request, headers, body, file.toPath(), body.getLength(), asset.lastModified);
+                }
+            }
+            if (cache != null) {
+                StaticFileCache.Entry entry = info != null
+                        ? cache.get(key, info.lastModified, info.size)
+                        : cache.get(key, file.toPath());
+                if (entry != null) {
+                    boolean encoded = gzip && entry.encodedContent != null;
+                    Map<String, java.util.List<String>> headers = encoded ? entry.encodedHeaders : entry.headers;
+                    byte[] content = encoded ? entry.encodedContent : entry.content;
+                    String entityTag = headers.get("ETag").get(0);
+                    if (isNotModified(request, entityTag, entry.lastModified)) {
+                        return createNotModifiedResponse(headers, entityTag);
+                    }
+                    return createResponse(request, headers, content, file.toPath(), content.length, entry.lastModified);
+                }
+            }
             
-            if (!file.exists()) {
-                return createErrorResponse(404, "File not found: " + uri);
+            // Attributes before contents, from the index or the disk,
+            // so a file modified while it is read fails validation later
+            long lastModified;
+            long fileSize;
+            if (info != null) {
+                lastModified = info.lastModified;
+                fileSize = info.size;
+            } else {
+                if (!file.exists()) {
+                    return createErrorResponse(404, "File not found: " + uri);
+                }
+                
+                if (!file.isFile()) {
+                    return createErrorResponse(400, "Not a file: " + uri);
+                }
+                
+                if (!file.canRead()) {
+                    return createErrorResponse(403, "Cannot read file: " + uri);
+                }
+                
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                lastModified = attributes.lastModifiedTime().toMillis();
+                fileSize = attributes.size();
             }
             
-            if (!file.isFile()) {
-                return createErrorResponse(400, "Not a file: " + uri);
+            // Create response headers
+            Map<String, java.util.List<String>> headers = fileHeaders(mimeType, compressible, lastModified, fileSize);
+            
+            // A file that is not cached can only be sent compressed from a sidecar
+            FileRegion sidecar = compressible ? findSidecar(key, file.toPath(), lastModified) : null;
+            boolean cacheable = cache != null && cache.accepts(fileSize);
+            boolean encoded = gzip && sidecar != null;
+            
+            // Whether a file without a sidecar is sent compressed is only known once it has been compressed
+            boolean undecided = gzip && compressible && cacheable && sidecar == null;
+            
+            // Otherwise validators come from the attributes alone, so a client with a current copy costs no read
+            String entityTag = headers.get("ETag").get(0);
+            if (!undecided) {
+                String currentTag = encoded ? encodedEntityTag(entityTag) : entityTag;
+                if (isNotModified(request, currentTag, lastModified)) {
+                    return createNotModifiedResponse(headers, currentTag);
+                }
             }
             
-            if (!file.canRead()) {
-                return createErrorResponse(403, "Cannot read file: " + uri);
+            // Files that are not cached are sent from disk by the transport without loading them
+            if (!cacheable) {
+                if (encoded) {
+                    return createResponse(request, encodedHeaders(headers, sidecar.getLength()), null,
+                            sidecar.getPath(), sidecar.getLength(), lastModified);
+                }
+                return createResponse(request, headers, null, file.toPath(), fileSize, lastModified);
             }
             
             // Read file content
             byte[] content = Files.readAllBytes(file.toPath());
-            
-            // Determine MIME type
-            String mimeType = getMimeType(uri);
-            
-            // Create response headers
-            Map<String, java.util.List<String>> headers = new HashMap<>();
-            headers.put("Content-Type", java.util.List.of(mimeType));
             headers.put("Content-Length", java.util.List.of(String.valueOf(content.length)));
-            headers.put("Cache-Control", java.util.List.of("public, max-age=3600"));
             
-            return new HttpResponse(200, headers, content);
+            // The compressed form is made once, when the file is loaded, and only kept if it is smaller
+            byte[] encodedContent = null;
+            Map<String, java.util.List<String>> encodedHeaders = null;
+            if (compressible) {
+                encodedContent = sidecar != null ? sidecar.readAllBytes() : gzip(content);
+                if (sidecar == null && encodedContent.length >= content.length) {
+                    encodedContent = null;
+                } else {
+                    encodedHeaders = encodedHeaders(headers, encodedContent.length);
+                }
+            }
             
+            if (cache.accepts(content.length)) {
+                // Cached headers are shared by every response built from the entry
+                headers = Map.copyOf(headers);
+                encodedHeaders = encodedHeaders != null ? Map.copyOf(encodedHeaders) : null;
+                cache.put(key, new StaticFileCache.Entry(content, headers, encodedContent, encodedHeaders,
+                        lastModified, fileSize));
+            }
+            if (undecided) {
+                String currentTag = encodedContent != null ? encodedEntityTag(entityTag) : entityTag;
+                if (isNotModified(request, currentTag, lastModified)) {
+                    return createNotModifiedResponse(headers, currentTag);
+                }
+            }
+            if (gzip && encodedContent != null) {
+                return createResponse(request, encodedHeaders, encodedContent, file.toPath(),
+                        encodedContent.length, lastModified);
+            }
+            return createResponse(request, headers, content, file.toPath(), content.length, lastModified);
+            
+        } catch (InvalidPathException e) {
+            return createErrorResponse(404, "File not found: " + uri);
         } catch (IOException e) {
             return createErrorResponse(500, "Error reading file: " + e.getMessage());
         }
     }
     
+    /**
+     * Builds the headers of a full response for a file.
+     * 
+     * @param mimeType the MIME type of the file
+     * @param compressible whether the file is also served gzip-encoded
+     * @param lastModified the modification time of the file in milliseconds
+     * @param fileSize the file size in bytes
+     * @return a new map of headers
+     */
+    private static Map<String, java.util.List<String>> fileHeaders(String mimeType, boolean compressible,
+                                                                   long lastModified, long fileSize) {
+        Map<String, java.util.List<String>> headers = new HashMap<>();
+        headers.put("Content-Type", java.util.List.of(mimeType));
+        headers.put("Cache-Control", java.util.List.of("public, max-age=3600"));
+        headers.put("Accept-Ranges", java.util.List.of("bytes"));
+        headers.put("ETag", java.util.List.of(entityTag(lastModified, fileSize)));
+        headers.put("Last-Modified", java.util.List.of(HTTP_DATE.format(Instant.ofEpochMilli(lastModified))));
+        headers.put("Content-Length", java.util.List.of(String.valueOf(fileSize)));
+        if (compressible) {
+            headers.put("Vary", java.util.List.of("Accept-Encoding"));
+        }
+        return headers;
+    }
+    
+    /**
+     * Finds the precompressed copy of a file, {@code name.gz} next to it, if
+     * it is readable and no older than the file itself. An indexed directory
+     * is searched in the index rather than on disk.
+     * 
+     * @param key the normalized path of the file relative to the static directory
+     * @param file the file
+     * @param lastModified the modification time of the file in milliseconds
+     * @return the whole sidecar as a region, or null if there is no usable sidecar
+     */
+    private FileRegion findSidecar(String key, Path file, long lastModified) {
+        Path sidecar = file.resolveSibling(file.getFileName() + ".gz");
+        if (index != null) {
+            StaticFileIndex.FileInfo info = index.get(key + ".gz");
+            if (info != null && info.readable && info.lastModified >= lastModified) {
+                return new FileRegion(sidecar, 0, info.size);
+            }
+            return null;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(sidecar, BasicFileAttributes.class);
+            if (attributes.isRegularFile() && attributes.lastModifiedTime().toMillis() >= lastModified
+                    && Files.isReadable(sidecar)) {
+                return new FileRegion(sidecar, 0, attributes.size());
+            }
+        } catch (IOException e) {
+            // No sidecar
+        }
+        return null;
+    }
+    
+    /**
+     * Compresses file contents with gzip at the highest level, since it is done once per load.
+     * 
+     * @param content the file contents
+     * @return the compressed contents
+     * @throws IOException if compression fails
+     */
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2 + 64);
+        try (GZIPOutputStream output = new GZIPOutputStream(compressed) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            output.write(content);
+        }
+        return compressed.toByteArray();
+    }
+    
+    /**
+     * Derives the headers of the gzip-encoded form of a file from those of the file.
+     * 
+     * @param headers the headers of the unencoded file
+     * @param length the length of the encoded form
+     * @return a new map of headers
+     */
+    private static Map<String, java.util.List<String>> encodedHeaders(Map<String, java.util.List<String>> headers,
+                                                                      long length) {
+        Map<String, java.util.List<String>> encoded = new HashMap<>(headers);
+        encoded.put("Content-Encoding", java.util.List.of("gzip"));
+        encoded.put("Content-Length", java.util.List.of(String.valueOf(length)));
+        encoded.put("ETag", java.util.List.of(encodedEntityTag(headers.get("ETag").get(0))));
+        return encoded;
+    }
+    
+    /**
+     * Tells whether files of a type are worth compressing: text, and the
+     * structured text formats served under {@code application} and {@code image}.
+     * 
+     * @param mimeType the MIME type of the file
+     * @return true if the type is compressible
+     */
+    private static boolean isCompressible(String mimeType) {
+        return mimeType.startsWith("text/") || mimeType.equals("application/javascript")
+                || mimeType.equals("application/json") || mimeType.equals("application/xml")
+                || mimeType.equals("image/svg+xml");
+    }
+    
+    /**
+     * Builds the response for a file, whole or in the ranges the request asks for.
+     * 
+     * @param request the request, or null to serve the whole file
+     * @param headers the headers of a full response, which are not modified
+     * @param content the file contents as bytes or a {@link BufferBody}, or null to send the file from disk
+     * @param file the file on disk
+     * @param length the file size in bytes
+     * @param lastModified the modification time of the file in milliseconds
+     * @return the full, partial or unsatisfiable response
+     */
+    private HttpResponse createResponse(HttpRequest request, Map<String, java.util.List<String>> headers,
+                                        Object content, Path file, long length, long lastModified) {
+        ByteRanges ranges = null;
+        if (request != null && request.getHttpMethod() == HttpMethod.GET) {
+            String range = request.getHeader("Range");
+            if (range != null && isRangeCurrent(request.getHeader("If-Range"), headers, lastModified)) {
+                ranges = ByteRanges.parse(range, length);
+            }
+        }
+        if (ranges == null) {
+            return new HttpResponse(200, headers, content != null ? content : new FileRegion(file, 0, length));
+        }
+        
+        Map<String, java.util.List<String>> partial = new HashMap<>(headers);
+        if (ranges.count() == 0) {
+            String message = "Error 416: Range not satisfiable";
+            partial.remove("Cache-Control");
+            partial.put("Content-Type", java.util.List.of("text/plain"));
+            partial.put("Content-Range", java.util.List.of("bytes */" + length));
+            partial.put("Content-Length", java.util.List.of(String.valueOf(message.length())));
+            return new HttpResponse(416, partial, message);
+        }
+        
+        if (ranges.count() == 1) {
+            partial.put("Content-Range", java.util.List.of(contentRange(ranges, 0, length)));
+            partial.put("Content-Length", java.util.List.of(String.valueOf(ranges.length(0))));
+            return new HttpResponse(206, partial, slice(content, file, ranges, 0));
+        }
+        
+        // Each part names its own type and range; the parts themselves come straight from the file
+        String mimeType = headers.get("Content-Type").get(0);
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+        java.util.List<Object> parts = new ArrayList<>(ranges.count() * 2 + 1);
+        for (int i = 0; i < ranges.count(); i++) {
+            String partHead = "\r\n--" + boundary + "\r\n"
+                    + "Content-Type: " + mimeType + "\r\n"
+                    + "Content-Range: " + contentRange(ranges, i, length) + "\r\n\r\n";
+            parts.add(partHead.getBytes(StandardCharsets.US_ASCII));
+            Object part = slice(content, file, ranges, i);
+            // Parts are byte arrays or file regions; a slice of a preloaded file is copied
+            parts.add(part instanceof BufferBody buffered ? buffered.readAllBytes() : part);
+        }
+        parts.add(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        CompositeBody body = new CompositeBody(parts);
+        
+        partial.put("Content-Type", java.util.List.of("multipart/byteranges; boundary=" + boundary));
+        partial.put("Content-Length", java.util.List.of(String.valueOf(body.getLength())));
+        return new HttpResponse(206, partial, body);
+    }
+    
+    /**
+     * Tells whether the client's copy of a file is current, from the
+     * {@code If-None-Match} header or, when that is absent, the
+     * {@code If-Modified-Since} header. Only {@code GET} requests are
+     * answered with {@code 304 Not Modified}.
+     * 
+     * @param request the request, or null
+     * @param entityTag the entity tag of the form of the file being served
+     * @param lastModified the modification time of the file in milliseconds
+     * @return true if the file has not changed since the client got it
+     */
+    private static boolean isNotModified(HttpRequest request, String entityTag, long lastModified) {
+        if (request == null || request.getHttpMethod() != HttpMethod.GET) {
+            return false;
+        }
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matchesEntityTag(ifNoneMatch, entityTag);
+        }
+        String ifModifiedSince = request.getHeader("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            long since = parseHttpDate(ifModifiedSince);
+            // A date in the future is invalid and the header is ignored
+            return since >= 0 && since <= System.currentTimeMillis() / 1000 && lastModified / 1000 <= since;
+        }
+        return false;
+    }
+    
+    /**
+     * Tells whether an {@code If-None-Match} list names an entity tag, comparing
+     * weakly, so {@code W/"x"} matches {@code "x"}. A {@code *} matches any file.
+     * 
+     * @param list the header value
+     * @param entityTag the current entity tag of the file
+     * @return true if the list names the tag
+     */
+    private static boolean matchesEntityTag(String list, String entityTag) {
+        int length = list.length();
+        int i = 0;
+        while (i < length) {
+            char c = list.charAt(i);
+            if (c == ' ' || c == '\t' || c == ',') {
+                i++;
+            } else if (c == '*') {
+                return true;
+            } else if (list.startsWith("W/", i)) {
+                i += 2;
+            } else if (c == '"') {
+                int end = list.indexOf('"', i + 1);
+                if (end < 0) {
+                    return false;
+                }
+                if (list.regionMatches(i, entityTag, 0, entityTag.length()) && end + 1 - i == entityTag.length()) {
+                    return true;
+                }
+                i = end + 1;
+            } else {
+                // Not a list of entity tags
+                return false;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Builds a {@code 304 Not Modified} response, which carries the validators
+     * and caching headers of the full response but no body.
+     * 
+     * @param headers the headers of a full response
+     * @param entityTag the entity tag of the form of the file the client holds
+     * @return the bodiless response
+     */
+    private static HttpResponse createNotModifiedResponse(Map<String, java.util.List<String>> headers,
+                                                          String entityTag) {
+        Map<String, java.util.List<String>> notModified = new HashMap<>();
+        for (String name : new String[] {"Cache-Control", "Last-Modified", "Vary"}) {
+            if (headers.containsKey(name)) {
+                notModified.put(name, headers.get(name));
+            }
+        }
+        notModified.put("ETag", java.util.List.of(entityTag));
+        return new HttpResponse(304, notModified, null);
+    }
+    
+    /**
+     * Tells whether the ranges of a request still apply, that is whether it
+     * has no {@code If-Range} header or one naming the file as it is now. An
+     * entity tag must match exactly. A date only matches if it is the file's
+     * modification time and that time is at least a second in the past,
+     * since a file modified within the current second may change again
+     * without its time changing.
+     * 
+     * @param ifRange the If-Range header value, or null
+     * @param headers the headers of a full response, holding the file's entity tag
+     * @param lastModified the modification time of the file in milliseconds
+     * @return true if the Range header is to be honored
+     */
+    private static boolean isRangeCurrent(String ifRange, Map<String, java.util.List<String>> headers,
+                                          long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        String validator = ifRange.trim();
+        if (validator.startsWith("\"") || validator.startsWith("W/")) {
+            // Weak tags never match here, since the parts must come from the same bytes
+            return validator.equals(headers.get("ETag").get(0));
+        }
+        long date = parseHttpDate(validator);
+        return date >= 0 && date == lastModified / 1000 && System.currentTimeMillis() - lastModified >= 1000;
+    }
+    
+    /**
+     * Gets the entity tag of a file from its modification time and size.
+     * Both change whenever the file is rewritten, and unlike an inode number
+     * they are the same on every server that holds a copy of the file.
+     * 
+     * @param lastModified the modification time of the file in milliseconds
+     * @param size the file size in bytes
+     * @return the quoted strong entity tag
+     */
+    private static String entityTag(long lastModified, long size) {
+        return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"";
+    }
+    
+    /**
+     * Gets the entity tag of the gzip-encoded form of a file, which differs
+     * from the file's own since its bytes do.
+     * 
+     * @param entityTag the quoted entity tag of the file
+     * @return the quoted entity tag of its encoded form
+     */
+    private static String encodedEntityTag(String entityTag) {
+        return entityTag.substring(0, entityTag.length() - 1) + "-gzip\"";
+    }
+    
+    /**
+     * Parses an HTTP date.
+     * 
+     * @param value the header value
+     * @return the date in seconds since the epoch, or -1 if it is not a valid date
+     */
+    private static long parseHttpDate(String value) {
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Formats the {@code Content-Range} value of a range.
+     */
+    private static String contentRange(ByteRanges ranges, int index, long length) {
+        return "bytes " + ranges.start(index) + "-" + ranges.end(index) + "/" + length;
+    }
+    
+    /**
+     * Gets the bytes of a range, copied from the cached contents, as a view of
+     * the preloaded contents, or as a region of the file.
+     */
+    private static Object slice(Object content, Path file, ByteRanges ranges, int index) {
+        if (content instanceof byte[] bytes) {
+            return Arrays.copyOfRange(bytes, (int) ranges.start(index), (int) ranges.end(index) + 1);
+        }
+        if (content instanceof BufferBody body) {
+            return body.slice((int) ranges.start(index), (int) ranges.length(index));
+        }
+        return new FileRegion(file, ranges.start(index), ranges.length(index));
+    }
+    
+    /**
+     * Gets the key a file is indexed and cached under: its path relative to the static
+     * directory with redundant separators and {@code .} segments removed, so
+     * that different spellings of one file share an entry.
+     * 
+     * @param uri the request URI
+     * @return the normalized path
+     */
+    private static String cacheKey(String uri) {
+        return Path.of(uri).normalize().toString();
+    }
+    
+    /**
+     * Gets the cache holding file contents.
+     * 
+     * @return the cache, or null if files are read from disk on every request
+     */
+    public StaticFileCache getCache() {
+        return cache;
+    }
+    
+    /**
+     * Gets the store holding preloaded files.
+     * 
+     * @return the store, or null if files are not preloaded
+     */
+    public StaticAssetStore getAssetStore() {
+        return assets;
+    }
+    
     /**
      * Gets the MIME type for a file based on its extension.
      * 
@@ -183,11 +973,15 @@ public class StaticFileHandler {
     }
     
     /**
-     * Lists all available static files.
+     * Lists all available static files. An indexed directory is listed from
+     * the index, without reading the directory.
      * 
      * @return array of file names in the static directory
      */
     public String[] listFiles() {
+        if (index != null) {
+            return index.listTopLevel().clone();
+        }
         File dir = new File(staticDirectory);
         if (dir.exists() && dir.isDirectory()) {
             File[] files = dir.listFiles(File::isFile);
@@ -201,4 +995,18 @@ public class StaticFileHandler {
         }
         return new String[0];
     }
+    
+    /**
+     * Stops watching the static directory for changes. Files are still
+     * served afterwards, from the index as it last was.
+     */
+    public void close() {
+        if (index != null) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+    }
 }
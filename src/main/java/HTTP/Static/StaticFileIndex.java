@@ -0,0 +1,338 @@
+package HTTP.Static;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * In-memory index of the files under the static directory, with the
+ * modification time, size and readability of each. It is built by walking
+ * the tree once, when the server starts, and then kept current by a
+ * {@link WatchService} registered on every directory, so looking a file up
+ * touches no filesystem metadata.
+ *
+ * <p>A watcher thread applies the events as they arrive. Each event only
+ * names a path, so the thread reads that path's attributes again and
+ * updates, adds or removes its entry; a directory that appears is walked
+ * and watched in turn. Whenever the entry of a file changes, the listener
+ * given at construction is told its key, which is how cached contents are
+ * dropped. If events were lost, the whole tree is walked again.
+ *
+ * <p>Symbolic links to files are indexed with the attributes of their
+ * targets, but only changes to the link itself are seen. Links to
+ * directories are not followed. The static directory itself must exist when
+ * the index is opened and stay in place.
+ *
+ * <p>Lookups are thread-safe and lock-free. The index is only modified by
+ * the watcher thread.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+final class StaticFileIndex implements Closeable {
+
+    private final Path root;
+    private final String separator;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> watchedDirectories;
+    private final ConcurrentHashMap<String, FileInfo> files;
+    private final Set<String> directories;
+    private final Consumer<String> listener;
+    private volatile String[] topLevelNames;
+
+    /**
+     * What the index knows about a regular file.
+     */
+    static final class FileInfo {
+
+        final long lastModified;
+        final long size;
+        final boolean readable;
+
+        FileInfo(long lastModified, long size, boolean readable) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.readable = readable;
+        }
+
+        private boolean sameAs(FileInfo other) {
+            return other != null && lastModified == other.lastModified && size == other.size
+                    && readable == other.readable;
+        }
+    }
+
+    /**
+     * Indexes a directory tree and starts watching it.
+     *
+     * @param root the static directory
+     * @param listener told the key of every file whose entry changes, on the watcher thread
+     * @throws IOException if the directory cannot be walked or watched
+     */
+    StaticFileIndex(Path root, Consumer<String> listener) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.separator = root.getFileSystem().getSeparator();
+        this.watcher = root.getFileSystem().newWatchService();
+        this.watchedDirectories = new HashMap<>();
+        this.files = new ConcurrentHashMap<>();
+        this.directories = ConcurrentHashMap.newKeySet();
+        this.listener = listener;
+        try {
+            scan(this.root, null);
+        } catch (IOException e) {
+            watcher.close();
+            throw e;
+        }
+        Thread thread = new Thread(this::watch, "static-index-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Looks up a file.
+     *
+     * @param key the normalized path of the file relative to the static directory
+     * @return what is known about the file, or null if there is no regular file at that path
+     */
+    FileInfo get(String key) {
+        return files.get(key);
+    }
+
+    /**
+     * Tells whether a path names a directory below the static directory.
+     *
+     * @param key the normalized path relative to the static directory
+     * @return true if the path is a directory
+     */
+    boolean isDirectory(String key) {
+        return directories.contains(key);
+    }
+
+    /**
+     * Lists the files directly in the static directory. The list is built on
+     * the first call after a change and shared until the next one.
+     *
+     * @return the file names, which the caller must not modify
+     */
+    String[] listTopLevel() {
+        String[] names = topLevelNames;
+        if (names == null) {
+            List<String> found = new ArrayList<>();
+            for (String key : files.keySet()) {
+                if (!key.contains(separator)) {
+                    found.add(key);
+                }
+            }
+            names = found.toArray(new String[0]);
+            topLevelNames = names;
+        }
+        return names;
+    }
+
+    /**
+     * Gets the number of files indexed.
+     *
+     * @return the file count
+     */
+    int size() {
+        return files.size();
+    }
+
+    /**
+     * Stops watching the tree. Lookups keep answering from the index as it was.
+     */
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+
+    /**
+     * Applies watch events until the watch service is closed.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path directory = watchedDirectories.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rescan();
+                    } else if (directory != null) {
+                        refresh(directory.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    // The directory is gone; its entries went with its delete event
+                    watchedDirectories.remove(key);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Walks a directory tree, watching every directory and indexing every file in it.
+     *
+     * @param start the directory to walk
+     * @param seen collects the keys of the files and directories found, or null
+     * @throws IOException if the starting directory cannot be walked
+     */
+    private void scan(Path start, Set<String> seen) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes)
+                    throws IOException {
+                // Registered before its entries are read, so nothing created meanwhile is missed
+                watchedDirectories.put(directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), directory);
+                if (!directory.equals(root)) {
+                    String key = keyOf(directory);
+                    directories.add(key);
+                    if (seen != null) {
+                        seen.add(key);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isSymbolicLink()) {
+                    refresh(file);
+                } else if (attributes.isRegularFile()) {
+                    put(keyOf(file), file, attributes);
+                }
+                if (seen != null) {
+                    seen.add(keyOf(file));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (file.equals(start)) {
+                    throw e;
+                }
+                // Deleted during the walk, or a directory that cannot be listed
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Walks the whole tree again after events were lost, and drops whatever it no longer finds.
+     */
+    private void rescan() {
+        Set<String> seen = new HashSet<>();
+        try {
+            scan(root, seen);
+        } catch (IOException e) {
+            // The static directory itself is unreadable; drop nothing rather than everything
+            return;
+        }
+        for (String key : files.keySet()) {
+            if (!seen.contains(key)) {
+                remove(key);
+            }
+        }
+        directories.retainAll(seen);
+    }
+
+    /**
+     * Brings the entry of a path in line with the disk after an event named it.
+     *
+     * @param path the path the event was about
+     */
+    private void refresh(Path path) {
+        String key = keyOf(path);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // Deleted, or a dangling link
+            remove(key);
+            removeTree(key);
+            return;
+        }
+        if (attributes.isDirectory()) {
+            remove(key);
+            if (!directories.contains(key) && !Files.isSymbolicLink(path)) {
+                try {
+                    scan(path, null);
+                } catch (IOException e) {
+                    // Gone again, or cannot be listed
+                }
+            }
+        } else if (attributes.isRegularFile()) {
+            removeTree(key);
+            put(key, path, attributes);
+        } else {
+            remove(key);
+        }
+    }
+
+    /**
+     * Records the attributes of a file, telling the listener if they changed.
+     */
+    private void put(String key, Path file, BasicFileAttributes attributes) {
+        FileInfo info = new FileInfo(attributes.lastModifiedTime().toMillis(), attributes.size(),
+                Files.isReadable(file));
+        FileInfo previous = files.put(key, info);
+        if (!info.sameAs(previous)) {
+            changed(key, previous == null);
+        }
+    }
+
+    /**
+     * Drops the entry of a file, if there is one.
+     */
+    private void remove(String key) {
+        if (files.remove(key) != null) {
+            changed(key, true);
+        }
+    }
+
+    /**
+     * Drops a directory and every entry below it.
+     */
+    private void removeTree(String key) {
+        if (!directories.remove(key)) {
+            return;
+        }
+        String prefix = key + separator;
+        directories.removeIf(directory -> directory.startsWith(prefix));
+        for (String file : files.keySet()) {
+            if (file.startsWith(prefix)) {
+                remove(file);
+            }
+        }
+    }
+
+    private void changed(String key, boolean addedOrRemoved) {
+        if (addedOrRemoved && !key.contains(separator)) {
+            topLevelNames = null;
+        }
+        listener.accept(key);
+    }
+
+    private String keyOf(Path path) {
+        return root.relativize(path).toString();
+    }
+}
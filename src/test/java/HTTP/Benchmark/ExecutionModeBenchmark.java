@@ -0,0 +1,129 @@
+package HTTP.Benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import HTTP.Protocol.HttpMethod;
+import HTTP.Protocol.HttpResponse;
+import HTTP.Server.Server;
+import HTTP.Server.ServerConfig;
+
+/**
+ * Compares the fixed platform thread pool with virtual threads when handlers block.
+ * Each operation fires a burst of concurrent requests at a route that sleeps to
+ * simulate blocking I/O, and measures how long the whole burst takes to complete.
+ * With the pool, requests beyond the pool size wait for a free thread; with
+ * virtual threads they all block concurrently.
+ *
+ * <p>Run with {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=ExecutionModeBenchmark}.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutionModeBenchmark {
+
+    private static final int CONCURRENT_REQUESTS = 1000;
+    private static final long HANDLER_LATENCY_MS = 20;
+    private static final byte[] REQUEST =
+            "GET /slow HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"pool", "virtual"})
+    public String executionMode;
+
+    private Server server;
+    private ExecutorService clients;
+    private int port;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        ServerConfig config = new ServerConfig(0)
+                .setProperty("server.execution.mode", executionMode)
+                .setProperty("server.logging.enabled", "false")
+                .setProperty("server.accept.backlog", String.valueOf(CONCURRENT_REQUESTS * 2));
+        server = new Server(config);
+        server.addRoute(HttpMethod.GET, "/slow", request -> {
+            try {
+                Thread.sleep(HANDLER_LATENCY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new HttpResponse(200, Map.of("Content-Length", List.of("2")), "ok");
+        });
+
+        Thread serverThread = new Thread(server::start, "benchmark-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        port = server.getLocalPort();
+        clients = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.stop();
+        clients.shutdownNow();
+    }
+
+    @Benchmark
+    public long concurrentBlockingRequests() throws Exception {
+        List<Future<Integer>> responses = new ArrayList<>(CONCURRENT_REQUESTS);
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            responses.add(clients.submit(this::request));
+        }
+        long bytes = 0;
+        for (Future<Integer> response : responses) {
+            bytes += response.get();
+        }
+        return bytes;
+    }
+
+    /**
+     * Sends one request and reads the response until the server closes the
+     * connection, which it does right away since the request asks it to
+     * rather than after the keep-alive timeout.
+     *
+     * @return the number of response bytes received
+     * @throws IOException if the exchange fails
+     */
+    private int request() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write(REQUEST);
+            InputStream input = socket.getInputStream();
+            byte[] buffer = new byte[512];
+            int total = 0;
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                total += read;
+            }
+            return total;
+        }
+    }
+}
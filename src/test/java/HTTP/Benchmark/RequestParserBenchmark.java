@@ -0,0 +1,101 @@
+package HTTP.Benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import HTTP.Protocol.HttpRequest;
+import HTTP.Request.HttpDecoder;
+import HTTP.Request.HttpRequestParser;
+import HTTP.Request.RequestDecoder;
+
+/**
+ * Compares the reader-based {@link HttpDecoder} with the byte-level
+ * {@link HttpRequestParser} on a typical browser request head.
+ * {@code parser} measures the state machine alone, {@code parserSplit} feeds
+ * the same head in three reads to exercise resumption, and {@code decoder}
+ * includes building the {@link HttpRequest} handed to handlers.
+ *
+ * <p>Run with {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=RequestParserBenchmark}.
+ * Add {@code -prof gc} to the JMH arguments to compare allocation rates.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestParserBenchmark {
+
+    private static final byte[] REQUEST = ("GET /files/index.html?sort=name&page=2 HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+            + "Accept-Language: en-US,en;q=0.5\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Upgrade-Insecure-Requests: 1\r\n"
+            + "Sec-Fetch-Dest: document\r\n"
+            + "Sec-Fetch-Mode: navigate\r\n"
+            + "Cache-Control: max-age=0\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private HttpRequestParser parser;
+    private RequestDecoder decoder;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        parser = new HttpRequestParser(16 * 1024);
+        decoder = new RequestDecoder(16 * 1024, 10 * 1024 * 1024, 64 * 1024, 1024 * 1024);
+        buffer = ByteBuffer.wrap(REQUEST);
+    }
+
+    @Benchmark
+    public Optional<HttpRequest> httpDecoder() {
+        return HttpDecoder.decode(new ByteArrayInputStream(REQUEST));
+    }
+
+    @Benchmark
+    public int parser() throws IOException {
+        parser.reset();
+        buffer.clear();
+        parser.parse(buffer);
+        return parser.getHeaderCount();
+    }
+
+    @Benchmark
+    public int parserSplit() throws IOException {
+        parser.reset();
+        buffer.clear();
+        for (int limit : new int[] {REQUEST.length / 3, 2 * REQUEST.length / 3, REQUEST.length}) {
+            buffer.limit(limit);
+            parser.parse(buffer);
+        }
+        return parser.getHeaderCount();
+    }
+
+    @Benchmark
+    public HttpRequest decoder() throws IOException {
+        buffer.clear();
+        decoder.feed(buffer);
+        return decoder.poll();
+    }
+}
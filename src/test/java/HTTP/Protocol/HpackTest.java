@@ -0,0 +1,109 @@
+package HTTP.Protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the HPACK encoder and decoder against the examples of RFC 7541,
+ * Appendix C, and against each other.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+class HpackTest {
+
+    @Test
+    void decodesRequestExamplesWithoutHuffman() throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder(4096);
+
+        // C.3.1 to C.3.3: each block refers to entries the previous ones added
+        assertEquals(List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"),
+                decode(decoder, "828684410f7777772e6578616d706c652e636f6d"));
+        assertEquals(List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                        "cache-control", "no-cache"),
+                decode(decoder, "828684be58086e6f2d6361636865"));
+        assertEquals(List.of(":method", "GET", ":scheme", "https", ":path", "/index.html",
+                        ":authority", "www.example.com", "custom-key", "custom-value"),
+                decode(decoder, "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565"));
+    }
+
+    @Test
+    void decodesRequestExamplesWithHuffman() throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder(4096);
+
+        // C.4.1 to C.4.3
+        assertEquals(List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"),
+                decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff"));
+        assertEquals(List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                        "cache-control", "no-cache"),
+                decode(decoder, "828684be5886a8eb10649cbf"));
+        assertEquals(List.of(":method", "GET", ":scheme", "https", ":path", "/index.html",
+                        ":authority", "www.example.com", "custom-key", "custom-value"),
+                decode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"));
+    }
+
+    @Test
+    void encodedBlocksDecodeToTheSameFields() throws Http2Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder(4096);
+        List<List<String>> blocks = List.of(
+                List.of(":status", "200", "content-type", "text/html", "x-request", "1"),
+                List.of(":status", "200", "content-type", "text/html", "x-request", "2"),
+                List.of(":status", "404", "set-cookie", "id=1", "content-length", "0"),
+                List.of(":status", "200", "x-large", "v".repeat(3000), "content-type", "text/html"));
+
+        for (List<String> fields : blocks) {
+            assertEquals(fields, roundTrip(encoder, decoder, fields));
+        }
+
+        // A smaller table is announced at the start of the next block
+        encoder.setMaxTableSize(256);
+        for (List<String> fields : blocks) {
+            assertEquals(fields, roundTrip(encoder, decoder, fields));
+        }
+    }
+
+    @Test
+    void rejectsIndexZero() {
+        Http2Exception e = assertThrows(Http2Exception.class, () -> decode(new HpackDecoder(4096), "80"));
+        assertEquals(Http2Exception.COMPRESSION_ERROR, e.getErrorCode());
+    }
+
+    @Test
+    void rejectsIndexBeyondTheTables() {
+        Http2Exception e = assertThrows(Http2Exception.class, () -> decode(new HpackDecoder(4096), "be"));
+        assertEquals(Http2Exception.COMPRESSION_ERROR, e.getErrorCode());
+    }
+
+    @Test
+    void rejectsTruncatedBlock() {
+        // A literal whose value is announced as 15 bytes long but ends after 3
+        Http2Exception e = assertThrows(Http2Exception.class,
+                () -> decode(new HpackDecoder(4096), "410f777777"));
+        assertEquals(Http2Exception.COMPRESSION_ERROR, e.getErrorCode());
+    }
+
+    private static List<String> decode(HpackDecoder decoder, String hex) throws Http2Exception {
+        byte[] block = HexFormat.of().parseHex(hex);
+        List<String> fields = new ArrayList<>();
+        decoder.decode(block, 0, block.length, fields);
+        return fields;
+    }
+
+    private static List<String> roundTrip(HpackEncoder encoder, HpackDecoder decoder, List<String> fields)
+            throws Http2Exception {
+        encoder.begin();
+        for (int i = 0; i < fields.size(); i += 2) {
+            encoder.addField(fields.get(i), fields.get(i + 1));
+        }
+        List<String> decoded = new ArrayList<>();
+        decoder.decode(encoder.buffer(), 0, encoder.length(), decoded);
+        return decoded;
+    }
+}
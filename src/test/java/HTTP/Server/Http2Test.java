@@ -0,0 +1,105 @@
+package HTTP.Server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests cleartext HTTP/2 on both transports with the JDK client, which
+ * switches to HTTP/2 through an {@code Upgrade: h2c} request: the upgrade
+ * itself, header blocks that depend on the HPACK state built up by earlier
+ * ones, concurrent streams, and request and response bodies larger than the
+ * initial flow control window.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+class Http2Test {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"blocking", "nio"})
+    void upgradesFromHttp11(String transport) throws Exception {
+        try (TestServer server = TestServer.start(TestServer.config(transport))) {
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+            HttpResponse<String> response = client.send(request(server, "/hello").build(),
+                    HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(HttpClient.Version.HTTP_2, response.version());
+            assertEquals(200, response.statusCode());
+            assertEquals("hello", response.body());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"blocking", "nio"})
+    void keepsHeaderTablesInStepAcrossStreams(String transport) throws Exception {
+        try (TestServer server = TestServer.start(TestServer.config(transport))) {
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+            client.send(request(server, "/hello").build(), HttpResponse.BodyHandlers.ofString());
+
+            // Repeated values are sent as references to the dynamic tables after their first use
+            for (int i = 0; i < 20; i++) {
+                String token = "token-" + (i % 3);
+                HttpResponse<String> response = client.send(request(server, "/header").header("X-Token", token)
+                        .build(), HttpResponse.BodyHandlers.ofString());
+                assertEquals(HttpClient.Version.HTTP_2, response.version());
+                assertEquals(token, response.body());
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"blocking", "nio"})
+    void multiplexesConcurrentStreams(String transport) throws Exception {
+        try (TestServer server = TestServer.start(TestServer.config(transport))) {
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+            client.send(request(server, "/hello").build(), HttpResponse.BodyHandlers.ofString());
+
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                responses.add(client.sendAsync(request(server, "/header").header("X-Token", "stream-" + i).build(),
+                        HttpResponse.BodyHandlers.ofString()));
+            }
+            for (int i = 0; i < responses.size(); i++) {
+                HttpResponse<String> response = responses.get(i).get();
+                assertEquals(HttpClient.Version.HTTP_2, response.version());
+                assertEquals("stream-" + i, response.body());
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"blocking", "nio"})
+    void echoesBodiesBeyondTheFlowControlWindow(String transport) throws Exception {
+        byte[] body = new byte[1_000_000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i * 7);
+        }
+        try (TestServer server = TestServer.start(TestServer.config(transport))) {
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+            client.send(request(server, "/hello").build(), HttpResponse.BodyHandlers.ofString());
+
+            HttpResponse<byte[]> response = client.send(request(server, "/echo")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body)).build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+
+            assertEquals(HttpClient.Version.HTTP_2, response.version());
+            assertEquals(200, response.statusCode());
+            assertArrayEquals(body, response.body());
+        }
+    }
+
+    private static HttpRequest.Builder request(TestServer server, String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + path));
+    }
+}
@@ -0,0 +1,88 @@
+package HTTP.Server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import HTTP.Protocol.HttpMethod;
+import HTTP.Protocol.HttpResponse;
+
+/**
+ * A server on an ephemeral port, running on a thread of its own for the
+ * duration of a test, with a few routes the tests talk to:
+ * {@code GET /hello}, {@code POST /echo} returning the request body, and
+ * {@code GET /header} returning the value of {@code X-Token}.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+final class TestServer implements AutoCloseable {
+
+    private final Server server;
+    private final Thread thread;
+
+    private TestServer(Server server) {
+        this.server = server;
+        this.thread = new Thread(server::start, "test-server");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Creates a configuration for a quiet server on an ephemeral port.
+     *
+     * @param transport {@code blocking} or {@code nio}
+     * @return the configuration, which the caller may extend
+     */
+    static ServerConfig config(String transport) {
+        return new ServerConfig(0)
+                .setProperty("server.transport", transport)
+                .setProperty("server.logging.enabled", "false")
+                .setProperty("server.monitoring.enabled", "false")
+                .setProperty("server.shutdown.timeout", "2000");
+    }
+
+    /**
+     * Starts a server with the test routes.
+     *
+     * @param config the server configuration
+     * @return the running server
+     * @throws IOException if the port cannot be bound
+     */
+    static TestServer start(ServerConfig config) throws IOException {
+        Server server = new Server(config);
+        server.addRoute(HttpMethod.GET, "/hello", request -> text("hello"));
+        server.addRoute(HttpMethod.POST, "/echo", request -> {
+            try {
+                return new HttpResponse(200, new HashMap<>(Map.of("Content-Type",
+                        List.of("application/octet-stream"))), request.getRequestBody().getBytes());
+            } catch (IOException e) {
+                return text("unreadable body");
+            }
+        });
+        server.addRoute(HttpMethod.GET, "/header", request -> text(String.valueOf(request.getHeader("X-Token"))));
+        return new TestServer(server);
+    }
+
+    /**
+     * Gets the port the server listens on.
+     *
+     * @return the local port
+     */
+    int port() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        server.stop();
+        thread.join(5000);
+    }
+
+    private static HttpResponse text(String body) {
+        return new HttpResponse(200, new HashMap<>(Map.of("Content-Type", List.of("text/plain; charset=utf-8"))),
+                body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,165 @@
+package HTTP.Server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLParameters;
+
+/**
+ * A TLS client driving an {@link SSLEngine} over a plain socket, so that a
+ * test can see what an {@link javax.net.ssl.SSLSocket} hides: whether the
+ * server ended the session with {@code close_notify} or just closed the
+ * connection.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+final class TlsClient implements AutoCloseable {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final Socket socket;
+    private final InputStream input;
+    private final OutputStream output;
+    private final SSLEngine engine;
+    // Received records not yet decrypted, in write mode
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+
+    /**
+     * Connects to a server, offering application protocols through ALPN.
+     *
+     * @param context the context trusting the server's certificate
+     * @param port the server port on the loopback address
+     * @param protocols the protocols to offer, none to leave ALPN out
+     * @throws IOException if the connection fails
+     */
+    TlsClient(SSLContext context, int port, String... protocols) throws IOException {
+        this.socket = new Socket("localhost", port);
+        this.socket.setSoTimeout(5000);
+        this.input = socket.getInputStream();
+        this.output = socket.getOutputStream();
+        this.engine = context.createSSLEngine("localhost", port);
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setApplicationProtocols(protocols);
+        engine.setSSLParameters(parameters);
+        this.netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    }
+
+    /**
+     * Runs the handshake to its end.
+     *
+     * @return the protocol the server selected through ALPN, empty if none
+     * @throws IOException if the handshake fails or the server closes the connection
+     */
+    String handshake() throws IOException {
+        engine.beginHandshake();
+        HandshakeStatus status = engine.getHandshakeStatus();
+        while (status != HandshakeStatus.FINISHED && status != HandshakeStatus.NOT_HANDSHAKING) {
+            switch (status) {
+                case NEED_WRAP:
+                    status = wrap(EMPTY).getHandshakeStatus();
+                    break;
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    status = engine.getHandshakeStatus();
+                    break;
+                default:
+                    status = unwrap().getHandshakeStatus();
+                    break;
+            }
+        }
+        return engine.getApplicationProtocol();
+    }
+
+    /**
+     * Encrypts and sends application data.
+     *
+     * @param data the bytes to send
+     * @throws IOException if writing fails
+     */
+    void write(byte[] data) throws IOException {
+        ByteBuffer source = ByteBuffer.wrap(data);
+        while (source.hasRemaining()) {
+            wrap(source);
+        }
+    }
+
+    /**
+     * Reads application data until the server sends {@code close_notify}.
+     *
+     * @return everything received
+     * @throws EOFException if the connection ends without {@code close_notify}
+     * @throws IOException if reading fails
+     */
+    byte[] readUntilCloseNotify() throws IOException {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        while (true) {
+            SSLEngineResult result = unwrap();
+            appIn.flip();
+            received.write(appIn.array(), appIn.arrayOffset() + appIn.position(), appIn.remaining());
+            appIn.clear();
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                return received.toByteArray();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private SSLEngineResult wrap(ByteBuffer source) throws IOException {
+        netOut.clear();
+        SSLEngineResult result = engine.wrap(source, netOut);
+        netOut.flip();
+        output.write(netOut.array(), netOut.arrayOffset(), netOut.remaining());
+        output.flush();
+        return result;
+    }
+
+    /**
+     * Decrypts one record, reading from the socket until a whole record has arrived.
+     */
+    private SSLEngineResult unwrap() throws IOException {
+        while (true) {
+            netIn.flip();
+            SSLEngineResult result = engine.unwrap(netIn, appIn);
+            netIn.compact();
+            switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    if (!netIn.hasRemaining()) {
+                        netIn = ByteBuffer.allocate(netIn.capacity() * 2).put(netIn.flip());
+                    }
+                    int read = input.read(netIn.array(), netIn.arrayOffset() + netIn.position(), netIn.remaining());
+                    if (read == -1) {
+                        throw new EOFException("Connection closed without close_notify");
+                    }
+                    netIn.position(netIn.position() + read);
+                    break;
+                case BUFFER_OVERFLOW:
+                    appIn = ByteBuffer.allocate(appIn.capacity() * 2).put(appIn.flip());
+                    break;
+                default:
+                    return result;
+            }
+        }
+    }
+}
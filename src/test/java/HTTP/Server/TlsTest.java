@@ -0,0 +1,150 @@
+package HTTP.Server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests TLS on both transports against a self-signed key store made with
+ * {@code keytool}: the handshake, the choice of protocol through ALPN,
+ * request and response round trips, and {@code close_notify} when the
+ * server closes the connection.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+class TlsTest {
+
+    private static final String PASSWORD = "changeit";
+
+    @TempDir
+    static Path directory;
+
+    private static Path keyStore;
+    private static SSLContext clientContext;
+
+    @BeforeAll
+    static void createKeyStore() throws Exception {
+        keyStore = directory.resolve("server.p12");
+        Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "server", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "2",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .start();
+        String log = new String(keytool.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertTrue(keytool.waitFor(60, TimeUnit.SECONDS) && keytool.exitValue() == 0, log);
+
+        // The certificate trusts itself
+        KeyStore trusted = KeyStore.getInstance("PKCS12");
+        try (InputStream input = Files.newInputStream(keyStore)) {
+            trusted.load(input, PASSWORD.toCharArray());
+        }
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trusted);
+        clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trustManagers.getTrustManagers(), null);
+    }
+
+    private static ServerConfig config(String transport) {
+        return TestServer.config(transport)
+                .setProperty("server.tls.enabled", "true")
+                .setProperty("server.tls.keystore.path", keyStore.toString())
+                .setProperty("server.tls.keystore.password", PASSWORD);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"blocking", "nio"})
+    void negotiatesHttp2ThroughAlpn(String transport) throws Exception {
+        try (TestServer server = TestServer.start(config(transport))) {
+            HttpClient client = HttpClient.newBuilder()
+                    .sslContext(clientContext)
+                    .version(HttpClient.Version.HTTP_2)
+                    .build();
+            HttpResponse<String> response = client.send(
+                    HttpRequest.newBuilder(URI.create("https://localhost:" + server.port() + "/hello")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(HttpClient.Version.HTTP_2, response.version());
+            assertEquals(200, response.statusCode());
+            assertEquals("hello", response.body());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"blocking", "nio"})
+    void servesHttp11WhenHttp2IsDisabled(String transport) throws Exception {
+        try (TestServer server = TestServer.start(config(transport).setProperty("server.http2.enabled", "false"));
+             TlsClient client = new TlsClient(clientContext, server.port(), "h2", "http/1.1")) {
+            assertEquals("http/1.1", client.handshake());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"blocking", "nio"})
+    void echoesBodyAndEndsWithCloseNotify(String transport) throws Exception {
+        byte[] body = new byte[100_000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i * 31);
+        }
+        try (TestServer server = TestServer.start(config(transport));
+             TlsClient client = new TlsClient(clientContext, server.port(), "http/1.1")) {
+            assertEquals("http/1.1", client.handshake());
+            client.write(("POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length
+                    + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            client.write(body);
+
+            byte[] response = client.readUntilCloseNotify();
+            String head = headOf(response);
+            assertTrue(head.startsWith("HTTP/1.1 200 "), head);
+            assertArrayEquals(body, bodyOf(response));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"blocking", "nio"})
+    void servesClientsWithoutAlpn(String transport) throws Exception {
+        try (TestServer server = TestServer.start(config(transport));
+             TlsClient client = new TlsClient(clientContext, server.port())) {
+            assertEquals("", client.handshake());
+            client.write("GET /hello HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+
+            byte[] response = client.readUntilCloseNotify();
+            assertTrue(headOf(response).startsWith("HTTP/1.1 200 "));
+            assertEquals("hello", new String(bodyOf(response), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String headOf(byte[] response) {
+        String text = new String(response, StandardCharsets.ISO_8859_1);
+        return text.substring(0, text.indexOf("\r\n\r\n"));
+    }
+
+    private static byte[] bodyOf(byte[] response) {
+        int start = headOf(response).length() + 4;
+        byte[] body = new byte[response.length - start];
+        System.arraycopy(response, start, body, 0, body.length);
+        return body;
+    }
+}
@@ -0,0 +1,346 @@
+package HTTP.Static;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import HTTP.Protocol.BufferBody;
+import HTTP.Protocol.CompositeBody;
+import HTTP.Protocol.FileRegion;
+import HTTP.Protocol.HttpMethod;
+import HTTP.Protocol.HttpRequest;
+import HTTP.Protocol.HttpResponse;
+
+/**
+ * Tests conditional requests ({@code If-None-Match}, {@code If-Modified-Since})
+ * and range requests ({@code Range}, {@code If-Range}) against every way the
+ * handler can hold a file: read from disk each time, cached on the heap,
+ * cached behind the directory index, and preloaded outside the heap.
+ *
+ * @author HTTP Server Team
+ * @version 1.0
+ */
+class StaticFileHandlerTest {
+
+    private static final int SIZE = 1000;
+
+    /**
+     * The ways of holding files, each exercising its own serving path.
+     */
+    enum Setup {
+        DISK, CACHE, INDEX, PRELOAD;
+
+        StaticFileHandler create(Path directory) {
+            switch (this) {
+                case CACHE:
+                    return new StaticFileHandler(directory.toString(), newCache(), false);
+                case INDEX:
+                    return new StaticFileHandler(directory.toString(), newCache(), true);
+                case PRELOAD:
+                    return new StaticFileHandler(directory.toString(), null, true, new StaticAssetStore(1 << 20, 2000));
+                default:
+                    return new StaticFileHandler(directory.toString(), null, false);
+            }
+        }
+    }
+
+    @TempDir
+    Path directory;
+
+    private byte[] data;
+    private byte[] page;
+    private StaticFileHandler handler;
+
+    @BeforeEach
+    void createFiles() throws IOException {
+        data = new byte[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        write("data.bin", data);
+        page = "compressible text ".repeat(200).getBytes(StandardCharsets.US_ASCII);
+        write("page.txt", page);
+        // Without a cache only a precompressed sidecar is sent encoded
+        ByteArrayOutputStream sidecar = new ByteArrayOutputStream();
+        try (GZIPOutputStream output = new GZIPOutputStream(sidecar)) {
+            output.write(page);
+        }
+        write("page.txt.gz", sidecar.toByteArray());
+        write("tiny.txt", "a".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @AfterEach
+    void closeHandler() {
+        if (handler != null) {
+            handler.close();
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Setup.class)
+    void servesWholeFileWithValidators(Setup setup) throws IOException {
+        open(setup);
+        HttpResponse response = serve("data.bin");
+
+        assertEquals(200, response.getStatusCode());
+        assertArrayEquals(data, body(response));
+        assertEquals("bytes", header(response, "Accept-Ranges"));
+        assertEquals(String.valueOf(SIZE), header(response, "Content-Length"));
+        assertTrue(header(response, "ETag").startsWith("\""));
+        assertTrue(header(response, "Last-Modified").endsWith("GMT"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Setup.class)
+    void answersCurrentEntityTagWithNotModified(Setup setup) throws IOException {
+        open(setup);
+        String entityTag = header(serve("data.bin"), "ETag");
+
+        HttpResponse response = serve("data.bin", "If-None-Match", entityTag);
+        assertEquals(304, response.getStatusCode());
+        assertEquals(entityTag, header(response, "ETag"));
+        assertTrue(response.getEntity().isEmpty());
+
+        // Weak comparison, and a tag anywhere in the list
+        assertEquals(304, serve("data.bin", "If-None-Match", "W/" + entityTag).getStatusCode());
+        assertEquals(304, serve("data.bin", "If-None-Match", "\"other\", " + entityTag).getStatusCode());
+        assertEquals(304, serve("data.bin", "If-None-Match", "*").getStatusCode());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Setup.class)
+    void servesFileForStaleEntityTag(Setup setup) throws IOException {
+        open(setup);
+        HttpResponse response = serve("data.bin", "If-None-Match", "\"stale\"");
+
+        assertEquals(200, response.getStatusCode());
+        assertArrayEquals(data, body(response));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Setup.class)
+    void answersCurrentDateWithNotModified(Setup setup) throws IOException {
+        open(setup);
+        String lastModified = header(serve("data.bin"), "Last-Modified");
+
+        assertEquals(304, serve("data.bin", "If-Modified-Since", lastModified).getStatusCode());
+        // If-None-Match takes precedence over the date
+        assertEquals(200, serve("data.bin", "If-None-Match", "\"stale\"", "If-Modified-Since", lastModified)
+                .getStatusCode());
+        assertEquals(200, serve("data.bin", "If-Modified-Since", "Thu, 01 Jan 1970 00:00:00 GMT").getStatusCode());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Setup.class)
+    void servesSingleRange(Setup setup) throws IOException {
+        open(setup);
+        HttpResponse response = serve("data.bin", "Range", "bytes=10-19");
+
+        assertEquals(206, response.getStatusCode());
+        assertEquals("bytes 10-19/" + SIZE, header(response, "Content-Range"));
+        assertEquals("10", header(response, "Content-Length"));
+        assertArrayEquals(Arrays.copyOfRange(data, 10, 20), body(response));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Setup.class)
+    void servesSuffixAndOpenRanges(Setup setup) throws IOException {
+        open(setup);
+        HttpResponse suffix = serve("data.bin", "Range", "bytes=-5");
+        assertEquals(206, suffix.getStatusCode());
+        assertEquals("bytes 995-999/" + SIZE, header(suffix, "Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(data, SIZE - 5, SIZE), body(suffix));
+
+        // A last position beyond the end is cut to the end
+        HttpResponse open = serve("data.bin", "Range", "bytes=990-5000");
+        assertEquals(206, open.getStatusCode());
+        assertEquals("bytes 990-999/" + SIZE, header(open, "Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(data, 990, SIZE), body(open));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Setup.class)
+    void servesMultipleRangesAsMultipart(Setup setup) throws IOException {
+        open(setup);
+        HttpResponse response = serve("data.bin", "Range", "bytes=0-4,100-104");
+
+        assertEquals(206, response.getStatusCode());
+        String contentType = header(response, "Content-Type");
+        assertTrue(contentType.startsWith("multipart/byteranges; boundary="), contentType);
+        String boundary = contentType.substring(contentType.indexOf('=') + 1);
+        byte[] body = body(response);
+        assertEquals(header(response, "Content-Length"), String.valueOf(body.length));
+        assertEquals("\r\n--" + boundary + "\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Range: bytes 0-4/" + SIZE + "\r\n\r\n"
+                + "abcde"
+                + "\r\n--" + boundary + "\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Range: bytes 100-104/" + SIZE + "\r\n\r\n"
+                + "wxyza"
+                + "\r\n--" + boundary + "--\r\n", new String(body, StandardCharsets.US_ASCII));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Setup.class)
+    void rejectsUnsatisfiableRange(Setup setup) throws IOException {
+        open(setup);
+        HttpResponse response = serve("data.bin", "Range", "bytes=1000-2000");
+
+        assertEquals(416, response.getStatusCode());
+        assertEquals("bytes */" + SIZE, header(response, "Content-Range"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Setup.class)
+    void ignoresMalformedRange(Setup setup) throws IOException {
+        open(setup);
+        HttpResponse response = serve("data.bin", "Range", "lines=1-2");
+
+        assertEquals(200, response.getStatusCode());
+        assertArrayEquals(data, body(response));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Setup.class)
+    void honoursRangeOnlyForCurrentIfRange(Setup setup) throws IOException {
+        open(setup);
+        HttpResponse full = serve("data.bin");
+        String entityTag = header(full, "ETag");
+        String lastModified = header(full, "Last-Modified");
+
+        assertEquals(206, serve("data.bin", "Range", "bytes=0-9", "If-Range", entityTag).getStatusCode());
+        assertEquals(206, serve("data.bin", "Range", "bytes=0-9", "If-Range", lastModified).getStatusCode());
+
+        HttpResponse stale = serve("data.bin", "Range", "bytes=0-9", "If-Range", "\"stale\"");
+        assertEquals(200, stale.getStatusCode());
+        assertArrayEquals(data, body(stale));
+        // Weak tags never match
+        assertEquals(200, serve("data.bin", "Range", "bytes=0-9", "If-Range", "W/" + entityTag).getStatusCode());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Setup.class)
+    void validatesCompressedFormAgainstItsOwnEntityTag(Setup setup) throws IOException {
+        open(setup);
+        String entityTag = header(serve("page.txt"), "ETag");
+        HttpResponse encoded = serve("page.txt", "Accept-Encoding", "gzip");
+        String encodedTag = header(encoded, "ETag");
+
+        assertEquals(200, encoded.getStatusCode());
+        assertEquals("gzip", header(encoded, "Content-Encoding"));
+        assertNotEquals(entityTag, encodedTag);
+        try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(body(encoded)))) {
+            assertArrayEquals(page, input.readAllBytes());
+        }
+
+        HttpResponse notModified = serve("page.txt", "Accept-Encoding", "gzip", "If-None-Match", encodedTag);
+        assertEquals(304, notModified.getStatusCode());
+        assertEquals(encodedTag, header(notModified, "ETag"));
+        // A client holding the identity form gets the compressed one
+        assertEquals(200, serve("page.txt", "Accept-Encoding", "gzip", "If-None-Match", entityTag).getStatusCode());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Setup.class)
+    void validatesFileNotWorthCompressingAgainstIdentityTag(Setup setup) throws IOException {
+        open(setup);
+        // The first request of a client that accepts gzip reaches the handler with nothing cached
+        HttpResponse response = serve("tiny.txt", "Accept-Encoding", "gzip");
+        String entityTag = header(response, "ETag");
+
+        assertEquals(200, response.getStatusCode());
+        assertNull(header(response, "Content-Encoding"));
+        assertEquals(entityTag, header(serve("tiny.txt"), "ETag"));
+        assertEquals(304, serve("tiny.txt", "Accept-Encoding", "gzip", "If-None-Match", entityTag).getStatusCode());
+    }
+
+    @Test
+    void validatesUncachedFileAgainstTheFormItWouldSend() throws IOException {
+        open(Setup.CACHE);
+        String entityTag = header(new StaticFileHandler(directory.toString()).serveFile("tiny.txt"), "ETag");
+
+        // Nothing is cached yet, so the form is decided on this request
+        HttpResponse response = serve("tiny.txt", "Accept-Encoding", "gzip", "If-None-Match", entityTag);
+        assertEquals(304, response.getStatusCode());
+        assertEquals(entityTag, header(response, "ETag"));
+        assertFalse(header(response, "ETag").endsWith("-gzip\""));
+    }
+
+    private static StaticFileCache newCache() {
+        return new StaticFileCache(1 << 20, 1 << 20, 2000);
+    }
+
+    private void open(Setup setup) {
+        handler = setup.create(directory);
+    }
+
+    /**
+     * Writes a file, dated an hour back so that its modification time is a usable validator.
+     */
+    private void write(String name, byte[] content) throws IOException {
+        Path file = directory.resolve(name);
+        Files.write(file, content);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 3_600_000));
+    }
+
+    private HttpResponse serve(String name, String... headers) {
+        Map<String, List<String>> requestHeaders = new HashMap<>();
+        for (int i = 0; i < headers.length; i += 2) {
+            requestHeaders.put(headers[i], List.of(headers[i + 1]));
+        }
+        HttpRequest request = new HttpRequest.Builder()
+                .setHttpMethod(HttpMethod.GET)
+                .setUri(URI.create("/" + name))
+                .setRequestHeaders(requestHeaders)
+                .build();
+        assertTrue(handler.canServe(name));
+        return handler.serveFile(name, request);
+    }
+
+    private static String header(HttpResponse response, String name) {
+        List<String> values = response.getResponseHeaders().get(name);
+        return values != null ? values.get(0) : null;
+    }
+
+    private static byte[] body(HttpResponse response) throws IOException {
+        Object entity = response.getEntity().orElseThrow();
+        if (entity instanceof byte[] bytes) {
+            return bytes;
+        } else if (entity instanceof String text) {
+            return text.getBytes(StandardCharsets.UTF_8);
+        } else if (entity instanceof FileRegion region) {
+            return region.readAllBytes();
+        } else if (entity instanceof BufferBody buffer) {
+            return buffer.readAllBytes();
+        } else if (entity instanceof CompositeBody composite) {
+            return composite.readAllBytes();
+        }
+        throw new AssertionError("Unexpected entity " + entity.getClass());
+    }
+}